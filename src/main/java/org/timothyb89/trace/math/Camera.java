@@ -73,6 +73,21 @@ public class Camera {
 				.add(v.copy().scale(col)); // + cV
 	}
 
+	/**
+	 * Allocation-free form of {@link #lensPoint(double, double)}.
+	 * @return {@code out}
+	 */
+	public Vec3 lensPoint(double row, double col, Vec3 out) {
+		double[] b = baseLoc.data();
+		double[] du = u.data();
+		double[] dv = v.data();
+
+		return out.set(
+				b[0] + du[0] * row + dv[0] * col,
+				b[1] + du[1] * row + dv[1] * col,
+				b[2] + du[2] * row + dv[2] * col);
+	}
+
 	public int[] bounds() {
 		return bounds;
 	}
@@ -3,9 +3,13 @@ package org.timothyb89.trace.math;
 import java.util.List;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.ToString;
 import lombok.experimental.Accessors;
+import org.timothyb89.trace.math.accel.Occluder;
 
 /**
  *
@@ -13,17 +17,25 @@ import lombok.experimental.Accessors;
  */
 @Data
 @Accessors(fluent = true)
-@ToString(of = {"index", "vertices", "surfaceNormal"})
-public class Face {
+@ToString(of = {"index", "vertices"})
+public class Face implements Occluder {
 
 	private final Model parent;
+
+	/**
+	 * The index of the face this was loaded from in the source file. Faces
+	 * produced by splitting a polygon share their source's index.
+	 */
 	private final int index;
 	private final int[] vertices;
-	private final Vector[] edges;
 
-	private Material material;
+	/**
+	 * Polygon edges for {@link #intersects(Vector)}, computed on first use.
+	 */
+	@Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+	private Vector[] edges;
 
-	private final Vector surfaceNormal;
+	private Material material;
 
 	public Face(Model parent, int index, int... vertices) {
 		this.parent = parent;
@@ -31,23 +43,19 @@ public class Face {
 		this.vertices = vertices;
 
 		material = Material.DEFAULT;
-
-		surfaceNormal = calcNormal();
-		edges = calcEdges();
 	}
 
 	public Face(Model parent, int index, List<Integer> vertices) {
-		this.parent = parent;
-		this.index = index;
-		this.vertices = vertices.stream().mapToInt(i -> i).toArray();
-
-		material = Material.DEFAULT;
-
-		surfaceNormal = calcNormal();
-		edges = calcEdges();
+		this(parent, index, vertices.stream().mapToInt(i -> i).toArray());
 	}
 
-	private Vector calcNormal() {
+	/**
+	 * Computes the geometric normal from the first three vertices. Faces
+	 * only hold indices into their model's vertices, so this is recomputed
+	 * on each call; accelerators keep their own copy in their
+	 * {@link org.timothyb89.trace.math.accel.TriangleStore}.
+	 */
+	public Vector surfaceNormal() {
 		// plz don't be colinear, kthx
 		// also we'll need >= 3 vertices
 		Vector a = parent.vertex(vertices[0]).trim(3);
@@ -66,10 +74,97 @@ public class Face {
 				.toArray(Vector[]::new);
 	}
 
+	public Vector[] edges() {
+		// a race here only computes the same edges twice
+		if (edges == null) {
+			edges = calcEdges();
+		}
+
+		return edges;
+	}
+
+	/**
+	 * Copies a triangle of this face's fan {@code (0, k + 1, k + 2)} as its
+	 * first vertex, then the edges from it to the other two vertices.
+	 * @param out receives 9 values at {@code offset}
+	 */
+	public void triangle(int k, double[] out, int offset) {
+		double[] v = parent.vertexData().data();
+		int n = parent.vertexData().cols();
+
+		int a = vertices[0];
+		int b = vertices[k + 1];
+		int c = vertices[k + 2];
+		for (int axis = 0; axis < 3; axis++) {
+			int row = axis * n;
+			out[offset + axis] = v[row + a];
+			out[offset + 3 + axis] = v[row + b] - v[row + a];
+			out[offset + 6 + axis] = v[row + c] - v[row + a];
+		}
+	}
+
+	/**
+	 * Intersects a ray with this face's triangle fan, read straight from
+	 * the model's vertices. Allocates nothing, so it's safe to call in tight
+	 * loops.
+	 *
+	 * @param barycentric if non-null, receives the barycentric coordinates
+	 *     {@code u} and {@code v} of the hit (weights of the fan triangle's
+	 *     second and third vertices) followed by the index {@code k} of the
+	 *     fan triangle {@code (0, k + 1, k + 2)} that was hit
+	 * @return the ray distance {@code t} of the hit, or NaN if the ray misses
+	 *     this face within {@code (tMin, tMax)}
+	 */
+	public double intersect(
+			double ox, double oy, double oz,
+			double dx, double dy, double dz,
+			double tMin, double tMax,
+			double[] barycentric) {
+		double[] v = parent.vertexData().data();
+		int n = parent.vertexData().cols();
+
+		int a = vertices[0];
+		double ax = v[a], ay = v[n + a], az = v[2 * n + a];
+		for (int k = 0; k < vertices.length - 2; k++) {
+			int b = vertices[k + 1];
+			int c = vertices[k + 2];
+
+			double t = Triangle.intersect(
+					ox, oy, oz, dx, dy, dz,
+					ax, ay, az,
+					v[b] - ax, v[n + b] - ay, v[2 * n + b] - az,
+					v[c] - ax, v[n + c] - ay, v[2 * n + c] - az,
+					tMin, tMax, barycentric);
+			if (Double.isNaN(t)) {
+				continue;
+			}
+
+			if (barycentric != null) {
+				barycentric[2] = k;
+			}
+
+			return t;
+		}
+
+		return Double.NaN;
+	}
+
+	public double intersect(
+			Vector origin, Vector direction,
+			double tMin, double tMax) {
+		double[] o = origin.data();
+		double[] d = direction.data();
+
+		return intersect(
+				o[0], o[1], o[2],
+				d[0], d[1], d[2],
+				tMin, tMax, null);
+	}
+
 	public double ixDistance(Vector point, Vector direction) {
 		// N*P = -d, P = any vertex on face
-		//double d = -1 * surfaceNormal.dot(firstVertex3());
-		double d = -1 * surfaceNormal.dot(vertex3(2));
+		Vector surfaceNormal = surfaceNormal();
+		double d = -surfaceNormal.dot(vertex3(2));
 
 		double nL = surfaceNormal.dot(point);
 		double nU = surfaceNormal.dot(direction);
@@ -88,8 +183,8 @@ public class Face {
 
 	public Vector ixPoint(Vector l, Vector unit) {
 		// N*P = -d, P = any vertex on face
-		//double d = -1 * surfaceNormal.dot(firstVertex3());
-		double d = -1 * surfaceNormal.dot(vertex3(2));
+		Vector surfaceNormal = surfaceNormal();
+		double d = -surfaceNormal.dot(vertex3(2));
 
 		double nL = surfaceNormal.dot(l);
 		double nU = surfaceNormal.dot(unit);
@@ -146,6 +241,8 @@ public class Face {
 			return false;
 		}
 
+		Vector[] edges = edges();
+
 		// N = e1 x e2
 		Vector n = edges[0].copy().cross(edges[1]);
 
@@ -175,6 +272,19 @@ public class Face {
 		return intersects(ixPoint(point, direction));
 	}
 
+	@Override
+	public boolean occludes(Vec3 point, Vec3 direction, double maxDistance) {
+		return !Double.isNaN(intersect(
+				point.x, point.y, point.z,
+				direction.x, direction.y, direction.z,
+				Vector.EPSILON, maxDistance, null));
+	}
+
+	@Override
+	public Face face() {
+		return this;
+	}
+
 	public boolean contains(int vertex) {
 		for (int v : vertices) {
 			if (v == vertex) {
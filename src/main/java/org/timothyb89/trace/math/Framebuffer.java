@@ -0,0 +1,265 @@
+package org.timothyb89.trace.math;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * A preallocated RGB radiance buffer that render workers write into
+ * directly. Values are stored in a single primitive array, in either single
+ * or double precision. Each pixel also counts the samples accumulated into
+ * it, and reads return their mean, so further samples can be added to a
+ * finished image to refine it.
+ *
+ * <p>Pixels are laid out tile by tile rather than row by row: each square
+ * tile's pixels are contiguous, so workers tracing different tiles write to
+ * separate regions of memory instead of sharing cache lines along every
+ * row. Tiles at the right and bottom edges are clipped.</p>
+ * @author timothyb
+ */
+@Accessors(fluent = true)
+public class Framebuffer {
+
+	@Getter private final int width;
+	@Getter private final int height;
+	@Getter private final int tileSize;
+	@Getter private final Precision precision;
+
+	/**
+	 * One of these holds 3 values per pixel, depending on the precision.
+	 */
+	private final float[] floats;
+	private final double[] doubles;
+
+	private final int[] samples;
+
+	public Framebuffer(int width, int height, int tileSize, Precision precision) {
+		if (width <= 0 || height <= 0 || tileSize <= 0) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid framebuffer dimensions: %dx%d, %d pixel tiles",
+					width, height, tileSize));
+		}
+
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		this.precision = precision;
+
+		int values = width * height * 3;
+		if (precision == Precision.FLOAT) {
+			floats = new float[values];
+			doubles = null;
+		} else {
+			floats = null;
+			doubles = new double[values];
+		}
+
+		samples = new int[width * height];
+	}
+
+	/**
+	 * @return the index of a pixel's red value; green and blue follow it
+	 */
+	private int index(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IllegalArgumentException(
+					"Value is out of bounds at " + x + ", " + y);
+		}
+
+		int tx = x / tileSize;
+		int ty = y / tileSize;
+
+		// full tile rows above, then full tiles to the left in this tile row
+		int tileTop = ty * tileSize;
+		int tileRows = Math.min(tileSize, height - tileTop);
+		int tileLeft = tx * tileSize;
+		int tileCols = Math.min(tileSize, width - tileLeft);
+
+		int start = tileTop * width + tileLeft * tileRows;
+		int pixel = start + (y - tileTop) * tileCols + (x - tileLeft);
+
+		return pixel * 3;
+	}
+
+	/**
+	 * Replaces a pixel's value with a single sample.
+	 */
+	public Framebuffer set(int x, int y, double r, double g, double b) {
+		int i = index(x, y);
+		samples[i / 3] = 1;
+		if (floats != null) {
+			floats[i] = (float) r;
+			floats[i + 1] = (float) g;
+			floats[i + 2] = (float) b;
+		} else {
+			doubles[i] = r;
+			doubles[i + 1] = g;
+			doubles[i + 2] = b;
+		}
+
+		return this;
+	}
+
+	public Framebuffer set(int x, int y, Vec3 color) {
+		return set(x, y, color.x, color.y, color.z);
+	}
+
+	/**
+	 * Accumulates another sample into a pixel.
+	 */
+	public Framebuffer add(int x, int y, double r, double g, double b) {
+		int i = index(x, y);
+		samples[i / 3]++;
+		if (floats != null) {
+			floats[i] += (float) r;
+			floats[i + 1] += (float) g;
+			floats[i + 2] += (float) b;
+		} else {
+			doubles[i] += r;
+			doubles[i + 1] += g;
+			doubles[i + 2] += b;
+		}
+
+		return this;
+	}
+
+	public Framebuffer add(int x, int y, Vec3 color) {
+		return add(x, y, color.x, color.y, color.z);
+	}
+
+	/**
+	 * @return the number of samples accumulated into a pixel
+	 */
+	public int samples(int x, int y) {
+		return samples[index(x, y) / 3];
+	}
+
+	/**
+	 * @return the fewest samples accumulated into any pixel of a rectangle,
+	 *     e.g. to tell whether a tile has finished a pass
+	 */
+	public int minSamples(int x, int y, int w, int h) {
+		int min = Integer.MAX_VALUE;
+		for (int py = y; py < y + h; py++) {
+			for (int px = x; px < x + w; px++) {
+				min = Math.min(min, samples[index(px, py) / 3]);
+			}
+		}
+
+		return min;
+	}
+
+	/**
+	 * @param channel 0, 1 or 2 for red, green or blue
+	 * @return the mean of the pixel's samples, or 0 if it has none
+	 */
+	public double get(int x, int y, int channel) {
+		return value(index(x, y) + channel);
+	}
+
+	private double value(int i) {
+		int count = samples[i / 3];
+		if (count == 0) {
+			return 0;
+		}
+
+		double sum = floats != null ? floats[i] : doubles[i];
+		return count == 1 ? sum : sum / count;
+	}
+
+	public double red(int x, int y) {
+		return get(x, y, 0);
+	}
+
+	public double green(int x, int y) {
+		return get(x, y, 1);
+	}
+
+	public double blue(int x, int y) {
+		return get(x, y, 2);
+	}
+
+	/**
+	 * @return the smallest and largest values of any channel, as
+	 *     {@code [min, max]}
+	 */
+	public double[] range() {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+
+		int values = width * height * 3;
+		for (int i = 0; i < values; i++) {
+			double v = value(i);
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+		}
+
+		return new double[] { min, max };
+	}
+
+	/**
+	 * @return the size of the buffer's storage, in bytes
+	 */
+	public long sizeBytes() {
+		return (long) width * height
+				* (3 * (floats != null ? Float.BYTES : Double.BYTES) + Integer.BYTES);
+	}
+
+	/**
+	 * Writes the buffer's dimensions, raw sums and sample counts. The
+	 * buffer shouldn't be written to meanwhile.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(tileSize);
+		out.writeByte(precision.ordinal());
+
+		int values = width * height * 3;
+		for (int i = 0; i < values; i++) {
+			if (floats != null) {
+				out.writeFloat(floats[i]);
+			} else {
+				out.writeDouble(doubles[i]);
+			}
+		}
+
+		for (int count : samples) {
+			out.writeInt(count);
+		}
+	}
+
+	/**
+	 * Reads a buffer written by {@link #write}.
+	 */
+	public static Framebuffer read(DataInput in) throws IOException {
+		int width = in.readInt();
+		int height = in.readInt();
+		int tileSize = in.readInt();
+		int precision = in.readByte();
+		if (precision < 0 || precision >= Precision.values().length) {
+			throw new IOException("Invalid framebuffer precision: " + precision);
+		}
+
+		Framebuffer fb = new Framebuffer(
+				width, height, tileSize, Precision.values()[precision]);
+
+		int values = width * height * 3;
+		for (int i = 0; i < values; i++) {
+			if (fb.floats != null) {
+				fb.floats[i] = in.readFloat();
+			} else {
+				fb.doubles[i] = in.readDouble();
+			}
+		}
+
+		for (int i = 0; i < fb.samples.length; i++) {
+			fb.samples[i] = in.readInt();
+		}
+
+		return fb;
+	}
+
+}
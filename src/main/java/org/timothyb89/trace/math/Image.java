@@ -4,55 +4,49 @@ import lombok.Getter;
 import lombok.experimental.Accessors;
 
 /**
- *
+ * An 8-bit view over a {@link Framebuffer}. Intensities are scaled to 0-255
+ * between the smallest and largest values in the buffer when the view is
+ * created; pixels are converted as they're read rather than copied.
  * @author timothyb
  */
 @Accessors(fluent = true)
 public class Image {
-	
+
+	@Getter private final Framebuffer framebuffer;
+
 	@Getter private final int width;
 	@Getter private final int height;
-	
 	@Getter private final int size;
-	@Getter private final int[] red;
-	@Getter private final int[] green;
-	@Getter private final int[] blue;
-
-	public Image(int width, int height) {
-		this.width = width;
-		this.height = height;
-		
+
+	private final double min;
+	private final double range;
+
+	public Image(Framebuffer framebuffer) {
+		this.framebuffer = framebuffer;
+
+		width = framebuffer.width();
+		height = framebuffer.height();
 		size = width * height;
-		
-		red = new int[size];
-		green = new int[size];
-		blue = new int[size];
+
+		double[] minMax = framebuffer.range();
+		min = minMax[0];
+		range = minMax[1] - minMax[0];
 	}
-	
-	public Image set(int x, int y, int r, int g, int b) {
-		if (x < 0 || x >= width || y < 0 || y >= height) {
-			throw new IllegalArgumentException(
-					"Value is out of bounds at " + x + ", " + y);
-		}
-
-		int pos = (y * width) + x;
-		red[pos] = r;
-		green[pos] = g;
-		blue[pos] = b;
-
-		return this;
+
+	private int scale(double val) {
+		return (int) (255.0 * ((val - min) / range));
 	}
 
 	public int red(int x, int y) {
-		return red[(y * width) + x];
+		return scale(framebuffer.red(x, y));
 	}
 
 	public int green(int x, int y) {
-		return green[(y * width) + x];
+		return scale(framebuffer.green(x, y));
 	}
 
 	public int blue(int x, int y) {
-		return blue[(y * width) + x];
+		return scale(framebuffer.blue(x, y));
 	}
-	
+
 }
@@ -0,0 +1,164 @@
+package org.timothyb89.trace.math;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * A placement of a {@link Model} in the scene. Instances share their model's
+ * vertices and faces; rays are moved into object space instead.
+ * @author timothyb
+ */
+@Data
+@Accessors(fluent = true)
+public class Instance {
+
+	private final Model model;
+
+	/**
+	 * Object to world transform.
+	 */
+	private final Matrix transform;
+
+	/**
+	 * World to object transform, the inverse of {@link #transform}.
+	 */
+	private final Matrix inverse;
+
+	private static Vector apply(Matrix m, Vector v, double w) {
+		double[] a = m.data();
+		double[] p = v.data();
+
+		return Vector.of(
+				a[0] * p[0] + a[1] * p[1] + a[2] * p[2] + a[3] * w,
+				a[4] * p[0] + a[5] * p[1] + a[6] * p[2] + a[7] * w,
+				a[8] * p[0] + a[9] * p[1] + a[10] * p[2] + a[11] * w);
+	}
+
+	public Vector toObjectPoint(Vector point) {
+		return apply(inverse, point, 1);
+	}
+
+	public Vector toObjectDirection(Vector direction) {
+		return apply(inverse, direction, 0);
+	}
+
+	public Vector toWorldPoint(Vector point) {
+		return apply(transform, point, 1);
+	}
+
+	/**
+	 * Transforms an object space normal into world space using the inverse
+	 * transpose, which keeps normals perpendicular under non-uniform scaling.
+	 */
+	public Vector toWorldNormal(Vector normal) {
+		double[] a = inverse.data();
+		double[] n = normal.data();
+
+		return Vector.of(
+				a[0] * n[0] + a[4] * n[1] + a[8] * n[2],
+				a[1] * n[0] + a[5] * n[1] + a[9] * n[2],
+				a[2] * n[0] + a[6] * n[1] + a[10] * n[2]).normalize();
+	}
+
+	private static Vec3 apply(Matrix m, Vec3 v, double w, Vec3 out) {
+		double[] a = m.data();
+
+		return out.set(
+				a[0] * v.x + a[1] * v.y + a[2] * v.z + a[3] * w,
+				a[4] * v.x + a[5] * v.y + a[6] * v.z + a[7] * w,
+				a[8] * v.x + a[9] * v.y + a[10] * v.z + a[11] * w);
+	}
+
+	public Vec3 toObjectPoint(Vec3 point, Vec3 out) {
+		return apply(inverse, point, 1, out);
+	}
+
+	public Vec3 toObjectDirection(Vec3 direction, Vec3 out) {
+		return apply(inverse, direction, 0, out);
+	}
+
+	/**
+	 * Allocation-free form of {@link #toWorldNormal(Vector)}.
+	 */
+	public Vec3 toWorldNormal(Vec3 normal, Vec3 out) {
+		double[] a = inverse.data();
+
+		return out.set(
+				a[0] * normal.x + a[4] * normal.y + a[8] * normal.z,
+				a[1] * normal.x + a[5] * normal.y + a[9] * normal.z,
+				a[2] * normal.x + a[6] * normal.y + a[10] * normal.z).normalize();
+	}
+
+	/**
+	 * Determines the world space bounds of this instance.
+	 * @return a 3x2 matrix of min and max bounds, as in
+	 *     {@link Model#boundingBox()}
+	 */
+	public Matrix boundingBox() {
+		Matrix local = model.boundingBox();
+
+		double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+		// transform all 8 corners of the object space box
+		for (int corner = 0; corner < 8; corner++) {
+			Vector p = toWorldPoint(Vector.of(
+					local.val(0, corner & 1),
+					local.val(1, (corner >> 1) & 1),
+					local.val(2, (corner >> 2) & 1)));
+
+			for (int axis = 0; axis < 3; axis++) {
+				min[axis] = Math.min(min[axis], p.val(axis));
+				max[axis] = Math.max(max[axis], p.val(axis));
+			}
+		}
+
+		return Matrix.build(3, 2)
+				.row(min[0], max[0])
+				.row(min[1], max[1])
+				.row(min[2], max[2]).get();
+	}
+
+	/**
+	 * Places a model with a 4x4 object to world transform. Only affine
+	 * transforms are supported, so the bottom row must be [0 0 0 1].
+	 * @throws IllegalArgumentException if the transform isn't 4x4, isn't
+	 *     affine or is singular
+	 */
+	public static Instance of(Model model, Matrix transform) {
+		if (transform.rows() != 4 || transform.cols() != 4) {
+			throw new IllegalArgumentException(String.format(
+					"Instance transforms must be 4x4, got %dx%d",
+					transform.rows(), transform.cols()));
+		}
+
+		if (transform.val(3, 0) != 0 || transform.val(3, 1) != 0
+				|| transform.val(3, 2) != 0 || transform.val(3, 3) != 1) {
+			throw new IllegalArgumentException(String.format(
+					"Instance transforms must be affine, got bottom row [%s %s %s %s]",
+					transform.val(3, 0), transform.val(3, 1),
+					transform.val(3, 2), transform.val(3, 3)));
+		}
+
+		return new Instance(model, transform, transform.inverse());
+	}
+
+	/**
+	 * Places a model with a uniform scale, then a rotation about the z axis,
+	 * then a translation.
+	 */
+	public static Instance of(
+			Model model,
+			double x, double y, double z,
+			double scale, double radians) {
+		Mat4 transform = Mat4.scale(scale, scale, scale)
+				.multiply(Mat4.rotateZ(radians))
+				.multiply(Mat4.translate(x, y, z));
+
+		return new Instance(
+				model,
+				transform.toMatrix(),
+				transform.inverse().toMatrix());
+	}
+
+}
@@ -0,0 +1,230 @@
+package org.timothyb89.trace.math;
+
+/**
+ * An LU decomposition of a square matrix with partial pivoting, such that
+ * {@code P * A = L * U}. Computing it takes O(n^3) time, after which the
+ * determinant is O(n) and each solve O(n^2), in place of the O(n!) cofactor
+ * expansion.
+ *
+ * <p>{@code L} (with an implied unit diagonal) and {@code U} are packed
+ * together into a single row-major array.</p>
+ * @author timothyb
+ */
+public class LU {
+
+	private final int size;
+	private final double[] lu;
+
+	/**
+	 * The original row of each row of {@code lu}.
+	 */
+	private final int[] pivot;
+
+	/**
+	 * The sign of the row permutation, for the determinant.
+	 */
+	private final int sign;
+
+	/**
+	 * True if a pivot was exactly zero, so the determinant is zero.
+	 */
+	private final boolean zero;
+
+	/**
+	 * True if a pivot was zero to within round-off, relative to the scale
+	 * of its row, so solving against the matrix is meaningless.
+	 */
+	private final boolean singular;
+
+	private LU(Matrix matrix) {
+		if (matrix.rows() != matrix.cols()) {
+			throw new IllegalArgumentException(
+					"Cannot decompose non-square matrix!");
+		}
+
+		int n = matrix.rows();
+		double[] a = matrix.data().clone();
+		int[] p = new int[n];
+		for (int i = 0; i < n; i++) {
+			p[i] = i;
+		}
+
+		// each row's largest entry, so a badly scaled but well conditioned
+		// matrix isn't mistaken for a singular one
+		double[] scale = new double[n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				scale[i] = Math.max(scale[i], Math.abs(a[i * n + j]));
+			}
+		}
+
+		int s = 1;
+		boolean zeroPivot = false;
+		boolean smallPivot = false;
+		for (int k = 0; k < n; k++) {
+			// swap the largest remaining entry in this column onto the diagonal
+			int best = k;
+			for (int i = k + 1; i < n; i++) {
+				if (Math.abs(a[i * n + k]) > Math.abs(a[best * n + k])) {
+					best = i;
+				}
+			}
+
+			if (best != k) {
+				for (int j = 0; j < n; j++) {
+					double tmp = a[k * n + j];
+					a[k * n + j] = a[best * n + j];
+					a[best * n + j] = tmp;
+				}
+
+				int tmp = p[k];
+				p[k] = p[best];
+				p[best] = tmp;
+				s = -s;
+			}
+
+			double diagonal = a[k * n + k];
+			if (diagonal == 0) {
+				zeroPivot = true;
+				smallPivot = true;
+				continue;
+			}
+
+			// pivots this small relative to their row are round-off from a
+			// singular matrix
+			if (Math.abs(diagonal) <= scale[p[k]] * n * Math.ulp(1.0)) {
+				smallPivot = true;
+			}
+
+			for (int i = k + 1; i < n; i++) {
+				double factor = a[i * n + k] / diagonal;
+				a[i * n + k] = factor;
+				if (factor == 0) {
+					continue;
+				}
+
+				for (int j = k + 1; j < n; j++) {
+					a[i * n + j] -= factor * a[k * n + j];
+				}
+			}
+		}
+
+		this.size = n;
+		this.lu = a;
+		this.pivot = p;
+		this.sign = s;
+		this.zero = zeroPivot;
+		this.singular = smallPivot;
+	}
+
+	/**
+	 * @return true if the matrix is singular, to within round-off relative
+	 *     to the scale of each row
+	 */
+	public boolean isSingular() {
+		return singular;
+	}
+
+	/**
+	 * @return the determinant, which is only exactly zero if a pivot was
+	 */
+	public double det() {
+		if (zero) {
+			return 0;
+		}
+
+		double det = sign;
+		for (int i = 0; i < size; i++) {
+			det *= lu[i * size + i];
+		}
+
+		return det;
+	}
+
+	/**
+	 * Solves {@code [A] * [x] = [b]} for {@code x}, one column of {@code b}
+	 * at a time. In terms of {@link Matrix#multiply}, the result satisfies
+	 * {@code x.multiply(A) = b}.
+	 *
+	 * @param b the right hand side, with one row per row of {@code A}
+	 * @return a new matrix of the same size as {@code b}
+	 * @throws IllegalArgumentException if the matrix is singular or
+	 *     {@code b} has the wrong number of rows
+	 */
+	public Matrix solve(Matrix b) {
+		if (b.rows() != size) {
+			throw new IllegalArgumentException("Dimension mismatch");
+		}
+
+		if (singular) {
+			throw new IllegalArgumentException("Matrix is singular");
+		}
+
+		int n = size;
+		int cols = b.cols();
+		double[] in = b.data();
+		double[] x = new double[n * cols];
+
+		// apply the row permutation
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(in, pivot[i] * cols, x, i * cols, cols);
+		}
+
+		// forward substitution with L
+		for (int k = 0; k < n; k++) {
+			for (int i = k + 1; i < n; i++) {
+				double factor = lu[i * n + k];
+				if (factor == 0) {
+					continue;
+				}
+
+				for (int j = 0; j < cols; j++) {
+					x[i * cols + j] -= factor * x[k * cols + j];
+				}
+			}
+		}
+
+		// back substitution with U
+		for (int k = n - 1; k >= 0; k--) {
+			double diagonal = lu[k * n + k];
+			for (int j = 0; j < cols; j++) {
+				x[k * cols + j] /= diagonal;
+			}
+
+			for (int i = 0; i < k; i++) {
+				double factor = lu[i * n + k];
+				if (factor == 0) {
+					continue;
+				}
+
+				for (int j = 0; j < cols; j++) {
+					x[i * cols + j] -= factor * x[k * cols + j];
+				}
+			}
+		}
+
+		return new Matrix(n, cols, x);
+	}
+
+	/**
+	 * @return the inverse of the decomposed matrix
+	 * @throws IllegalArgumentException if the matrix is singular
+	 */
+	public Matrix inverse() {
+		if (singular) {
+			throw new IllegalArgumentException(
+					"Unable to invert singular matrix");
+		}
+
+		return solve(Matrix.identity(size));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public static LU of(Matrix matrix) {
+		return new LU(matrix);
+	}
+
+}
@@ -0,0 +1,334 @@
+package org.timothyb89.trace.math;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable 4x4 affine transform. Only the top 3 rows are stored since the
+ * bottom row is always {@code [0 0 0 1]}, which lets composition and inversion
+ * be done in closed form rather than through the general {@link Matrix}
+ * routines.
+ *
+ * <p>Bulk transforms work in place on the primitive arrays behind a
+ * {@link Matrix}, splitting large arrays into chunks transformed in
+ * parallel.</p>
+ * @author timothyb
+ */
+public final class Mat4 {
+
+	/**
+	 * Columns per parallel chunk in the bulk transforms; smaller inputs are
+	 * transformed on the calling thread.
+	 */
+	public static final int CHUNK_SIZE = 1 << 14;
+
+	private static final Mat4 IDENTITY = new Mat4(new double[] {
+		1, 0, 0, 0,
+		0, 1, 0, 0,
+		0, 0, 1, 0
+	});
+
+	/**
+	 * The top 3 rows, row-major.
+	 */
+	private final double[] m;
+
+	private Mat4(double[] m) {
+		this.m = m;
+	}
+
+	/**
+	 * @return the value at the given row and column, including the implicit
+	 *     bottom row
+	 */
+	public double val(int row, int col) {
+		if (row == 3) {
+			return col == 3 ? 1 : 0;
+		}
+
+		return m[row * 4 + col];
+	}
+
+	/**
+	 * Composes two transforms such that {@code ret = [other] * [this]}, i.e.
+	 * this transform is applied first, as with {@link Matrix#multiply}.
+	 *
+	 * @param other the transform to apply after this one
+	 * @return the composed transform
+	 */
+	public Mat4 multiply(Mat4 other) {
+		double[] a = other.m;
+		double[] b = m;
+		double[] r = new double[12];
+
+		for (int row = 0; row < 3; row++) {
+			int i = row * 4;
+			for (int col = 0; col < 4; col++) {
+				r[i + col] = a[i] * b[col]
+						+ a[i + 1] * b[4 + col]
+						+ a[i + 2] * b[8 + col];
+			}
+
+			r[i + 3] += a[i + 3];
+		}
+
+		return new Mat4(r);
+	}
+
+	/**
+	 * @return the determinant of the linear (upper 3x3) part
+	 */
+	public double determinant() {
+		return m[0] * (m[5] * m[10] - m[6] * m[9])
+				- m[1] * (m[4] * m[10] - m[6] * m[8])
+				+ m[2] * (m[4] * m[9] - m[5] * m[8]);
+	}
+
+	/**
+	 * Inverts this transform from the adjugate of its linear part, with the
+	 * translation undone as {@code -A^-1 * t}.
+	 *
+	 * @return the inverse transform
+	 * @throws IllegalArgumentException if this transform is singular
+	 */
+	public Mat4 inverse() {
+		double det = determinant();
+		if (det == 0 || Double.isNaN(det)) {
+			throw new IllegalArgumentException(
+					"Unable to invert singular transform");
+		}
+
+		double s = 1 / det;
+		double[] r = new double[12];
+		r[0] = (m[5] * m[10] - m[6] * m[9]) * s;
+		r[1] = (m[2] * m[9] - m[1] * m[10]) * s;
+		r[2] = (m[1] * m[6] - m[2] * m[5]) * s;
+		r[4] = (m[6] * m[8] - m[4] * m[10]) * s;
+		r[5] = (m[0] * m[10] - m[2] * m[8]) * s;
+		r[6] = (m[2] * m[4] - m[0] * m[6]) * s;
+		r[8] = (m[4] * m[9] - m[5] * m[8]) * s;
+		r[9] = (m[1] * m[8] - m[0] * m[9]) * s;
+		r[10] = (m[0] * m[5] - m[1] * m[4]) * s;
+
+		for (int row = 0; row < 3; row++) {
+			int i = row * 4;
+			r[i + 3] = -(r[i] * m[3] + r[i + 1] * m[7] + r[i + 2] * m[11]);
+		}
+
+		return new Mat4(r);
+	}
+
+	/**
+	 * Transforms a single point in place.
+	 * @return {@code point}
+	 */
+	public Vec3 transformPoint(Vec3 point) {
+		return point.set(
+				m[0] * point.x + m[1] * point.y + m[2] * point.z + m[3],
+				m[4] * point.x + m[5] * point.y + m[6] * point.z + m[7],
+				m[8] * point.x + m[9] * point.y + m[10] * point.z + m[11]);
+	}
+
+	/**
+	 * Transforms a single direction in place, ignoring translation.
+	 * @return {@code direction}
+	 */
+	public Vec3 transformDirection(Vec3 direction) {
+		return direction.set(
+				m[0] * direction.x + m[1] * direction.y + m[2] * direction.z,
+				m[4] * direction.x + m[5] * direction.y + m[6] * direction.z,
+				m[8] * direction.x + m[9] * direction.y + m[10] * direction.z);
+	}
+
+	/**
+	 * Transforms homogeneous points in place. {@code data} holds a 4xN
+	 * row-major matrix as in {@link Model#vertexData()}: N x values, then N
+	 * y values, N z values and N w values. The w row is left unchanged.
+	 *
+	 * @param data the points to transform
+	 * @param count the number of points, N
+	 */
+	public void transformPoints(double[] data, int count) {
+		checkLength(data, 4, count);
+
+		double[] a = m;
+		forChunks(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				double x = data[i];
+				double y = data[count + i];
+				double z = data[2 * count + i];
+				double w = data[3 * count + i];
+
+				data[i] = a[0] * x + a[1] * y + a[2] * z + a[3] * w;
+				data[count + i] = a[4] * x + a[5] * y + a[6] * z + a[7] * w;
+				data[2 * count + i] = a[8] * x + a[9] * y + a[10] * z + a[11] * w;
+			}
+		});
+	}
+
+	/**
+	 * Transforms unit normals in place by the inverse transpose, renormalizing
+	 * them afterward. {@code data} holds a 3xN row-major matrix: N x values,
+	 * then N y values and N z values.
+	 *
+	 * @param data the normals to transform
+	 * @param count the number of normals, N
+	 * @throws IllegalArgumentException if this transform is singular
+	 */
+	public void transformNormals(double[] data, int count) {
+		checkLength(data, 3, count);
+
+		double[] a = inverse().m;
+		forChunks(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				double x = data[i];
+				double y = data[count + i];
+				double z = data[2 * count + i];
+
+				double nx = a[0] * x + a[4] * y + a[8] * z;
+				double ny = a[1] * x + a[5] * y + a[9] * z;
+				double nz = a[2] * x + a[6] * y + a[10] * z;
+
+				double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+				if (length != 0) {
+					nx /= length;
+					ny /= length;
+					nz /= length;
+				}
+
+				data[i] = nx;
+				data[count + i] = ny;
+				data[2 * count + i] = nz;
+			}
+		});
+	}
+
+	private static void checkLength(double[] data, int rows, int count) {
+		if (data.length != rows * count) {
+			throw new IllegalArgumentException(String.format(
+					"Expected %d values for %d columns, got %d",
+					rows * count, count, data.length));
+		}
+	}
+
+	private interface Range {
+
+		void apply(int from, int to);
+
+	}
+
+	private static void forChunks(int count, Range range) {
+		if (count <= CHUNK_SIZE) {
+			range.apply(0, count);
+			return;
+		}
+
+		int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, chunks).parallel().forEach(c -> range.apply(
+				c * CHUNK_SIZE,
+				Math.min(count, (c + 1) * CHUNK_SIZE)));
+	}
+
+	/**
+	 * @return this transform as a general 4x4 matrix
+	 */
+	public Matrix toMatrix() {
+		double[] data = Arrays.copyOf(m, 16);
+		data[15] = 1;
+
+		return new Matrix(4, 4, data);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Mat4 && Arrays.equals(m, ((Mat4) o).m);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(m);
+	}
+
+	@Override
+	public String toString() {
+		return "Mat4" + Arrays.toString(m);
+	}
+
+	/**
+	 * Converts a general 4x4 matrix.
+	 * @throws IllegalArgumentException if the matrix isn't 4x4 with a bottom
+	 *     row of {@code [0 0 0 1]}
+	 */
+	public static Mat4 of(Matrix matrix) {
+		double[] d = matrix.data();
+		if (matrix.rows() != 4 || matrix.cols() != 4
+				|| d[12] != 0 || d[13] != 0 || d[14] != 0 || d[15] != 1) {
+			throw new IllegalArgumentException(
+					"Not an affine 4x4 transform: " + matrix);
+		}
+
+		return new Mat4(Arrays.copyOf(d, 12));
+	}
+
+	/**
+	 * @return whether a general matrix can be converted with {@link #of}
+	 */
+	public static boolean isAffine(Matrix matrix) {
+		double[] d = matrix.data();
+
+		return matrix.rows() == 4 && matrix.cols() == 4
+				&& d[12] == 0 && d[13] == 0 && d[14] == 0 && d[15] == 1;
+	}
+
+	public static Mat4 identity() {
+		return IDENTITY;
+	}
+
+	public static Mat4 translate(double x, double y, double z) {
+		return new Mat4(new double[] {
+			1, 0, 0, x,
+			0, 1, 0, y,
+			0, 0, 1, z
+		});
+	}
+
+	public static Mat4 scale(double x, double y, double z) {
+		return new Mat4(new double[] {
+			x, 0, 0, 0,
+			0, y, 0, 0,
+			0, 0, z, 0
+		});
+	}
+
+	public static Mat4 rotateZ(double radians) {
+		double sin = Math.sin(radians);
+		double cos = Math.cos(radians);
+
+		return new Mat4(new double[] {
+			cos, -sin, 0, 0,
+			sin,  cos, 0, 0,
+			0,    0,   1, 0
+		});
+	}
+
+	/**
+	 * Rotates counterclockwise about an arbitrary axis through the origin,
+	 * using Rodrigues' formula. Equivalent to
+	 * {@link Transform#axisRotate(Vector, double)}.
+	 */
+	public static Mat4 axisRotate(Vector axis, double radians) {
+		Vector w = axis.copy().normalize();
+		double x = w.val(0), y = w.val(1), z = w.val(2);
+
+		double sin = Math.sin(radians);
+		double cos = Math.cos(radians);
+		double t = 1 - cos;
+
+		return new Mat4(new double[] {
+			t * x * x + cos,     t * x * y - sin * z, t * x * z + sin * y, 0,
+			t * x * y + sin * z, t * y * y + cos,     t * y * z - sin * x, 0,
+			t * x * z - sin * y, t * y * z + sin * x, t * z * z + cos,     0
+		});
+	}
+
+}
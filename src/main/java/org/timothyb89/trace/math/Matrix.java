@@ -332,7 +332,8 @@ public class Matrix {
 	}
 
 	/**
-	 * Calculates the determinant of this matrix.
+	 * Calculates the determinant of this matrix. Sizes above 2 go through an
+	 * {@link LU} decomposition.
 	 *
 	 * @return the calculated determinant
 	 */
@@ -348,21 +349,47 @@ public class Matrix {
 		} else if (size == 2) {
 			return (data[0] * data[3]) - (data[1] * data[2]);
 		} else {
-			double det = 0;
-
-			// move along first row.
-			for (int i = 0; i < size; i++) {
-				if (i % 2 == 0) {
-					det += data[i] * minor(0, i).det();
-				} else {
-					det -= data[i] * minor(0, i).det();
-				}
-			}
-
-			return det;
+			return lu().det();
 		}
 	}
 
+	/**
+	 * Decomposes this square matrix, for repeated solves against it.
+	 * @return the LU decomposition of this matrix
+	 */
+	public LU lu() {
+		return LU.of(this);
+	}
+
+	/**
+	 * Inverts this square matrix.
+	 * @return the inverse in a new matrix
+	 * @throws IllegalArgumentException if this matrix is singular
+	 */
+	public Matrix inverse() {
+		return lu().inverse();
+	}
+
+	/**
+	 * Solves {@code [this] * [x] = [b]} for {@code x}, such that
+	 * {@code x.multiply(this)} equals {@code b}.
+	 *
+	 * @param b the right hand side, with one column per system to solve
+	 * @return the solution in a new matrix
+	 * @throws IllegalArgumentException if this matrix is singular
+	 */
+	public Matrix solve(Matrix b) {
+		return lu().solve(b);
+	}
+
+	/**
+	 * Solves {@code [this] * x = b} for a single vector.
+	 * @return the solution as a new vector
+	 */
+	public Vector solve(Vector b) {
+		return Vector.of(lu().solve(b).data());
+	}
+
 	/**
 	 * Transposes this matrix, returning a new matrix with rows and columns
 	 * swapped.
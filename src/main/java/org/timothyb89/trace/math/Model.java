@@ -1,5 +1,6 @@
 package org.timothyb89.trace.math;
 
+import java.util.Collections;
 import java.util.List;
 import lombok.Getter;
 import lombok.Setter;
@@ -14,6 +15,13 @@ public class Model {
 	@Getter @Setter private Matrix vertexData;
 	@Getter @Setter private List<Face> faces;
 
+	/**
+	 * If faces were split or dropped while loading, the position in
+	 * {@link #faces} of the first face generated from each source face, plus
+	 * a final entry for the total. Null if faces match the source 1:1.
+	 */
+	@Getter @Setter private int[] sourceOffsets;
+
 	public Model() {
 	}
 	
@@ -30,6 +38,34 @@ public class Model {
 		return faces.size();
 	}
 
+	/**
+	 * @return the number of faces in the file this model was loaded from
+	 */
+	public int countSourceFaces() {
+		return sourceOffsets == null ? faces.size() : sourceOffsets.length - 1;
+	}
+
+	/**
+	 * Finds all faces generated from a range of source faces, e.g. for
+	 * material assignments written against the original file.
+	 * @param first the first source face index
+	 * @param last the last source face index, inclusive; clamped to the
+	 *     number of source faces
+	 * @return the matching faces, possibly empty
+	 */
+	public List<Face> sourceFaces(int first, int last) {
+		last = Math.min(last, countSourceFaces() - 1);
+		if (first < 0 || first > last) {
+			return Collections.emptyList();
+		}
+
+		if (sourceOffsets == null) {
+			return faces.subList(first, last + 1);
+		}
+
+		return faces.subList(sourceOffsets[first], sourceOffsets[last + 1]);
+	}
+
 	public Vector centerMass() {
 		double sumX = 0;
 		double sumY = 0;
@@ -92,10 +128,26 @@ public class Model {
 				.row(minZ, maxZ).get();
 	}
 	
+	/**
+	 * Transforms this model's vertices. Affine transforms are applied in
+	 * place via {@link #transform(Mat4)}.
+	 */
 	public Model transform(Matrix matrix) {
+		if (Mat4.isAffine(matrix)) {
+			return transform(Mat4.of(matrix));
+		}
+
 		vertexData = vertexData.multiply(matrix);
 		return this;
 	}
+
+	/**
+	 * Transforms this model's vertices in place.
+	 */
+	public Model transform(Mat4 transform) {
+		transform.transformPoints(vertexData.data(), vertexData.cols());
+		return this;
+	}
 	
 	public Vector vertex(int index) {
 		return vertexData.vectorCol(index);
@@ -1,10 +1,14 @@
 package org.timothyb89.trace.math;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Stream;
 import lombok.Data;
 import lombok.experimental.Accessors;
+import org.timothyb89.trace.math.accel.Accelerator;
 
 /**
  *
@@ -20,11 +24,30 @@ public class Scene {
 	private PointLight ambientLight;
 	private List<PointLight> lights;
 
+	/**
+	 * Explicit placements of models. Models with at least one instance are
+	 * only rendered through their instances.
+	 */
+	private List<Instance> instances;
+
+	/**
+	 * The acceleration structure used for ray queries, built once all models
+	 * and materials have been loaded.
+	 */
+	private Accelerator accelerator;
+
+	/**
+	 * The precision the accelerator stores geometry in, which also decides
+	 * how far secondary rays start from the surfaces they leave.
+	 */
+	private Precision precision = Precision.DOUBLE;
+
 	public Scene(Camera camera, List<Model> models) {
 		this.camera = camera;
 		this.models = models;
 
 		lights = new ArrayList<>();
+		instances = new ArrayList<>();
 	}
 
 	public Scene addLight(PointLight light) {
@@ -33,6 +56,31 @@ public class Scene {
 		return this;
 	}
 
+	public Scene addInstance(Instance instance) {
+		instances.add(instance);
+
+		return this;
+	}
+
+	/**
+	 * Lists every placement of every model: the explicit instances, plus an
+	 * identity instance for each model that has none.
+	 * @return all model placements in the scene
+	 */
+	public List<Instance> placements() {
+		Set<Model> instanced = Collections.newSetFromMap(new IdentityHashMap<>());
+		instances.forEach(i -> instanced.add(i.model()));
+
+		List<Instance> ret = new ArrayList<>(instances);
+		for (Model model : models) {
+			if (!instanced.contains(model)) {
+				ret.add(new Instance(model, Transform.identity(), Transform.identity()));
+			}
+		}
+
+		return ret;
+	}
+
 	public Model model(int index) {
 		return models.get(index);
 	}
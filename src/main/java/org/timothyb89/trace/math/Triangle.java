@@ -0,0 +1,70 @@
+package org.timothyb89.trace.math;
+
+/**
+ * The Moller-Trumbore ray/triangle test, shared by {@link Face} and the
+ * packed triangle storage used by acceleration structures. Triangles are
+ * given as a first vertex {@code a} and the edges {@code e1 = b - a} and
+ * {@code e2 = c - a}.
+ * @author timothyb
+ */
+public class Triangle {
+
+	private Triangle() {
+	}
+
+	/**
+	 * Intersects a ray with a single triangle. Allocates nothing.
+	 *
+	 * @param barycentric if non-null, receives the barycentric coordinates
+	 *     {@code u} and {@code v} of the hit (the weights of {@code b} and
+	 *     {@code c})
+	 * @return the ray distance {@code t} of the hit, or NaN if the ray
+	 *     misses the triangle within {@code (tMin, tMax)}
+	 */
+	public static double intersect(
+			double ox, double oy, double oz,
+			double dx, double dy, double dz,
+			double ax, double ay, double az,
+			double e1x, double e1y, double e1z,
+			double e2x, double e2y, double e2z,
+			double tMin, double tMax,
+			double[] barycentric) {
+		// p = d x e2
+		double px = dy * e2z - dz * e2y;
+		double py = dz * e2x - dx * e2z;
+		double pz = dx * e2y - dy * e2x;
+
+		// a ray parallel to the triangle gives an infinite inverse, and the
+		// NaN-safe comparisons below reject it
+		double inv = 1 / (e1x * px + e1y * py + e1z * pz);
+
+		double sx = ox - ax, sy = oy - ay, sz = oz - az;
+		double u = (sx * px + sy * py + sz * pz) * inv;
+		if (!(u >= 0 && u <= 1)) {
+			return Double.NaN;
+		}
+
+		// q = s x e1
+		double qx = sy * e1z - sz * e1y;
+		double qy = sz * e1x - sx * e1z;
+		double qz = sx * e1y - sy * e1x;
+
+		double v = (dx * qx + dy * qy + dz * qz) * inv;
+		if (!(v >= 0 && u + v <= 1)) {
+			return Double.NaN;
+		}
+
+		double t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+		if (!(t > tMin && t < tMax)) {
+			return Double.NaN;
+		}
+
+		if (barycentric != null) {
+			barycentric[0] = u;
+			barycentric[1] = v;
+		}
+
+		return t;
+	}
+
+}
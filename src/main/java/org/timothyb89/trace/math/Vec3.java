@@ -0,0 +1,169 @@
+package org.timothyb89.trace.math;
+
+/**
+ * A mutable, fixed-size 3-component vector for hot loops.
+ *
+ * <p>Unlike {@link Vector}, every operation works in place on public fields
+ * and returns {@code this}, so a handful of preallocated instances can be
+ * reused as scratch registers for an entire trace without allocating.
+ * Operations that take other vectors never retain them.</p>
+ * @author timothyb
+ */
+public final class Vec3 {
+
+	public double x;
+	public double y;
+	public double z;
+
+	public Vec3() {
+	}
+
+	public Vec3(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	public Vec3 set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+
+		return this;
+	}
+
+	public Vec3 set(Vec3 other) {
+		return set(other.x, other.y, other.z);
+	}
+
+	/**
+	 * Copies the first 3 components of a {@link Vector}.
+	 */
+	public Vec3 set(Vector other) {
+		double[] d = other.data();
+
+		return set(d[0], d[1], d[2]);
+	}
+
+	public Vec3 add(Vec3 other) {
+		x += other.x;
+		y += other.y;
+		z += other.z;
+
+		return this;
+	}
+
+	/**
+	 * Adds {@code other * factor} to this vector.
+	 */
+	public Vec3 addScaled(Vec3 other, double factor) {
+		x += other.x * factor;
+		y += other.y * factor;
+		z += other.z * factor;
+
+		return this;
+	}
+
+	public Vec3 sub(Vec3 other) {
+		x -= other.x;
+		y -= other.y;
+		z -= other.z;
+
+		return this;
+	}
+
+	/**
+	 * Sets this vector to {@code a - b}.
+	 */
+	public Vec3 diff(Vec3 a, Vec3 b) {
+		return set(a.x - b.x, a.y - b.y, a.z - b.z);
+	}
+
+	public Vec3 scale(double factor) {
+		x *= factor;
+		y *= factor;
+		z *= factor;
+
+		return this;
+	}
+
+	public Vec3 negate() {
+		return set(-x, -y, -z);
+	}
+
+	public double dot(Vec3 other) {
+		return x * other.x + y * other.y + z * other.z;
+	}
+
+	/**
+	 * Sets this vector to {@code a x b}. Safe if either argument is this
+	 * vector.
+	 */
+	public Vec3 cross(Vec3 a, Vec3 b) {
+		return set(
+				a.y * b.z - a.z * b.y,
+				a.z * b.x - a.x * b.z,
+				a.x * b.y - a.y * b.x);
+	}
+
+	public double length() {
+		return Math.sqrt(x * x + y * y + z * z);
+	}
+
+	/**
+	 * Scales this vector to unit length, leaving zero vectors untouched.
+	 */
+	public Vec3 normalize() {
+		double length = length();
+		if (length == 0) {
+			return this;
+		}
+
+		x /= length;
+		y /= length;
+		z /= length;
+
+		return this;
+	}
+
+	/**
+	 * Sets this vector to {@code m * this}, for a 3x3 {@link Matrix}.
+	 */
+	public Vec3 multiply(Matrix m) {
+		double[] a = m.data();
+
+		return set(
+				a[0] * x + a[1] * y + a[2] * z,
+				a[3] * x + a[4] * y + a[5] * z,
+				a[6] * x + a[7] * y + a[8] * z);
+	}
+
+	/**
+	 * Multiplies each component by the matching component of {@code other}.
+	 */
+	public Vec3 mul(Vec3 other) {
+		x *= other.x;
+		y *= other.y;
+		z *= other.z;
+
+		return this;
+	}
+
+	public Vector toVector() {
+		return Vector.of(x, y, z);
+	}
+
+	public Vec3 copy() {
+		return new Vec3(x, y, z);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Vec3([ %5.2f, %5.2f, %5.2f ])", x, y, z);
+	}
+
+	public static Vec3 of(Vector vector) {
+		return new Vec3().set(vector);
+	}
+
+}
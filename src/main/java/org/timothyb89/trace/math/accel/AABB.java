@@ -0,0 +1,100 @@
+package org.timothyb89.trace.math.accel;
+
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Vector;
+
+/**
+ * Bounding box helpers shared by the acceleration structure builders. Boxes
+ * are stored as 6 doubles: min x, y, z followed by max x, y, z.
+ * @author timothyb
+ */
+class AABB {
+
+	private AABB() {
+	}
+
+	static void setEmpty(double[] b, int o) {
+		b[o] = b[o + 1] = b[o + 2] = Double.POSITIVE_INFINITY;
+		b[o + 3] = b[o + 4] = b[o + 5] = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Writes the bounds of the given face into {@code b} at offset
+	 * {@code o}, and optionally its box centroid into {@code c} at
+	 * {@code co}.
+	 */
+	static void compute(Face face, double[] b, int o, double[] c, int co) {
+		setEmpty(b, o);
+
+		for (int v = 0; v < face.size(); v++) {
+			double[] p = face.vertex(v).data();
+
+			for (int axis = 0; axis < 3; axis++) {
+				b[o + axis] = Math.min(b[o + axis], p[axis]);
+				b[o + 3 + axis] = Math.max(b[o + 3 + axis], p[axis]);
+			}
+		}
+
+		if (c != null) {
+			for (int axis = 0; axis < 3; axis++) {
+				c[co + axis] = (b[o + axis] + b[o + 3 + axis]) / 2;
+			}
+		}
+
+		pad(b, o);
+	}
+
+	/**
+	 * Grows a box slightly so flat, axis-aligned geometry doesn't lose hits to
+	 * round-off in the slab test.
+	 */
+	static void pad(double[] b, int o) {
+		for (int axis = 0; axis < 3; axis++) {
+			double min = b[o + axis];
+			double max = b[o + 3 + axis];
+			double pad = Vector.EPSILON * (1 + Math.max(Math.abs(min), Math.abs(max)));
+
+			b[o + axis] = min - pad;
+			b[o + 3 + axis] = max + pad;
+		}
+	}
+
+	static void grow(double[] b, int o, double[] other, int oo) {
+		for (int axis = 0; axis < 3; axis++) {
+			b[o + axis] = Math.min(b[o + axis], other[oo + axis]);
+			b[o + 3 + axis] = Math.max(b[o + 3 + axis], other[oo + 3 + axis]);
+		}
+	}
+
+	/**
+	 * Slab test of a ray against the box at offset {@code o}, given the ray
+	 * origin and the reciprocal of its direction.
+	 * @return the entry distance, or {@code Double.NaN} on a miss
+	 */
+	static double intersect(double[] b, int o,
+			double ox, double oy, double oz,
+			double ix, double iy, double iz,
+			double tMin, double tMax) {
+		double t0 = (b[o] - ox) * ix;
+		double t1 = (b[o + 3] - ox) * ix;
+		if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+		// comparisons against NaN (0 * inf) fail, leaving the range untouched
+		if (t0 > tMin) tMin = t0;
+		if (t1 < tMax) tMax = t1;
+
+		t0 = (b[o + 1] - oy) * iy;
+		t1 = (b[o + 4] - oy) * iy;
+		if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+		if (t0 > tMin) tMin = t0;
+		if (t1 < tMax) tMax = t1;
+
+		t0 = (b[o + 2] - oz) * iz;
+		t1 = (b[o + 5] - oz) * iz;
+		if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+		if (t0 > tMin) tMin = t0;
+		if (t1 < tMax) tMax = t1;
+
+		return tMin <= tMax ? tMin : Double.NaN;
+	}
+
+}
@@ -0,0 +1,193 @@
+package org.timothyb89.trace.math.accel;
+
+import java.util.Arrays;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Vec3;
+import org.timothyb89.trace.math.Vector;
+
+/**
+ * A spatial index over every face in a scene, used to answer ray queries
+ * without testing each face individually.
+ * @author timothyb
+ */
+public interface Accelerator {
+
+	/**
+	 * The available acceleration structure implementations.
+	 */
+	enum Type {
+
+		BVH,
+		GRID;
+
+		public static Type parse(String name) {
+			try {
+				return valueOf(name.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException(
+						"Unknown acceleration structure: " + name
+								+ ", expected one of "
+								+ Arrays.toString(values()));
+			}
+		}
+
+	}
+
+	/**
+	 * Finds the nearest face hit by the given ray with a distance in the range
+	 * {@code (minDistance, maxDistance)}, storing the result in {@code hit}.
+	 * This and the other {@link Vec3} queries should not allocate, so a
+	 * renderer can reuse its vectors and {@link Hit} for every ray.
+	 *
+	 * @param origin the ray origin
+	 * @param direction the ray direction
+	 * @param minDistance the exclusive lower bound for hit distances
+	 * @param maxDistance the exclusive upper bound for hit distances
+	 * @param hit receives the closest intersection, if any
+	 * @param ignore faces that should never be reported as hits
+	 * @return true if something was hit
+	 */
+	boolean closest(
+			Vec3 origin, Vec3 direction,
+			double minDistance, double maxDistance,
+			Hit hit, Face... ignore);
+
+	/**
+	 * Finds any face in front of the given ray, returning as soon as the first
+	 * one is found. No guarantees are made about which face is returned.
+	 *
+	 * @param origin the ray origin
+	 * @param direction the ray direction
+	 * @param hit receives the intersection, if any
+	 * @param ignore faces that should never be reported as hits
+	 * @return true if something was hit
+	 */
+	boolean any(Vec3 origin, Vec3 direction, Hit hit, Face... ignore);
+
+	/**
+	 * Finds something blocking the given ray between {@link Vector#EPSILON}
+	 * and {@code maxDistance}, e.g. between a surface point and a light
+	 * source. Traversal stops at the first blocker found and no intersection
+	 * details are computed.
+	 *
+	 * @param origin the ray origin
+	 * @param direction the ray direction
+	 * @param maxDistance the exclusive upper bound for blocker distances
+	 * @param ignore faces that should never be considered blockers
+	 * @return the first blocker found, or null if the path is clear
+	 */
+	Occluder occluder(
+			Vec3 origin, Vec3 direction,
+			double maxDistance,
+			Face... ignore);
+
+	/**
+	 * Finds the nearest face hit by the given ray, ignoring each face only in
+	 * the matching instance, as reported by {@link Hit#instance}. Structures
+	 * without instances ignore the faces wherever they are.
+	 *
+	 * @see #closest(Vec3, Vec3, double, double, Hit, Face...)
+	 * @param ignoreInstances the instance of each face in {@code ignore}
+	 */
+	default boolean closest(
+			Vec3 origin, Vec3 direction,
+			double minDistance, double maxDistance,
+			Hit hit, Face[] ignore, int[] ignoreInstances) {
+		return closest(origin, direction, minDistance, maxDistance, hit, ignore);
+	}
+
+	/**
+	 * Finds something blocking the given ray, ignoring each face only in the
+	 * matching instance, as reported by {@link Occluder#instance}.
+	 *
+	 * @see #occluder(Vec3, Vec3, double, Face...)
+	 * @param ignoreInstances the instance of each face in {@code ignore}
+	 */
+	default Occluder occluder(
+			Vec3 origin, Vec3 direction,
+			double maxDistance,
+			Face[] ignore, int[] ignoreInstances) {
+		return occluder(origin, direction, maxDistance, ignore);
+	}
+
+	/**
+	 * Finds the nearest face hit by each ray in a packet, in front of its
+	 * origin. Results are stored in the packet. Structures that can trace
+	 * coherent packets as a whole override this; by default each ray is
+	 * traced on its own.
+	 *
+	 * @param packet the rays to trace
+	 */
+	default void closest(RayPacket packet) {
+		for (int i = 0; i < packet.size(); i++) {
+			packet.found(i, closest(
+					packet.origin(i), packet.direction(i),
+					0, Double.POSITIVE_INFINITY,
+					packet.hit(i)));
+		}
+	}
+
+	/**
+	 * Finds the nearest face hit by the given ray with a distance in the range
+	 * {@code (minDistance, maxDistance)}.
+	 *
+	 * @see #closest(Vec3, Vec3, double, double, Hit, Face...)
+	 * @return the closest intersection, or null if nothing was hit
+	 */
+	default Intersection closest(
+			Vector origin, Vector direction,
+			double minDistance, double maxDistance,
+			Face... ignore) {
+		Hit hit = new Hit();
+		if (!closest(Vec3.of(origin), Vec3.of(direction),
+				minDistance, maxDistance,
+				hit, ignore)) {
+			return null;
+		}
+
+		return hit.toIntersection();
+	}
+
+	/**
+	 * Finds any face in front of the given ray.
+	 *
+	 * @see #any(Vec3, Vec3, Hit, Face...)
+	 * @return some intersection in front of the ray, or null
+	 */
+	default Intersection any(Vector origin, Vector direction, Face... ignore) {
+		Hit hit = new Hit();
+		if (!any(Vec3.of(origin), Vec3.of(direction), hit, ignore)) {
+			return null;
+		}
+
+		return hit.toIntersection();
+	}
+
+	/**
+	 * Finds something blocking the given ray.
+	 *
+	 * @see #occluder(Vec3, Vec3, double, Face...)
+	 * @return the first blocker found, or null if the path is clear
+	 */
+	default Occluder occluder(
+			Vector origin, Vector direction,
+			double maxDistance,
+			Face... ignore) {
+		return occluder(Vec3.of(origin), Vec3.of(direction), maxDistance, ignore);
+	}
+
+	/**
+	 * Determines whether anything blocks the given ray between
+	 * {@link Vector#EPSILON} and {@code maxDistance}.
+	 *
+	 * @see #occluder(Vec3, Vec3, double, Face...)
+	 * @return true if some face lies on the ray within the interval
+	 */
+	default boolean occluded(
+			Vector origin, Vector direction,
+			double maxDistance,
+			Face... ignore) {
+		return occluder(origin, direction, maxDistance, ignore) != null;
+	}
+
+}
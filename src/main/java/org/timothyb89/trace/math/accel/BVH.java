@@ -0,0 +1,598 @@
+package org.timothyb89.trace.math.accel;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.Vec3;
+import org.timothyb89.trace.math.Vector;
+import org.timothyb89.trace.util.Buffers;
+
+/**
+ * A bounding volume hierarchy over all faces in a scene.
+ *
+ * <p>Nodes are stored depth-first in flat arrays: an inner node's left child
+ * immediately follows it, and its right child index is stored in
+ * {@code offsets}. Leaves instead store the offset of their first face in
+ * {@link #faces} along with a non-zero face count.</p>
+ *
+ * <p>Instances are created by {@link BVHBuilder}.</p>
+ * @author timothyb
+ */
+@Accessors(fluent = true)
+public class BVH implements Accelerator {
+
+	private final Face[] faces;
+	private final TriangleStore triangles;
+
+	private final double[] bounds; // 6 per node: min x,y,z then max x,y,z
+	private final int[] offsets;   // right child (inner) or first face (leaf)
+	private final int[] counts;    // 0 for inner nodes
+	private final int nodeCount;
+
+	private final int stackSize;
+
+	/**
+	 * Tests whole leaves at once, or null to test faces one at a time.
+	 */
+	private final TriangleKernel kernel;
+
+	/**
+	 * Per-thread traversal state, so queries don't allocate.
+	 */
+	private final ThreadLocal<Scratch> scratch;
+
+	private static final class Scratch {
+
+		final int[] stack;
+
+		/**
+		 * Hit distances for each face of a leaf, from {@link #kernel}.
+		 */
+		final double[] distances;
+
+		Scratch(int stackSize, int distanceCount) {
+			stack = new int[stackSize];
+			distances = new double[distanceCount];
+		}
+
+	}
+
+	@Getter @Setter private BVHStats stats;
+
+	BVH(Face[] faces, Precision precision,
+			double[] bounds, int[] offsets, int[] counts,
+			int nodeCount) {
+		this.faces = faces;
+		this.triangles = TriangleStore.of(faces, precision);
+		this.bounds = bounds;
+		this.offsets = offsets;
+		this.counts = counts;
+		this.nodeCount = nodeCount;
+
+		stackSize = depth() + 1;
+
+		TriangleKernel k = triangles.trianglesOnly()
+				? TriangleKernel.of(triangles)
+				: null;
+		kernel = k != null && k.width() > 1 ? k : null;
+
+		int maxLeaf = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			maxLeaf = Math.max(maxLeaf, counts[node]);
+		}
+
+		// kernels write whole vectors, so leave room to round up
+		int distanceCount = kernel == null ? 0 : maxLeaf + kernel.width();
+		scratch = ThreadLocal.withInitial(
+				() -> new Scratch(stackSize, distanceCount));
+	}
+
+	private static boolean isLeaf(int node, int[] counts, int nodeCount) {
+		return counts[node] > 0 || node + 1 >= nodeCount;
+	}
+
+	private int depth() {
+		// children always follow their parent, so walk the nodes backwards
+		int[] depths = new int[nodeCount];
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			depths[node] = isLeaf(node, counts, nodeCount)
+					? 1
+					: 1 + Math.max(depths[node + 1], depths[offsets[node]]);
+		}
+
+		return depths[0];
+	}
+
+	private double hitBox(int node,
+			double ox, double oy, double oz,
+			double ix, double iy, double iz,
+			double tMin, double tMax) {
+		return AABB.intersect(bounds, node * 6,
+				ox, oy, oz, ix, iy, iz,
+				tMin, tMax);
+	}
+
+	private static boolean ignored(Face face, Face[] ignore) {
+		for (Face f : ignore) {
+			if (f == face) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean traverse(
+			Vec3 origin, Vec3 direction,
+			double minDistance, double maxDistance,
+			boolean anyHit, Hit hit, Face[] ignore) {
+		double ox = origin.x, oy = origin.y, oz = origin.z;
+		double dx = direction.x, dy = direction.y, dz = direction.z;
+		double ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+
+		double best = maxDistance;
+		int bestFace = -1;
+
+		Scratch local = scratch.get();
+		int[] stack = local.stack;
+		int sp = 0;
+		stack[sp++] = 0;
+
+		while (sp > 0) {
+			int node = stack[--sp];
+
+			if (Double.isNaN(hitBox(node, ox, oy, oz, ix, iy, iz, minDistance, best))) {
+				continue;
+			}
+
+			int count = counts[node];
+			if (count > 0 && kernel != null) {
+				int first = offsets[node];
+				double[] distances = local.distances;
+				kernel.intersect(first, count,
+						ox, oy, oz, dx, dy, dz,
+						minDistance, best,
+						distances);
+
+				// scan in order so ties and any-hit queries resolve exactly
+				// as they do one face at a time
+				for (int k = 0; k < count; k++) {
+					double t = distances[k];
+					if (!(t < best)
+							|| (ignore.length > 0 && ignored(faces[first + k], ignore))) {
+						continue;
+					}
+
+					best = t;
+					bestFace = first + k;
+
+					if (anyHit) {
+						return hit(origin, direction, best, bestFace, hit);
+					}
+				}
+			} else if (count > 0) {
+				int first = offsets[node];
+				for (int i = first; i < first + count; i++) {
+					if (ignore.length > 0 && ignored(faces[i], ignore)) {
+						continue;
+					}
+
+					double t = triangles.intersect(i,
+							ox, oy, oz, dx, dy, dz,
+							minDistance, best);
+					if (Double.isNaN(t)) {
+						continue;
+					}
+
+					best = t;
+					bestFace = i;
+
+					if (anyHit) {
+						return hit(origin, direction, best, bestFace, hit);
+					}
+				}
+			} else {
+				int left = node + 1;
+				int right = offsets[node];
+
+				// visit the nearer child first so 'best' shrinks sooner
+				double tl = hitBox(left, ox, oy, oz, ix, iy, iz, minDistance, best);
+				double tr = hitBox(right, ox, oy, oz, ix, iy, iz, minDistance, best);
+
+				if (Double.isNaN(tl)) {
+					if (!Double.isNaN(tr)) {
+						stack[sp++] = right;
+					}
+				} else if (Double.isNaN(tr)) {
+					stack[sp++] = left;
+				} else if (tl <= tr) {
+					stack[sp++] = right;
+					stack[sp++] = left;
+				} else {
+					stack[sp++] = left;
+					stack[sp++] = right;
+				}
+			}
+		}
+
+		if (bestFace < 0) {
+			return false;
+		}
+
+		return hit(origin, direction, best, bestFace, hit);
+	}
+
+	private boolean hit(
+			Vec3 origin, Vec3 direction,
+			double distance, int face, Hit hit) {
+		hit.set(origin, direction, distance, faces[face]);
+		triangles.normal(face, hit.normal);
+
+		return true;
+	}
+
+	@Override
+	public boolean closest(
+			Vec3 origin, Vec3 direction,
+			double minDistance, double maxDistance,
+			Hit hit, Face... ignore) {
+		return traverse(origin, direction,
+				minDistance, maxDistance,
+				false, hit, ignore);
+	}
+
+	@Override
+	public boolean any(Vec3 origin, Vec3 direction, Hit hit, Face... ignore) {
+		return traverse(origin, direction,
+				0, Double.POSITIVE_INFINITY,
+				true, hit, ignore);
+	}
+
+	/**
+	 * Traces a coherent packet through the tree together. Nodes are rejected
+	 * for the whole packet by its frustum, and otherwise visited only if some
+	 * ray hits their bounds. Rays before the first such ray can't hit any
+	 * descendant, so leaves only test the rest. Incoherent packets fall back
+	 * to single rays.
+	 */
+	@Override
+	public void closest(RayPacket packet) {
+		if (!packet.coherent()) {
+			Accelerator.super.closest(packet);
+			return;
+		}
+
+		int n = packet.size();
+		double[] best = packet.best;
+		int[] bestFace = packet.bestFace;
+		double[] inv = packet.inverse;
+
+		for (int r = 0; r < n; r++) {
+			Vec3 d = packet.direction(r);
+			best[r] = Double.POSITIVE_INFINITY;
+			bestFace[r] = -1;
+			inv[r * 3] = 1 / d.x;
+			inv[r * 3 + 1] = 1 / d.y;
+			inv[r * 3 + 2] = 1 / d.z;
+		}
+
+		int[] stack = scratch.get().stack;
+		int sp = 0;
+		stack[sp++] = 0;
+
+		while (sp > 0) {
+			int node = stack[--sp];
+
+			if (packet.culls(bounds, node * 6)) {
+				continue;
+			}
+
+			int first = firstHit(packet, node, 0);
+			if (first < 0) {
+				continue;
+			}
+
+			int count = counts[node];
+			if (count > 0) {
+				int leaf = offsets[node];
+				for (int r = first; r < n; r++) {
+					Vec3 o = packet.origin(r);
+					Vec3 d = packet.direction(r);
+
+					for (int i = leaf; i < leaf + count; i++) {
+						double t = triangles.intersect(i,
+								o.x, o.y, o.z, d.x, d.y, d.z,
+								0, best[r]);
+						if (!Double.isNaN(t)) {
+							best[r] = t;
+							bestFace[r] = i;
+						}
+					}
+				}
+
+				continue;
+			}
+
+			// order children for the first active ray, which stands in for
+			// the packet
+			int left = node + 1;
+			int right = offsets[node];
+			Vec3 o = packet.origin(first);
+			int f = first * 3;
+			double tl = hitBox(left, o.x, o.y, o.z,
+					inv[f], inv[f + 1], inv[f + 2],
+					0, best[first]);
+			double tr = hitBox(right, o.x, o.y, o.z,
+					inv[f], inv[f + 1], inv[f + 2],
+					0, best[first]);
+
+			if (!Double.isNaN(tr) && (Double.isNaN(tl) || tr < tl)) {
+				stack[sp++] = left;
+				stack[sp++] = right;
+			} else {
+				stack[sp++] = right;
+				stack[sp++] = left;
+			}
+		}
+
+		for (int r = 0; r < n; r++) {
+			if (bestFace[r] < 0) {
+				packet.found(r, false);
+				continue;
+			}
+
+			packet.found(r, hit(
+					packet.origin(r), packet.direction(r),
+					best[r], bestFace[r],
+					packet.hit(r)));
+		}
+	}
+
+	/**
+	 * @return the index of the first ray from {@code from} on that hits a
+	 *     node's bounds within its current nearest hit, or -1
+	 */
+	private int firstHit(RayPacket packet, int node, int from) {
+		double[] inv = packet.inverse;
+		for (int r = from; r < packet.size(); r++) {
+			Vec3 o = packet.origin(r);
+			double t = hitBox(node, o.x, o.y, o.z,
+					inv[r * 3], inv[r * 3 + 1], inv[r * 3 + 2],
+					0, packet.best[r]);
+			if (!Double.isNaN(t)) {
+				return r;
+			}
+		}
+
+		return -1;
+	}
+
+	@Override
+	public Occluder occluder(
+			Vec3 origin, Vec3 direction,
+			double maxDistance,
+			Face... ignore) {
+		double ox = origin.x, oy = origin.y, oz = origin.z;
+		double dx = direction.x, dy = direction.y, dz = direction.z;
+		double ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+
+		Scratch local = scratch.get();
+		int[] stack = local.stack;
+		int sp = 0;
+		stack[sp++] = 0;
+
+		// no need to order children or track the nearest hit: any blocker in
+		// the interval will do
+		while (sp > 0) {
+			int node = stack[--sp];
+
+			if (Double.isNaN(hitBox(node, ox, oy, oz, ix, iy, iz,
+					Vector.EPSILON, maxDistance))) {
+				continue;
+			}
+
+			int count = counts[node];
+			if (count == 0) {
+				stack[sp++] = offsets[node];
+				stack[sp++] = node + 1;
+				continue;
+			}
+
+			int first = offsets[node];
+			if (kernel != null) {
+				double[] distances = local.distances;
+				kernel.intersect(first, count,
+						ox, oy, oz, dx, dy, dz,
+						Vector.EPSILON, maxDistance,
+						distances);
+
+				for (int k = 0; k < count; k++) {
+					if (!Double.isNaN(distances[k])
+							&& !(ignore.length > 0 && ignored(faces[first + k], ignore))) {
+						return faces[first + k];
+					}
+				}
+
+				continue;
+			}
+
+			for (int i = first; i < first + count; i++) {
+				if (ignore.length > 0 && ignored(faces[i], ignore)) {
+					continue;
+				}
+
+				double t = triangles.intersect(i,
+						ox, oy, oz, dx, dy, dz,
+						Vector.EPSILON, maxDistance);
+				if (!Double.isNaN(t)) {
+					return faces[i];
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the kernel used for whole leaves, or null if faces are tested
+	 *     one at a time
+	 */
+	public TriangleKernel kernel() {
+		return kernel;
+	}
+
+	public int countNodes() {
+		return nodeCount;
+	}
+
+	public int countFaces() {
+		return faces.length;
+	}
+
+	public TriangleStore triangles() {
+		return triangles;
+	}
+
+	Face[] faces() {
+		return faces;
+	}
+
+	double[] bounds() {
+		return bounds;
+	}
+
+	int[] offsets() {
+		return offsets;
+	}
+
+	int[] counts() {
+		return counts;
+	}
+
+	/**
+	 * Writes this tree in the layout expected by {@link #read}. Faces are
+	 * written as indices and must resolve to equivalent faces when read.
+	 * @param out the output to write to
+	 * @param indexOf maps each face to its index
+	 * @throws IOException if writing fails
+	 */
+	public void write(DataOutput out, ToIntFunction<Face> indexOf)
+			throws IOException {
+		BVHBuilder.Strategy strategy = stats == null
+				? BVHBuilder.Strategy.SAH
+				: stats.strategy();
+
+		out.writeByte(strategy.ordinal());
+		out.writeByte(triangles.precision().ordinal());
+		out.writeInt(nodeCount);
+		out.writeInt(faces.length);
+
+		for (Face f : faces) {
+			out.writeInt(indexOf.applyAsInt(f));
+		}
+
+		Buffers.write(out, bounds, 0, nodeCount * 6);
+		Buffers.write(out, offsets, 0, nodeCount);
+		Buffers.write(out, counts, 0, nodeCount);
+	}
+
+	/**
+	 * Reads a tree written by {@link #write} without rebuilding its nodes. The
+	 * packed triangle data isn't stored, and is rebuilt from the faces.
+	 * @param in the buffer to read from
+	 * @param faceAt resolves face indices as written
+	 * @return the tree, with stats for its original strategy
+	 * @throws IllegalArgumentException if the nodes don't form a valid tree
+	 */
+	public static BVH read(ByteBuffer in, IntFunction<Face> faceAt) {
+		BVHBuilder.Strategy strategy = BVHBuilder.Strategy.values()[in.get()];
+		Precision precision = Precision.values()[in.get()];
+		int nodeCount = in.getInt();
+		int faceCount = in.getInt();
+
+		int[] indices = Buffers.ints(in, faceCount);
+		Face[] faces = new Face[faceCount];
+		for (int i = 0; i < faceCount; i++) {
+			faces[i] = faceAt.apply(indices[i]);
+		}
+
+		double[] bounds = Buffers.doubles(in,
+				Buffers.count(in, nodeCount, 6 * Double.BYTES) * 6);
+		int[] offsets = Buffers.ints(in, nodeCount);
+		int[] counts = Buffers.ints(in, nodeCount);
+		validate(offsets, counts, nodeCount, faceCount);
+
+		BVH bvh = new BVH(faces, precision, bounds, offsets, counts, nodeCount);
+		bvh.stats(BVHStats.of(bvh, strategy, 0));
+
+		return bvh;
+	}
+
+	/**
+	 * Checks that every node is reached exactly once from the root, that
+	 * children follow their parent and that leaves cover valid face ranges,
+	 * so a corrupt tree is rejected here rather than during traversal.
+	 */
+	private static void validate(
+			int[] offsets, int[] counts, int nodeCount, int faceCount) {
+		if (nodeCount < 1) {
+			throw new IllegalArgumentException("BVH has no nodes");
+		}
+
+		boolean[] reached = new boolean[nodeCount];
+		reached[0] = true;
+
+		for (int node = 0; node < nodeCount; node++) {
+			if (!reached[node]) {
+				throw new IllegalArgumentException(
+						"BVH node " + node + " is unreachable");
+			}
+
+			int offset = offsets[node];
+			int count = counts[node];
+			if (count < 0) {
+				throw new IllegalArgumentException(
+						"BVH node " + node + " has negative face count " + count);
+			}
+
+			if (isLeaf(node, counts, nodeCount)) {
+				if (offset < 0 || (long) offset + count > faceCount) {
+					throw new IllegalArgumentException(String.format(
+							"BVH leaf %d covers faces [%d, %d) of %d",
+							node, offset, (long) offset + count, faceCount));
+				}
+			} else {
+				if (offset <= node + 1 || offset >= nodeCount) {
+					throw new IllegalArgumentException(String.format(
+							"BVH node %d has right child %d of %d",
+							node, offset, nodeCount));
+				}
+
+				if (reached[node + 1] || reached[offset]) {
+					throw new IllegalArgumentException(
+							"BVH node " + node + " shares a child");
+				}
+
+				reached[node + 1] = true;
+				reached[offset] = true;
+			}
+		}
+	}
+
+	public static BVH build(Face[] faces) {
+		return new BVHBuilder().build(faces);
+	}
+
+	public static BVH build(Scene scene) {
+		return build(scene.faces().toArray(Face[]::new));
+	}
+
+}
@@ -0,0 +1,613 @@
+package org.timothyb89.trace.math.accel;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Precision;
+
+/**
+ * Builds {@link BVH} instances from a set of faces. Subtrees are split
+ * recursively on a {@link ForkJoinPool}, using one of several
+ * {@link Strategy strategies} that trade tree quality against build time.
+ * @author timothyb
+ */
+@Accessors(fluent = true)
+public class BVHBuilder {
+
+	public enum Strategy {
+
+		/**
+		 * Binned surface area heuristic. Slowest to build, fastest to trace.
+		 */
+		SAH,
+
+		/**
+		 * Object median split along the widest centroid axis.
+		 */
+		MEDIAN,
+
+		/**
+		 * Linear BVH: faces are sorted along a Morton curve and split on the
+		 * highest differing bit. Fastest to build, lowest quality.
+		 */
+		LBVH;
+
+		public static Strategy parse(String name) {
+			try {
+				return valueOf(name.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException(
+						"Unknown BVH strategy: " + name
+								+ ", expected one of "
+								+ Arrays.toString(values()));
+			}
+		}
+
+	}
+
+	public static final int MAX_LEAF_SIZE = 4;
+
+	/**
+	 * Largest leaf the SAH strategy will create when it judges splitting to be
+	 * more expensive than testing every face.
+	 */
+	public static final int MAX_SAH_LEAF_SIZE = 16;
+
+	public static final int SAH_BINS = 16;
+
+	/**
+	 * Relative cost of a node traversal step vs. a face intersection test.
+	 */
+	public static final double TRAVERSAL_COST = 1.0;
+
+	/**
+	 * Ranges smaller than this are built sequentially within one task.
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	private static final int MORTON_BITS = 10;
+
+	@Getter private final Strategy strategy;
+	@Getter private final Precision precision;
+	private final ForkJoinPool pool;
+
+	// per-build state
+	private double[] faceBounds;
+	private double[] centroids;
+	private int[] order;
+	private long[] codes;
+
+	public BVHBuilder(Strategy strategy, Precision precision, ForkJoinPool pool) {
+		this.strategy = strategy;
+		this.precision = precision;
+		this.pool = pool;
+	}
+
+	public BVHBuilder(Strategy strategy, ForkJoinPool pool) {
+		this(strategy, Precision.DOUBLE, pool);
+	}
+
+	public BVHBuilder(Strategy strategy, Precision precision) {
+		this(strategy, precision, ForkJoinPool.commonPool());
+	}
+
+	public BVHBuilder(Strategy strategy) {
+		this(strategy, Precision.DOUBLE);
+	}
+
+	public BVHBuilder() {
+		this(Strategy.SAH);
+	}
+
+	/**
+	 * A temporary node produced while building. Subtrees are built as linked
+	 * nodes in parallel and flattened into arrays afterward.
+	 */
+	private static class Node {
+
+		final double[] bounds = new double[6];
+		Node left;
+		Node right;
+		int start;
+		int count;
+
+		int size() {
+			return left == null ? 1 : 1 + left.size() + right.size();
+		}
+
+	}
+
+	/**
+	 * A flattened tree over an arbitrary set of boxes, along with the order in
+	 * which the boxes are referenced by its leaves.
+	 */
+	static class Tree {
+
+		double[] bounds;
+		int[] offsets;
+		int[] counts;
+		int nodeCount;
+		int[] order;
+
+	}
+
+	public BVH build(Face[] faces) {
+		long start = System.nanoTime();
+
+		int n = faces.length;
+		double[] faceBounds = new double[n * 6];
+		double[] centroids = new double[n * 3];
+
+		pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+			AABB.compute(faces[i], faceBounds, i * 6, centroids, i * 3);
+		})).join();
+
+		Tree tree = buildTree(faceBounds, centroids, n);
+
+		Face[] sorted = new Face[n];
+		for (int i = 0; i < n; i++) {
+			sorted[i] = faces[tree.order[i]];
+		}
+
+		double time = (System.nanoTime() - start) / 1000000000.0;
+
+		BVH bvh = new BVH(sorted, precision,
+				tree.bounds, tree.offsets, tree.counts,
+				tree.nodeCount);
+		bvh.stats(BVHStats.of(bvh, strategy, time));
+		return bvh;
+	}
+
+	/**
+	 * Builds a tree over {@code n} boxes with the given bounds (6 values
+	 * each) and centroids (3 values each).
+	 */
+	synchronized Tree buildTree(double[] boxBounds, double[] boxCentroids, int n) {
+		faceBounds = boxBounds;
+		centroids = boxCentroids;
+		order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+
+		Node root;
+		if (n == 0) {
+			root = new Node();
+			setEmpty(root.bounds);
+		} else if (strategy == Strategy.LBVH) {
+			sortMorton();
+			root = pool.invoke(new LinearTask(0, n));
+		} else {
+			root = pool.invoke(new SplitTask(0, n));
+		}
+
+		Tree tree = new Tree();
+		tree.nodeCount = root.size();
+		tree.bounds = new double[tree.nodeCount * 6];
+		tree.offsets = new int[tree.nodeCount];
+		tree.counts = new int[tree.nodeCount];
+		flatten(root, 0, tree.bounds, tree.offsets, tree.counts);
+		tree.order = order;
+
+		faceBounds = null;
+		centroids = null;
+		order = null;
+		codes = null;
+
+		return tree;
+	}
+
+	private int flatten(Node node, int index,
+			double[] bounds, int[] offsets, int[] counts) {
+		System.arraycopy(node.bounds, 0, bounds, index * 6, 6);
+
+		if (node.left == null) {
+			offsets[index] = node.start;
+			counts[index] = node.count;
+			return index + 1;
+		}
+
+		int right = flatten(node.left, index + 1, bounds, offsets, counts);
+		offsets[index] = right;
+		counts[index] = 0;
+
+		return flatten(node.right, right, bounds, offsets, counts);
+	}
+
+	private static void setEmpty(double[] b) {
+		AABB.setEmpty(b, 0);
+	}
+
+	private static double area(double[] b) {
+		double dx = b[3] - b[0];
+		double dy = b[4] - b[1];
+		double dz = b[5] - b[2];
+		if (dx < 0 || dy < 0 || dz < 0) {
+			return 0;
+		}
+
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	private void growFace(double[] b, int face) {
+		int o = face * 6;
+		for (int axis = 0; axis < 3; axis++) {
+			b[axis] = Math.min(b[axis], faceBounds[o + axis]);
+			b[3 + axis] = Math.max(b[3 + axis], faceBounds[o + 3 + axis]);
+		}
+	}
+
+	private Node leaf(Node node, int start, int end) {
+		node.start = start;
+		node.count = end - start;
+		return node;
+	}
+
+	/**
+	 * Splits {@code [start, end)} using the SAH or median strategies.
+	 */
+	private class SplitTask extends RecursiveTask<Node> {
+
+		private final int start;
+		private final int end;
+
+		SplitTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Node compute() {
+			return split(start, end);
+		}
+
+		private Node split(int start, int end) {
+			Node node = new Node();
+			setEmpty(node.bounds);
+
+			double[] cmin = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+			double[] cmax = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+			for (int i = start; i < end; i++) {
+				int f = order[i];
+				growFace(node.bounds, f);
+
+				for (int axis = 0; axis < 3; axis++) {
+					double c = centroids[f * 3 + axis];
+					cmin[axis] = Math.min(cmin[axis], c);
+					cmax[axis] = Math.max(cmax[axis], c);
+				}
+			}
+
+			int count = end - start;
+			if (count <= MAX_LEAF_SIZE) {
+				return leaf(node, start, end);
+			}
+
+			int axis = 0;
+			for (int a = 1; a < 3; a++) {
+				if (cmax[a] - cmin[a] > cmax[axis] - cmin[axis]) {
+					axis = a;
+				}
+			}
+
+			if (cmax[axis] - cmin[axis] <= 0) {
+				// every centroid is identical, no sensible split exists
+				return leaf(node, start, end);
+			}
+
+			int mid = -1;
+			if (strategy == Strategy.SAH) {
+				mid = splitSAH(node.bounds, start, end, cmin, cmax);
+				if (mid == end) {
+					// cheaper to test every face than to split further
+					return leaf(node, start, end);
+				}
+			}
+
+			if (mid <= start || mid >= end) {
+				mid = (start + end) / 2;
+				select(start, end - 1, mid, axis);
+			}
+
+			if (count > PARALLEL_THRESHOLD) {
+				SplitTask left = new SplitTask(start, mid);
+				left.fork();
+				node.right = split(mid, end);
+				node.left = left.join();
+			} else {
+				node.left = split(start, mid);
+				node.right = split(mid, end);
+			}
+
+			return node;
+		}
+
+		/**
+		 * Bins centroids along each axis and partitions the range at the
+		 * cheapest bin boundary.
+		 * @return the partition point, {@code end} if a leaf is preferable, or
+		 *     -1 if no useful split was found
+		 */
+		private int splitSAH(double[] bounds, int start, int end,
+				double[] cmin, double[] cmax) {
+			int count = end - start;
+			double parentArea = area(bounds);
+
+			double bestCost = Double.POSITIVE_INFINITY;
+			int bestAxis = -1;
+			int bestBin = -1;
+
+			int[] binCounts = new int[SAH_BINS];
+			double[][] binBounds = new double[SAH_BINS][6];
+			double[] rightArea = new double[SAH_BINS];
+			int[] rightCount = new int[SAH_BINS];
+			double[] acc = new double[6];
+
+			for (int axis = 0; axis < 3; axis++) {
+				double extent = cmax[axis] - cmin[axis];
+				if (extent <= 0) {
+					continue;
+				}
+
+				double scale = SAH_BINS / extent;
+
+				Arrays.fill(binCounts, 0);
+				for (double[] b : binBounds) {
+					setEmpty(b);
+				}
+
+				for (int i = start; i < end; i++) {
+					int f = order[i];
+					int bin = bin(centroids[f * 3 + axis], cmin[axis], scale);
+					binCounts[bin]++;
+					growFace(binBounds[bin], f);
+				}
+
+				// sweep from the right to find areas for every boundary
+				setEmpty(acc);
+				int accCount = 0;
+				for (int b = SAH_BINS - 1; b > 0; b--) {
+					grow(acc, binBounds[b]);
+					accCount += binCounts[b];
+					rightArea[b] = area(acc);
+					rightCount[b] = accCount;
+				}
+
+				setEmpty(acc);
+				accCount = 0;
+				for (int b = 0; b < SAH_BINS - 1; b++) {
+					grow(acc, binBounds[b]);
+					accCount += binCounts[b];
+
+					int rc = rightCount[b + 1];
+					if (accCount == 0 || rc == 0) {
+						continue;
+					}
+
+					double cost = TRAVERSAL_COST
+							+ (area(acc) * accCount + rightArea[b + 1] * rc)
+							/ parentArea;
+
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestAxis = axis;
+						bestBin = b;
+					}
+				}
+			}
+
+			if (bestAxis < 0) {
+				return -1;
+			}
+
+			if (count <= MAX_SAH_LEAF_SIZE && count <= bestCost) {
+				return end;
+			}
+
+			double scale = SAH_BINS / (cmax[bestAxis] - cmin[bestAxis]);
+
+			int i = start;
+			int j = end - 1;
+			while (i <= j) {
+				int bin = bin(centroids[order[i] * 3 + bestAxis], cmin[bestAxis], scale);
+				if (bin <= bestBin) {
+					i++;
+				} else {
+					swap(i, j);
+					j--;
+				}
+			}
+
+			return i;
+		}
+
+	}
+
+	private static int bin(double c, double min, double scale) {
+		return Math.min(SAH_BINS - 1, (int) ((c - min) * scale));
+	}
+
+	private static void grow(double[] b, double[] other) {
+		for (int axis = 0; axis < 3; axis++) {
+			b[axis] = Math.min(b[axis], other[axis]);
+			b[3 + axis] = Math.max(b[3 + axis], other[3 + axis]);
+		}
+	}
+
+	private double key(int i, int axis) {
+		return centroids[order[i] * 3 + axis];
+	}
+
+	private void swap(int a, int b) {
+		int tmp = order[a];
+		order[a] = order[b];
+		order[b] = tmp;
+	}
+
+	/**
+	 * Partially sorts {@code order[lo..hi]} (inclusive) such that the element
+	 * at {@code k} is in its sorted position along the given axis.
+	 */
+	private void select(int lo, int hi, int k, int axis) {
+		while (hi > lo) {
+			double pivot = key((lo + hi) >>> 1, axis);
+
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (key(i, axis) < pivot) {
+					i++;
+				}
+
+				while (key(j, axis) > pivot) {
+					j--;
+				}
+
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Spreads the lower 10 bits of {@code v} so there are two zero bits
+	 * between each.
+	 */
+	private static long expandBits(long v) {
+		v = (v * 0x00010001L) & 0xFF0000FFL;
+		v = (v * 0x00000101L) & 0x0F00F00FL;
+		v = (v * 0x00000011L) & 0xC30C30C3L;
+		v = (v * 0x00000005L) & 0x49249249L;
+		return v;
+	}
+
+	/**
+	 * Sorts {@code order} by the Morton code of each face centroid. Codes are
+	 * kept in the upper 32 bits of {@code codes} with the face index below so
+	 * a single primitive sort does the job.
+	 */
+	private void sortMorton() {
+		int n = order.length;
+
+		double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (int i = 0; i < n; i++) {
+			for (int axis = 0; axis < 3; axis++) {
+				min[axis] = Math.min(min[axis], centroids[i * 3 + axis]);
+				max[axis] = Math.max(max[axis], centroids[i * 3 + axis]);
+			}
+		}
+
+		int cells = (1 << MORTON_BITS) - 1;
+		double[] scale = new double[3];
+		for (int axis = 0; axis < 3; axis++) {
+			double extent = max[axis] - min[axis];
+			scale[axis] = extent > 0 ? cells / extent : 0;
+		}
+
+		codes = new long[n];
+		pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+			long code = 0;
+			for (int axis = 0; axis < 3; axis++) {
+				long q = (long) ((centroids[i * 3 + axis] - min[axis]) * scale[axis]);
+				code |= expandBits(q) << (2 - axis);
+			}
+
+			codes[i] = (code << 32) | i;
+		})).join();
+
+		pool.submit(() -> Arrays.parallelSort(codes)).join();
+
+		for (int i = 0; i < n; i++) {
+			order[i] = (int) codes[i];
+			codes[i] >>>= 32;
+		}
+	}
+
+	/**
+	 * Splits a Morton-sorted range at its highest differing code bit.
+	 */
+	private class LinearTask extends RecursiveTask<Node> {
+
+		private final int start;
+		private final int end;
+
+		LinearTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Node compute() {
+			return split(start, end);
+		}
+
+		private Node split(int start, int end) {
+			Node node = new Node();
+			setEmpty(node.bounds);
+			for (int i = start; i < end; i++) {
+				growFace(node.bounds, order[i]);
+			}
+
+			int count = end - start;
+			if (count <= MAX_LEAF_SIZE) {
+				return leaf(node, start, end);
+			}
+
+			long first = codes[start];
+			long last = codes[end - 1];
+
+			int mid;
+			if (first == last) {
+				// identical codes, fall back to splitting the range in half
+				mid = (start + end) / 2;
+			} else {
+				// find the last index sharing the first code's prefix
+				int prefix = Long.numberOfLeadingZeros(first ^ last);
+
+				int lo = start;
+				int hi = end - 1;
+				while (lo + 1 < hi) {
+					int m = (lo + hi) >>> 1;
+					if (Long.numberOfLeadingZeros(first ^ codes[m]) > prefix) {
+						lo = m;
+					} else {
+						hi = m;
+					}
+				}
+
+				mid = hi;
+			}
+
+			if (count > PARALLEL_THRESHOLD) {
+				LinearTask left = new LinearTask(start, mid);
+				left.fork();
+				node.right = split(mid, end);
+				node.left = left.join();
+			} else {
+				node.left = split(start, mid);
+				node.right = split(mid, end);
+			}
+
+			return node;
+		}
+
+	}
+
+}
@@ -0,0 +1,99 @@
+package org.timothyb89.trace.math.accel;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * Build time and tree quality figures for a {@link BVH}.
+ * @author timothyb
+ */
+@Data
+@Accessors(fluent = true)
+public class BVHStats {
+
+	private final BVHBuilder.Strategy strategy;
+	private final double buildTime;
+
+	private final int nodes;
+	private final int leaves;
+	private final int maxDepth;
+	private final int maxLeafSize;
+	private final double averageLeafSize;
+
+	/**
+	 * The expected cost of tracing a random ray, as estimated by the surface
+	 * area heuristic: node traversals and face tests weighted by the
+	 * probability of a ray hitting each node given it hits the root.
+	 */
+	private final double sahCost;
+
+	public String format() {
+		return String.format(
+				"%s, %.3fs, %d nodes, depth %d, "
+						+ "leaf size %.2f avg / %d max, SAH cost %.2f",
+				strategy.name().toLowerCase(), buildTime,
+				nodes, maxDepth,
+				averageLeafSize, maxLeafSize,
+				sahCost);
+	}
+
+	private static double area(double[] b, int node) {
+		int o = node * 6;
+		double dx = b[o + 3] - b[o];
+		double dy = b[o + 4] - b[o + 1];
+		double dz = b[o + 5] - b[o + 2];
+		if (dx < 0 || dy < 0 || dz < 0) {
+			return 0;
+		}
+
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	public static BVHStats of(BVH bvh, BVHBuilder.Strategy strategy, double buildTime) {
+		double[] bounds = bvh.bounds();
+		int[] offsets = bvh.offsets();
+		int[] counts = bvh.counts();
+		int nodes = bvh.countNodes();
+
+		double rootArea = area(bounds, 0);
+
+		int leaves = 0;
+		int leafFaces = 0;
+		int maxLeafSize = 0;
+		int maxDepth = 0;
+		double cost = 0;
+
+		// nodes are laid out depth-first, so depth can be tracked with a
+		// single pass by pushing the depth of each right child
+		int[] depths = new int[nodes];
+		depths[0] = 1;
+
+		for (int node = 0; node < nodes; node++) {
+			int depth = depths[node];
+			maxDepth = Math.max(maxDepth, depth);
+
+			double p = rootArea > 0 ? area(bounds, node) / rootArea : 1;
+
+			int count = counts[node];
+			if (count > 0 || node + 1 >= nodes) {
+				leaves++;
+				leafFaces += count;
+				maxLeafSize = Math.max(maxLeafSize, count);
+
+				cost += p * count;
+			} else {
+				depths[node + 1] = depth + 1;
+				depths[offsets[node]] = depth + 1;
+
+				cost += p * BVHBuilder.TRAVERSAL_COST;
+			}
+		}
+
+		return new BVHStats(
+				strategy, buildTime,
+				nodes, leaves, maxDepth, maxLeafSize,
+				leaves == 0 ? 0 : (double) leafFaces / leaves,
+				cost);
+	}
+
+}
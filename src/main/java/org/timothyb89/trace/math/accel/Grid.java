@@ -0,0 +1,390 @@
+package org.timothyb89.trace.math.accel;
+
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Vec3;
+import org.timothyb89.trace.math.Vector;
+
+/**
+ * A uniform grid over all faces in a scene, traversed cell by cell with a 3D
+ * digital differential analyzer (3D-DDA).
+ *
+ * <p>Builds in linear time and works well for scenes made of many similarly
+ * sized faces. Faces are referenced by every cell their bounds overlap; cell
+ * contents are stored compactly with {@code cellStart[c]} indexing into
+ * {@code cellFaces}.</p>
+ * @author timothyb
+ */
+public class Grid implements Accelerator {
+
+	/**
+	 * Target number of cells per face.
+	 */
+	public static final double DENSITY = 2.0;
+
+	public static final int MAX_RESOLUTION = 256;
+
+	private final Face[] faces;
+	private final TriangleStore triangles;
+
+	private final double[] min = new double[3];
+	private final double[] max = new double[3];
+	private final double[] cellSize = new double[3];
+	private final int[] res = new int[3];
+
+	private final int[] cellStart;
+	private final int[] cellFaces;
+
+	private final double buildTime;
+
+	/**
+	 * Per-thread cursors, so queries don't allocate.
+	 */
+	private final ThreadLocal<Cursor> cursors =
+			ThreadLocal.withInitial(Cursor::new);
+
+	private Grid(Face[] faces, Precision precision) {
+		long start = System.nanoTime();
+
+		this.faces = faces;
+		this.triangles = TriangleStore.of(faces, precision);
+
+		int n = faces.length;
+		double[] faceBounds = new double[n * 6];
+
+		min[0] = min[1] = min[2] = Double.POSITIVE_INFINITY;
+		max[0] = max[1] = max[2] = Double.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < n; i++) {
+			AABB.compute(faces[i], faceBounds, i * 6, null, 0);
+
+			for (int axis = 0; axis < 3; axis++) {
+				min[axis] = Math.min(min[axis], faceBounds[i * 6 + axis]);
+				max[axis] = Math.max(max[axis], faceBounds[i * 6 + 3 + axis]);
+			}
+		}
+
+		if (n == 0) {
+			for (int axis = 0; axis < 3; axis++) {
+				min[axis] = 0;
+				max[axis] = 0;
+			}
+		}
+
+		calcResolution(n);
+
+		int cells = res[0] * res[1] * res[2];
+		cellStart = new int[cells + 1];
+
+		// first pass: count references per cell
+		int[] range = new int[6];
+		for (int i = 0; i < n; i++) {
+			cellRange(faceBounds, i, range);
+			for (int z = range[2]; z <= range[5]; z++) {
+				for (int y = range[1]; y <= range[4]; y++) {
+					for (int x = range[0]; x <= range[3]; x++) {
+						cellStart[cellIndex(x, y, z) + 1]++;
+					}
+				}
+			}
+		}
+
+		for (int c = 0; c < cells; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+
+		// second pass: fill in references
+		cellFaces = new int[cellStart[cells]];
+		int[] fill = new int[cells];
+		for (int i = 0; i < n; i++) {
+			cellRange(faceBounds, i, range);
+			for (int z = range[2]; z <= range[5]; z++) {
+				for (int y = range[1]; y <= range[4]; y++) {
+					for (int x = range[0]; x <= range[3]; x++) {
+						int c = cellIndex(x, y, z);
+						cellFaces[cellStart[c] + fill[c]++] = i;
+					}
+				}
+			}
+		}
+
+		buildTime = (System.nanoTime() - start) / 1000000000.0;
+	}
+
+	private void calcResolution(int n) {
+		double[] extent = new double[3];
+		double volume = 1;
+		int nonFlat = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			extent[axis] = max[axis] - min[axis];
+			if (extent[axis] > 0) {
+				volume *= extent[axis];
+				nonFlat++;
+			}
+		}
+
+		// choose a cell edge length giving roughly DENSITY * n cells over the
+		// non-degenerate axes
+		double cellEdge = nonFlat == 0
+				? 1
+				: Math.pow(volume / Math.max(1, DENSITY * n), 1.0 / nonFlat);
+
+		for (int axis = 0; axis < 3; axis++) {
+			int r = extent[axis] > 0 ? (int) Math.ceil(extent[axis] / cellEdge) : 1;
+			res[axis] = Math.max(1, Math.min(MAX_RESOLUTION, r));
+			cellSize[axis] = extent[axis] > 0 ? extent[axis] / res[axis] : 1;
+		}
+	}
+
+	private int cell(double value, int axis) {
+		int c = (int) ((value - min[axis]) / cellSize[axis]);
+		return Math.max(0, Math.min(res[axis] - 1, c));
+	}
+
+	private void cellRange(double[] faceBounds, int face, int[] range) {
+		for (int axis = 0; axis < 3; axis++) {
+			range[axis] = cell(faceBounds[face * 6 + axis], axis);
+			range[3 + axis] = cell(faceBounds[face * 6 + 3 + axis], axis);
+		}
+	}
+
+	private int cellIndex(int x, int y, int z) {
+		return (z * res[1] + y) * res[0] + x;
+	}
+
+	private static boolean ignored(Face face, Face[] ignore) {
+		for (Face f : ignore) {
+			if (f == face) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Walks the cells pierced by a ray in order, front to back.
+	 */
+	private class Cursor {
+
+		private final int[] cell = new int[3];
+		private final int[] step = new int[3];
+		private final double[] tNext = new double[3];
+		private final double[] tDelta = new double[3];
+
+		private final double[] o = new double[3];
+		private final double[] d = new double[3];
+
+		private double tExit;
+		private boolean started;
+
+		/**
+		 * The distance at which the ray leaves the current cell.
+		 */
+		private double cellExit;
+
+		/**
+		 * Clips the ray against the grid bounds and finds the first cell.
+		 * @return false if the ray misses the grid entirely
+		 */
+		boolean init(Vec3 origin, Vec3 direction,
+				double minDistance, double maxDistance) {
+			double[] o = this.o;
+			double[] d = this.d;
+			o[0] = origin.x; o[1] = origin.y; o[2] = origin.z;
+			d[0] = direction.x; d[1] = direction.y; d[2] = direction.z;
+
+			double tEnter = minDistance;
+			tExit = maxDistance;
+			for (int axis = 0; axis < 3; axis++) {
+				double inv = 1 / d[axis];
+				double t0 = (min[axis] - o[axis]) * inv;
+				double t1 = (max[axis] - o[axis]) * inv;
+				if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+				// comparisons against NaN (0 * inf) fail, leaving the range untouched
+				if (t0 > tEnter) tEnter = t0;
+				if (t1 < tExit) tExit = t1;
+			}
+
+			if (tEnter > tExit || faces.length == 0) {
+				return false;
+			}
+
+			for (int axis = 0; axis < 3; axis++) {
+				double p = o[axis] + d[axis] * tEnter;
+				cell[axis] = cell(p, axis);
+
+				if (d[axis] > 0) {
+					step[axis] = 1;
+					tDelta[axis] = cellSize[axis] / d[axis];
+					double bound = min[axis] + (cell[axis] + 1) * cellSize[axis];
+					tNext[axis] = tEnter + (bound - p) / d[axis];
+				} else if (d[axis] < 0) {
+					step[axis] = -1;
+					tDelta[axis] = -cellSize[axis] / d[axis];
+					double bound = min[axis] + cell[axis] * cellSize[axis];
+					tNext[axis] = tEnter + (bound - p) / d[axis];
+				} else {
+					step[axis] = 0;
+					tDelta[axis] = Double.POSITIVE_INFINITY;
+					tNext[axis] = Double.POSITIVE_INFINITY;
+				}
+			}
+
+			started = false;
+			return true;
+		}
+
+		/**
+		 * @return the index of the next cell along the ray, or -1 once the
+		 *     ray leaves the grid or passes its maximum distance
+		 */
+		int next() {
+			if (started) {
+				// advance along the axis with the nearest cell boundary
+				int axis = exitAxis();
+				if (cellExit > tExit || Double.isInfinite(cellExit)) {
+					return -1;
+				}
+
+				cell[axis] += step[axis];
+				if (cell[axis] < 0 || cell[axis] >= res[axis]) {
+					return -1;
+				}
+
+				tNext[axis] += tDelta[axis];
+			}
+
+			started = true;
+			exitAxis();
+
+			return cellIndex(cell[0], cell[1], cell[2]);
+		}
+
+		private int exitAxis() {
+			int axis = tNext[0] < tNext[1]
+					? (tNext[0] < tNext[2] ? 0 : 2)
+					: (tNext[1] < tNext[2] ? 1 : 2);
+
+			cellExit = tNext[axis];
+			return axis;
+		}
+
+	}
+
+	@Override
+	public boolean closest(
+			Vec3 origin, Vec3 direction,
+			double minDistance, double maxDistance,
+			Hit hit, Face... ignore) {
+		Cursor cursor = cursors.get();
+		if (!cursor.init(origin, direction, minDistance, maxDistance)) {
+			return false;
+		}
+
+		double ox = origin.x, oy = origin.y, oz = origin.z;
+		double dx = direction.x, dy = direction.y, dz = direction.z;
+
+		double best = maxDistance;
+		int bestFace = -1;
+
+		int c;
+		while ((c = cursor.next()) >= 0) {
+			for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+				int face = cellFaces[i];
+				if (face == bestFace
+						|| (ignore.length > 0 && ignored(faces[face], ignore))) {
+					continue;
+				}
+
+				double t = triangles.intersect(face,
+						ox, oy, oz, dx, dy, dz,
+						minDistance, best);
+				if (!Double.isNaN(t)) {
+					best = t;
+					bestFace = face;
+				}
+			}
+
+			// faces span several cells, so a hit only counts once it's known
+			// to be inside the cell being visited
+			if (bestFace >= 0 && best <= cursor.cellExit) {
+				break;
+			}
+		}
+
+		if (bestFace < 0) {
+			return false;
+		}
+
+		hit.set(origin, direction, best, faces[bestFace]);
+		triangles.normal(bestFace, hit.normal);
+
+		return true;
+	}
+
+	@Override
+	public boolean any(Vec3 origin, Vec3 direction, Hit hit, Face... ignore) {
+		// the nearest hit is found within the first few cells anyway
+		return closest(origin, direction,
+				0, Double.POSITIVE_INFINITY,
+				hit, ignore);
+	}
+
+	@Override
+	public Occluder occluder(
+			Vec3 origin, Vec3 direction,
+			double maxDistance,
+			Face... ignore) {
+		Cursor cursor = cursors.get();
+		if (!cursor.init(origin, direction, Vector.EPSILON, maxDistance)) {
+			return null;
+		}
+
+		int c;
+		while ((c = cursor.next()) >= 0) {
+			for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+				int face = cellFaces[i];
+				if (ignore.length > 0 && ignored(faces[face], ignore)) {
+					continue;
+				}
+
+				double t = triangles.intersect(face,
+						origin.x, origin.y, origin.z,
+						direction.x, direction.y, direction.z,
+						Vector.EPSILON, maxDistance);
+				if (!Double.isNaN(t)) {
+					return faces[face];
+				}
+			}
+		}
+
+		return null;
+	}
+
+	public int countCells() {
+		return res[0] * res[1] * res[2];
+	}
+
+	public int countReferences() {
+		return cellFaces.length;
+	}
+
+	public String format() {
+		return String.format(
+				"%.3fs, %dx%dx%d cells, %d references (%.2f per face)",
+				buildTime,
+				res[0], res[1], res[2],
+				cellFaces.length,
+				faces.length == 0 ? 0.0 : (double) cellFaces.length / faces.length);
+	}
+
+	public static Grid build(Face[] faces) {
+		return build(faces, Precision.DOUBLE);
+	}
+
+	public static Grid build(Face[] faces, Precision precision) {
+		return new Grid(faces.clone(), precision);
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.timothyb89.trace.math.accel;
+
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Vec3;
+
+/**
+ * A mutable counterpart to {@link Intersection}, filled in place by the
+ * {@link Vec3} queries on {@link Accelerator} so callers can reuse a single
+ * instance for every ray.
+ * @author timothyb
+ */
+public final class Hit {
+
+	/**
+	 * The ray parameter {@code t} such that {@code point = origin + t * dir}.
+	 */
+	public double distance;
+
+	public Face face;
+
+	/**
+	 * The instance {@link #face} belongs to within an
+	 * {@link InstancedAccelerator}, since instances share faces, or -1.
+	 */
+	public int instance = -1;
+
+	public final Vec3 point = new Vec3();
+
+	/**
+	 * The surface normal at the hit point, in world space.
+	 */
+	public final Vec3 normal = new Vec3();
+
+	/**
+	 * Sets the distance and face, and the point from the given ray, clearing
+	 * the instance. The normal is left for the caller to fill in.
+	 */
+	public Hit set(Vec3 origin, Vec3 direction, double distance, Face face) {
+		this.distance = distance;
+		this.face = face;
+		this.instance = -1;
+		this.point.set(origin).addScaled(direction, distance);
+
+		return this;
+	}
+
+	public Hit set(Hit other) {
+		distance = other.distance;
+		face = other.face;
+		instance = other.instance;
+		point.set(other.point);
+		normal.set(other.normal);
+
+		return this;
+	}
+
+	public Intersection toIntersection() {
+		return new Intersection(
+				distance, face,
+				point.toVector(), normal.toVector());
+	}
+
+}
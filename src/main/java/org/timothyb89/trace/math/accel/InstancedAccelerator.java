@@ -0,0 +1,395 @@
+package org.timothyb89.trace.math.accel;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Instance;
+import org.timothyb89.trace.math.Matrix;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Vec3;
+import org.timothyb89.trace.math.Vector;
+
+/**
+ * A two-level acceleration structure: each {@link Model} gets its own
+ * bottom-level structure in object space, and a top-level BVH is built over
+ * the world space bounds of every {@link Instance}. Rays reaching an instance
+ * are transformed into its object space rather than storing transformed
+ * copies of its geometry.
+ *
+ * <p>Since instances share faces, hits and occluders report their instance,
+ * and the queries taking {@code ignoreInstances} ignore each face only in
+ * that instance. Faces passed without instances are ignored in every
+ * instance of their model.</p>
+ * @author timothyb
+ */
+public class InstancedAccelerator implements Accelerator {
+
+	private final Instance[] instances;
+	private final Accelerator[] models;
+
+	private final double[] bounds;
+	private final int[] offsets;
+	private final int[] counts;
+	private final int nodeCount;
+
+	private final int modelCount;
+
+	private InstancedAccelerator(
+			Instance[] instances, Accelerator[] models,
+			BVHBuilder.Tree tree, int modelCount) {
+		this.instances = instances;
+		this.models = models;
+		this.bounds = tree.bounds;
+		this.offsets = tree.offsets;
+		this.counts = tree.counts;
+		this.nodeCount = tree.nodeCount;
+		this.modelCount = modelCount;
+	}
+
+	/**
+	 * Re-tests an occluder found inside an instance against later rays. Each
+	 * thread keeps one per instance and rewraps it for every blocked shadow
+	 * ray, so it's only valid until that thread's next query on the instance.
+	 */
+	private static class InstanceOccluder implements Occluder {
+
+		private final Instance instance;
+		private final int index;
+		private final Vec3 objectOrigin = new Vec3();
+		private final Vec3 objectDirection = new Vec3();
+
+		private Occluder occluder;
+
+		InstanceOccluder(Instance instance, int index) {
+			this.instance = instance;
+			this.index = index;
+		}
+
+		@Override
+		public boolean occludes(Vec3 origin, Vec3 direction, double maxDistance) {
+			return occluder.occludes(
+					instance.toObjectPoint(origin, objectOrigin),
+					instance.toObjectDirection(direction, objectDirection),
+					maxDistance);
+		}
+
+		@Override
+		public Face face() {
+			return occluder.face();
+		}
+
+		@Override
+		public int instance() {
+			return index;
+		}
+
+	}
+
+	/**
+	 * Visits every instance whose bounds the ray passes through within
+	 * {@code [minDistance, maxDistance]}.
+	 */
+	private interface Visitor {
+
+		/**
+		 * @return the new maximum distance for the query, or a negative
+		 *     number to stop traversal
+		 */
+		double visit(int instance, double maxDistance);
+
+	}
+
+	/**
+	 * Per-thread query state. The visitors read their inputs from and write
+	 * their results to its fields, so a query allocates nothing beyond what
+	 * the bottom-level structures do.
+	 */
+	private class Query {
+
+		final int[] stack = new int[nodeCount + 1];
+
+		final Vec3 objectOrigin = new Vec3();
+		final Vec3 objectDirection = new Vec3();
+		final Hit objectHit = new Hit();
+
+		/**
+		 * Reusable occluders for each instance, created on first use.
+		 */
+		final InstanceOccluder[] occluders = new InstanceOccluder[instances.length];
+
+		/**
+		 * The faces to ignore within the instance being visited, padded with
+		 * nulls, when only some apply to it.
+		 */
+		Face[] instanceIgnore = new Face[2];
+
+		Vec3 origin;
+		Vec3 direction;
+		double minDistance;
+		Face[] ignore;
+		int[] ignoreInstances;
+
+		Hit hit;
+		Instance found;
+		Occluder occluder;
+
+		private void toObject(Instance instance) {
+			instance.toObjectPoint(origin, objectOrigin);
+			instance.toObjectDirection(direction, objectDirection);
+		}
+
+		private Face[] ignore(int instance) {
+			if (ignoreInstances == null) {
+				return ignore;
+			}
+
+			if (instanceIgnore.length < ignore.length) {
+				instanceIgnore = new Face[ignore.length];
+			}
+
+			Arrays.fill(instanceIgnore, null);
+			for (int k = 0; k < ignore.length; k++) {
+				if (ignoreInstances[k] == instance) {
+					instanceIgnore[k] = ignore[k];
+				}
+			}
+
+			return instanceIgnore;
+		}
+
+		final Visitor closest = (i, max) -> {
+			Instance instance = instances[i];
+			toObject(instance);
+
+			if (!models[i].closest(
+					objectOrigin, objectDirection,
+					minDistance, max,
+					objectHit, ignore(i))) {
+				return max;
+			}
+
+			toWorld(i);
+			return objectHit.distance;
+		};
+
+		final Visitor any = (i, max) -> {
+			Instance instance = instances[i];
+			toObject(instance);
+
+			if (!models[i].any(objectOrigin, objectDirection, objectHit, ignore(i))) {
+				return max;
+			}
+
+			toWorld(i);
+			return -1;
+		};
+
+		final Visitor occluded = (i, max) -> {
+			Instance instance = instances[i];
+			toObject(instance);
+
+			Occluder o = models[i].occluder(
+					objectOrigin, objectDirection,
+					max, ignore(i));
+			if (o == null) {
+				return max;
+			}
+
+			InstanceOccluder wrapper = occluders[i];
+			if (wrapper == null) {
+				wrapper = occluders[i] = new InstanceOccluder(instance, i);
+			}
+
+			wrapper.occluder = o;
+			occluder = wrapper;
+			return -1;
+		};
+
+		/**
+		 * Converts the object space hit into world space. The ray parameter
+		 * is the same in both spaces since the ray direction is transformed
+		 * along with its origin.
+		 */
+		private void toWorld(int i) {
+			hit.set(origin, direction, objectHit.distance, objectHit.face);
+			hit.instance = i;
+			instances[i].toWorldNormal(objectHit.normal, hit.normal);
+			found = instances[i];
+		}
+
+		Query start(
+				Vec3 origin, Vec3 direction,
+				double minDistance, Hit hit,
+				Face[] ignore, int[] ignoreInstances) {
+			this.origin = origin;
+			this.direction = direction;
+			this.minDistance = minDistance;
+			this.hit = hit;
+			this.ignore = ignore;
+			this.ignoreInstances = ignoreInstances;
+
+			found = null;
+			occluder = null;
+
+			return this;
+		}
+
+	}
+
+	private final ThreadLocal<Query> queries =
+			ThreadLocal.withInitial(Query::new);
+
+	private void traverse(
+			Query query,
+			double minDistance, double maxDistance,
+			Visitor visitor) {
+		double ox = query.origin.x, oy = query.origin.y, oz = query.origin.z;
+		double ix = 1 / query.direction.x;
+		double iy = 1 / query.direction.y;
+		double iz = 1 / query.direction.z;
+
+		int[] stack = query.stack;
+		int sp = 0;
+		stack[sp++] = 0;
+
+		while (sp > 0) {
+			int node = stack[--sp];
+
+			double t = AABB.intersect(bounds, node * 6,
+					ox, oy, oz, ix, iy, iz,
+					minDistance, maxDistance);
+			if (Double.isNaN(t)) {
+				continue;
+			}
+
+			int count = counts[node];
+			if (count == 0) {
+				if (node + 1 < nodeCount) {
+					stack[sp++] = offsets[node];
+					stack[sp++] = node + 1;
+				}
+
+				continue;
+			}
+
+			int first = offsets[node];
+			for (int i = first; i < first + count; i++) {
+				maxDistance = visitor.visit(i, maxDistance);
+				if (maxDistance < 0) {
+					return;
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean closest(
+			Vec3 origin, Vec3 direction,
+			double minDistance, double maxDistance,
+			Hit hit, Face... ignore) {
+		return closest(origin, direction, minDistance, maxDistance,
+				hit, ignore, null);
+	}
+
+	@Override
+	public boolean closest(
+			Vec3 origin, Vec3 direction,
+			double minDistance, double maxDistance,
+			Hit hit, Face[] ignore, int[] ignoreInstances) {
+		Query query = queries.get().start(
+				origin, direction,
+				minDistance, hit, ignore, ignoreInstances);
+
+		traverse(query, minDistance, maxDistance, query.closest);
+		return query.found != null;
+	}
+
+	@Override
+	public boolean any(Vec3 origin, Vec3 direction, Hit hit, Face... ignore) {
+		Query query = queries.get().start(
+				origin, direction,
+				0, hit, ignore, null);
+
+		traverse(query, 0, Double.POSITIVE_INFINITY, query.any);
+		return query.found != null;
+	}
+
+	@Override
+	public Occluder occluder(
+			Vec3 origin, Vec3 direction,
+			double maxDistance,
+			Face... ignore) {
+		return occluder(origin, direction, maxDistance, ignore, null);
+	}
+
+	@Override
+	public Occluder occluder(
+			Vec3 origin, Vec3 direction,
+			double maxDistance,
+			Face[] ignore, int[] ignoreInstances) {
+		Query query = queries.get().start(
+				origin, direction,
+				Vector.EPSILON, null, ignore, ignoreInstances);
+
+		traverse(query, Vector.EPSILON, maxDistance, query.occluded);
+		return query.occluder;
+	}
+
+	public int countInstances() {
+		return instances.length;
+	}
+
+	public int countModels() {
+		return modelCount;
+	}
+
+	/**
+	 * Builds a two-level structure over the given instances.
+	 *
+	 * @param placements every instance to include
+	 * @param factory builds a bottom-level structure from a model's faces
+	 * @param builder builds the top-level tree
+	 * @return the new structure
+	 */
+	public static InstancedAccelerator build(
+			List<Instance> placements,
+			Function<Face[], Accelerator> factory,
+			BVHBuilder builder) {
+		int n = placements.size();
+
+		// one bottom-level structure per model, shared by its instances
+		Map<Model, Accelerator> byModel = new IdentityHashMap<>();
+		for (Instance instance : placements) {
+			byModel.computeIfAbsent(instance.model(), m -> factory.apply(
+					m.faces().toArray(new Face[0])));
+		}
+
+		double[] boxes = new double[n * 6];
+		double[] centroids = new double[n * 3];
+		for (int i = 0; i < n; i++) {
+			Matrix box = placements.get(i).boundingBox();
+			for (int axis = 0; axis < 3; axis++) {
+				boxes[i * 6 + axis] = box.val(axis, 0);
+				boxes[i * 6 + 3 + axis] = box.val(axis, 1);
+				centroids[i * 3 + axis] = (box.val(axis, 0) + box.val(axis, 1)) / 2;
+			}
+
+			AABB.pad(boxes, i * 6);
+		}
+
+		BVHBuilder.Tree tree = builder.buildTree(boxes, centroids, n);
+
+		Instance[] instances = new Instance[n];
+		Accelerator[] models = new Accelerator[n];
+		for (int i = 0; i < n; i++) {
+			instances[i] = placements.get(tree.order[i]);
+			models[i] = byModel.get(instances[i].model());
+		}
+
+		return new InstancedAccelerator(instances, models, tree, byModel.size());
+	}
+
+}
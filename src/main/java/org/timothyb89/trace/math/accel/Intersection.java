@@ -0,0 +1,29 @@
+package org.timothyb89.trace.math.accel;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Vector;
+
+/**
+ * A single ray / face intersection as returned by an {@link Accelerator}.
+ * @author timothyb
+ */
+@Data
+@Accessors(fluent = true)
+public class Intersection {
+
+	/**
+	 * The ray parameter {@code t} such that {@code point = origin + t * dir}.
+	 */
+	private final double distance;
+
+	private final Face face;
+	private final Vector point;
+
+	/**
+	 * The surface normal at the hit point, in world space.
+	 */
+	private final Vector normal;
+
+}
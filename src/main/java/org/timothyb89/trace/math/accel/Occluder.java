@@ -0,0 +1,39 @@
+package org.timothyb89.trace.math.accel;
+
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Vec3;
+import org.timothyb89.trace.math.Vector;
+
+/**
+ * Something that may block a shadow ray, as reported by
+ * {@link Accelerator#occluder}. Occluders can be re-tested against later rays
+ * without another traversal.
+ * @author timothyb
+ */
+public interface Occluder {
+
+	/**
+	 * Determines whether this blocks the given ray anywhere between
+	 * {@link Vector#EPSILON} and {@code maxDistance}.
+	 */
+	boolean occludes(Vec3 origin, Vec3 direction, double maxDistance);
+
+	/**
+	 * @return the face doing the blocking, so callers can tell whether it's
+	 *     one they meant to ignore
+	 */
+	Face face();
+
+	/**
+	 * @return the instance the face belongs to, as in {@link Hit#instance},
+	 *     or -1 outside an {@link InstancedAccelerator}
+	 */
+	default int instance() {
+		return -1;
+	}
+
+	default boolean occludes(Vector origin, Vector direction, double maxDistance) {
+		return occludes(Vec3.of(origin), Vec3.of(direction), maxDistance);
+	}
+
+}
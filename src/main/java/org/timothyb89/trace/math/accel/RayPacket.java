@@ -0,0 +1,213 @@
+package org.timothyb89.trace.math.accel;
+
+import org.timothyb89.trace.math.Vec3;
+
+/**
+ * A group of coherent rays, e.g. the primary rays for a block of neighboring
+ * pixels, traced together with
+ * {@link Accelerator#closest(RayPacket)}.
+ *
+ * <p>If every ray passes through a common apex, such as the camera's focal
+ * point, {@link #frustum} bounds the packet with 4 planes so structures can
+ * reject whole nodes for the packet at once. Packets without a usable
+ * frustum are traced one ray at a time.</p>
+ *
+ * <p>Packets are reusable: {@link #clear()} keeps every allocated vector and
+ * hit.</p>
+ * @author timothyb
+ */
+public final class RayPacket {
+
+	/**
+	 * Corner rays must be within this cosine of the packet's central direction
+	 * for the frustum to be used; wider packets gain little from culling.
+	 */
+	public static final double MIN_COHERENCE = 0.5;
+
+	private final Vec3[] origins;
+	private final Vec3[] directions;
+	private final Hit[] hits;
+	private final boolean[] found;
+
+	private int size;
+
+	/**
+	 * Working state for traversal: the nearest distance and face index found
+	 * so far for each ray, and the reciprocals of each direction.
+	 */
+	final double[] best;
+	final int[] bestFace;
+	final double[] inverse;
+
+	/**
+	 * Inward-facing side planes through the apex: 4 normals, then the plane
+	 * constants, such that {@code n * p + d >= 0} inside the frustum.
+	 */
+	private final double[] planes = new double[16];
+	private boolean coherent;
+
+	public RayPacket(int capacity) {
+		origins = new Vec3[capacity];
+		directions = new Vec3[capacity];
+		hits = new Hit[capacity];
+		found = new boolean[capacity];
+
+		best = new double[capacity];
+		bestFace = new int[capacity];
+		inverse = new double[capacity * 3];
+
+		for (int i = 0; i < capacity; i++) {
+			origins[i] = new Vec3();
+			directions[i] = new Vec3();
+			hits[i] = new Hit();
+		}
+	}
+
+	public void clear() {
+		size = 0;
+		coherent = false;
+	}
+
+	/**
+	 * Adds a ray, to be filled in through {@link #origin(int)} and
+	 * {@link #direction(int)}.
+	 * @return the index of the new ray
+	 */
+	public int add() {
+		if (size == origins.length) {
+			throw new IllegalStateException("Packet is full");
+		}
+
+		found[size] = false;
+		return size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return origins.length;
+	}
+
+	public Vec3 origin(int i) {
+		return origins[i];
+	}
+
+	public Vec3 direction(int i) {
+		return directions[i];
+	}
+
+	/**
+	 * @return the closest hit for a ray, valid if {@link #found(int)}
+	 */
+	public Hit hit(int i) {
+		return hits[i];
+	}
+
+	public boolean found(int i) {
+		return found[i];
+	}
+
+	void found(int i, boolean value) {
+		found[i] = value;
+	}
+
+	/**
+	 * @return true if the packet has a frustum and can be traced as a whole
+	 */
+	public boolean coherent() {
+		return coherent;
+	}
+
+	/**
+	 * Bounds the packet by the planes through an apex and each pair of
+	 * neighboring corner rays. Every ray must pass through the apex in its
+	 * direction of travel, and lie within the corners, as primary rays for a
+	 * rectangular block of pixels do. Leaves the packet incoherent if the
+	 * corners are too far apart.
+	 *
+	 * @param apex the point all rays pass through
+	 * @param corners the indices of the 4 corner rays, in order around the
+	 *     packet's edge
+	 * @return true if the frustum can be used
+	 */
+	public boolean frustum(Vec3 apex, int... corners) {
+		coherent = false;
+		if (corners.length != 4 || size < 4) {
+			return false;
+		}
+
+		double cx = 0, cy = 0, cz = 0;
+		for (int c : corners) {
+			cx += directions[c].x;
+			cy += directions[c].y;
+			cz += directions[c].z;
+		}
+
+		double length = Math.sqrt(cx * cx + cy * cy + cz * cz);
+		if (length == 0) {
+			return false;
+		}
+
+		cx /= length;
+		cy /= length;
+		cz /= length;
+
+		for (int c : corners) {
+			Vec3 d = directions[c];
+			if (d.x * cx + d.y * cy + d.z * cz < MIN_COHERENCE * d.length()) {
+				return false;
+			}
+		}
+
+		for (int k = 0; k < 4; k++) {
+			Vec3 a = directions[corners[k]];
+			Vec3 b = directions[corners[(k + 1) % 4]];
+
+			double nx = a.y * b.z - a.z * b.y;
+			double ny = a.z * b.x - a.x * b.z;
+			double nz = a.x * b.y - a.y * b.x;
+
+			// winding may go either way; face the center
+			if (nx * cx + ny * cy + nz * cz < 0) {
+				nx = -nx;
+				ny = -ny;
+				nz = -nz;
+			}
+
+			planes[k * 3] = nx;
+			planes[k * 3 + 1] = ny;
+			planes[k * 3 + 2] = nz;
+			planes[12 + k] = -(nx * apex.x + ny * apex.y + nz * apex.z);
+		}
+
+		coherent = true;
+		return true;
+	}
+
+	/**
+	 * Tests a box against the frustum.
+	 * @return true if the box lies entirely outside some side plane, so no
+	 *     ray in the packet can hit it
+	 */
+	boolean culls(double[] b, int o) {
+		for (int k = 0; k < 4; k++) {
+			double nx = planes[k * 3];
+			double ny = planes[k * 3 + 1];
+			double nz = planes[k * 3 + 2];
+
+			// the box corner furthest along the plane normal
+			double px = nx >= 0 ? b[o + 3] : b[o];
+			double py = ny >= 0 ? b[o + 4] : b[o + 1];
+			double pz = nz >= 0 ? b[o + 5] : b[o + 2];
+
+			if (nx * px + ny * py + nz * pz + planes[12 + k] < 0) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+}
@@ -0,0 +1,31 @@
+package org.timothyb89.trace.math.accel;
+
+/**
+ * Creates SIMD {@link TriangleKernel}s. This Java 8 version never does; the
+ * multi-release jar overrides it on Java 17+.
+ * @author timothyb
+ */
+final class SimdKernels {
+
+	private SimdKernels() {
+	}
+
+	/**
+	 * @return a SIMD kernel for the store, or null if none is available
+	 */
+	static TriangleKernel create(TriangleStore store) {
+		return null;
+	}
+
+	/**
+	 * @return why no SIMD kernel is available, or null if one is
+	 */
+	static String unavailable() {
+		return "SIMD kernels require Java 17+";
+	}
+
+	static String describe() {
+		return "scalar";
+	}
+
+}
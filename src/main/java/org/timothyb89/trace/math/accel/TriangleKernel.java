@@ -0,0 +1,119 @@
+package org.timothyb89.trace.math.accel;
+
+/**
+ * Tests one ray against a run of consecutive triangles in a
+ * {@link TriangleStore} at once, e.g. every triangle in a BVH leaf.
+ *
+ * <p>Only the scalar kernel is available on Java 8. On Java 17+ the
+ * multi-release jar replaces {@link SimdKernels} with a version that returns
+ * a kernel built on {@code jdk.incubator.vector}, which tests as many
+ * triangles per instruction as the CPU has double lanes. The incubator module
+ * has to be enabled with {@code --add-modules jdk.incubator.vector}; without
+ * it, or when {@link #disableSimd()} has been called, accelerators fall back
+ * to the scalar kernel automatically.</p>
+ * @author timothyb
+ */
+public abstract class TriangleKernel {
+
+	private static volatile boolean simd = true;
+
+	/**
+	 * @return how many triangles this kernel tests at once
+	 */
+	public abstract int width();
+
+	/**
+	 * @return a short description of this kernel
+	 */
+	public abstract String name();
+
+	/**
+	 * Intersects a ray with triangles {@code [first, first + count)}.
+	 *
+	 * @param t receives the ray distance of each triangle's hit, or NaN if
+	 *     the ray misses it within {@code (tMin, tMax)}; must have room for
+	 *     {@code count} rounded up to a multiple of {@link #width()}
+	 */
+	public abstract void intersect(
+			int first, int count,
+			double ox, double oy, double oz,
+			double dx, double dy, double dz,
+			double tMin, double tMax,
+			double[] t);
+
+	/**
+	 * Tests triangles one at a time, straight from the store.
+	 */
+	private static class Scalar extends TriangleKernel {
+
+		private final TriangleStore store;
+
+		Scalar(TriangleStore store) {
+			this.store = store;
+		}
+
+		@Override
+		public int width() {
+			return 1;
+		}
+
+		@Override
+		public String name() {
+			return "scalar";
+		}
+
+		@Override
+		public void intersect(
+				int first, int count,
+				double ox, double oy, double oz,
+				double dx, double dy, double dz,
+				double tMin, double tMax,
+				double[] t) {
+			for (int i = 0; i < count; i++) {
+				t[i] = store.intersectTriangle(first + i,
+						ox, oy, oz, dx, dy, dz,
+						tMin, tMax);
+			}
+		}
+
+	}
+
+	/**
+	 * Makes accelerators built from now on use the scalar kernel, even if a
+	 * SIMD one is available.
+	 */
+	public static void disableSimd() {
+		simd = false;
+	}
+
+	/**
+	 * Picks the widest kernel available for a store.
+	 */
+	static TriangleKernel of(TriangleStore store) {
+		if (simd) {
+			TriangleKernel kernel = SimdKernels.create(store);
+			if (kernel != null) {
+				return kernel;
+			}
+		}
+
+		return new Scalar(store);
+	}
+
+	/**
+	 * @return a description of the kernel new accelerators will use
+	 */
+	public static String describe() {
+		if (!simd) {
+			return "scalar (SIMD disabled)";
+		}
+
+		String reason = SimdKernels.unavailable();
+		if (reason != null) {
+			return "scalar (" + reason + ")";
+		}
+
+		return SimdKernels.describe();
+	}
+
+}
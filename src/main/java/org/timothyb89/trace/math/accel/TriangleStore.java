@@ -0,0 +1,294 @@
+package org.timothyb89.trace.math.accel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Triangle;
+import org.timothyb89.trace.math.Vec3;
+import org.timothyb89.trace.math.Vector;
+
+/**
+ * Packed, off-heap triangle data for the faces of an acceleration structure.
+ *
+ * <p>Polygons are split into triangle fans. Each triangle's first vertex,
+ * two edges and geometric normal are kept in structure-of-arrays form, one
+ * direct buffer per component. Triangles are stored in the same order as
+ * the faces they came from, so the faces of a BVH leaf or grid cell are read
+ * sequentially without touching any {@link Face} objects. Faces remain as
+ * lightweight handles for the rest of the tracer via {@link #face(int)},
+ * which is also where shading finds their materials.</p>
+ *
+ * <p>With {@link Precision#FLOAT}, components are stored as floats, about
+ * halving the store's size. Edges are taken between the rounded vertices so
+ * neighboring triangles still share exact edges, and everything is widened
+ * back to doubles for intersection.</p>
+ * @author timothyb
+ */
+public class TriangleStore {
+
+	private static final int AX = 0, AY = 1, AZ = 2;
+	private static final int E1X = 3, E1Y = 4, E1Z = 5;
+	private static final int E2X = 6, E2Y = 7, E2Z = 8;
+	private static final int NX = 9, NY = 10, NZ = 11;
+	private static final int COMPONENTS = 12;
+
+	/**
+	 * Zeroed entries after the last triangle of each component, so a vector
+	 * load starting at any triangle stays in bounds. Zero edges never
+	 * produce a hit.
+	 */
+	static final int PADDING = 8;
+
+	private final Face[] faces;
+
+	/**
+	 * The first triangle of each face, plus a final entry for the total.
+	 */
+	private final int[] faceStart;
+
+	/**
+	 * True if every face is a single triangle, so face and triangle indices
+	 * coincide.
+	 */
+	private final boolean trianglesOnly;
+
+	private final Precision precision;
+
+	/**
+	 * The raw bytes of each component, in native order.
+	 */
+	private final ByteBuffer[] buffers = new ByteBuffer[COMPONENTS];
+
+	/**
+	 * One of these views the components, depending on the precision.
+	 */
+	private final DoubleBuffer[] columns;
+	private final FloatBuffer[] floatColumns;
+
+	private TriangleStore(Face[] faces, Precision precision) {
+		this.faces = faces;
+		this.precision = precision;
+
+		faceStart = new int[faces.length + 1];
+		for (int i = 0; i < faces.length; i++) {
+			faceStart[i + 1] = faceStart[i] + faces[i].size() - 2;
+		}
+
+		int count = faceStart[faces.length];
+		trianglesOnly = count == faces.length;
+
+		if (precision == Precision.FLOAT) {
+			columns = null;
+			floatColumns = new FloatBuffer[COMPONENTS];
+			for (int c = 0; c < COMPONENTS; c++) {
+				buffers[c] = allocate((count + PADDING) * Float.BYTES);
+				floatColumns[c] = buffers[c].asFloatBuffer();
+			}
+		} else {
+			floatColumns = null;
+			columns = new DoubleBuffer[COMPONENTS];
+			for (int c = 0; c < COMPONENTS; c++) {
+				buffers[c] = allocate((count + PADDING) * Double.BYTES);
+				columns[c] = buffers[c].asDoubleBuffer();
+			}
+		}
+
+		double[] tri = new double[9];
+		for (int i = 0; i < faces.length; i++) {
+			Face face = faces[i];
+			double[] n = face.surfaceNormal().data();
+
+			for (int k = 0; k < face.size() - 2; k++) {
+				int t = faceStart[i] + k;
+				face.triangle(k, tri, 0);
+				if (floatColumns != null) {
+					putFloats(t, tri, n);
+				} else {
+					for (int c = 0; c < 9; c++) {
+						columns[c].put(t, tri[c]);
+					}
+
+					columns[NX].put(t, n[0]);
+					columns[NY].put(t, n[1]);
+					columns[NZ].put(t, n[2]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores a triangle given as {@code a, e1, e2} in single precision,
+	 * recomputing the edges from the rounded vertices.
+	 */
+	private void putFloats(int t, double[] tri, double[] n) {
+		FloatBuffer[] c = floatColumns;
+		for (int axis = 0; axis < 3; axis++) {
+			float a = (float) tri[axis];
+			float b = (float) (tri[axis] + tri[3 + axis]);
+			float d = (float) (tri[axis] + tri[6 + axis]);
+
+			c[AX + axis].put(t, a);
+			c[E1X + axis].put(t, b - a);
+			c[E2X + axis].put(t, d - a);
+			c[NX + axis].put(t, (float) n[axis]);
+		}
+	}
+
+	private static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Intersects a ray with every triangle of a face.
+	 *
+	 * @param face the index of the face, as given when building the store
+	 * @return the ray distance of the nearest hit on the face, or NaN if the
+	 *     ray misses it within {@code (tMin, tMax)}
+	 */
+	public double intersect(
+			int face,
+			double ox, double oy, double oz,
+			double dx, double dy, double dz,
+			double tMin, double tMax) {
+		if (trianglesOnly) {
+			return intersectTriangle(face,
+					ox, oy, oz, dx, dy, dz,
+					tMin, tMax);
+		}
+
+		// fan triangles of a planar face don't overlap, so the first hit is
+		// the only one
+		for (int t = faceStart[face]; t < faceStart[face + 1]; t++) {
+			double hit = intersectTriangle(t,
+					ox, oy, oz, dx, dy, dz,
+					tMin, tMax);
+			if (!Double.isNaN(hit)) {
+				return hit;
+			}
+		}
+
+		return Double.NaN;
+	}
+
+	double intersectTriangle(
+			int t,
+			double ox, double oy, double oz,
+			double dx, double dy, double dz,
+			double tMin, double tMax) {
+		if (floatColumns != null) {
+			FloatBuffer[] f = floatColumns;
+
+			return Triangle.intersect(
+					ox, oy, oz, dx, dy, dz,
+					f[AX].get(t), f[AY].get(t), f[AZ].get(t),
+					f[E1X].get(t), f[E1Y].get(t), f[E1Z].get(t),
+					f[E2X].get(t), f[E2Y].get(t), f[E2Z].get(t),
+					tMin, tMax, null);
+		}
+
+		DoubleBuffer[] c = columns;
+
+		return Triangle.intersect(
+				ox, oy, oz, dx, dy, dz,
+				c[AX].get(t), c[AY].get(t), c[AZ].get(t),
+				c[E1X].get(t), c[E1Y].get(t), c[E1Z].get(t),
+				c[E2X].get(t), c[E2Y].get(t), c[E2Z].get(t),
+				tMin, tMax, null);
+	}
+
+	/**
+	 * @return the geometric normal of a face
+	 */
+	public Vector normal(int face) {
+		int t = faceStart[face];
+
+		return Vector.of(
+				component(NX, t),
+				component(NY, t),
+				component(NZ, t));
+	}
+
+	/**
+	 * Copies the geometric normal of a face into {@code out}.
+	 * @return {@code out}
+	 */
+	public Vec3 normal(int face, Vec3 out) {
+		int t = faceStart[face];
+
+		return out.set(
+				component(NX, t),
+				component(NY, t),
+				component(NZ, t));
+	}
+
+	private double component(int c, int t) {
+		return floatColumns != null
+				? floatColumns[c].get(t)
+				: columns[c].get(t);
+	}
+
+	/**
+	 * @return true if face and triangle indices coincide
+	 */
+	public boolean trianglesOnly() {
+		return trianglesOnly;
+	}
+
+	/**
+	 * Exposes a component's raw bytes to kernels that load vectors straight
+	 * from the store. Components are ordered {@code a}, {@code e1},
+	 * {@code e2}, x then y then z, and hold {@link #precision()} values in
+	 * native order, followed by {@link #PADDING} zeros. Callers mustn't
+	 * write to them.
+	 *
+	 * @param component the component, from 0 to 8
+	 */
+	ByteBuffer buffer(int component) {
+		return buffers[component];
+	}
+
+	public Face face(int face) {
+		return faces[face];
+	}
+
+	public int countFaces() {
+		return faces.length;
+	}
+
+	public int countTriangles() {
+		return faceStart[faces.length];
+	}
+
+	public Precision precision() {
+		return precision;
+	}
+
+	/**
+	 * @return the off-heap size of the store, in bytes
+	 */
+	public long sizeBytes() {
+		int bytes = floatColumns != null ? Float.BYTES : Double.BYTES;
+
+		return (long) (countTriangles() + PADDING) * COMPONENTS * bytes;
+	}
+
+	/**
+	 * Packs the given faces in double precision, which are afterwards
+	 * referred to by index.
+	 */
+	public static TriangleStore of(Face[] faces) {
+		return new TriangleStore(faces, Precision.DOUBLE);
+	}
+
+	/**
+	 * Packs the given faces in the given precision, which are afterwards
+	 * referred to by index.
+	 */
+	public static TriangleStore of(Face[] faces, Precision precision) {
+		return new TriangleStore(faces, precision);
+	}
+
+}
@@ -0,0 +1,45 @@
+package org.timothyb89.trace.math.sampling;
+
+/**
+ * The 2D Halton sequence in bases 2 and 3. Any number of consecutive
+ * samples is well spread over the pixel, so it suits pixels that keep
+ * adding samples. Each pixel's sequence is shifted by a random offset,
+ * wrapping around, so neighboring pixels don't share a pattern.
+ * @author timothyb
+ */
+public class HaltonSampler implements Sampler {
+
+	@Override
+	public void sample(int seed, int index, double[] out) {
+		int h = Sampler.hash(seed);
+
+		out[0] = wrap(radicalInverse2(index) + Sampler.unit(h));
+		out[1] = wrap(radicalInverse3(index) + Sampler.unit(Sampler.hash(h)));
+	}
+
+	private static double wrap(double v) {
+		return v >= 1 ? v - 1 : v;
+	}
+
+	/**
+	 * Mirrors the binary digits of {@code i} about the radix point.
+	 */
+	static double radicalInverse2(int i) {
+		return Sampler.unit(Integer.reverse(i));
+	}
+
+	/**
+	 * Mirrors the base 3 digits of {@code i} about the radix point.
+	 */
+	static double radicalInverse3(int i) {
+		double inverse = 0;
+		double scale = 1.0 / 3;
+		for (int n = i; n > 0; n /= 3) {
+			inverse += (n % 3) * scale;
+			scale /= 3;
+		}
+
+		return inverse;
+	}
+
+}
@@ -0,0 +1,18 @@
+package org.timothyb89.trace.math.sampling;
+
+/**
+ * Independent uniformly random points. Converges the slowest, but makes no
+ * assumptions about how many samples each pixel takes.
+ * @author timothyb
+ */
+public class RandomSampler implements Sampler {
+
+	@Override
+	public void sample(int seed, int index, double[] out) {
+		int h = Sampler.hash(seed ^ Sampler.hash(index));
+
+		out[0] = Sampler.unit(h);
+		out[1] = Sampler.unit(Sampler.hash(h));
+	}
+
+}
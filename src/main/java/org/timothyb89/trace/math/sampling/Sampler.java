@@ -0,0 +1,88 @@
+package org.timothyb89.trace.math.sampling;
+
+import java.util.Arrays;
+
+/**
+ * Generates the points within a pixel that camera rays are traced through.
+ * Samplers are stateless: each point depends only on a seed derived from the
+ * pixel and pass, and the sample's index within the pixel, so renders are
+ * reproducible regardless of which thread traces which pixel.
+ * @author timothyb
+ */
+public interface Sampler {
+
+	/**
+	 * The available sampler implementations.
+	 */
+	enum Type {
+
+		RANDOM,
+		STRATIFIED,
+		HALTON,
+		SOBOL;
+
+		/**
+		 * @param strata the grid width used by stratified sampling, which
+		 *     stratifies each group of {@code strata * strata} samples
+		 */
+		public Sampler create(int strata) {
+			switch (this) {
+				case RANDOM: return new RandomSampler();
+				case STRATIFIED: return new StratifiedSampler(strata);
+				case HALTON: return new HaltonSampler();
+				default: return new SobolSampler();
+			}
+		}
+
+		public static Type parse(String name) {
+			try {
+				return valueOf(name.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException(
+						"Unknown sampler: " + name
+								+ ", expected one of "
+								+ Arrays.toString(values()));
+			}
+		}
+
+	}
+
+	/**
+	 * Computes a point within a pixel.
+	 *
+	 * @param seed identifies the pixel and pass, see {@link #seed}
+	 * @param index the sample's number within the pixel, from 0
+	 * @param out receives the point's row and column offsets from the
+	 *     pixel's corner, each in {@code [0, 1)}
+	 */
+	void sample(int seed, int index, double[] out);
+
+	/**
+	 * @return a seed unique to a pixel and pass
+	 */
+	static int seed(int row, int col, int pass) {
+		return hash(row ^ hash(col ^ hash(pass)));
+	}
+
+	/**
+	 * Mixes the bits of a value, so similar inputs give unrelated outputs.
+	 * This is the "lowbias32" integer hash by Chris Wellons.
+	 */
+	static int hash(int x) {
+		x ^= x >>> 16;
+		x *= 0x7feb352d;
+		x ^= x >>> 15;
+		x *= 0x846ca68b;
+		x ^= x >>> 16;
+
+		return x;
+	}
+
+	/**
+	 * @return the given bits as a fraction in {@code [0, 1)}
+	 */
+	static double unit(int bits) {
+		return (bits & 0xffffffffL) * 0x1p-32;
+	}
+
+}
@@ -0,0 +1,59 @@
+package org.timothyb89.trace.math.sampling;
+
+/**
+ * The first two dimensions of the Sobol sequence with Owen scrambling. Every
+ * power of two prefix is stratified over the pixel, in grids of any aspect
+ * ratio, and the random scrambling per pixel keeps that property while
+ * avoiding the regular patterns of the plain sequence. Uses the hash-based
+ * scrambling from Burley, "Practical Hash-based Owen Scrambling" (2020).
+ * @author timothyb
+ */
+public class SobolSampler implements Sampler {
+
+	@Override
+	public void sample(int seed, int index, double[] out) {
+		int h = Sampler.hash(seed);
+
+		// shuffling the order keeps each power of two prefix stratified
+		int i = scramble(index, h);
+
+		int x = scramble(Integer.reverse(i), Sampler.hash(h ^ 0x1));
+		int y = scramble(sobol1(i), Sampler.hash(h ^ 0x2));
+
+		out[0] = Sampler.unit(x);
+		out[1] = Sampler.unit(y);
+	}
+
+	/**
+	 * @return the second dimension of the Sobol sequence, as a 32 bit
+	 *     fraction
+	 */
+	static int sobol1(int i) {
+		int result = 0;
+		for (int v = 1 << 31; i != 0; i >>>= 1, v ^= v >>> 1) {
+			if ((i & 1) != 0) {
+				result ^= v;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Applies a random nested uniform (Owen) scramble to a 32 bit fraction:
+	 * each bit is flipped or not based on a hash of all the bits above it.
+	 */
+	static int scramble(int x, int seed) {
+		x = Integer.reverse(x);
+
+		// Laine-Karras hash, where each bit only depends on lower bits
+		x += seed;
+		x ^= x * 0x6c50b47c;
+		x ^= x * 0xb82f1e52;
+		x ^= x * 0xc7afe638;
+		x ^= x * 0x8d22f6e6;
+
+		return Integer.reverse(x);
+	}
+
+}
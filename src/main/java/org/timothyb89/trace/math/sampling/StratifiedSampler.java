@@ -0,0 +1,79 @@
+package org.timothyb89.trace.math.sampling;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Jittered grid sampling: the pixel is split into a grid of cells, and each
+ * group of samples places one random point in every cell. Cells are visited
+ * in a random order per group, so a group cut short is still spread over
+ * the pixel rather than bunched along its top rows.
+ * @author timothyb
+ */
+@Accessors(fluent = true)
+public class StratifiedSampler implements Sampler {
+
+	/**
+	 * The grid width; each group holds {@code strata * strata} samples.
+	 */
+	@Getter private final int strata;
+
+	public StratifiedSampler(int strata) {
+		if (strata < 1) {
+			throw new IllegalArgumentException(
+					"Strata must be at least 1: " + strata);
+		}
+
+		this.strata = strata;
+	}
+
+	@Override
+	public void sample(int seed, int index, double[] out) {
+		int cells = strata * strata;
+		int group = Sampler.hash(seed ^ Sampler.hash(index / cells));
+		int cell = permute(index % cells, cells, group);
+
+		int h = Sampler.hash(group ^ Sampler.hash(cell));
+		out[0] = (cell / strata + Sampler.unit(h)) / strata;
+		out[1] = (cell % strata + Sampler.unit(Sampler.hash(h))) / strata;
+	}
+
+	/**
+	 * Maps {@code i} to a position in a random permutation of
+	 * {@code [0, length)} chosen by {@code seed}, without storing it. From
+	 * Kensler, "Correlated Multi-Jittered Sampling" (2013).
+	 */
+	static int permute(int i, int length, int seed) {
+		int w = length - 1;
+		w |= w >>> 1;
+		w |= w >>> 2;
+		w |= w >>> 4;
+		w |= w >>> 8;
+		w |= w >>> 16;
+
+		// cycle walk until the value lands inside the range
+		do {
+			i ^= seed;
+			i *= 0xe170893d;
+			i ^= seed >>> 16;
+			i ^= (i & w) >>> 4;
+			i ^= seed >>> 8;
+			i *= 0x0929eb3f;
+			i ^= seed >>> 23;
+			i ^= (i & w) >>> 1;
+			i *= 1 | seed >>> 27;
+			i *= 0x6935fa69;
+			i ^= (i & w) >>> 11;
+			i *= 0x74dcb303;
+			i ^= (i & w) >>> 2;
+			i *= 0x9e501cc3;
+			i ^= (i & w) >>> 2;
+			i *= 0xc860a3df;
+			i &= w;
+			i ^= i >>> 5;
+		} while (i >= length);
+
+		return Integer.remainderUnsigned(i + seed, length);
+	}
+
+}
@@ -0,0 +1,207 @@
+package org.timothyb89.trace.math.tracer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.Vec3;
+
+/**
+ * Renders on a {@link ForkJoinPool} by recursively halving the image. Each
+ * region traces a few sample pixels to estimate its cost, and is split
+ * again if that exceeds {@link #splitCost}; otherwise it's traced as a
+ * single leaf. Cheap regions like empty sky stay whole, while expensive ones
+ * are broken up finely enough for idle workers to steal the pieces, keeping
+ * every core busy until the end of the frame.
+ * @author timothyb
+ */
+@Accessors(fluent = true)
+public class AdaptiveScheduler {
+
+	public static final int DEFAULT_MIN_SIZE = 8;
+
+	/**
+	 * Estimated nanoseconds of work above which a region is split.
+	 */
+	public static final long DEFAULT_SPLIT_COST = 2000000;
+
+	/**
+	 * Regions are always split until there are at least this many per
+	 * worker, so a cheap looking sample can't hand most of the image to a
+	 * single thread.
+	 */
+	private static final int MIN_REGIONS_PER_WORKER = 4;
+
+	/**
+	 * Sample pixels traced per region along each axis.
+	 */
+	private static final int SAMPLES = 2;
+
+	/**
+	 * The smallest region width and height that will be split further.
+	 */
+	@Getter private final int minSize;
+
+	@Getter private final long splitCost;
+
+	private final AtomicInteger leaves = new AtomicInteger();
+
+	public AdaptiveScheduler(int minSize, long splitCost) {
+		if (minSize < 1) {
+			throw new IllegalArgumentException(
+					"Minimum region size must be at least 1: " + minSize);
+		}
+
+		this.minSize = minSize;
+		this.splitCost = splitCost;
+	}
+
+	public AdaptiveScheduler() {
+		this(DEFAULT_MIN_SIZE, DEFAULT_SPLIT_COST);
+	}
+
+	/**
+	 * Creates the task for a whole frame, to be invoked on a pool.
+	 *
+	 * @param bounds the inclusive camera bounds
+	 * @param parallelism the number of workers that will run the task
+	 * @param progress counts the pixels in each region as it's finished
+	 * @return the root task
+	 */
+	public RecursiveAction root(
+			Scene scene, int[] bounds, int parallelism,
+			int packetSize, Antialiasing antialiasing,
+			PixelSink sink, Progress progress) {
+		Tile frame = new Tile(bounds[1], bounds[0],
+				bounds[3] - bounds[1] + 1,
+				bounds[2] - bounds[0] + 1);
+
+		int maxPixels = Math.max(minSize * minSize,
+				frame.countPixels() / (parallelism * MIN_REGIONS_PER_WORKER));
+
+		leaves.set(0);
+		return new Region(new Context(
+				scene, packetSize, antialiasing, sink, progress, maxPixels), frame);
+	}
+
+	/**
+	 * @return the number of regions traced whole by the last render
+	 */
+	public int countLeaves() {
+		return leaves.get();
+	}
+
+	private static class Context {
+
+		final Scene scene;
+		final int packetSize;
+		final Antialiasing antialiasing;
+		final PixelSink sink;
+		final Progress progress;
+		final int maxPixels;
+
+		Context(Scene scene, int packetSize, Antialiasing antialiasing,
+				PixelSink sink, Progress progress, int maxPixels) {
+			this.scene = scene;
+			this.packetSize = packetSize;
+			this.antialiasing = antialiasing;
+			this.sink = sink;
+			this.progress = progress;
+			this.maxPixels = maxPixels;
+		}
+
+	}
+
+	private class Region extends RecursiveAction {
+
+		private final Context context;
+		private final Tile region;
+
+		Region(Context context, Tile region) {
+			this.context = context;
+			this.region = region;
+		}
+
+		/**
+		 * Traces a grid of sample pixels, writing them out as usual.
+		 * @return the estimated nanoseconds needed to trace the whole region,
+		 *     or 0 if the render has been stopped
+		 */
+		private double estimate() {
+			TraceTask shader = new TraceTask(
+					context.scene, context.antialiasing, region.row(), region.col());
+
+			long elapsed;
+			if (!context.progress.enter()) {
+				return 0;
+			}
+
+			try {
+				long start = System.nanoTime();
+				for (int i = 0; i < SAMPLES; i++) {
+					for (int j = 0; j < SAMPLES; j++) {
+						int row = region.row() + (2 * i + 1) * region.rows() / (2 * SAMPLES);
+						int col = region.col() + (2 * j + 1) * region.cols() / (2 * SAMPLES);
+
+						Vec3 color = shader.pixel(row, col);
+						context.sink.put(row, col, color);
+					}
+				}
+
+				elapsed = System.nanoTime() - start;
+			} finally {
+				context.progress.exit();
+			}
+
+			double perPixel = elapsed / (double) (SAMPLES * SAMPLES);
+			return perPixel * region.countPixels();
+		}
+
+		private boolean shouldSplit() {
+			if (region.rows() <= minSize && region.cols() <= minSize) {
+				return false;
+			}
+
+			return region.countPixels() > context.maxPixels || estimate() > splitCost;
+		}
+
+		@Override
+		protected void compute() {
+			if (!shouldSplit()) {
+				if (!context.progress.enter()) {
+					return;
+				}
+
+				try {
+					TileTask.trace(context.scene, region, context.packetSize,
+							context.antialiasing, context.sink);
+				} finally {
+					context.progress.exit();
+				}
+
+				context.progress.add(region.countPixels());
+				leaves.incrementAndGet();
+				return;
+			}
+
+			Tile a, b;
+			if (region.cols() >= region.rows()) {
+				int half = region.cols() / 2;
+				a = new Tile(region.row(), region.col(), region.rows(), half);
+				b = new Tile(region.row(), region.col() + half,
+						region.rows(), region.cols() - half);
+			} else {
+				int half = region.rows() / 2;
+				a = new Tile(region.row(), region.col(), half, region.cols());
+				b = new Tile(region.row() + half, region.col(),
+						region.rows() - half, region.cols());
+			}
+
+			invokeAll(new Region(context, a), new Region(context, b));
+		}
+
+	}
+
+}
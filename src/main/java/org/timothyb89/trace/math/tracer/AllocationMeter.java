@@ -0,0 +1,119 @@
+package org.timothyb89.trace.math.tracer;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates worker threads and reports how much heap they have allocated, along
+ * with the number of garbage collections run, so the cost per ray of a trace
+ * can be measured.
+ *
+ * <p>Per-thread allocation counts depend on the HotSpot specific
+ * {@code com.sun.management.ThreadMXBean}; on other JVMs
+ * {@link #allocatedBytes()} returns -1.</p>
+ * @author timothyb
+ */
+public class AllocationMeter
+		implements ThreadFactory, ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+	private final ThreadFactory delegate;
+	private final List<Thread> threads;
+
+	public AllocationMeter() {
+		delegate = Executors.defaultThreadFactory();
+		threads = new CopyOnWriteArrayList<>();
+	}
+
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread thread = delegate.newThread(r);
+		threads.add(thread);
+
+		return thread;
+	}
+
+	@Override
+	public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+		ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+				.newThread(pool);
+		threads.add(thread);
+
+		return thread;
+	}
+
+	/**
+	 * @return the total bytes allocated so far by every thread created by
+	 *     this factory, or -1 if the JVM can't tell
+	 */
+	public long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+		if (!sun.isThreadAllocatedMemorySupported()
+				|| !sun.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+
+		long sum = 0;
+		for (Thread thread : threads) {
+			long bytes = sun.getThreadAllocatedBytes(thread.getId());
+			if (bytes > 0) {
+				sum += bytes;
+			}
+		}
+
+		return sum;
+	}
+
+	/**
+	 * @return the number of collections run by every garbage collector
+	 */
+	public static long collections() {
+		long sum = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sum += Math.max(0, gc.getCollectionCount());
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Runs a full collection and measures the heap still in use, e.g. to
+	 * find what a loaded scene retains. Only approximate, since the JVM may
+	 * treat {@link System#gc()} as a hint.
+	 */
+	public static long retainedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @return the bytes held by direct buffers, such as triangle stores
+	 */
+	public static long directBytes() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(
+				BufferPoolMXBean.class)) {
+			if (pool.getName().equals("direct")) {
+				return pool.getMemoryUsed();
+			}
+		}
+
+		return 0;
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.timothyb89.trace.math.tracer;
+
+import java.util.Arrays;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.timothyb89.trace.math.sampling.Sampler;
+
+/**
+ * How many camera rays are traced per pixel.
+ * @author timothyb
+ */
+@Data
+@Accessors(fluent = true)
+public class Antialiasing {
+
+	public enum Mode {
+
+		/**
+		 * A single ray through the pixel center.
+		 */
+		NONE,
+
+		/**
+		 * A fixed number of rays, placed by the sampler.
+		 */
+		UNIFORM,
+
+		/**
+		 * The same rays as {@link #UNIFORM}, one per pass: pass {@code k}
+		 * traces sample {@code k} of the pixel's sequence, so after
+		 * {@code samples} passes each pixel has the full stratified set.
+		 */
+		PROGRESSIVE,
+
+		/**
+		 * Rays in batches of {@code minSamples}, stopping once the pixel's
+		 * estimate has converged or {@code samples} is reached.
+		 */
+		ADAPTIVE;
+
+		public static Mode parse(String name) {
+			try {
+				return valueOf(name.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException(
+						"Unknown anti-aliasing mode: " + name
+								+ ", expected one of "
+								+ Arrays.toString(values()));
+			}
+		}
+
+	}
+
+	public static final int DEFAULT_SAMPLES = 16;
+
+	/**
+	 * The most samples an adaptive pixel takes by default.
+	 */
+	public static final int DEFAULT_MAX_SAMPLES = 64;
+
+	/**
+	 * Sobol samples are best spread over the pixel in power of two batches.
+	 */
+	public static final int DEFAULT_MIN_SAMPLES = 8;
+
+	/**
+	 * The standard error of a pixel's mean luminance below which adaptive
+	 * sampling stops, in the same units as light intensities.
+	 */
+	public static final double DEFAULT_THRESHOLD = 0.01;
+
+	public static final Sampler.Type DEFAULT_SAMPLER = Sampler.Type.SOBOL;
+
+	public static final Antialiasing NONE = new Antialiasing(Mode.NONE, 1, 1, 0);
+
+	private final Mode mode;
+
+	/**
+	 * The number of samples per pixel, or the most an adaptive pixel takes.
+	 */
+	private final int samples;
+
+	/**
+	 * The number of samples an adaptive pixel takes before, and between,
+	 * checking for convergence.
+	 */
+	private final int minSamples;
+
+	private final double threshold;
+
+	private final Sampler.Type samplerType;
+
+	/**
+	 * Places each pixel's samples. Progressive passes without anti-aliasing
+	 * also use it, taking one sample per pass.
+	 */
+	private final Sampler sampler;
+
+	public Antialiasing(
+			Mode mode, int samples, int minSamples, double threshold,
+			Sampler.Type samplerType) {
+		if (samples < 1 || minSamples < 1) {
+			throw new IllegalArgumentException(String.format(
+					"Sample counts must be at least 1: %d, %d",
+					samples, minSamples));
+		}
+
+		this.mode = mode;
+		this.samples = samples;
+		this.minSamples = Math.min(minSamples, samples);
+		this.threshold = threshold;
+		this.samplerType = samplerType;
+
+		// stratify over each batch, or else all of a pixel's samples
+		int batch = mode == Mode.ADAPTIVE ? this.minSamples : samples;
+		this.sampler = samplerType.create((int) Math.sqrt(batch));
+	}
+
+	public Antialiasing(Mode mode, int samples, int minSamples, double threshold) {
+		this(mode, samples, minSamples, threshold, DEFAULT_SAMPLER);
+	}
+
+	public static Antialiasing uniform(int samples) {
+		return new Antialiasing(Mode.UNIFORM, samples, samples, 0);
+	}
+
+	public static Antialiasing adaptive(int samples, double threshold) {
+		return new Antialiasing(Mode.ADAPTIVE, samples, DEFAULT_MIN_SAMPLES, threshold);
+	}
+
+	@Override
+	public String toString() {
+		switch (mode) {
+			case UNIFORM:
+				return String.format("%d %s samples per pixel",
+						samples, samplerType.name().toLowerCase());
+			case PROGRESSIVE:
+				return String.format("%d %s samples per pixel, one per pass",
+						samples, samplerType.name().toLowerCase());
+			case ADAPTIVE:
+				return String.format(
+						"%d to %d %s samples per pixel, to a standard error of %s",
+						minSamples, samples, samplerType.name().toLowerCase(),
+						threshold);
+			default:
+				return "none";
+		}
+	}
+
+}
@@ -0,0 +1,657 @@
+package org.timothyb89.trace.math.tracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.Vec3;
+
+/**
+ * Traces tiles on {@link Worker} processes instead of the local pool, so a
+ * single frame can be spread over many machines. Each worker is kept a few
+ * tiles ahead of its thread count so it never waits on the network.
+ *
+ * <p>Tiles held by a worker that disconnects or stops responding are queued
+ * again for the others. Once the queue runs dry, idle workers also take
+ * tiles that have been outstanding much longer than average, so one slow
+ * machine can't hold up the end of a pass; whichever copy finishes first is
+ * kept. A tile a worker reports as failed is queued again for the others,
+ * and after {@link #MAX_ATTEMPTS} failures it's left for the caller to
+ * trace. Samples depend only on pixel and pass, so the image is the same
+ * no matter which worker traced each tile.</p>
+ * @author timothyb
+ */
+public class Coordinator {
+
+	public static final int DEFAULT_PORT = 7373;
+
+	/**
+	 * Seconds a worker can hold tiles without returning any before it's
+	 * considered lost.
+	 */
+	public static final double DEFAULT_TIMEOUT = 120;
+
+	private static final int CONNECT_TIMEOUT = 5000;
+
+	/**
+	 * Tiles requested per worker thread.
+	 */
+	private static final int TILES_PER_THREAD = 2;
+
+	/**
+	 * An outstanding tile is traced again elsewhere once it's taken this
+	 * many times longer than the average tile.
+	 */
+	private static final double SLOW_FACTOR = 4;
+
+	/**
+	 * Times a tile may fail on workers before it's left for the caller.
+	 */
+	static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * Milliseconds between checks for idle workers.
+	 */
+	private static final long POLL_INTERVAL = 50;
+
+	private final List<InetSocketAddress> addresses;
+	private final byte[] sceneHash;
+	private final int timeout;
+
+	private List<Connection> connections;
+
+	/**
+	 * @param addresses the workers to use
+	 * @param sceneHash the hash of the scene's bundle or inputs, which each
+	 *     worker must have loaded
+	 * @param timeout seconds a worker may go without returning a tile
+	 */
+	public Coordinator(
+			List<InetSocketAddress> addresses, byte[] sceneHash, double timeout) {
+		if (addresses.isEmpty()) {
+			throw new IllegalArgumentException("No workers given");
+		}
+
+		this.addresses = addresses;
+		this.sceneHash = sceneHash;
+		this.timeout = (int) (timeout * 1000);
+	}
+
+	/**
+	 * Parses a comma separated list of {@code host[:port]} worker addresses.
+	 */
+	public static List<InetSocketAddress> parseAddresses(String list) {
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		for (String entry : list.split(",")) {
+			entry = entry.trim();
+			if (entry.isEmpty()) {
+				continue;
+			}
+
+			int colon = entry.lastIndexOf(':');
+			String host = colon < 0 ? entry : entry.substring(0, colon);
+			int port = DEFAULT_PORT;
+			if (colon >= 0) {
+				try {
+					port = Integer.parseInt(entry.substring(colon + 1));
+				} catch (NumberFormatException ex) {
+					port = -1;
+				}
+			}
+
+			if (host.isEmpty() || port < 0 || port > 65535) {
+				throw new IllegalArgumentException(
+						"Invalid worker address: " + entry
+								+ ", expected host[:port]");
+			}
+
+			addresses.add(InetSocketAddress.createUnresolved(host, port));
+		}
+
+		return addresses;
+	}
+
+	/**
+	 * @return the number of workers still connected
+	 */
+	public int countWorkers() {
+		if (connections == null) {
+			return 0;
+		}
+
+		return (int) connections.stream().filter(c -> !c.failed).count();
+	}
+
+	/**
+	 * Connects to every worker, skipping any that can't be reached or don't
+	 * have the scene.
+	 */
+	private void connect(Scene scene, int packetSize, Antialiasing antialiasing) {
+		connections = new ArrayList<>();
+		for (InetSocketAddress address : addresses) {
+			Connection connection = new Connection(address);
+			try {
+				connection.open(scene, packetSize, antialiasing);
+				connections.add(connection);
+				System.out.printf("Connected to worker %s with %d thread%s\n",
+						connection.name, connection.threads,
+						connection.threads == 1 ? "" : "s");
+			} catch (IOException ex) {
+				connection.disconnect();
+				System.err.printf("[Warn] Unable to use worker %s: %s\n",
+						connection.name, ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Traces one pass over some tiles on the workers, connecting on the first
+	 * call, and waits for them to finish.
+	 * @param sink receives each finished tile's pixels
+	 * @param progress counts each tile as it's written
+	 * @return the tiles left untraced because every worker failed, they
+	 *     failed on workers too often, the pass was stopped or the calling
+	 *     thread was interrupted
+	 */
+	public List<Tile> trace(
+			Scene scene, List<Tile> tiles, int packetSize,
+			Antialiasing antialiasing, int pass,
+			PixelSink sink, Progress progress) {
+		if (connections == null) {
+			connect(scene, packetSize, antialiasing);
+		}
+
+		Job job = new Job(tiles, pass, sink, progress);
+		try {
+			while (!job.finished() && !progress.stopped()) {
+				boolean alive = false;
+				for (Connection connection : connections) {
+					if (!connection.failed) {
+						alive = true;
+						connection.fill(job);
+					}
+				}
+
+				if (!alive) {
+					break;
+				}
+
+				job.await(POLL_INTERVAL);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		return job.unfinished();
+	}
+
+	/**
+	 * Ends the session with every worker.
+	 */
+	public void close() {
+		if (connections == null) {
+			return;
+		}
+
+		for (Connection connection : connections) {
+			if (!connection.failed) {
+				System.out.printf("Worker %s traced %d tiles\n",
+						connection.name, connection.traced);
+			}
+
+			connection.close();
+		}
+	}
+
+	/**
+	 * The tiles of a single pass, and which have been handed out or finished.
+	 */
+	private static class Job {
+
+		final List<Tile> tiles;
+		final int pass;
+		final PixelSink sink;
+		final Progress progress;
+
+		private final Deque<Integer> queue = new ArrayDeque<>();
+		private final boolean[] done;
+
+		/**
+		 * How many workers hold each tile, and when it was first handed out.
+		 */
+		private final int[] holders;
+		private final long[] started;
+		private final Connection[] owners;
+		private final int[] failures;
+		private final Connection[] failedOn;
+
+		private int remaining;
+		private long totalTime;
+		private int timed;
+
+		Job(List<Tile> tiles, int pass, PixelSink sink, Progress progress) {
+			this.tiles = tiles;
+			this.pass = pass;
+			this.sink = sink;
+			this.progress = progress;
+
+			done = new boolean[tiles.size()];
+			holders = new int[tiles.size()];
+			started = new long[tiles.size()];
+			owners = new Connection[tiles.size()];
+			failures = new int[tiles.size()];
+			failedOn = new Connection[tiles.size()];
+			remaining = tiles.size();
+
+			for (int i = 0; i < tiles.size(); i++) {
+				queue.add(i);
+			}
+		}
+
+		/**
+		 * @param alone whether the worker is the only one left, in which case
+		 *     it also gets tiles it has failed before
+		 * @return the next tile for a worker: a queued one, or a copy of
+		 *     one that's taking too long elsewhere; or -1 if there is none
+		 */
+		synchronized int next(Connection connection, boolean alone) {
+			long now = System.nanoTime();
+
+			Integer queued = null;
+			for (Iterator<Integer> it = queue.iterator(); it.hasNext(); ) {
+				int index = it.next();
+				if (alone || failedOn[index] != connection) {
+					it.remove();
+					queued = index;
+					break;
+				}
+			}
+
+			if (queued != null) {
+				holders[queued]++;
+				started[queued] = now;
+				owners[queued] = connection;
+				return queued;
+			}
+
+			if (timed == 0) {
+				return -1;
+			}
+
+			double limit = SLOW_FACTOR * totalTime / timed;
+			int slowest = -1;
+			for (int i = 0; i < done.length; i++) {
+				if (!done[i] && holders[i] == 1 && owners[i] != connection
+						&& now - started[i] > limit
+						&& (slowest < 0 || started[i] < started[slowest])) {
+					slowest = i;
+				}
+			}
+
+			if (slowest >= 0) {
+				holders[slowest]++;
+			}
+
+			return slowest;
+		}
+
+		/**
+		 * Claims a returned tile for writing, so any other copy is ignored.
+		 * @param elapsed nanoseconds since the tile was requested
+		 * @return true if this is the first copy of the tile to return
+		 */
+		synchronized boolean claim(int index, long elapsed) {
+			holders[index]--;
+			if (done[index]) {
+				return false;
+			}
+
+			done[index] = true;
+			totalTime += elapsed;
+			timed++;
+			return true;
+		}
+
+		/**
+		 * Counts a claimed tile once its pixels are written.
+		 */
+		synchronized void complete() {
+			remaining--;
+			notifyAll();
+		}
+
+		/**
+		 * Returns a tile held by a failed worker to the queue, unless
+		 * another worker is still tracing it.
+		 */
+		synchronized void release(int index) {
+			holders[index]--;
+			if (!done[index] && holders[index] == 0) {
+				queue.addFirst(index);
+			}
+
+			notifyAll();
+		}
+
+		/**
+		 * Returns a tile a worker failed to trace to the queue for the other
+		 * workers, or gives up on it after too many failures so it's
+		 * reported unfinished. Nothing else happens if another copy is done
+		 * or still outstanding.
+		 * @return true if the tile was given up on
+		 */
+		synchronized boolean retry(int index, Connection connection) {
+			holders[index]--;
+			failedOn[index] = connection;
+			if (done[index] || holders[index] > 0) {
+				return false;
+			}
+
+			notifyAll();
+			if (++failures[index] < MAX_ATTEMPTS) {
+				queue.addFirst(index);
+				return false;
+			}
+
+			remaining--;
+			return true;
+		}
+
+		synchronized boolean finished() {
+			return remaining == 0;
+		}
+
+		synchronized void await(long millis) throws InterruptedException {
+			if (remaining > 0) {
+				wait(millis);
+			}
+		}
+
+		synchronized List<Tile> unfinished() {
+			List<Tile> unfinished = new ArrayList<>();
+			for (int i = 0; i < done.length; i++) {
+				if (!done[i]) {
+					unfinished.add(tiles.get(i));
+				}
+			}
+
+			return unfinished;
+		}
+
+	}
+
+	/**
+	 * A tile sent to a worker and not yet returned.
+	 */
+	private static class Request {
+
+		final Job job;
+		final int index;
+		final long sent;
+
+		Request(Job job, int index, long sent) {
+			this.job = job;
+			this.index = index;
+			this.sent = sent;
+		}
+
+	}
+
+	/**
+	 * A session with one worker. Requests are sent from whichever thread
+	 * has work for it, while a reader thread receives results for the
+	 * lifetime of the connection.
+	 */
+	private class Connection {
+
+		final InetSocketAddress address;
+		final String name;
+
+		private Socket socket;
+		private DataInputStream in;
+		private DataOutputStream out;
+
+		private int threads;
+		private int nextId;
+		private final Map<Integer, Request> requests = new HashMap<>();
+
+		volatile boolean failed;
+		private volatile boolean closing;
+		private int traced;
+
+		Connection(InetSocketAddress address) {
+			this.address = address;
+			this.name = address.getHostString() + ":" + address.getPort();
+		}
+
+		void open(Scene scene, int packetSize, Antialiasing antialiasing)
+				throws IOException {
+			socket = new Socket();
+			socket.connect(new InetSocketAddress(
+					address.getHostString(), address.getPort()), CONNECT_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeout);
+
+			in = new DataInputStream(
+					new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+
+			out.writeInt(WorkerProtocol.MAGIC);
+			out.writeInt(WorkerProtocol.VERSION);
+			out.write(sceneHash);
+			WorkerProtocol.writeSettings(
+					out, scene.precision(), packetSize, antialiasing);
+			out.flush();
+
+			if (in.readUnsignedByte() != WorkerProtocol.OK) {
+				throw new IOException(in.readUTF());
+			}
+
+			threads = in.readInt();
+
+			Thread reader = new Thread(this::receive, "coordinator-" + name);
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		/**
+		 * Sends tiles until the worker has enough to keep it busy.
+		 */
+		synchronized void fill(Job job) {
+			if (failed) {
+				return;
+			}
+
+			try {
+				boolean sent = false;
+				while (requests.size() < threads * TILES_PER_THREAD) {
+					int index = job.next(this, countWorkers() == 1);
+					if (index < 0) {
+						break;
+					}
+
+					Tile tile = job.tiles.get(index);
+					int id = nextId++;
+					requests.put(id, new Request(job, index, System.nanoTime()));
+
+					out.writeByte(WorkerProtocol.TILE);
+					out.writeInt(id);
+					out.writeInt(job.pass);
+					out.writeInt(tile.row());
+					out.writeInt(tile.col());
+					out.writeInt(tile.rows());
+					out.writeInt(tile.cols());
+					sent = true;
+				}
+
+				if (sent) {
+					out.flush();
+				}
+			} catch (IOException ex) {
+				fail(ex);
+			}
+		}
+
+		private void receive() {
+			Vec3 color = new Vec3();
+			double[] pixels = new double[0];
+
+			try {
+				while (true) {
+					// workers only reply when asked, so the timeout only
+					// applies while tiles are outstanding
+					int op;
+					try {
+						op = in.readUnsignedByte();
+					} catch (SocketTimeoutException ex) {
+						synchronized (this) {
+							if (requests.isEmpty()) {
+								continue;
+							}
+						}
+
+						throw ex;
+					}
+
+					int id = in.readInt();
+
+					String error = null;
+					if (op == WorkerProtocol.RESULT) {
+						int count = in.readInt();
+						if (pixels.length < count * 3) {
+							pixels = new double[count * 3];
+						}
+
+						for (int i = 0; i < count * 3; i++) {
+							pixels[i] = in.readDouble();
+						}
+					} else if (op == WorkerProtocol.FAILED) {
+						error = in.readUTF();
+					} else {
+						throw new IOException("Unexpected message: " + op);
+					}
+
+					Request request;
+					synchronized (this) {
+						request = requests.remove(id);
+					}
+
+					if (request == null) {
+						throw new IOException("Unexpected tile: " + id);
+					}
+
+					Job job = request.job;
+					Tile tile = job.tiles.get(request.index);
+					if (error != null) {
+						boolean abandoned = job.retry(request.index, this);
+						System.err.printf("[Warn] Worker %s failed tile %s, %s: %s\n",
+								name, tile, abandoned ? "giving up" : "retrying", error);
+						fill(job);
+						continue;
+					}
+
+					// another worker may have finished it first
+					boolean first = job.claim(
+							request.index, System.nanoTime() - request.sent);
+					if (first && job.progress.enter()) {
+						try {
+							int i = 0;
+							for (int row = tile.row(); row < tile.row() + tile.rows(); row++) {
+								for (int col = tile.col(); col < tile.col() + tile.cols(); col++, i += 3) {
+									job.sink.put(row, col, color.set(
+											pixels[i], pixels[i + 1], pixels[i + 2]));
+								}
+							}
+						} finally {
+							job.progress.exit();
+						}
+
+						job.progress.add(1);
+						job.complete();
+						traced++;
+					} else if (first) {
+						// the pass was stopped
+						job.complete();
+					}
+
+					fill(job);
+				}
+			} catch (IOException ex) {
+				fail(ex);
+			}
+		}
+
+		/**
+		 * Drops the connection and hands its outstanding tiles to the other
+		 * workers.
+		 */
+		private void fail(IOException ex) {
+			List<Request> lost;
+			synchronized (this) {
+				if (failed) {
+					return;
+				}
+
+				failed = true;
+				lost = new ArrayList<>(requests.values());
+				requests.clear();
+			}
+
+			disconnect();
+			if (!closing) {
+				System.err.printf("[Warn] Lost worker %s, reassigning %d tiles: %s\n",
+						name, lost.size(), ex instanceof EOFException
+								? "disconnected" : ex.getMessage());
+			}
+
+			for (Request request : lost) {
+				request.job.release(request.index);
+			}
+		}
+
+		/**
+		 * Ends the session after the last pass.
+		 */
+		void close() {
+			closing = true;
+			try {
+				synchronized (this) {
+					if (!failed) {
+						out.writeByte(WorkerProtocol.BYE);
+						out.flush();
+					}
+				}
+			} catch (IOException ex) {
+				// closing anyway
+			}
+
+			disconnect();
+		}
+
+		void disconnect() {
+			try {
+				if (socket != null) {
+					socket.close();
+				}
+			} catch (IOException ex) {
+				// already closed
+			}
+		}
+
+	}
+
+}
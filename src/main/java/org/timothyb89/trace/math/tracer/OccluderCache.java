@@ -0,0 +1,74 @@
+package org.timothyb89.trace.math.tracer;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.timothyb89.trace.math.PointLight;
+import org.timothyb89.trace.math.accel.Occluder;
+
+/**
+ * Remembers, per worker thread, whatever last blocked a shadow ray toward
+ * each light. Neighboring pixels tend to be shadowed by the same face, so
+ * testing it first often avoids a traversal entirely.
+ * @author timothyb
+ */
+public class OccluderCache {
+
+	private static final ThreadLocal<OccluderCache> LOCAL =
+			ThreadLocal.withInitial(OccluderCache::new);
+
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+
+	private final Map<PointLight, Occluder> occluders;
+
+	private OccluderCache() {
+		occluders = new IdentityHashMap<>();
+	}
+
+	public Occluder get(PointLight light) {
+		return occluders.get(light);
+	}
+
+	public void put(PointLight light, Occluder occluder) {
+		occluders.put(light, occluder);
+	}
+
+	public void hit() {
+		hits.increment();
+	}
+
+	public void miss() {
+		misses.increment();
+	}
+
+	/**
+	 * @return the cache for the current thread
+	 */
+	public static OccluderCache local() {
+		return LOCAL.get();
+	}
+
+	public static long hits() {
+		return hits.sum();
+	}
+
+	public static long misses() {
+		return misses.sum();
+	}
+
+	public static void resetCounters() {
+		hits.reset();
+		misses.reset();
+	}
+
+	public static String format() {
+		long h = hits();
+		long total = h + misses();
+
+		return String.format("%d hits / %d lookups (%.1f%%)",
+				h, total,
+				total == 0 ? 0.0 : 100.0 * h / total);
+	}
+
+}
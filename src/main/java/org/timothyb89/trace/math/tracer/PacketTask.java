@@ -0,0 +1,88 @@
+package org.timothyb89.trace.math.tracer;
+
+import org.timothyb89.trace.math.Camera;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.Vec3;
+import org.timothyb89.trace.math.accel.RayPacket;
+
+/**
+ * A trace task for a block of neighboring pixels. Their primary rays are
+ * traced together as one {@link RayPacket}, then each hit is shaded on its
+ * own as in {@link TraceTask}.
+ * @author timothyb
+ */
+public class PacketTask implements Runnable {
+
+	public static final int DEFAULT_SIZE = 8;
+
+	private static final ThreadLocal<RayPacket> PACKET = new ThreadLocal<>();
+
+	private final Scene scene;
+	private final int row;
+	private final int col;
+	private final int rows;
+	private final int cols;
+	private final PixelSink sink;
+
+	/**
+	 * @param row the first row
+	 * @param col the first column
+	 * @param rows the number of rows in the block
+	 * @param cols the number of columns in the block
+	 * @param sink receives each traced pixel
+	 */
+	public PacketTask(
+			Scene scene,
+			int row, int col, int rows, int cols,
+			PixelSink sink) {
+		this.scene = scene;
+		this.row = row;
+		this.col = col;
+		this.rows = rows;
+		this.cols = cols;
+		this.sink = sink;
+	}
+
+	private static RayPacket packet(int size) {
+		RayPacket packet = PACKET.get();
+		if (packet == null || packet.capacity() < size) {
+			packet = new RayPacket(size);
+			PACKET.set(packet);
+		}
+
+		packet.clear();
+		return packet;
+	}
+
+	@Override
+	public void run() {
+		Camera camera = scene.camera();
+		Vec3 focal = Vec3.of(camera.focalPoint());
+
+		RayPacket packet = packet(rows * cols);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				int i = packet.add();
+				Vec3 l = camera.lensPoint(row + r, col + c, packet.origin(i));
+				packet.direction(i).set(l).sub(focal).normalize();
+			}
+		}
+
+		// rays all pass through the focal point
+		packet.frustum(focal,
+				0, cols - 1,
+				rows * cols - 1, (rows - 1) * cols);
+
+		scene.accelerator().closest(packet);
+
+		TraceTask shader = new TraceTask(scene, row, col);
+		for (int i = 0; i < packet.size(); i++) {
+			Vec3 color = shader.shade(
+					packet.direction(i),
+					packet.found(i) ? packet.hit(i) : null);
+
+			sink.put(row + i / cols, col + i % cols, color);
+		}
+	}
+
+}
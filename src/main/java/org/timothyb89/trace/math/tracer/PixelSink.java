@@ -0,0 +1,19 @@
+package org.timothyb89.trace.math.tracer;
+
+import org.timothyb89.trace.math.Vec3;
+
+/**
+ * Receives traced pixel intensities.
+ * @author timothyb
+ */
+@FunctionalInterface
+public interface PixelSink {
+
+	/**
+	 * @param row the pixel row, in camera coordinates
+	 * @param col the pixel column, in camera coordinates
+	 * @param color the pixel's intensity, valid only during the call
+	 */
+	void put(int row, int col, Vec3 color);
+
+}
@@ -0,0 +1,80 @@
+package org.timothyb89.trace.math.tracer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Tracks the work finished in a pass, and lets the render be paused or
+ * stopped between units of work. Workers hold a shared lock while writing a
+ * tile or region, so once {@link #pause()} returns every unit is either
+ * complete or not yet started and the framebuffer can be saved consistently.
+ * @author timothyb
+ */
+public class Progress {
+
+	private final AtomicInteger completed = new AtomicInteger();
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private volatile boolean stopped;
+
+	/**
+	 * Called by a worker before it writes any pixels; blocks while paused.
+	 * @return false if the pass has been stopped, in which case the work
+	 *     should be skipped without calling {@link #exit()}
+	 */
+	boolean enter() {
+		if (stopped) {
+			return false;
+		}
+
+		lock.readLock().lock();
+		if (stopped) {
+			lock.readLock().unlock();
+			return false;
+		}
+
+		return true;
+	}
+
+	void exit() {
+		lock.readLock().unlock();
+	}
+
+	/**
+	 * Counts finished work, e.g. tiles or pixels.
+	 */
+	void add(int units) {
+		completed.addAndGet(units);
+	}
+
+	public int completed() {
+		return completed.get();
+	}
+
+	/**
+	 * Waits for in-progress work to finish and stops any more from starting.
+	 */
+	public void pause() {
+		lock.writeLock().lock();
+	}
+
+	public void resume() {
+		lock.writeLock().unlock();
+	}
+
+	/**
+	 * Skips any work not yet started, and waits for in-progress work to
+	 * finish.
+	 */
+	public void stop() {
+		stopped = true;
+
+		pause();
+		resume();
+	}
+
+	public boolean stopped() {
+		return stopped;
+	}
+
+}
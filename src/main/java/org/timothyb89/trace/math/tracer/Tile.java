@@ -0,0 +1,24 @@
+package org.timothyb89.trace.math.tracer;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * A rectangular block of pixels traced as one unit of work, in camera
+ * coordinates.
+ * @author timothyb
+ */
+@Data
+@Accessors(fluent = true)
+public class Tile {
+
+	private final int row;
+	private final int col;
+	private final int rows;
+	private final int cols;
+
+	public int countPixels() {
+		return rows * cols;
+	}
+
+}
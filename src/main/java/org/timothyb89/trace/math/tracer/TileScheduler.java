@@ -0,0 +1,161 @@
+package org.timothyb89.trace.math.tracer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Splits an image into square tiles and orders them along a space-filling
+ * curve, so tiles traced around the same time are near each other on screen
+ * and tend to touch the same parts of the scene.
+ * @author timothyb
+ */
+@Accessors(fluent = true)
+public class TileScheduler {
+
+	public enum Order {
+
+		/**
+		 * Left to right, then top to bottom.
+		 */
+		SCANLINE,
+
+		/**
+		 * Z-order, interleaving the bits of the tile coordinates.
+		 */
+		MORTON,
+
+		/**
+		 * Hilbert curve; every tile is adjacent to the one before it.
+		 */
+		HILBERT;
+
+		public static Order parse(String name) {
+			try {
+				return valueOf(name.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException(
+						"Unknown tile order: " + name
+								+ ", expected one of "
+								+ Arrays.toString(values()));
+			}
+		}
+
+	}
+
+	public static final int DEFAULT_SIZE = 16;
+
+	@Getter private final int tileSize;
+	@Getter private final Order order;
+
+	public TileScheduler(int tileSize, Order order) {
+		if (tileSize < 1) {
+			throw new IllegalArgumentException(
+					"Tile size must be at least 1: " + tileSize);
+		}
+
+		this.tileSize = tileSize;
+		this.order = order;
+	}
+
+	public TileScheduler() {
+		this(DEFAULT_SIZE, Order.HILBERT);
+	}
+
+	/**
+	 * Splits the given camera bounds into tiles, clipped at the right and
+	 * bottom edges.
+	 * @param bounds the inclusive bounds, as in {@code Camera.bounds()}
+	 * @return every tile, in the order they should be traced
+	 */
+	public List<Tile> split(int[] bounds) {
+		int width = bounds[2] - bounds[0] + 1;
+		int height = bounds[3] - bounds[1] + 1;
+		int tilesX = (width + tileSize - 1) / tileSize;
+		int tilesY = (height + tileSize - 1) / tileSize;
+
+		// the curves are defined over a square power of two grid
+		int side = Integer.highestOneBit(Math.max(1, Math.max(tilesX, tilesY) - 1)) << 1;
+
+		long[] keys = new long[tilesX * tilesY];
+		List<Integer> indices = new ArrayList<>(keys.length);
+		for (int ty = 0; ty < tilesY; ty++) {
+			for (int tx = 0; tx < tilesX; tx++) {
+				int i = ty * tilesX + tx;
+				keys[i] = key(tx, ty, side, tilesX);
+				indices.add(i);
+			}
+		}
+
+		indices.sort(Comparator.comparingLong(i -> keys[i]));
+
+		List<Tile> tiles = new ArrayList<>(keys.length);
+		for (int i : indices) {
+			int col = bounds[0] + (i % tilesX) * tileSize;
+			int row = bounds[1] + (i / tilesX) * tileSize;
+
+			tiles.add(new Tile(row, col,
+					Math.min(tileSize, bounds[3] - row + 1),
+					Math.min(tileSize, bounds[2] - col + 1)));
+		}
+
+		return tiles;
+	}
+
+	private long key(int x, int y, int side, int tilesX) {
+		switch (order) {
+			case MORTON: return morton(x, y);
+			case HILBERT: return hilbert(x, y, side);
+			default: return (long) y * tilesX + x;
+		}
+	}
+
+	static long morton(int x, int y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	/**
+	 * Spaces out the low 32 bits of a value to every other bit.
+	 */
+	private static long spread(long v) {
+		v &= 0xffffffffL;
+		v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+		v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+		v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+
+		return v;
+	}
+
+	/**
+	 * @param side the width of the curve's grid, a power of two
+	 * @return the distance of a cell along the Hilbert curve
+	 */
+	static long hilbert(int x, int y, int side) {
+		long d = 0;
+		for (int s = side / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+
+			// rotate the quadrant so the curve stays continuous
+			if (ry == 0) {
+				if (rx == 1) {
+					x = side - 1 - x;
+					y = side - 1 - y;
+				}
+
+				int tmp = x;
+				x = y;
+				y = tmp;
+			}
+		}
+
+		return d;
+	}
+
+}
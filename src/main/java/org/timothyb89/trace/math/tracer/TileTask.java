@@ -0,0 +1,179 @@
+package org.timothyb89.trace.math.tracer;
+
+import org.timothyb89.trace.math.Scene;
+
+/**
+ * Traces every pixel of a {@link Tile}, either one at a time or in packets,
+ * then counts the tile as completed. Progressive renders trace the tile
+ * again in later passes, adding one jittered sample per pixel each time.
+ * Under a time budget, the first pass may trace just the tile's share of a
+ * coarse grid over the frame first, see {@link #coarse}.
+ * @author timothyb
+ */
+public class TileTask implements Runnable {
+
+	private final Scene scene;
+	private final Tile tile;
+	private final int packetSize;
+	private final Antialiasing antialiasing;
+	private final int pass;
+	private final PixelSink sink;
+	private final Progress progress;
+
+	/**
+	 * Pixels between the coarse grid pixels traced, or 0 to trace them all.
+	 */
+	private final int spacing;
+	private final int gridRow;
+	private final int gridCol;
+
+	/**
+	 * @param packetSize the width of primary ray packets, clipped to the
+	 *     tile, or 0 to trace pixels one at a time; unused when
+	 *     anti-aliasing
+	 * @param pass 0 to trace pixel centers, or a later pass number to trace
+	 *     jittered samples
+	 * @param progress counts the tile once it's done
+	 */
+	public TileTask(
+			Scene scene, Tile tile, int packetSize, Antialiasing antialiasing,
+			int pass, PixelSink sink, Progress progress) {
+		this(scene, tile, packetSize, antialiasing, pass, sink, progress,
+				0, 0, 0);
+	}
+
+	private TileTask(
+			Scene scene, Tile tile, int packetSize, Antialiasing antialiasing,
+			int pass, PixelSink sink, Progress progress,
+			int spacing, int gridRow, int gridCol) {
+		this.scene = scene;
+		this.tile = tile;
+		this.packetSize = packetSize;
+		this.antialiasing = antialiasing;
+		this.pass = pass;
+		this.sink = sink;
+		this.progress = progress;
+		this.spacing = spacing;
+		this.gridRow = gridRow;
+		this.gridCol = gridCol;
+	}
+
+	/**
+	 * Creates a task tracing the first pass only for the tile's pixels on a
+	 * coarse grid, {@code spacing} pixels apart in each direction starting
+	 * from the frame's top left corner.
+	 * @param bounds the frame's bounds, as in {@link TileScheduler#split}
+	 */
+	public static TileTask coarse(
+			Scene scene, Tile tile, Antialiasing antialiasing,
+			int[] bounds, int spacing, PixelSink sink, Progress progress) {
+		if (spacing < 1) {
+			throw new IllegalArgumentException(
+					"Grid spacing must be at least 1: " + spacing);
+		}
+
+		return new TileTask(scene, tile, 0, antialiasing, 0, sink, progress,
+				spacing, bounds[1], bounds[0]);
+	}
+
+	@Override
+	public void run() {
+		if (!progress.enter()) {
+			return;
+		}
+
+		try {
+			if (spacing > 0) {
+				traceGrid(scene, tile, antialiasing,
+						gridRow, gridCol, spacing, sink);
+			} else {
+				trace(scene, tile, packetSize, antialiasing, pass, sink);
+			}
+		} finally {
+			progress.exit();
+		}
+
+		progress.add(1);
+	}
+
+	/**
+	 * Traces a tile's samples for one pass on the calling thread.
+	 */
+	static void trace(
+			Scene scene, Tile tile, int packetSize,
+			Antialiasing antialiasing, int pass, PixelSink sink) {
+		if (pass == 0) {
+			trace(scene, tile, packetSize, antialiasing, sink);
+		} else {
+			refine(scene, tile, antialiasing, pass, sink);
+		}
+	}
+
+	/**
+	 * Traces every pixel of a tile on the calling thread.
+	 */
+	static void trace(
+			Scene scene, Tile tile, int packetSize,
+			Antialiasing antialiasing, PixelSink sink) {
+		int lastRow = tile.row() + tile.rows() - 1;
+		int lastCol = tile.col() + tile.cols() - 1;
+
+		// packets only trace pixel centers
+		if (packetSize > 0 && antialiasing.mode() == Antialiasing.Mode.NONE) {
+			for (int row = tile.row(); row <= lastRow; row += packetSize) {
+				for (int col = tile.col(); col <= lastCol; col += packetSize) {
+					new PacketTask(scene, row, col,
+							Math.min(packetSize, lastRow - row + 1),
+							Math.min(packetSize, lastCol - col + 1),
+							sink).run();
+				}
+			}
+		} else {
+			TraceTask shader = new TraceTask(
+					scene, antialiasing, tile.row(), tile.col());
+			for (int row = tile.row(); row <= lastRow; row++) {
+				for (int col = tile.col(); col <= lastCol; col++) {
+					sink.put(row, col, shader.pixel(row, col));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Traces the first pass for the pixels of a tile lying on a grid
+	 * {@code spacing} pixels apart, anchored at the given row and column.
+	 */
+	static void traceGrid(
+			Scene scene, Tile tile, Antialiasing antialiasing,
+			int gridRow, int gridCol, int spacing, PixelSink sink) {
+		TraceTask shader = new TraceTask(
+				scene, antialiasing, tile.row(), tile.col());
+
+		int firstRow = tile.row() + Math.floorMod(gridRow - tile.row(), spacing);
+		int firstCol = tile.col() + Math.floorMod(gridCol - tile.col(), spacing);
+		for (int row = firstRow; row < tile.row() + tile.rows(); row += spacing) {
+			for (int col = firstCol; col < tile.col() + tile.cols(); col += spacing) {
+				sink.put(row, col, shader.pixel(row, col));
+			}
+		}
+	}
+
+	/**
+	 * Traces one more estimate for every pixel of a tile on the calling
+	 * thread: a single sample offset by up to half a pixel from its center,
+	 * or a newly anti-aliased pixel.
+	 */
+	static void refine(
+			Scene scene, Tile tile, Antialiasing antialiasing, int pass,
+			PixelSink sink) {
+		TraceTask shader = new TraceTask(
+				scene, antialiasing, tile.row(), tile.col());
+
+		for (int row = tile.row(); row < tile.row() + tile.rows(); row++) {
+			for (int col = tile.col(); col < tile.col() + tile.cols(); col++) {
+				sink.put(row, col, shader.refine(row, col, pass));
+			}
+		}
+	}
+
+}
@@ -1,15 +1,13 @@
 package org.timothyb89.trace.math.tracer;
 
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Random;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.timothyb89.trace.math.*;
-import org.timothyb89.trace.util.Triple;
-import org.timothyb89.trace.util.Tuple;
+import org.timothyb89.trace.math.accel.Hit;
+import org.timothyb89.trace.math.accel.Occluder;
+import org.timothyb89.trace.math.sampling.Sampler;
 
 /**
  * A trace task for a particular row and column.
@@ -17,257 +15,475 @@ import org.timothyb89.trace.util.Tuple;
  */
 public class TraceTask implements Callable<TraceResult> {
 
-	private static final int AA_ITERATIONS = 0;
-
 	public static final int MAX_DEPTH = 10;
 
+	/**
+	 * Adaptive pixels whose samples hit different faces take at least this
+	 * many batches.
+	 */
+	private static final int DISAGREE_BATCHES = 2;
+
 	public static final double MIN_RECURSE_INTENSITY = 1.0 / 512.0;
 
-	private final CountDownLatch latch;
 	private final Scene scene;
+	private final Antialiasing antialiasing;
 	private final int row;
 	private final int col;
 
-	public TraceTask(CountDownLatch latch, Scene scene, int row, int col) {
-		this.latch = latch;
+	public TraceTask(Scene scene, Antialiasing antialiasing, int row, int col) {
 		this.scene = scene;
+		this.antialiasing = antialiasing;
 		this.row = row;
 		this.col = col;
 	}
 
-	private Triple<Double, Face, Vector> intersect(Vector point, Vector direction, Face ignore) {
-		List<Triple<Double, Face, Vector>> intersections = new ArrayList<>();
+	public TraceTask(Scene scene, int row, int col) {
+		this(scene, Antialiasing.NONE, row, col);
+	}
 
-		for (Model m : scene.models()) {
-			for (Face f : m.faces()) {
-				if (f == ignore) {
-					continue;
-				}
+	/**
+	 * Scratch state for one level of recursion in {@link #reflect}.
+	 */
+	private static final class Frame {
 
-				double t = f.ixDistance(point, direction);
+		final Hit hit = new Hit();
 
-				// must be in front of camera
-				if (t <= 0) {
-					continue;
-				}
+		final Vec3 v = new Vec3();
+		final Vec3 l = new Vec3();
+		final Vec3 scratch = new Vec3();
+		final Vec3 reflected = new Vec3();
+		final Vec3 intensity = new Vec3();
 
-				Vector ix = f.ixPoint(point, direction, t);
-				if (f.intersects(ix)) {
-					intersections.add(new Triple<>(t, f, ix));
-				}
-			}
-		}
+		/**
+		 * The hit point pushed off the surface on the viewer's side and on
+		 * the far side, for rays leaving it.
+		 */
+		final Vec3 above = new Vec3();
+		final Vec3 below = new Vec3();
 
-		intersections.sort(Comparator.comparingDouble(Triple::a));
+		final Face[] ignore = new Face[1];
+		final Face[] ignoreBoth = new Face[2];
+		final int[] ignoreInstance = new int[1];
+		final int[] ignoreBothInstances = new int[2];
 
-		if (intersections.isEmpty()) {
-			return null;
-		} else {
-			Triple<Double, Face, Vector> ret = intersections.get(0);
-			return ret;
-		}
 	}
 
-	private Tuple<Face, Vector> intersect_(Vector point, Vector direction) {
-		for (Model m : scene.models()) {
-			for (Face f : m.faces()) {
-				double t = f.ixDistance(point, direction);
+	/**
+	 * Everything a worker thread needs to trace a pixel without allocating:
+	 * the camera ray plus a frame for every recursion depth.
+	 */
+	private static final class Workspace {
 
-				// must be in front of camera
-				if (t <= 0) {
-					continue;
-				}
+		final Vec3 origin = new Vec3();
+		final Vec3 direction = new Vec3();
+		final Vec3 focal = new Vec3();
+		final Vec3 sum = new Vec3();
+		final double[] offset = new double[2];
 
-				Vector ix = f.ixPoint(point, direction, t);
+		final Frame[] frames = new Frame[MAX_DEPTH + 2];
 
-				if (f.intersects(ix)) {
-					return new Tuple<>(f, ix);
-				}
+		Workspace() {
+			for (int i = 0; i < frames.length; i++) {
+				frames[i] = new Frame();
 			}
 		}
 
-		return null;
 	}
 
-	private boolean shaded(Vector point, Face face, PointLight light, Vector n, Face ignore) {
+	private static final ThreadLocal<Workspace> WORKSPACE =
+			ThreadLocal.withInitial(Workspace::new);
+
+	private static final LongAdder rays = new LongAdder();
+	private static final LongAdder samples = new LongAdder();
+
+	private boolean intersect(
+			Vec3 point, Vec3 direction, Face ignore, int ignoreInstance,
+			Frame frame) {
+		rays.increment();
+		frame.ignore[0] = ignore;
+		frame.ignoreInstance[0] = ignoreInstance;
+
+		// must be in front of camera
+		return scene.accelerator().closest(
+				point, direction,
+				0, Double.POSITIVE_INFINITY,
+				frame.hit, frame.ignore, frame.ignoreInstance);
+	}
+
+	/**
+	 * @return true if the occluder is the given face of the given instance,
+	 *     since instances share faces
+	 */
+	private static boolean same(Occluder occluder, Face face, int instance) {
+		return occluder.face() == face && occluder.instance() == instance;
+	}
+
+	/**
+	 * Determines whether a light is hidden from a point. Leaves the
+	 * normalized direction toward the light in {@code frame.l}.
+	 */
+	private boolean shaded(
+			Vec3 point, Face face, int instance, PointLight light, Vec3 n,
+			Face ignore, int ignoreInstance, Frame frame) {
 		// find ray from ix point -> light source (direction vector)
-		Vector l = light.position().copy().sub(point);
-		double distL = l.distance();
+		Vec3 l = frame.l.set(light.position()).sub(point);
+		double distL = l.length();
 		l.normalize();
 
-		//System.out.printf("%2d, %2d, #%4d: n=%s, l=%s\n", row, col, face.index(), n, l);
-
 		// check for self-occlusion
 		double nL = n.dot(l);
 		if (nL < 0) { // TODO: round-off error?
 			return true;
 		}
 
-		// make sure the path is clear
-		for (Model m : scene.models()) {
-			for (Face f : m.faces()) {
-				if (f == face || f == ignore) {
-					// don't attempt ix with the current face
-					continue;
-				}
-
-				double t = f.ixDistance(point, l);
-				if (t == 0) {
-					continue;
-				}
+		rays.increment();
 
-				// make sure poly f falls between the ix face and the light
-				// source
-				if (t < Vector.EPSILON || t > distL) {
-					continue;
-				}
+		// try whichever face last shadowed this light on this thread first
+		OccluderCache cache = OccluderCache.local();
+		Occluder last = cache.get(light);
+		if (last != null && !same(last, face, instance)
+				&& !same(last, ignore, ignoreInstance)
+				&& last.occludes(point, l, distL)) {
+			cache.hit();
+			return true;
+		}
 
-				Vector subIx = f.ixPoint(point, l, t);
-				if (f.intersects(subIx)) {
-					// occluded, not visible
-					return true;
-				}
-			}
+		cache.miss();
+
+		// make sure the path is clear, i.e. no poly falls between the ix face
+		// and the light source
+		// don't attempt ix with the current face
+		frame.ignoreBoth[0] = face;
+		frame.ignoreBoth[1] = ignore;
+		frame.ignoreBothInstances[0] = instance;
+		frame.ignoreBothInstances[1] = ignoreInstance;
+		Occluder occluder = scene.accelerator().occluder(
+				point, l, distL,
+				frame.ignoreBoth, frame.ignoreBothInstances);
+		if (occluder == null) {
+			return false;
 		}
 
-		return false;
+		cache.put(light, occluder);
+		return true;
 	}
 
-	private Vector ambient(Face face) {
-		Matrix diffuseMatrix = face.material().diffuse();
-		Vector ambientColor; // Ba
-		if (scene.ambientLight() != null) {
-			ambientColor = scene.ambientLight().rgb();
-		} else {
-			ambientColor = Vector.of(0, 0, 0); // TODO: ?
+	private void ambient(Material material, Vec3 scratch, Vec3 intensity) {
+		PointLight ambientLight = scene.ambientLight();
+		if (ambientLight == null) {
+			return; // TODO: ?
 		}
 
 		// I = Kd * Ba
-		return ambientColor.multiply(diffuseMatrix);
+		intensity.add(scratch
+				.set(ambientLight.red(), ambientLight.green(), ambientLight.blue())
+				.multiply(material.diffuse()));
 	}
 
-	private Vector diffuse(Face face, PointLight light, Vector n, Vector l) {
-		return light.rgb()
-				.multiply(face.material().diffuse())
-				.scale(n.dot(l));
+	private void diffuse(
+			Material material, PointLight light,
+			Vec3 n, Vec3 l,
+			Vec3 scratch, Vec3 intensity) {
+		intensity.add(scratch
+				.set(light.red(), light.green(), light.blue())
+				.multiply(material.diffuse())
+				.scale(n.dot(l)));
 	}
 
-	private Vector specular(
-			Face face, PointLight light,
-			Vector n, Vector l, Vector v) {
+	private void specular(
+			Material material, PointLight light,
+			Vec3 n, Vec3 l, Vec3 v,
+			Vec3 scratch, Vec3 intensity) {
 		// determine reflected ray
-		Vector r = n.copy()
+		Vec3 r = scratch.set(n)
 				.scale(2 * n.dot(l))
 				.sub(l);
 
 		// specular intensity
 		// don't allow negative intensities - ???
-		return light.rgb()
-				.scale(face.material().specularity())
-				.scale(Math.pow(v.dot(r), face.material().shininess()));
+		double ks = material.specularity();
+		double factor = Math.pow(v.dot(r), material.shininess());
+		intensity.x += light.red() * ks * factor;
+		intensity.y += light.green() * ks * factor;
+		intensity.z += light.blue() * ks * factor;
 	}
 
-	private Vector reflect(Vector point, Vector direction, int depth, double ksp, Face ignore) {
-		Vector intensity = Vector.zeroes(3);
+	/**
+	 * Traces a ray, returning its intensity in the frame for {@code depth}.
+	 * The result stays valid until the next call at the same depth.
+	 */
+	private Vec3 reflect(
+			Frame[] frames,
+			Vec3 point, Vec3 direction,
+			int depth, double ksp, Face ignore, int ignoreInstance) {
+		Frame frame = frames[depth];
 		if (depth > MAX_DEPTH) {
-			return intensity;
+			return frame.intensity.set(0, 0, 0);
 		}
 
 		// find the world intersection details - only 1 can exist
-		Triple<Double, Face, Vector> ixTuple = intersect(point, direction, ignore);
-		if (ixTuple == null) {
-			return intensity; // TODO should this be ambient at least?
+		if (!intersect(point, direction, ignore, ignoreInstance, frame)) {
+			// lets callers tell a miss apart from the last hit
+			frame.hit.face = null;
+			frame.hit.instance = -1;
+			return frame.intensity.set(0, 0, 0); // TODO should this be ambient at least?
 		}
 
-		Face face = ixTuple.b();
-		Vector ix = ixTuple.c();
+		return shade(frames, direction, depth, ksp, ignore, ignoreInstance);
+	}
 
-		//System.out.println("ix: " + face + " @ " + ix);
+	/**
+	 * Shades the hit already found in the frame for {@code depth}, tracing
+	 * any reflected and transmitted rays.
+	 */
+	private Vec3 shade(
+			Frame[] frames, Vec3 direction,
+			int depth, double ksp, Face ignore, int ignoreInstance) {
+		Frame frame = frames[depth];
+		Vec3 intensity = frame.intensity.set(0, 0, 0);
+
+		Face face = frame.hit.face;
+		int instance = frame.hit.instance;
+		Material material = face.material();
+		Vec3 ix = frame.hit.point;
 
 		// find opposite view vector and the correct surface normal
 		// if negative, flip it
-		Vector v = direction.copy().scale(-1);
-		Vector n = face.surfaceNormal();
+		Vec3 v = frame.v.set(direction).negate();
+		Vec3 n = frame.hit.normal;
 		if (n.dot(v) < 0) { // TODO: check rounding error?
-			n = n.copy().scale(-1);
+			n.negate();
 		}
 
-		intensity.add(ambient(face));
+		// start secondary rays clear of the surface so round-off, especially
+		// with single precision geometry, can't hit it or its neighbors
+		Precision precision = scene.precision();
+		Vec3 above = precision.offset(ix, n, frame.above);
 
-		for (PointLight light : scene.lights()) {
-			if (!shaded(ix, face, light, n, ignore)) {
-				// find ray from ix point -> light source (direction vector)
-				Vector l = light.position().copy().sub(ix);
-				l.normalize();
+		ambient(material, frame.scratch, intensity);
 
-				intensity.add(diffuse(face, light, n, l));
-				intensity.add(specular(face, light, n, l, v));
+		List<PointLight> lights = scene.lights();
+		for (int i = 0; i < lights.size(); i++) {
+			PointLight light = lights.get(i);
+			if (!shaded(above, face, instance, light, n,
+					ignore, ignoreInstance, frame)) {
+				diffuse(material, light, n, frame.l, frame.scratch, intensity);
+				specular(material, light, n, frame.l, v, frame.scratch, intensity);
 			}
 		}
 
-		ksp *= face.material().specularity();
+		ksp *= material.specularity();
 
 		// specular recursive reflection
 		if (ksp > MIN_RECURSE_INTENSITY) {
-			Vector reflected = n.copy()
+			Vec3 reflected = frame.reflected.set(n)
 					.scale(2 * n.dot(v))
 					.sub(v);
 
-			intensity.add(reflect(ix, reflected, depth + 1, ksp, face)
-					.scale(face.material().specularity()));
+			intensity.addScaled(
+					reflect(frames, above, reflected, depth + 1, ksp,
+							face, instance),
+					material.specularity());
 		}
 
-		if (!face.material().isOpaque()) {
-			intensity.add(reflect(ix, direction, depth + 1, ksp, face)
-					.scale(face.material().translucency()));
+		if (!material.isOpaque()) {
+			intensity.addScaled(
+					reflect(frames,
+							precision.offsetBelow(ix, n, frame.below), direction,
+							depth + 1, ksp, face, instance),
+					material.translucency());
 		}
 
 		return intensity;
 	}
 
-	@Override
-	public TraceResult call() throws Exception {
+	/**
+	 * Traces the ray from the focal point through a point on the lens.
+	 */
+	private Vec3 trace(Workspace ws, double row, double col) {
 		Camera camera = scene.camera();
+		samples.increment();
+
+		// find ray from focal point -> camera point for this row,col
+		// (direction vector)
+		Vec3 l = camera.lensPoint(row, col, ws.origin);
+		Vec3 unit = ws.direction.set(l)
+				.sub(ws.focal.set(camera.focalPoint()))
+				.normalize();
+
+		return reflect(ws.frames, l, unit, 0, 1, null, -1);
+	}
+
+	/**
+	 * Shades a camera ray whose closest hit has already been found, e.g. as
+	 * part of a {@link PacketTask}. This task's row and column are ignored.
+	 *
+	 * @param direction the ray direction, which must stay unchanged until
+	 *     this returns
+	 * @param hit the closest hit, or null if the ray hit nothing
+	 * @return the ray's intensity, valid until the next trace on this thread
+	 */
+	Vec3 shade(Vec3 direction, Hit hit) {
+		Workspace ws = WORKSPACE.get();
+		rays.increment();
+		samples.increment();
+
+		if (hit == null) {
+			return ws.frames[0].intensity.set(0, 0, 0);
+		}
+
+		ws.frames[0].hit.set(hit);
+		return shade(ws.frames, direction, 0, 1, null, -1);
+	}
+
+	/**
+	 * Traces one camera ray through a point chosen by the sampler.
+	 * @param seed the pixel and pass's seed, see {@link Sampler#seed}
+	 * @param index the sample's number within the pixel and pass
+	 */
+	private Vec3 sample(Workspace ws, int row, int col, int seed, int index) {
+		double[] offset = ws.offset;
+		antialiasing.sampler().sample(seed, index, offset);
+
+		return trace(ws, row - 0.5 + offset[0], col - 0.5 + offset[1]);
+	}
+
+	/**
+	 * Traces a single pixel for the first pass.
+	 * @see #pixel(int, int, int)
+	 */
+	Vec3 pixel(int row, int col) {
+		return pixel(row, col, 0);
+	}
+
+	/**
+	 * Traces a single pixel, with as many samples as the anti-aliasing
+	 * settings call for. Samples depend only on the pixel and pass, so the
+	 * result is the same whichever thread traces it. This task's row and
+	 * column are ignored.
+	 * @return the pixel's intensity, valid until the next trace on this
+	 *     thread
+	 */
+	Vec3 pixel(int row, int col, int pass) {
+		Workspace ws = WORKSPACE.get();
+		int seed = Sampler.seed(row, col, pass);
+
+		switch (antialiasing.mode()) {
+			case UNIFORM: {
+				Vec3 sum = ws.sum.set(0, 0, 0);
+				for (int i = 0; i < antialiasing.samples(); i++) {
+					sum.add(sample(ws, row, col, seed, i));
+				}
+
+				return sum.scale(1.0 / antialiasing.samples());
+			}
+			case PROGRESSIVE:
+				// every pass draws from the same sequence
+				return sample(ws, row, col, Sampler.seed(row, col, 0), pass);
+			case ADAPTIVE:
+				return adaptive(ws, row, col, seed);
+			default:
+				return trace(ws, row, col);
+		}
+	}
+
+	/**
+	 * Samples a pixel in batches until the standard error of its mean
+	 * luminance is under the threshold and every sample has hit the same
+	 * face first, or the sample limit is reached. Pixels inside a flat,
+	 * evenly lit surface stop after the first batch; edges, shadow
+	 * boundaries and highlights take more.
+	 */
+	private Vec3 adaptive(Workspace ws, int row, int col, int seed) {
+		Vec3 sum = ws.sum.set(0, 0, 0);
+		double lumSum = 0;
+		double lumSquares = 0;
+
+		Face first = null;
+		int firstInstance = -1;
+		boolean agree = true;
+
+		int minSamples = antialiasing.minSamples();
+
+		int n = 0;
+		while (n < antialiasing.samples()) {
+			int batch = Math.min(minSamples, antialiasing.samples() - n);
+			for (int i = 0; i < batch; i++) {
+				Vec3 color = sample(ws, row, col, seed, n);
+				Face face = ws.frames[0].hit.face;
+				int instance = ws.frames[0].hit.instance;
+				if (n == 0) {
+					first = face;
+					firstInstance = instance;
+				} else if (face != first || instance != firstInstance) {
+					agree = false;
+				}
+
+				double lum = 0.2126 * color.x + 0.7152 * color.y + 0.0722 * color.z;
+				lumSum += lum;
+				lumSquares += lum * lum;
 
-		if (AA_ITERATIONS > 0) {
-			double sumR = 0;
-			double sumG = 0;
-			double sumB = 0;
-
-			Random rand = new Random();
-			for (int i = 0; i < AA_ITERATIONS; i++) {
-				// find ray from focal point -> camera point for this row,col
-				// (direction vector)
-				Vector l = camera.lensPoint(
-						((double) row) - 0.5 + rand.nextDouble(),
-						((double) col) - 0.5 + rand.nextDouble());
-				Vector e = camera.focalPoint();
-				Vector unit = l.copy().sub(e).normalize();
-				Vector color = reflect(l, unit, 0, 1, null);
-
-				sumR += color.val(0);
-				sumG += color.val(1);
-				sumB += color.val(2);
+				sum.add(color);
+				n++;
 			}
 
-			latch.countDown();
-			return new TraceResult(row, col,
-					sumR / AA_ITERATIONS,
-					sumG / AA_ITERATIONS,
-					sumB / AA_ITERATIONS);
-		} else {
-			Vector l = camera.lensPoint(row, col);
-			Vector e = camera.focalPoint();
-			Vector unit = l.copy().sub(e).normalize();
-			Vector color = reflect(l, unit, 0, 1, null);
-
-			latch.countDown();
-			return new TraceResult(row, col,
-					color.val(0),
-					color.val(1),
-					color.val(2));
+			// samples landing on different faces may straddle an edge the
+			// rest of the batch missed, so they need a few more batches
+			if (n > 1 && (agree || n >= DISAGREE_BATCHES * minSamples)) {
+				double variance = (lumSquares - lumSum * lumSum / n) / (n - 1);
+				if (Math.sqrt(Math.max(variance, 0) / n) <= antialiasing.threshold()) {
+					break;
+				}
+			}
 		}
 
+		return sum.scale(1.0 / n);
+	}
+
+	/**
+	 * Traces another estimate of a pixel for a progressive pass: one more
+	 * sample from the pixel's sequence, or a full anti-aliased pixel if
+	 * enabled. Without anti-aliasing the first pass went through the pixel
+	 * center, so pass {@code k} traces sample {@code k - 1}.
+	 * @param pass the pass number, from 1
+	 */
+	Vec3 refine(int row, int col, int pass) {
+		if (antialiasing.mode() == Antialiasing.Mode.NONE) {
+			return sample(WORKSPACE.get(), row, col,
+					Sampler.seed(row, col, 0), pass - 1);
+		}
+
+		return pixel(row, col, pass);
+	}
+
+	@Override
+	public TraceResult call() throws Exception {
+		Vec3 color = pixel(row, col);
+
+		return new TraceResult(row, col,
+				color.x,
+				color.y,
+				color.z);
+	}
+
+	/**
+	 * @return the number of camera, reflection and shadow rays cast since the
+	 *     last reset
+	 */
+	public static long rays() {
+		return rays.sum();
+	}
+
+	/**
+	 * @return the number of camera rays cast since the last reset
+	 */
+	public static long samples() {
+		return samples.sum();
+	}
+
+	public static void resetCounters() {
+		rays.reset();
+		samples.reset();
 	}
 
 }
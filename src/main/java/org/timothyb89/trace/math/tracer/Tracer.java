@@ -1,30 +1,135 @@
 package org.timothyb89.trace.math.tracer;
 
 import org.timothyb89.trace.math.Camera;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Framebuffer;
 import org.timothyb89.trace.math.Image;
 import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Precision;
 import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.accel.Accelerator;
+import org.timothyb89.trace.math.accel.BVH;
+import org.timothyb89.trace.math.accel.BVHBuilder;
+import org.timothyb89.trace.math.accel.Grid;
+import org.timothyb89.trace.math.accel.InstancedAccelerator;
+import org.timothyb89.trace.math.accel.TriangleKernel;
+import org.timothyb89.trace.math.sampling.Sampler;
+import org.timothyb89.trace.model.bundle.BundleReader;
+import org.timothyb89.trace.model.bundle.BundleWriter;
 import org.timothyb89.trace.model.camera.CameraParser;
+import org.timothyb89.trace.model.checkpoint.Checkpoint;
+import org.timothyb89.trace.model.checkpoint.CheckpointException;
 import org.timothyb89.trace.model.image.PPMWriter;
 import org.timothyb89.trace.model.ply.PLYParser;
+import org.timothyb89.trace.model.ply.Triangulator;
 import org.timothyb89.trace.model.scene.SceneParser;
+import org.timothyb89.trace.util.ContentHash;
 import org.timothyb89.trace.util.F;
+import org.timothyb89.trace.util.Options;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * @author timothyb
  */
 public class Tracer {
 
+	/**
+	 * Seconds between progressive snapshots.
+	 */
+	public static final double DEFAULT_SNAPSHOT_INTERVAL = 30;
+
+	/**
+	 * Seconds between checkpoints.
+	 */
+	public static final double DEFAULT_CHECKPOINT_INTERVAL = 60;
+
+	/**
+	 * Pixels between those the first pass traces before the rest of the
+	 * frame under a time budget, in each direction.
+	 */
+	public static final int COARSE_SPACING = 4;
+
 	private Scene scene;
+	private Framebuffer framebuffer;
 	private Image output;
 
-	private ExecutorService executor;
+	/**
+	 * The precision radiance is accumulated in.
+	 */
+	private Precision framebufferPrecision = Precision.FLOAT;
+
+	private ForkJoinPool pool;
+	private AllocationMeter meter;
+
+	/**
+	 * The width and height of primary ray packets, or 0 to trace each pixel
+	 * on its own.
+	 */
+	private int packetSize;
+
+	private TileScheduler scheduler = new TileScheduler();
+
+	private Antialiasing antialiasing = Antialiasing.NONE;
+
+	/**
+	 * Splits the frame adaptively instead of into fixed tiles, if non-null.
+	 */
+	private AdaptiveScheduler adaptive;
+
+	/**
+	 * Traces tiles on remote workers instead of the local pool, if non-null.
+	 */
+	private Coordinator coordinator;
+
+	/**
+	 * The number of samples traced per pixel, one pass at a time, or 0 to
+	 * keep refining until the process is stopped.
+	 */
+	private int passes = 1;
+
+	/**
+	 * Milliseconds the trace may take, or 0 for no limit.
+	 */
+	private long timeBudget;
+	private long deadline;
+
+	private long snapshotInterval;
+	private Consumer<Image> snapshotListener;
+
+	private Path checkpointPath;
+	private byte[] checkpointHash;
+	private long checkpointInterval;
+
+	/**
+	 * True if the trace picked up from a checkpoint, so the first pass may
+	 * already be partly traced.
+	 */
+	private boolean resumed;
+
+	private volatile int pass;
+	private boolean complete;
+	private volatile Progress progress;
+
+	private long startTime;
+	private long lastSnapshot;
+	private long lastCheckpoint;
 
 	public Tracer(Scene scene) {
 		this.scene = scene;
@@ -36,133 +141,804 @@ public class Tracer {
 		
 		//executor = Executors.newSingleThreadExecutor();
 		//executor = Executors.newFixedThreadPool(4);
-		executor = Executors.newFixedThreadPool(threads);
+		// workers start on demand, but anything they allocate still counts
+		// since their baseline is zero
+		meter = new AllocationMeter();
+		pool = new ForkJoinPool(threads, meter, null, false);
 	}
 
-	private int scale(double val, double min, double max) {
-		double range = max - min;
-		double off = val - min;
+	/**
+	 * Traces a single pass over the whole frame, waiting for it to finish.
+	 * @param sink receives the pass's samples
+	 * @param coarse true to trace only the first pass's coarse grid, every
+	 *     {@link #COARSE_SPACING} pixels, locally
+	 * @return false if interrupted, stopped by the time budget or a tile kept
+	 *     failing
+	 */
+	private boolean tracePass(int pass, PixelSink sink, boolean coarse) {
+		int[] bounds = scene.camera().bounds();
 
-		return (int) (255.0 * (off / range));
-	}
+		Progress progress = new Progress();
+		this.progress = progress;
+		List<Future<?>> tasks = new ArrayList<>();
+		List<Tile> taskTiles = new ArrayList<>(); // null unless a local tile
+		int total;
+		String unit;
 
-	public void trace() {
-		Camera camera = scene.camera();
+		// a retried or resumed tile may have traced some pixels already
+		PixelSink untraced = (row, col, color) -> {
+			if (framebuffer.samples(col - bounds[0], row - bounds[1]) <= pass) {
+				sink.put(row, col, color);
+			}
+		};
 
-		CountDownLatch latch = new CountDownLatch(camera.width() * camera.height());
+		Function<Tile, Runnable> tileTask = coarse
+				? tile -> TileTask.coarse(scene, tile, antialiasing,
+						bounds, COARSE_SPACING, untraced, progress)
+				: tile -> new TileTask(scene, tile, packetSize, antialiasing,
+						pass, untraced, progress);
 
-		List<Future<TraceResult>> tasks = new ArrayList<>();
-		int[] bounds = camera.bounds();
-		for (int u = bounds[0]; u <= bounds[2]; u++) {
-			for (int v = bounds[1]; v <= bounds[3]; v++) {
-				tasks.add(executor.submit(new TraceTask(latch, scene, v, u)));
+		// the cost estimates are only worth making once, and a resumed pass
+		// may have finished any part of the frame, so that uses tiles
+		if (!coarse && adaptive != null && pass == 0 && !resumed
+				&& coordinator == null) {
+			tasks.add(pool.submit(adaptive.root(
+					scene, bounds, pool.getParallelism(),
+					packetSize, antialiasing, sink, progress)));
+			taskTiles.add(null);
+
+			total = framebuffer.width() * framebuffer.height();
+			unit = "pixels";
+			System.out.printf(
+					"Submitted frame for adaptive splitting above %.1fms per region, starting...\n",
+					adaptive.splitCost() / 1000000.0);
+		} else {
+			List<Tile> tiles = scheduler.split(bounds);
+			List<Tile> remaining = new ArrayList<>();
+			int skipped = 0;
+			for (Tile tile : tiles) {
+				// tiles restored from a checkpoint already have this pass
+				if (framebuffer.minSamples(
+						tile.col() - bounds[0], tile.row() - bounds[1],
+						tile.cols(), tile.rows()) > pass) {
+					skipped++;
+				} else if (coordinator != null && !coarse) {
+					remaining.add(tile);
+				} else {
+					tasks.add(pool.submit(tileTask.apply(tile)));
+					taskTiles.add(tile);
+				}
+			}
+
+			if (coordinator != null && !coarse) {
+				tasks.add(pool.submit(
+						() -> traceRemote(remaining, pass, sink, progress)));
+				taskTiles.add(null);
+			}
+
+			progress.add(skipped);
+			total = tiles.size();
+			unit = "tiles";
+			if (coarse) {
+				System.out.printf(
+						"Submitted %d tiles to trace every %dth pixel across and down first, starting...\n",
+						total - skipped, COARSE_SPACING);
+			} else if (pass == 0) {
+				System.out.printf(
+						"Submitted %d tiles of up to %dx%d pixels in %s order, starting...\n",
+						total - skipped, scheduler.tileSize(), scheduler.tileSize(),
+						scheduler.order().name().toLowerCase());
+			}
+
+			if (skipped > 0) {
+				System.out.printf(
+						"Skipped %d tiles restored from checkpoint\n", skipped);
 			}
 		}
 
-		int total = tasks.size();
-		long startTime = System.currentTimeMillis();
-		System.out.printf("Submitted %d trace tasks, starting...\n", tasks.size());
+		String label = coarse ? "[Trace coarse]"
+				: passes == 1 ? "[Trace]" : "[Trace pass " + (pass + 1) + "]";
+		long passStart = System.currentTimeMillis();
 
-		try {
-			latch.await(1, TimeUnit.SECONDS);
-		} catch (InterruptedException ignored) { }
+		int[] failures = new int[tasks.size()];
+		long interval = 1;
+		for (int i = 0; i < tasks.size(); i++) {
+			while (true) {
+				long wait = interval * 1000;
+				if (deadline > 0) {
+					wait = Math.min(wait, deadline - System.currentTimeMillis());
+					if (wait <= 0) {
+						System.out.printf(
+								"%s Time budget reached with %d %s remaining\n",
+								label, total - progress.completed(), unit);
+						progress.stop();
+						return false;
+					}
+				}
 
-		while (latch.getCount() > 0) {
-			try {
-				double elapsed = (System.currentTimeMillis() - startTime) / 1000.0;
-				double rate = (total - latch.getCount()) / elapsed;
+				try {
+					tasks.get(i).get(wait, TimeUnit.MILLISECONDS);
+					break;
+				} catch (TimeoutException ex) {
+					if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+						continue;
+					}
 
-				System.out.printf(
-						"[Trace] %-5d tasks remain (%4.1f%%). " +
-								"%3.0fs elapsed, " +
-								"%3.1fs est @ %.1f tasks/sec.\n",
-						latch.getCount(),
-						(1 - (double) latch.getCount() / (double) total) * 100,
-						elapsed,
-						latch.getCount() / rate,
-						rate);
-
-				latch.await(3, TimeUnit.SECONDS);
-			} catch (InterruptedException ex) {
-				System.err.printf(
-						"[Warn] Trace interrupted with %d tasks remaining\n",
-						latch.getCount());
-				break;
+					int done = progress.completed();
+					double elapsed = (System.currentTimeMillis() - passStart) / 1000.0;
+					double rate = done / elapsed;
+
+					System.out.printf(
+							"%s %-5d %s remain (%4.1f%%). " +
+									"%3.0fs elapsed, " +
+									"%3.1fs est @ %.1f %s/sec.\n",
+							label, total - done, unit,
+							(double) done / total * 100,
+							elapsed,
+							(total - done) / rate,
+							rate, unit);
+
+					interval = 3;
+					snapshotIfDue();
+					checkpointIfDue();
+				} catch (InterruptedException ex) {
+					System.err.printf(
+							"[Warn] Trace interrupted with %d %s remaining\n",
+							total - progress.completed(), unit);
+					Thread.currentThread().interrupt();
+					return false;
+				} catch (ExecutionException ex) {
+					// retry tiles as the coordinator does, but don't report a
+					// pass with missing pixels as complete, so its tiles keep
+					// too few samples and a resumed trace retraces them
+					Tile tile = taskTiles.get(i);
+					if (tile == null || ++failures[i] >= Coordinator.MAX_ATTEMPTS) {
+						System.err.printf(
+								"[Warn] %s failed, stopping the trace with %d %s remaining\n",
+								tile == null ? "Pass" : "Tile at " + tile.col() + ", " + tile.row(),
+								total - progress.completed(), unit);
+						ex.printStackTrace();
+						progress.stop();
+						return false;
+					}
+
+					System.err.printf(
+							"[Warn] Retrying tile at %d, %d after it failed: %s\n",
+							tile.col(), tile.row(), ex.getCause());
+					tasks.set(i, pool.submit(tileTask.apply(tile)));
+				}
 			}
 		}
 
-		executor.shutdown();
+		return true;
+	}
 
-		System.out.println("Trace complete, generating image...");
+	/**
+	 * Traces tiles on the workers, falling back to the local pool for any
+	 * left over once every worker has failed or that kept failing on them.
+	 * Runs on the pool.
+	 */
+	private void traceRemote(
+			List<Tile> tiles, int pass, PixelSink sink, Progress progress) {
+		List<Tile> left = coordinator.trace(scene, tiles, packetSize,
+				antialiasing, pass, sink, progress);
+		if (left.isEmpty() || progress.stopped()
+				|| Thread.currentThread().isInterrupted()) {
+			return;
+		}
 
-		// collect results + determine min/max intensity
-		double minIntensity = 0;
-		double maxIntensity = 0;
-		boolean first = true;
+		System.err.printf(
+				"[Warn] Tracing %d tiles the workers didn't finish locally\n",
+				left.size());
+		ForkJoinTask.invokeAll(left.stream()
+				.map(tile -> ForkJoinTask.adapt(new TileTask(
+						scene, tile, packetSize, antialiasing, pass, sink, progress)))
+				.collect(Collectors.toList()));
+	}
 
-		List<TraceResult> results = new LinkedList<>();
-		for (Future<TraceResult> result : tasks) {
+	/**
+	 * Fills each pixel the first pass didn't reach before the deadline, so a
+	 * stopped render has no holes. Only coarse grid pixels still missing get
+	 * traced, with a single sample through their center, and the rest are
+	 * interpolated from them, so the overrun is a small part of a pass.
+	 */
+	private void fillUntraced(int[] bounds) {
+		long start = System.currentTimeMillis();
+		PixelSink fill = (row, col, color) -> {
+			int x = col - bounds[0];
+			int y = row - bounds[1];
+			if (framebuffer.samples(x, y) == 0) {
+				framebuffer.set(x, y, color);
+			}
+		};
+
+		Progress progress = new Progress();
+		this.progress = progress;
+		List<Future<?>> tasks = new ArrayList<>();
+		for (Tile tile : scheduler.split(bounds)) {
+			if (!coarseTraced(tile, bounds)) {
+				tasks.add(pool.submit(TileTask.coarse(scene, tile,
+						Antialiasing.NONE, bounds, COARSE_SPACING,
+						fill, progress)));
+			}
+		}
+
+		for (Future<?> task : tasks) {
 			try {
-				TraceResult r = result.get();
-				double max = Math.max(r.red(), Math.max(r.green(), r.blue()));
-				double min = Math.min(r.red(), Math.min(r.green(), r.blue()));
+				task.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException ex) {
+				ex.printStackTrace();
+			}
+		}
 
-				if (first || max > maxIntensity) {
-					maxIntensity = max;
+		int filled = 0;
+		for (int y = 0; y < framebuffer.height(); y++) {
+			for (int x = 0; x < framebuffer.width(); x++) {
+				if (framebuffer.samples(x, y) == 0) {
+					interpolate(x, y);
+					filled++;
 				}
+			}
+		}
 
-				if (first || min < minIntensity) {
-					minIntensity = min;
+		System.out.printf(
+				"[Warn] Filled %d untraced pixels in %d tiles from every %dth pixel across and down, %.2fs past the time budget\n",
+				filled, tasks.size(), COARSE_SPACING,
+				(System.currentTimeMillis() - Math.max(start, deadline)) / 1000.0);
+	}
+
+	/**
+	 * @return true if every pixel of the tile on the coarse grid has been
+	 *     traced
+	 */
+	private boolean coarseTraced(Tile tile, int[] bounds) {
+		int s = COARSE_SPACING;
+		int left = tile.col() - bounds[0];
+		int top = tile.row() - bounds[1];
+		for (int y = top + Math.floorMod(-top, s); y < top + tile.rows(); y += s) {
+			for (int x = left + Math.floorMod(-left, s); x < left + tile.cols(); x += s) {
+				if (framebuffer.samples(x, y) == 0) {
+					return false;
 				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sets a pixel by bilinear interpolation between the four coarse grid
+	 * pixels around it, or fewer at the frame's right and bottom edges.
+	 */
+	private void interpolate(int x, int y) {
+		int s = COARSE_SPACING;
+		int x0 = x - x % s;
+		int y0 = y - y % s;
+		int x1 = Math.min(x0 + s, (framebuffer.width() - 1) / s * s);
+		int y1 = Math.min(y0 + s, (framebuffer.height() - 1) / s * s);
+		double fx = x1 == x0 ? 0 : (double) (x - x0) / s;
+		double fy = y1 == y0 ? 0 : (double) (y - y0) / s;
+
+		framebuffer.set(x, y,
+				interpolate(x0, y0, x1, y1, fx, fy, 0),
+				interpolate(x0, y0, x1, y1, fx, fy, 1),
+				interpolate(x0, y0, x1, y1, fx, fy, 2));
+	}
+
+	private double interpolate(
+			int x0, int y0, int x1, int y1, double fx, double fy, int channel) {
+		double top = framebuffer.get(x0, y0, channel) * (1 - fx)
+				+ framebuffer.get(x1, y0, channel) * fx;
+		double bottom = framebuffer.get(x0, y1, channel) * (1 - fx)
+				+ framebuffer.get(x1, y1, channel) * fx;
+
+		return top * (1 - fy) + bottom * fy;
+	}
+
+	/**
+	 * Prints how many samples each pixel received, which varies once a pass
+	 * is cut short.
+	 */
+	private void reportSamples() {
+		Map<Integer, Integer> counts = new TreeMap<>(Collections.reverseOrder());
+		long total = 0;
+		for (int y = 0; y < framebuffer.height(); y++) {
+			for (int x = 0; x < framebuffer.width(); x++) {
+				int samples = framebuffer.samples(x, y);
+				counts.merge(samples, 1, Integer::sum);
+				total += samples;
+			}
+		}
+
+		int pixels = framebuffer.width() * framebuffer.height();
+		System.out.printf("Samples per pixel: %.2f mean\n", (double) total / pixels);
+		counts.forEach((samples, count) -> {
+			System.out.printf("  %3d sample%s: %5.1f%% of pixels\n",
+					samples, samples == 1 ? " " : "s",
+					100.0 * count / pixels);
+		});
+	}
+
+	/**
+	 * Passes the current estimate to the snapshot listener if the interval
+	 * has elapsed since the last one.
+	 */
+	private void snapshotIfDue() {
+		if (snapshotListener == null || snapshotInterval <= 0) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		if (now - lastSnapshot >= snapshotInterval) {
+			snapshot();
+			lastSnapshot = now;
+		}
+	}
+
+	/**
+	 * Passes the current estimate to the snapshot listener, even while a
+	 * pass is in progress. Pixels not yet traced by the first pass are black.
+	 */
+	public synchronized void snapshot() {
+		if (snapshotListener == null || framebuffer == null) {
+			return;
+		}
+
+		snapshotListener.accept(new Image(framebuffer));
+		System.out.printf("Wrote snapshot after %.0fs\n",
+				(System.currentTimeMillis() - startTime) / 1000.0);
+	}
+
+	/**
+	 * Saves a checkpoint if the interval has elapsed since the last one.
+	 */
+	private void checkpointIfDue() {
+		if (checkpointPath == null || checkpointInterval <= 0) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		if (now - lastCheckpoint >= checkpointInterval) {
+			checkpoint();
+			lastCheckpoint = now;
+		}
+	}
 
-				first = false;
-				results.add(result.get());
-			} catch (InterruptedException | ExecutionException e) {
-				// ignore?
-				e.printStackTrace();
+	/**
+	 * Saves the framebuffer and the pass in progress to the checkpoint path,
+	 * briefly pausing the workers so no tile is saved half traced.
+	 */
+	public synchronized void checkpoint() {
+		if (checkpointPath == null || framebuffer == null) {
+			return;
+		}
+
+		Progress current = progress;
+		if (current != null) {
+			current.pause();
+		}
+
+		try {
+			long start = System.nanoTime();
+			Checkpoint.write(new Checkpoint(checkpointHash, pass, framebuffer),
+					checkpointPath);
+			System.out.printf("Wrote checkpoint at pass %d in %.3fs\n",
+					pass + 1, (System.nanoTime() - start) / 1000000000.0);
+		} catch (CheckpointException ex) {
+			System.err.printf("[Warn] %s: %s\n", ex.getMessage(),
+					ex.getCause() == null ? "" : ex.getCause().getMessage());
+		} finally {
+			if (current != null) {
+				current.resume();
 			}
 		}
+	}
 
-		// generate image
-		output = new Image(camera.width(), camera.height());
+	/**
+	 * Loads the checkpoint, if there is one for this scene and these
+	 * settings.
+	 * @return the checkpoint, or null to start from scratch
+	 */
+	private Checkpoint loadCheckpoint(Camera camera) {
+		if (checkpointPath == null || !Files.isRegularFile(checkpointPath)) {
+			return null;
+		}
 
-		for (TraceResult r : results) {
-			int red = scale(r.red(), minIntensity, maxIntensity);
-			int green = scale(r.green(), minIntensity, maxIntensity);
-			int blue = scale(r.blue(), minIntensity, maxIntensity);
+		Checkpoint checkpoint;
+		try {
+			checkpoint = Checkpoint.read(checkpointPath);
+		} catch (CheckpointException ex) {
+			System.err.printf("[Warn] Ignoring checkpoint: %s\n", ex.getMessage());
+			return null;
+		}
 
-			output.set(
-					r.col() - bounds[0], r.row() - bounds[1],
-					red, green, blue);
+		Framebuffer saved = checkpoint.framebuffer();
+		if (!Arrays.equals(checkpoint.hash(), checkpointHash)
+				|| saved.width() != camera.width()
+				|| saved.height() != camera.height()
+				|| saved.tileSize() != scheduler.tileSize()
+				|| saved.precision() != framebufferPrecision) {
+			System.err.printf(
+					"[Warn] Ignoring checkpoint %s, the scene or settings have changed\n",
+					checkpointPath);
+			return null;
 		}
+
+		return checkpoint;
+	}
+
+	public void trace() {
+		Camera camera = scene.camera();
+		int[] bounds = camera.bounds();
+		int width = camera.width();
+
+		OccluderCache.resetCounters();
+		TraceTask.resetCounters();
+
+		long startBytes = meter.allocatedBytes();
+		long startCollections = AllocationMeter.collections();
+
+		Checkpoint checkpoint = loadCheckpoint(camera);
+		resumed = checkpoint != null;
+
+		// raw intensities, laid out to match the tiles so each one writes a
+		// contiguous region
+		framebuffer = resumed
+				? checkpoint.framebuffer()
+				: new Framebuffer(width, camera.height(),
+						scheduler.tileSize(), framebufferPrecision);
+		PixelSink sink = (row, col, color) -> framebuffer.set(
+				col - bounds[0], row - bounds[1], color);
+		System.out.printf("Allocated %dx%d %s framebuffer (%.1f MiB)\n",
+				width, camera.height(),
+				framebufferPrecision.name().toLowerCase(),
+				framebuffer.sizeBytes() / (1024.0 * 1024.0));
+
+		// later passes average more samples into each pixel
+		PixelSink refine = (row, col, color) -> framebuffer.add(
+				col - bounds[0], row - bounds[1], color);
+
+		startTime = System.currentTimeMillis();
+		lastSnapshot = startTime;
+		lastCheckpoint = startTime;
+		deadline = timeBudget > 0 ? startTime + timeBudget : 0;
+
+		int pass = resumed ? checkpoint.pass() : 0;
+		if (resumed) {
+			System.out.printf("Resuming from checkpoint %s at pass %d\n",
+					checkpointPath, pass + 1);
+		}
+
+		boolean stopped = false;
+		long passTime = 0;
+		while (passes == 0 || pass < passes) {
+			// only start passes expected to finish within the budget, as long
+			// as there's a whole image
+			long now = System.currentTimeMillis();
+			if (deadline > 0 && pass > 0 && now + passTime > deadline) {
+				System.out.printf(
+						"Stopping after %d pass%s, another would take about %.1fs with %.1fs of the time budget left\n",
+						pass, pass == 1 ? "" : "es",
+						passTime / 1000.0, Math.max(0, deadline - now) / 1000.0);
+				break;
+			}
+
+			// under a time budget, a coarse grid of the first pass goes
+			// first, so a deadline leaves enough to fill the rest from
+			this.pass = pass;
+			if (pass == 0 && deadline > 0 && !tracePass(0, sink, true)) {
+				stopped = true;
+				break;
+			}
+
+			if (!tracePass(pass, pass == 0 ? sink : refine, false)) {
+				stopped = true;
+				break;
+			}
+
+			passTime = System.currentTimeMillis() - now;
+			pass++;
+			this.pass = pass;
+			if (passes != 1) {
+				System.out.printf(
+						"Pass %d complete, %d sample%s per pixel, %.0fs elapsed\n",
+						pass, pass, pass == 1 ? "" : "s",
+						(System.currentTimeMillis() - startTime) / 1000.0);
+			}
+
+			if (passes == 0 || pass < passes) {
+				snapshotIfDue();
+				checkpointIfDue();
+			}
+		}
+
+		progress = null;
+		complete = passes != 0 && pass == passes;
+
+		if (stopped && deadline > 0) {
+			// keep the full quality samples, so a resumed render traces the
+			// rest of the pass properly
+			checkpoint();
+			if (pass == 0) {
+				fillUntraced(bounds);
+				progress = null;
+			}
+		}
+
+		// measure before shutting down, since finished threads report nothing
+		long bytes = meter.allocatedBytes() - startBytes;
+		long collections = AllocationMeter.collections() - startCollections;
+
+		pool.shutdown();
+		if (coordinator != null) {
+			coordinator.close();
+		}
+
+		System.out.println("Trace complete, generating image...");
+		if (adaptive != null) {
+			System.out.printf("Adaptive schedule traced %d regions\n",
+					adaptive.countLeaves());
+		}
+
+		System.out.println("Shadow occluder cache: " + OccluderCache.format());
+
+		// workers keep their own counts
+		if (antialiasing.mode() != Antialiasing.Mode.NONE && coordinator == null) {
+			System.out.printf("Traced %.2f camera rays per pixel\n",
+					(double) TraceTask.samples() / (width * camera.height()));
+		}
+
+		long rays = TraceTask.rays();
+		if (startBytes >= 0 && rays > 0) {
+			System.out.printf(
+					"Traced %d rays, %.1f bytes allocated per ray, %d GCs\n",
+					rays, (double) bytes / rays, collections);
+		}
+
+		if (timeBudget > 0) {
+			System.out.printf("Traced for %.1fs of a %.1fs time budget\n",
+					(System.currentTimeMillis() - startTime) / 1000.0,
+					timeBudget / 1000.0);
+			reportSamples();
+		}
+
+		output = new Image(framebuffer);
+	}
+
+	/**
+	 * @return true if every pass was traced, rather than the trace being
+	 *     interrupted
+	 */
+	public boolean complete() {
+		return complete;
 	}
 
 	public Image output() {
 		return output;
 	}
 
-	public static void main(String[] args) {
-		if (args.length < 4) {
-			System.err.println("Usage: tracer [camera] [scene] [models...] [output]");
-			System.exit(1);
-			return;
+	public Framebuffer framebuffer() {
+		return framebuffer;
+	}
+
+	/**
+	 * Sets the precision of the framebuffer workers write radiance into.
+	 */
+	public void framebufferPrecision(Precision framebufferPrecision) {
+		this.framebufferPrecision = framebufferPrecision;
+	}
+
+	/**
+	 * Sets how the image is split into tiles and the order they're traced in.
+	 */
+	public void scheduler(TileScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Renders by adaptively splitting the frame on a fork/join pool rather
+	 * than in fixed tiles.
+	 * @param adaptive the splitting parameters, or null to use tiles
+	 */
+	public void adaptive(AdaptiveScheduler adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * Traces tiles on remote workers rather than the local pool. Adaptive
+	 * scheduling doesn't apply, since workers are handed whole tiles.
+	 * @param coordinator the workers to use, or null to trace locally
+	 */
+	public void coordinator(Coordinator coordinator) {
+		this.coordinator = coordinator;
+	}
+
+	/**
+	 * Sets how many camera rays are traced per pixel.
+	 */
+	public void antialiasing(Antialiasing antialiasing) {
+		this.antialiasing = antialiasing;
+	}
+
+	/**
+	 * Renders progressively: the first pass traces one sample per pixel, and
+	 * each later pass adds another jittered sample to refine the image.
+	 * @param passes the number of passes, or 0 to continue until stopped
+	 */
+	public void passes(int passes) {
+		if (passes < 0) {
+			throw new IllegalArgumentException(
+					"Pass count must not be negative: " + passes);
 		}
 
-		Camera camera = CameraParser.readPath(Paths.get(args[0])).camera();
+		this.passes = passes;
+	}
+
+	/**
+	 * Limits how long the trace takes. Passes are only started if they're
+	 * expected to finish in time, and at the deadline any pass in progress
+	 * is stopped after the tiles being traced. The first pass traces a coarse
+	 * grid of pixels before the rest, and pixels it hadn't reached by then
+	 * are interpolated from the grid.
+	 * @param seconds the time allowed for tracing, or 0 for no limit
+	 */
+	public void timeBudget(double seconds) {
+		if (seconds < 0) {
+			throw new IllegalArgumentException(
+					"Time budget must not be negative: " + seconds);
+		}
+
+		this.timeBudget = (long) (seconds * 1000);
+	}
+
+	/**
+	 * Periodically passes the current estimate to a listener during the
+	 * trace, between or during passes.
+	 * @param seconds the minimum time between snapshots
+	 * @param listener receives each snapshot on the tracing thread
+	 */
+	public void snapshots(double seconds, Consumer<Image> listener) {
+		this.snapshotInterval = (long) (seconds * 1000);
+		this.snapshotListener = listener;
+	}
+
+	/**
+	 * Periodically saves the render in progress so a restarted job can
+	 * resume from it, and resumes from the checkpoint if one already exists
+	 * with the same hash.
+	 * @param path where the checkpoint is kept
+	 * @param hash identifies the scene and every setting that changes the
+	 *     image
+	 * @param seconds the minimum time between checkpoints
+	 */
+	public void checkpoints(Path path, byte[] hash, double seconds) {
+		this.checkpointPath = path;
+		this.checkpointHash = hash;
+		this.checkpointInterval = (long) (seconds * 1000);
+	}
+
+	/**
+	 * Traces primary rays in square packets of the given width instead of one
+	 * pixel at a time. Packets are clipped at the edges of each tile.
+	 * @param packetSize the packet width, or 0 to disable packets
+	 */
+	public void packetSize(int packetSize) {
+		if (packetSize < 0) {
+			throw new IllegalArgumentException(
+					"Packet size must not be negative: " + packetSize);
+		}
+
+		this.packetSize = packetSize;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: tracer [options] [camera] [scene] [models...] [output]");
+		System.err.println("       tracer [options] [bundle] [output]");
+		System.err.println("       tracer bundle [options] [camera] [scene] [models...] [bundle]");
+		System.err.println("       tracer worker [options] [bundles...]");
+		System.err.println("Options:");
+		System.err.println("    --accel=[bvh|grid]       acceleration structure (default: bvh)");
+		System.err.println("    --bvh=[sah|median|lbvh]  BVH build strategy (default: sah)");
+		System.err.println("    --triangulate=[none|fan|ear]");
+		System.err.println("                             split polygons into triangles and drop");
+		System.err.println("                             degenerate faces (default: none)");
+		System.err.println("    --precision=[double|float]");
+		System.err.println("                             geometry precision (default: from the");
+		System.err.println("                             scene configuration, else double)");
+		System.err.println("    --scalar                 never use SIMD triangle kernels");
+		System.err.println("    --framebuffer=[float|double]");
+		System.err.println("                             precision radiance is stored in");
+		System.err.println("                             (default: float)");
+		System.err.printf("    --tile=N                 trace the image in NxN tiles (default: %d)\n",
+				TileScheduler.DEFAULT_SIZE);
+		System.err.println("    --tile-order=[scanline|morton|hilbert]");
+		System.err.println("                             order tiles are traced in (default: hilbert)");
+		System.err.println("    --schedule=[tiles|adaptive]");
+		System.err.println("                             split the frame into fixed tiles, or");
+		System.err.println("                             recursively by estimated cost (default: tiles)");
+		System.err.printf("    --split-cost=MS          adaptive regions estimated to take longer\n");
+		System.err.printf("                             than this are split (default: %.1f)\n",
+				AdaptiveScheduler.DEFAULT_SPLIT_COST / 1000000.0);
+		System.err.println("    --aa=[none|uniform|progressive|adaptive]");
+		System.err.println("                             anti-aliasing mode (default: none, or");
+		System.err.println("                             uniform if --samples is given);");
+		System.err.println("                             progressive traces the uniform samples");
+		System.err.println("                             one per pass (default passes: --samples)");
+		System.err.printf("    --samples=N              camera rays per pixel, or the most an\n");
+		System.err.printf("                             adaptive pixel takes (default: %d, %d)\n",
+				Antialiasing.DEFAULT_SAMPLES, Antialiasing.DEFAULT_MAX_SAMPLES);
+		System.err.printf("    --aa-min=N               adaptive pixels take samples in batches of N\n");
+		System.err.printf("                             (default: %d)\n",
+				Antialiasing.DEFAULT_MIN_SAMPLES);
+		System.err.printf("    --aa-threshold=T         adaptive pixels stop once the standard error\n");
+		System.err.printf("                             of their luminance is below T (default: %s)\n",
+				Antialiasing.DEFAULT_THRESHOLD);
+		System.err.println("    --sampler=[random|stratified|halton|sobol]");
+		System.err.println("                             where samples are placed within each");
+		System.err.println("                             pixel (default: sobol)");
+		System.err.println("    --passes=N               trace N samples per pixel, one pass at a");
+		System.err.println("                             time, or 0 to refine until stopped");
+		System.err.println("                             (default: 1)");
+		System.err.println("    --time-budget=S          stop tracing after S seconds, starting only");
+		System.err.println("                             passes that will fit, and report the");
+		System.err.println("                             samples each pixel received (default");
+		System.err.println("                             passes: 0, or --samples with --aa=uniform)");
+		System.err.printf("    --snapshot=S             with multiple passes, write the output every\n");
+		System.err.printf("                             S seconds (default: %.0f)\n",
+				DEFAULT_SNAPSHOT_INTERVAL);
+		System.err.println("    --checkpoint[=PATH]      save the render in progress and resume from");
+		System.err.println("                             it if it exists (default: [output].ckpt)");
+		System.err.printf("    --checkpoint-interval=S  seconds between checkpoints (default: %.0f)\n",
+				DEFAULT_CHECKPOINT_INTERVAL);
+		System.err.println("    --workers=HOST[:PORT],...");
+		System.err.println("                             trace tiles on remote workers that have");
+		System.err.println("                             the same scene bundle");
+		System.err.printf("    --worker-timeout=S       reassign a worker's tiles if it returns\n");
+		System.err.printf("                             none for S seconds (default: %.0f)\n",
+				Coordinator.DEFAULT_TIMEOUT);
+		System.err.printf("    --port=N                 port a worker listens on (default: %d)\n",
+				Coordinator.DEFAULT_PORT);
+		System.err.printf("    --bind=ADDRESS           address a worker listens on, or 0.0.0.0 for\n");
+		System.err.printf("                             every interface (default: %s)\n",
+				Worker.DEFAULT_BIND);
+		System.err.println("    --threads=N              worker threads (default: 1 per core)");
+		System.err.println("    --memory                 report the memory held by the scene and its");
+		System.err.println("                             acceleration structure, after a full GC");
+		System.err.println("    --packet[=N]             trace primary rays in NxN packets");
+		System.err.printf("                             (default N: %d)\n", PacketTask.DEFAULT_SIZE);
+		System.exit(1);
+	}
+
+	/**
+	 * Loads a scene from its text inputs.
+	 * @param paths the camera, scene configuration and model paths, in order
+	 * @param triangulation how model polygons are split when loading
+	 * @param precision overrides the configured geometry precision, if
+	 *     non-null
+	 * @return the loaded scene, without an accelerator
+	 */
+	private static Scene loadScene(
+			List<String> paths, Triangulator.Mode triangulation,
+			Precision precision) {
+		Camera camera = CameraParser.readPath(Paths.get(paths.get(0))).camera();
 		System.out.println("Loaded camera: " + camera);
 
 		// load models (1+ required)
 		List<Model> models = new ArrayList<>();
-		for (int i = 2; i < args.length - 1; i++) {
-			Model model = PLYParser.readPath(Paths.get(args[i])).toModel();
+		for (int i = 2; i < paths.size(); i++) {
+			Model model = PLYParser.readPath(Paths.get(paths.get(i)))
+					.toModel(triangulation);
 			models.add(model);
 
-			System.out.printf("Loaded model: %s (%d faces)\n", args[i], model.countFaces());
+			System.out.printf("Loaded model: %s (%d faces)\n", paths.get(i), model.countFaces());
 		}
 
 		// create scene + apply config
 		Scene scene = new Scene(camera, models);
-		SceneParser.readPath(scene, Paths.get(args[1]));
+		SceneParser.readPath(scene, Paths.get(paths.get(1)));
 		System.out.printf(
 				"Loaded scene configuration: %d model%s, %d light source%s\n",
 				scene.models().size(),
@@ -170,19 +946,434 @@ public class Tracer {
 				scene.lights().size(),
 				scene.lights().size() == 1? "" : "s");
 
+		if (precision != null) {
+			scene.precision(precision);
+		}
+
+		return scene;
+	}
+
+	private static void buildAccelerator(
+			Scene scene,
+			Accelerator.Type engine, BVHBuilder.Strategy strategy) {
+		Precision precision = scene.precision();
+		BVHBuilder builder = new BVHBuilder(strategy, precision);
+		Function<Face[], Accelerator> factory = engine == Accelerator.Type.GRID
+				? faces -> Grid.build(faces, precision)
+				: builder::build;
+
+		if (!scene.instances().isEmpty()) {
+			InstancedAccelerator accelerator = InstancedAccelerator.build(
+					scene.placements(), factory, builder);
+			scene.accelerator(accelerator);
+			System.out.printf("Built two-level %s: %d instances of %d models\n",
+					engine.name().toLowerCase(),
+					accelerator.countInstances(),
+					accelerator.countModels());
+		} else if (engine == Accelerator.Type.GRID) {
+			Face[] faces = scene.faces().toArray(Face[]::new);
+			Grid grid = Grid.build(faces, precision);
+			scene.accelerator(grid);
+			System.out.printf("Built grid over %d faces: %s\n",
+					faces.length, grid.format());
+		} else {
+			BVH bvh = builder.build(scene.faces().toArray(Face[]::new));
+			scene.accelerator(bvh);
+			System.out.printf("Built BVH over %d faces: %s\n",
+					bvh.countFaces(), bvh.stats().format());
+			System.out.printf("Stored %d triangles in %s precision (%.1f MiB)\n",
+					bvh.triangles().countTriangles(),
+					precision.name().toLowerCase(),
+					bvh.triangles().sizeBytes() / (1024.0 * 1024.0));
+		}
+	}
+
+	/**
+	 * Hashes everything a bundle is built from: the input files plus any
+	 * options that change the stored geometry or acceleration structure.
+	 */
+	private static byte[] hashInputs(
+			List<String> paths,
+			Accelerator.Type engine, BVHBuilder.Strategy strategy,
+			Triangulator.Mode triangulation, Precision precision) {
+		ContentHash hash = new ContentHash()
+				.update("bundle v" + BundleWriter.VERSION)
+				.update(engine.name())
+				.update(strategy.name())
+				.update(triangulation.name())
+				.update(precision == null ? "scene" : precision.name());
+
+		paths.forEach(p -> hash.update(Paths.get(p)));
+
+		return hash.digest();
+	}
+
+	/**
+	 * Hashes everything a checkpoint's samples depend on: the scene itself,
+	 * plus the options that change what's traced into each pixel.
+	 * @param sceneHash the hash of the scene's inputs or bundle
+	 */
+	private static byte[] hashCheckpoint(
+			byte[] sceneHash, Scene scene, Antialiasing antialiasing) {
+		return new ContentHash()
+				.update("checkpoint v" + Checkpoint.VERSION)
+				.update(sceneHash == null ? "unknown" : ContentHash.hex(sceneHash))
+				.update(scene.precision().name())
+				.update(antialiasing.mode().name())
+				.update(antialiasing.samples() + " " + antialiasing.minSamples()
+						+ " " + antialiasing.threshold())
+				.update(antialiasing.samplerType().name())
+				.digest();
+	}
+
+	private static void bundle(
+			List<String> paths,
+			Accelerator.Type engine, BVHBuilder.Strategy strategy,
+			Triangulator.Mode triangulation, Precision precision) {
+		Path bundlePath = Paths.get(paths.get(paths.size() - 1));
+		List<String> inputs = paths.subList(0, paths.size() - 1);
+
+		byte[] hash = hashInputs(
+				inputs, engine, strategy, triangulation, precision);
+		if (Arrays.equals(hash, BundleReader.readHash(bundlePath))) {
+			System.out.printf("Bundle %s is up to date (%s)\n",
+					bundlePath, ContentHash.hex(hash));
+			return;
+		}
+
+		Scene scene = loadScene(inputs, triangulation, precision);
+		buildAccelerator(scene, engine, strategy);
+
+		F.timeVoid(() -> {
+			BundleWriter.write(scene, hash, bundlePath);
+		}).thenAcceptTime(time -> {
+			System.out.printf("Wrote bundle %s (%s) in %.3fs\n",
+					bundlePath, ContentHash.hex(hash), time);
+		});
+	}
+
+	/**
+	 * Serves tiles to coordinators until the process is stopped.
+	 * @param bundles the scenes to serve, which coordinators pick by hash
+	 */
+	private static void work(
+			List<String> bundles,
+			Accelerator.Type engine, BVHBuilder.Strategy strategy,
+			String bind, int port, int threads) {
+		InetAddress address;
+		try {
+			address = InetAddress.getByName(bind);
+		} catch (UnknownHostException ex) {
+			throw new IllegalArgumentException("Unknown bind address: " + bind, ex);
+		}
+
+		Worker worker = new Worker(threads);
+		for (String bundle : bundles) {
+			Path path = Paths.get(bundle);
+			Scene scene = BundleReader.readPath(path);
+			byte[] hash = BundleReader.readHash(path);
+			if (scene.accelerator() == null) {
+				buildAccelerator(scene, engine, strategy);
+			}
+
+			worker.addScene(hash, scene);
+			System.out.printf("Serving bundle %s (%s)\n",
+					bundle, ContentHash.hex(hash));
+		}
+
+		System.out.println("Triangle kernel: " + TriangleKernel.describe());
+
+		try {
+			port = worker.listen(address, port);
+		} catch (IOException ex) {
+			throw new IllegalArgumentException(
+					"Unable to listen on " + bind + ":" + port + ": " + ex.getMessage(), ex);
+		}
+
+		System.out.printf("Worker listening on %s:%d with %d thread%s\n",
+				address.getHostAddress(), port, threads, threads == 1 ? "" : "s");
+
+		// the accept loop runs on a daemon thread
+		try {
+			Thread.currentThread().join();
+		} catch (InterruptedException ex) {
+			worker.close();
+		}
+	}
+
+	/**
+	 * Writes an image next to its destination and then moves it into place,
+	 * so stopping the process mid-write never leaves a truncated file.
+	 */
+	private static void writeSnapshot(Image image, Path path) {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		PPMWriter.write(image, temp);
+
+		try {
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			System.err.printf("[Warn] Unable to write snapshot to %s: %s\n",
+					path, ex.getMessage());
+		}
+	}
+
+	public static void main(String[] args) {
+		Options options = Options.parse(args);
+		List<String> paths = options.positional();
+
+		Accelerator.Type engine = Accelerator.Type.parse(
+				options.get("accel", "bvh"));
+		BVHBuilder.Strategy strategy = BVHBuilder.Strategy.parse(
+				options.get("bvh", "sah"));
+		Triangulator.Mode triangulation = Triangulator.Mode.parse(
+				options.get("triangulate", "none"));
+		Precision precision = options.has("precision")
+				? Precision.parse(options.get("precision", "double"))
+				: null;
+
+		if (options.has("scalar")) {
+			TriangleKernel.disableSimd();
+		}
+
+		if (!paths.isEmpty() && paths.get(0).equals("bundle")) {
+			if (paths.size() < 5) {
+				usage();
+				return;
+			}
+
+			bundle(paths.subList(1, paths.size()),
+					engine, strategy, triangulation, precision);
+			return;
+		}
+
+		if (!paths.isEmpty() && paths.get(0).equals("worker")) {
+			if (paths.size() < 2) {
+				usage();
+				return;
+			}
+
+			work(paths.subList(1, paths.size()), engine, strategy,
+					options.get("bind", Worker.DEFAULT_BIND),
+					options.getInt("port", Coordinator.DEFAULT_PORT),
+					options.getInt("threads",
+							Runtime.getRuntime().availableProcessors()));
+			return;
+		}
+
+		if (paths.size() != 2 && paths.size() < 4) {
+			usage();
+			return;
+		}
+
+		String outputPath = paths.get(paths.size() - 1);
+
+		boolean memory = options.has("memory");
+		long heapBefore = memory ? AllocationMeter.retainedHeap() : 0;
+		long directBefore = memory ? AllocationMeter.directBytes() : 0;
+
+		Scene scene;
+		if (paths.size() == 2) {
+			long start = System.nanoTime();
+			scene = BundleReader.readPath(Paths.get(paths.get(0)));
+			System.out.printf(
+					"Loaded bundle %s in %.3fs: %d models, %d light sources\n",
+					paths.get(0),
+					(System.nanoTime() - start) / 1000000000.0,
+					scene.models().size(),
+					scene.lights().size());
+
+			if (precision != null && precision != scene.precision()) {
+				System.out.printf(
+						"[Warn] Bundle uses %s precision, rebuilding accelerator\n",
+						scene.precision().name().toLowerCase());
+				scene.precision(precision);
+				scene.accelerator(null);
+			}
+		} else {
+			scene = loadScene(paths.subList(0, paths.size() - 1),
+					triangulation, precision);
+		}
+
+		if (scene.accelerator() == null) {
+			buildAccelerator(scene, engine, strategy);
+		}
+
+		if (memory) {
+			long heap = AllocationMeter.retainedHeap() - heapBefore;
+			long direct = AllocationMeter.directBytes() - directBefore;
+			long triangles = scene.faces().mapToLong(f -> f.size() - 2).sum();
+			System.out.printf(
+					"Scene memory: %.1f MiB heap + %.1f MiB off-heap, %.0f bytes per triangle\n",
+					heap / (1024.0 * 1024.0), direct / (1024.0 * 1024.0),
+					(double) (heap + direct) / Math.max(1, triangles));
+		}
+
+		System.out.println("Triangle kernel: " + TriangleKernel.describe());
+
 		Tracer tracer = new Tracer(scene);
+		tracer.scheduler(new TileScheduler(
+				options.getInt("tile", TileScheduler.DEFAULT_SIZE),
+				TileScheduler.Order.parse(options.get("tile-order", "hilbert"))));
+
+		Antialiasing.Mode aa = Antialiasing.Mode.parse(options.get("aa",
+				options.has("samples") ? "uniform" : "none"));
+		int samples = options.getInt("samples", aa == Antialiasing.Mode.ADAPTIVE
+				? Antialiasing.DEFAULT_MAX_SAMPLES
+				: Antialiasing.DEFAULT_SAMPLES);
+		Sampler.Type sampler = Sampler.Type.parse(options.get(
+				"sampler", Antialiasing.DEFAULT_SAMPLER.name()));
+		if (aa == Antialiasing.Mode.UNIFORM || aa == Antialiasing.Mode.PROGRESSIVE) {
+			tracer.antialiasing(new Antialiasing(
+					aa, samples, samples, 0, sampler));
+		} else if (aa == Antialiasing.Mode.ADAPTIVE) {
+			tracer.antialiasing(new Antialiasing(aa, samples,
+					options.getInt("aa-min", Antialiasing.DEFAULT_MIN_SAMPLES),
+					options.getDouble("aa-threshold", Antialiasing.DEFAULT_THRESHOLD),
+					sampler));
+		} else {
+			// progressive passes still take their samples from the sampler
+			tracer.antialiasing(new Antialiasing(aa, 1, 1, 0, sampler));
+		}
+
+		if (aa != Antialiasing.Mode.NONE) {
+			System.out.println("Anti-aliasing: " + tracer.antialiasing);
+			if (options.has("packet")) {
+				System.out.println(
+						"[Warn] Primary ray packets are unused when anti-aliasing");
+			}
+		}
+
+		tracer.framebufferPrecision(Precision.parse(
+				options.get("framebuffer", "float")));
+
+		String schedule = options.get("schedule", "tiles");
+		if (schedule.equals("adaptive")) {
+			tracer.adaptive(new AdaptiveScheduler(
+					AdaptiveScheduler.DEFAULT_MIN_SIZE,
+					(long) (options.getDouble("split-cost",
+							AdaptiveScheduler.DEFAULT_SPLIT_COST / 1000000.0) * 1000000)));
+		} else if (!schedule.equals("tiles")) {
+			throw new IllegalArgumentException(
+					"Unknown schedule: " + schedule + ", expected one of [tiles, adaptive]");
+		}
+		if (options.has("packet")) {
+			// a bare --packet uses the default size
+			tracer.packetSize(options.get("packet", "").equals("true")
+					? PacketTask.DEFAULT_SIZE
+					: options.getInt("packet", PacketTask.DEFAULT_SIZE));
+			System.out.printf("Tracing primary rays in %dx%d packets\n",
+					tracer.packetSize, tracer.packetSize);
+		}
+
+		// a time budget refines until it runs out, unless told otherwise
+		double budget = options.getDouble("time-budget", 0);
+		int passes = options.getInt("passes", budget > 0 ? 0 : 1);
+		if (budget > 0) {
+			tracer.timeBudget(budget);
+			System.out.printf("Time budget: %.1fs\n", budget);
+
+			// taking anti-aliasing samples one pass at a time lets the
+			// render stop with as many as fit
+			if (aa == Antialiasing.Mode.UNIFORM && !options.has("passes")) {
+				aa = Antialiasing.Mode.PROGRESSIVE;
+				tracer.antialiasing(new Antialiasing(
+						aa, samples, samples, 0, sampler));
+				System.out.printf(
+						"Tracing up to %d samples per pixel, one per pass\n",
+						samples);
+			}
+		}
+
+		if (aa == Antialiasing.Mode.PROGRESSIVE && !options.has("passes")) {
+			passes = samples;
+		}
+
+		tracer.passes(passes);
+
+		// workers and checkpoints both identify the scene by its bundle hash
+		byte[] sceneHash = null;
+		if (options.has("checkpoint") || options.has("workers")) {
+			sceneHash = paths.size() == 2
+					? BundleReader.readHash(Paths.get(paths.get(0)))
+					: hashInputs(paths.subList(0, paths.size() - 1),
+							engine, strategy, triangulation, precision);
+		}
+
+		if (options.has("workers")) {
+			tracer.coordinator(new Coordinator(
+					Coordinator.parseAddresses(options.get("workers", "")),
+					sceneHash,
+					options.getDouble("worker-timeout", Coordinator.DEFAULT_TIMEOUT)));
+			System.out.printf("Distributing tiles to workers for scene %s\n",
+					ContentHash.hex(sceneHash));
+			if (schedule.equals("adaptive")) {
+				System.out.println(
+						"[Warn] Adaptive scheduling is unused with remote workers");
+			}
+		}
+
+		Path checkpointPath = null;
+		if (options.has("checkpoint")) {
+			// a bare --checkpoint is kept next to the output
+			checkpointPath = Paths.get(options.get("checkpoint", "").equals("true")
+					? outputPath + ".ckpt"
+					: options.get("checkpoint", outputPath + ".ckpt"));
+
+			tracer.checkpoints(checkpointPath,
+					hashCheckpoint(sceneHash, scene, tracer.antialiasing),
+					options.getDouble("checkpoint-interval",
+							DEFAULT_CHECKPOINT_INTERVAL));
+			System.out.printf("Saving checkpoints to %s\n", checkpointPath);
+		}
+
+		if (passes != 1) {
+			Path path = Paths.get(outputPath);
+			tracer.snapshots(
+					options.getDouble("snapshot", DEFAULT_SNAPSHOT_INTERVAL),
+					image -> writeSnapshot(image, path));
+
+			System.out.printf("Rendering progressively, %s\n", passes == 0
+					? (budget > 0 ? "until the time budget runs out" : "until stopped")
+					: "in " + passes + " passes");
+		}
+
+		Thread hook = null;
+		if (passes != 1 || checkpointPath != null) {
+			// stopping the render keeps whatever has been traced so far
+			hook = new Thread(() -> {
+				tracer.snapshot();
+				tracer.checkpoint();
+			});
+			Runtime.getRuntime().addShutdownHook(hook);
+		}
+
 		F.timeVoid(tracer::trace).thenAcceptTime(time -> {
 			System.out.printf("Trace completed in %.3f seconds\n", time);
 		});
 
+		if (hook != null) {
+			Runtime.getRuntime().removeShutdownHook(hook);
+		}
+
 		System.out.print("Writing output ...");
 		F.timeVoid(() -> {
-			PPMWriter.write(tracer.output(), Paths.get(args[args.length - 1]));
+			PPMWriter.write(tracer.output(), Paths.get(outputPath));
 		}).thenAcceptTime(time -> {
 			System.out.printf("done, written in %.3fs to %s.\n",
 					time,
-					args[args.length - 1]);
+					outputPath);
 		});
+
+		// a finished render has nothing left to resume
+		if (checkpointPath != null && tracer.complete()) {
+			try {
+				Files.deleteIfExists(checkpointPath);
+			} catch (IOException ex) {
+				System.err.printf("[Warn] Unable to remove checkpoint %s: %s\n",
+						checkpointPath, ex.getMessage());
+			}
+		}
 	}
 
 }
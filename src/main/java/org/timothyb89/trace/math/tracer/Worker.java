@@ -0,0 +1,269 @@
+package org.timothyb89.trace.math.tracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import org.timothyb89.trace.math.Camera;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.util.ContentHash;
+
+/**
+ * Traces tiles for {@link Coordinator}s connecting over the network. Scenes
+ * are loaded up front and looked up by content hash, so a coordinator can
+ * only use a worker that has exactly the same scene. Each connection is
+ * served on its own thread, and its tiles are traced on a shared pool and
+ * returned as they finish.
+ *
+ * <p>Coordinators aren't authenticated, so workers only listen on the
+ * loopback interface unless given another address.</p>
+ * @author timothyb
+ */
+public class Worker {
+
+	public static final String DEFAULT_BIND = "127.0.0.1";
+
+	private final Map<String, Scene> scenes = new ConcurrentHashMap<>();
+	private final int threads;
+	private final ForkJoinPool pool;
+
+	private ServerSocket server;
+
+	public Worker(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"Worker needs at least 1 thread: " + threads);
+		}
+
+		this.threads = threads;
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Makes a scene available to coordinators.
+	 * @param hash the hash of the scene's bundle or inputs
+	 */
+	public void addScene(byte[] hash, Scene scene) {
+		scenes.put(ContentHash.hex(hash), scene);
+	}
+
+	/**
+	 * Starts accepting coordinators on the loopback interface in the
+	 * background.
+	 * @param port the port to listen on, or 0 for any free port
+	 * @return the port being listened on
+	 */
+	public int listen(int port) throws IOException {
+		return listen(InetAddress.getLoopbackAddress(), port);
+	}
+
+	/**
+	 * Starts accepting coordinators in the background.
+	 * @param address the local address to listen on, or the wildcard
+	 *     address for every interface
+	 * @param port the port to listen on, or 0 for any free port
+	 * @return the port being listened on
+	 */
+	public int listen(InetAddress address, int port) throws IOException {
+		server = new ServerSocket(port, 0, address);
+
+		Thread thread = new Thread(this::accept, "worker-accept");
+		thread.setDaemon(true);
+		thread.start();
+
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting coordinators and abandons any queued tiles.
+	 */
+	public void close() {
+		try {
+			if (server != null) {
+				server.close();
+			}
+		} catch (IOException ex) {
+			// already closed
+		}
+
+		pool.shutdownNow();
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				Thread thread = new Thread(() -> serve(socket),
+						"worker-" + socket.getRemoteSocketAddress());
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException ex) {
+				if (!server.isClosed()) {
+					System.err.printf("[Warn] Unable to accept coordinator: %s\n",
+							ex.getMessage());
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		SocketAddress remote = socket.getRemoteSocketAddress();
+
+		try (Socket s = socket;
+				DataInputStream in = new DataInputStream(
+						new BufferedInputStream(s.getInputStream()));
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(s.getOutputStream()))) {
+			s.setTcpNoDelay(true);
+
+			if (in.readInt() != WorkerProtocol.MAGIC) {
+				throw new IOException("Not a render coordinator");
+			}
+
+			int version = in.readInt();
+			byte[] hash = new byte[ContentHash.LENGTH];
+			in.readFully(hash);
+
+			Scene scene = scenes.get(ContentHash.hex(hash));
+			String error = null;
+			Precision precision = null;
+			int packetSize = 0;
+			Antialiasing antialiasing = null;
+			if (version != WorkerProtocol.VERSION) {
+				error = String.format(
+						"Unsupported protocol version %d, expected %d",
+						version, WorkerProtocol.VERSION);
+			} else {
+				try {
+					precision = Precision.parse(in.readUTF());
+					packetSize = in.readInt();
+					antialiasing = WorkerProtocol.readAntialiasing(in);
+				} catch (IllegalArgumentException ex) {
+					error = ex.getMessage();
+				}
+
+				if (error == null && scene == null) {
+					error = "Unknown scene " + ContentHash.hex(hash);
+				} else if (error == null && scene.precision() != precision) {
+					error = String.format("Scene is loaded in %s precision, not %s",
+							scene.precision().name().toLowerCase(),
+							precision.name().toLowerCase());
+				}
+			}
+
+			if (error != null) {
+				System.err.printf("[Warn] Rejected coordinator %s: %s\n",
+						remote, error);
+				out.writeByte(WorkerProtocol.ERROR);
+				out.writeUTF(error);
+				out.flush();
+				return;
+			}
+
+			out.writeByte(WorkerProtocol.OK);
+			out.writeInt(threads);
+			out.flush();
+			System.out.printf("Coordinator %s connected: %s\n", remote, antialiasing);
+
+			int tiles = 0;
+			while (true) {
+				int op = in.read();
+				if (op == -1 || op == WorkerProtocol.BYE) {
+					break;
+				} else if (op != WorkerProtocol.TILE) {
+					throw new IOException("Unexpected message: " + op);
+				}
+
+				int id = in.readInt();
+				int pass = in.readInt();
+				Tile tile = new Tile(in.readInt(), in.readInt(),
+						in.readInt(), in.readInt());
+				if (pass < 0 || !fits(scene.camera(), tile)) {
+					throw new IOException(String.format(
+							"Invalid tile %s in pass %d", tile, pass));
+				}
+
+				Antialiasing aa = antialiasing;
+				int packets = packetSize;
+				pool.execute(() -> trace(scene, tile, packets, aa, pass, id, out));
+				tiles++;
+			}
+
+			System.out.printf("Coordinator %s finished after %d tiles\n",
+					remote, tiles);
+		} catch (EOFException ex) {
+			System.err.printf("[Warn] Coordinator %s disconnected\n", remote);
+		} catch (IOException ex) {
+			System.err.printf("[Warn] Lost coordinator %s: %s\n",
+					remote, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Checks that a requested tile is non-empty and lies within the camera's
+	 * bounds, before anything is allocated for it.
+	 */
+	static boolean fits(Camera camera, Tile tile) {
+		int[] bounds = camera.bounds();
+
+		return tile.rows() > 0 && tile.cols() > 0
+				&& tile.row() >= bounds[1] && tile.col() >= bounds[0]
+				&& (long) tile.row() + tile.rows() - 1 <= bounds[3]
+				&& (long) tile.col() + tile.cols() - 1 <= bounds[2];
+	}
+
+	/**
+	 * Traces a requested tile and sends its pixels back.
+	 */
+	private static void trace(
+			Scene scene, Tile tile, int packetSize, Antialiasing antialiasing,
+			int pass, int id, DataOutputStream out) {
+		double[] pixels = new double[tile.countPixels() * 3];
+		PixelSink sink = (row, col, color) -> {
+			int i = ((row - tile.row()) * tile.cols() + col - tile.col()) * 3;
+			pixels[i] = color.x;
+			pixels[i + 1] = color.y;
+			pixels[i + 2] = color.z;
+		};
+
+		String error = null;
+		try {
+			TileTask.trace(scene, tile, packetSize, antialiasing, pass, sink);
+		} catch (RuntimeException ex) {
+			ex.printStackTrace();
+			error = ex.toString();
+		}
+
+		try {
+			synchronized (out) {
+				if (error != null) {
+					out.writeByte(WorkerProtocol.FAILED);
+					out.writeInt(id);
+					out.writeUTF(error);
+				} else {
+					out.writeByte(WorkerProtocol.RESULT);
+					out.writeInt(id);
+					out.writeInt(tile.countPixels());
+					for (double v : pixels) {
+						out.writeDouble(v);
+					}
+				}
+
+				out.flush();
+			}
+		} catch (IOException ex) {
+			// the connection is gone, and its thread reports it
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package org.timothyb89.trace.math.tracer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.sampling.Sampler;
+
+/**
+ * Messages exchanged between a {@link Coordinator} and its {@link Worker}s
+ * over a socket, all big-endian.
+ *
+ * <p>The coordinator opens with the magic, version, the SHA-256 hash of the
+ * scene and the settings that change what's traced. The worker replies
+ * {@link #OK} and its thread count, or {@link #ERROR} and a reason if it
+ * doesn't have the scene. After that the coordinator sends {@link #TILE}
+ * requests, and the worker answers each with a {@link #RESULT} holding the
+ * tile's pixels in row-major order, or {@link #FAILED}, in whatever order
+ * they finish. {@link #BYE} ends the session.</p>
+ * @author timothyb
+ */
+final class WorkerProtocol {
+
+	static final int MAGIC = 0x54524357; // "TRCW"
+	static final int VERSION = 1;
+
+	static final int OK = 0;
+	static final int ERROR = 1;
+
+	/**
+	 * id, pass, row, col, rows, cols
+	 */
+	static final int TILE = 2;
+	static final int BYE = 3;
+
+	/**
+	 * id, pixel count, then 3 doubles per pixel
+	 */
+	static final int RESULT = 4;
+
+	/**
+	 * id, message
+	 */
+	static final int FAILED = 5;
+
+	private WorkerProtocol() {
+	}
+
+	static void writeSettings(
+			DataOutput out, Precision precision, int packetSize,
+			Antialiasing antialiasing) throws IOException {
+		out.writeUTF(precision.name());
+		out.writeInt(packetSize);
+		out.writeUTF(antialiasing.mode().name());
+		out.writeInt(antialiasing.samples());
+		out.writeInt(antialiasing.minSamples());
+		out.writeDouble(antialiasing.threshold());
+		out.writeUTF(antialiasing.samplerType().name());
+	}
+
+	/**
+	 * Reads the anti-aliasing settings following the precision and packet
+	 * size.
+	 * @throws IllegalArgumentException if the settings are invalid
+	 */
+	static Antialiasing readAntialiasing(DataInput in) throws IOException {
+		Antialiasing.Mode mode = Antialiasing.Mode.parse(in.readUTF());
+		int samples = in.readInt();
+		int minSamples = in.readInt();
+		double threshold = in.readDouble();
+		Sampler.Type sampler = Sampler.Type.parse(in.readUTF());
+
+		return new Antialiasing(mode, samples, minSamples, threshold, sampler);
+	}
+
+}
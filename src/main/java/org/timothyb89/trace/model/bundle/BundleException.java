@@ -0,0 +1,30 @@
+package org.timothyb89.trace.model.bundle;
+
+/**
+ *
+ * @author timothyb
+ */
+public class BundleException extends RuntimeException {
+
+	/**
+	 * Creates a new instance of <code>BundleException</code> without detail
+	 * message.
+	 */
+	public BundleException() {
+	}
+
+	/**
+	 * Constructs an instance of <code>BundleException</code> with the
+	 * specified detail message.
+	 *
+	 * @param msg the detail message.
+	 */
+	public BundleException(String msg) {
+		super(msg);
+	}
+
+	public BundleException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+}
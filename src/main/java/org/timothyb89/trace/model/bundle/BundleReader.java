@@ -0,0 +1,251 @@
+package org.timothyb89.trace.model.bundle;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.timothyb89.trace.math.Camera;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Instance;
+import org.timothyb89.trace.math.Material;
+import org.timothyb89.trace.math.Matrix;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.PointLight;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.Vector;
+import org.timothyb89.trace.math.accel.BVH;
+import org.timothyb89.trace.util.Buffers;
+import org.timothyb89.trace.util.ContentHash;
+
+import static org.timothyb89.trace.model.bundle.BundleWriter.*;
+
+/**
+ * Loads a scene bundle written by {@link BundleWriter}. The file is memory
+ * mapped and its arrays copied out in bulk, so no text is parsed and a stored
+ * BVH's nodes are used without rebuilding. Its packed triangle data isn't
+ * stored, and is rebuilt from the faces.
+ * @author timothyb
+ */
+public class BundleReader {
+
+	private final ByteBuffer in;
+
+	private Material[] materials;
+	private List<Model> models;
+	private List<Face> faces;
+
+	private BundleReader(ByteBuffer in) {
+		this.in = in;
+	}
+
+	private static byte[] readHeader(ByteBuffer in) {
+		if (in.getInt() != MAGIC) {
+			throw new BundleException("Not a scene bundle");
+		}
+
+		int version = in.getInt();
+		if (version != VERSION) {
+			throw new BundleException(String.format(
+					"Unsupported bundle version %d, expected %d",
+					version, VERSION));
+		}
+
+		byte[] hash = new byte[ContentHash.LENGTH];
+		in.get(hash);
+
+		return hash;
+	}
+
+	private Vector readVector() {
+		return Vector.of(Buffers.doubles(in, 3));
+	}
+
+	private Camera readCamera() {
+		return Camera.builder()
+				.focalPoint(readVector())
+				.lookAtPoint(readVector())
+				.viewUp(readVector())
+				.focalLength(in.getDouble())
+				.bounds(Buffers.ints(in, 4))
+				.build();
+	}
+
+	private void readMaterials() {
+		// diffuse color, specularity, shininess and translucency
+		materials = new Material[Buffers.count(in, in.getInt(), 6 * Double.BYTES)];
+		for (int i = 0; i < materials.length; i++) {
+			Vector diffuse = readVector();
+			double specularity = in.getDouble();
+			double shininess = in.getDouble();
+			double translucency = in.getDouble();
+
+			materials[i] = Material.of(
+					diffuse,
+					specularity, shininess, translucency);
+		}
+	}
+
+	private void readLights(Scene scene) {
+		if (in.get() != 0) {
+			scene.ambientLight(new PointLight(
+					Vector.of(Buffers.doubles(in, 4)), null));
+		}
+
+		int count = in.getInt();
+		for (int i = 0; i < count; i++) {
+			Vector color = Vector.of(Buffers.doubles(in, 4));
+			scene.addLight(new PointLight(color, readVector()));
+		}
+	}
+
+	private Model readModel() {
+		int vertexCount = Buffers.count(in, in.getInt(), 4 * Double.BYTES);
+		Matrix vertices = new Matrix(4, vertexCount,
+				Buffers.doubles(in, 4 * vertexCount));
+
+		Model model = new Model();
+		model.vertexData(vertices);
+
+		int faceCount = in.getInt();
+		int[] starts = Buffers.ints(in, faceCount + 1);
+		int[] indices = Buffers.ints(in, starts[faceCount]);
+		int[] materialIds = Buffers.ints(in, faceCount);
+
+		int sourceCount = in.getInt();
+		int[] sourceOffsets = sourceCount < 0
+				? null
+				: Buffers.ints(in, sourceCount);
+		model.sourceOffsets(sourceOffsets);
+
+		List<Face> modelFaces = new ArrayList<>(faceCount);
+		int source = 0;
+		for (int i = 0; i < faceCount; i++) {
+			if (sourceOffsets == null) {
+				source = i;
+			} else {
+				while (sourceOffsets[source + 1] <= i) {
+					source++;
+				}
+			}
+
+			Face face = new Face(model, source,
+					Arrays.copyOfRange(indices, starts[i], starts[i + 1]));
+			if (materialIds[i] >= 0) {
+				face.material(materials[materialIds[i]]);
+			}
+
+			modelFaces.add(face);
+		}
+
+		model.faces(modelFaces);
+		faces.addAll(modelFaces);
+
+		return model;
+	}
+
+	private void readInstances(Scene scene) {
+		int count = in.getInt();
+		for (int i = 0; i < count; i++) {
+			Model model = models.get(in.getInt());
+			Matrix transform = new Matrix(4, 4, Buffers.doubles(in, 16));
+			Matrix inverse = new Matrix(4, 4, Buffers.doubles(in, 16));
+
+			scene.addInstance(new Instance(model, transform, inverse));
+		}
+	}
+
+	private BVH readBVH() {
+		try {
+			return BVH.read(in, faces::get);
+		} catch (IllegalArgumentException ex) {
+			throw new BundleException("Invalid BVH: " + ex.getMessage(), ex);
+		}
+	}
+
+	private void readAccelerator(Scene scene) {
+		scene.precision(Precision.values()[in.get()]);
+
+		int type = in.get();
+		switch (type) {
+			case ACCEL_NONE: break;
+			case ACCEL_BVH: scene.accelerator(readBVH()); break;
+			default:
+				throw new BundleException("Unknown accelerator type: " + type);
+		}
+	}
+
+	private Scene read() {
+		readHeader(in);
+
+		Camera camera = readCamera();
+		readMaterials();
+
+		models = new ArrayList<>();
+		faces = new ArrayList<>();
+
+		Scene scene = new Scene(camera, models);
+		readLights(scene);
+
+		int modelCount = in.getInt();
+		for (int i = 0; i < modelCount; i++) {
+			models.add(readModel());
+		}
+
+		readInstances(scene);
+		readAccelerator(scene);
+
+		return scene;
+	}
+
+	private static MappedByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Reads the input hash stored in a bundle.
+	 * @param path the bundle to check
+	 * @return the stored hash, or null if no readable bundle of the current
+	 *     version exists at the path
+	 */
+	public static byte[] readHash(Path path) {
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+
+		try {
+			return readHeader(map(path));
+		} catch (IOException | BufferUnderflowException | BundleException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Loads a scene from a bundle. If the bundle contains a BVH it is set as
+	 * the scene's accelerator, otherwise the accelerator is left unset.
+	 * @param path the bundle to load
+	 * @return the loaded scene
+	 * @throws BundleException if the bundle is missing, truncated or invalid
+	 */
+	public static Scene readPath(Path path) throws BundleException {
+		try {
+			return new BundleReader(map(path)).read();
+		} catch (IOException ex) {
+			throw new BundleException("Unable to read bundle: " + path, ex);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException
+				| NegativeArraySizeException ex) {
+			throw new BundleException("Truncated or corrupt bundle: " + path, ex);
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+package org.timothyb89.trace.model.bundle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.timothyb89.trace.math.Camera;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Instance;
+import org.timothyb89.trace.math.Material;
+import org.timothyb89.trace.math.Matrix;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.PointLight;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.Vector;
+import org.timothyb89.trace.math.accel.BVH;
+import org.timothyb89.trace.util.Buffers;
+import org.timothyb89.trace.util.ContentHash;
+
+/**
+ * Writes a fully loaded scene, including its acceleration structure, as a
+ * single binary bundle that {@link BundleReader} can load without parsing.
+ *
+ * <p>Layout (big-endian), in order:</p>
+ * <ul>
+ *   <li>header: magic, version, SHA-256 hash of the inputs</li>
+ *   <li>camera: focal point, look-at point, view up, focal length, bounds</li>
+ *   <li>materials: count, then diffuse rgb, k_s, alpha, k_t for each</li>
+ *   <li>lights: ambient flag and color, then count and color + position for
+ *       each point light</li>
+ *   <li>models: count, then for each the 4xN vertex matrix, face offsets,
+ *       packed vertex indices, per-face material ids (-1 = default) and
+ *       source face offsets (count -1 if faces match the source 1:1)</li>
+ *   <li>instances: count, then model index, transform and inverse</li>
+ *   <li>accelerator: geometry precision, then {@link #ACCEL_NONE} or
+ *       {@link #ACCEL_BVH} followed by the tree, with faces numbered across
+ *       all models in order</li>
+ * </ul>
+ * @author timothyb
+ */
+public class BundleWriter {
+
+	public static final int MAGIC = 0x54524342; // "TRCB"
+	public static final int VERSION = 3;
+
+	public static final int ACCEL_NONE = 0;
+	public static final int ACCEL_BVH = 1;
+
+	private final DataOutputStream out;
+
+	private final Map<Material, Integer> materials;
+	private final Map<Face, Integer> faces;
+
+	private BundleWriter(DataOutputStream out) {
+		this.out = out;
+
+		materials = new IdentityHashMap<>();
+		faces = new IdentityHashMap<>();
+	}
+
+	private void writeVector(Vector v) throws IOException {
+		Buffers.write(out, v.data(), 0, 3);
+	}
+
+	private void writeCamera(Camera camera) throws IOException {
+		writeVector(camera.focalPoint());
+		writeVector(camera.lookAtPoint());
+		writeVector(camera.viewUp());
+		out.writeDouble(camera.focalLength());
+		Buffers.write(out, camera.bounds(), 0, 4);
+	}
+
+	private void writeMaterials(Scene scene) throws IOException {
+		scene.faces()
+				.map(Face::material)
+				.filter(m -> m != Material.DEFAULT)
+				.forEach(m -> materials.putIfAbsent(m, materials.size()));
+
+		Material[] ordered = new Material[materials.size()];
+		materials.forEach((m, id) -> ordered[id] = m);
+
+		out.writeInt(ordered.length);
+		for (Material m : ordered) {
+			Matrix diffuse = m.diffuse();
+			out.writeDouble(diffuse.val(0, 0));
+			out.writeDouble(diffuse.val(1, 1));
+			out.writeDouble(diffuse.val(2, 2));
+			out.writeDouble(m.specularity());
+			out.writeDouble(m.shininess());
+			out.writeDouble(m.translucency());
+		}
+	}
+
+	private void writeColor(PointLight light) throws IOException {
+		out.writeDouble(light.red());
+		out.writeDouble(light.green());
+		out.writeDouble(light.blue());
+		out.writeDouble(light.alpha());
+	}
+
+	private void writeLights(Scene scene) throws IOException {
+		PointLight ambient = scene.ambientLight();
+		out.writeBoolean(ambient != null);
+		if (ambient != null) {
+			writeColor(ambient);
+		}
+
+		out.writeInt(scene.lights().size());
+		for (PointLight light : scene.lights()) {
+			writeColor(light);
+			writeVector(light.position());
+		}
+	}
+
+	private void writeModel(Model model) throws IOException {
+		Matrix vertices = model.vertexData();
+		if (vertices.rows() != 4) {
+			throw new BundleException(
+					"Expected homogeneous vertex data, got "
+							+ vertices.rows() + " rows");
+		}
+
+		out.writeInt(vertices.cols());
+		Buffers.write(out, vertices.data(), 0, vertices.data().length);
+
+		List<Face> modelFaces = model.faces();
+		int[] starts = new int[modelFaces.size() + 1];
+		for (int i = 0; i < modelFaces.size(); i++) {
+			starts[i + 1] = starts[i] + modelFaces.get(i).size();
+		}
+
+		out.writeInt(modelFaces.size());
+		Buffers.write(out, starts, 0, starts.length);
+
+		for (Face face : modelFaces) {
+			Buffers.write(out, face.vertices(), 0, face.size());
+		}
+
+		for (Face face : modelFaces) {
+			out.writeInt(materials.getOrDefault(face.material(), -1));
+			faces.put(face, faces.size());
+		}
+
+		int[] sourceOffsets = model.sourceOffsets();
+		if (sourceOffsets == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(sourceOffsets.length);
+			Buffers.write(out, sourceOffsets, 0, sourceOffsets.length);
+		}
+	}
+
+	private void writeInstances(Scene scene) throws IOException {
+		out.writeInt(scene.instances().size());
+		for (Instance instance : scene.instances()) {
+			out.writeInt(scene.models().indexOf(instance.model()));
+			Buffers.write(out, instance.transform().data(), 0, 16);
+			Buffers.write(out, instance.inverse().data(), 0, 16);
+		}
+	}
+
+	private void writeAccelerator(Scene scene) throws IOException {
+		out.writeByte(scene.precision().ordinal());
+
+		// other structures are cheap enough to rebuild when loading
+		if (scene.accelerator() instanceof BVH) {
+			out.writeByte(ACCEL_BVH);
+			((BVH) scene.accelerator()).write(out, faces::get);
+		} else {
+			out.writeByte(ACCEL_NONE);
+		}
+	}
+
+	private void write(Scene scene, byte[] hash) throws IOException {
+		if (hash.length != ContentHash.LENGTH) {
+			throw new IllegalArgumentException("Invalid hash length");
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.write(hash);
+
+		writeCamera(scene.camera());
+		writeMaterials(scene);
+		writeLights(scene);
+
+		out.writeInt(scene.models().size());
+		for (Model model : scene.models()) {
+			writeModel(model);
+		}
+
+		writeInstances(scene);
+		writeAccelerator(scene);
+	}
+
+	/**
+	 * Writes a bundle for the given scene.
+	 * @param scene the scene to write, with its accelerator already built
+	 * @param hash the {@link ContentHash} of the inputs the scene was loaded
+	 *     from
+	 * @param path the path to write to
+	 * @throws BundleException if the bundle can't be written
+	 */
+	public static void write(Scene scene, byte[] hash, Path path)
+			throws BundleException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+			new BundleWriter(out).write(scene, hash);
+		} catch (IOException ex) {
+			throw new BundleException("Unable to write bundle: " + path, ex);
+		}
+	}
+
+}
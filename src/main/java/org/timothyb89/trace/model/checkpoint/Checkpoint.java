@@ -0,0 +1,104 @@
+package org.timothyb89.trace.model.checkpoint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.timothyb89.trace.math.Framebuffer;
+import org.timothyb89.trace.util.ContentHash;
+
+/**
+ * A render in progress, saved so a restarted job can pick up where it left
+ * off. Since every sample depends only on its pixel and pass, tracing the
+ * rest of the passes from a checkpoint gives the same image as an
+ * uninterrupted render.
+ *
+ * <p>Layout (big-endian), in order:</p>
+ * <ul>
+ *   <li>header: magic, version, SHA-256 hash of the scene and render
+ *       settings</li>
+ *   <li>the pass in progress, from 0</li>
+ *   <li>the framebuffer: dimensions, tile size, precision, raw sums and
+ *       per-pixel sample counts, which tell which tiles have finished the
+ *       pass</li>
+ * </ul>
+ * @author timothyb
+ */
+@Data
+@Accessors(fluent = true)
+public class Checkpoint {
+
+	public static final int MAGIC = 0x5452434b; // "TRCK"
+	public static final int VERSION = 1;
+
+	private final byte[] hash;
+	private final int pass;
+	private final Framebuffer framebuffer;
+
+	/**
+	 * Writes a checkpoint next to its destination and then moves it into
+	 * place, so a job killed mid-write keeps its previous checkpoint.
+	 */
+	public static void write(Checkpoint checkpoint, Path path)
+			throws CheckpointException {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.write(checkpoint.hash);
+				out.writeInt(checkpoint.pass);
+				checkpoint.framebuffer.write(out);
+			}
+
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			throw new CheckpointException("Unable to write checkpoint: " + path, ex);
+		}
+	}
+
+	/**
+	 * @param path the checkpoint to load
+	 * @return the loaded checkpoint
+	 * @throws CheckpointException if the checkpoint is missing, truncated or
+	 *     invalid
+	 */
+	public static Checkpoint read(Path path) throws CheckpointException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new CheckpointException("Not a render checkpoint: " + path);
+			}
+
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new CheckpointException(String.format(
+						"Unsupported checkpoint version %d, expected %d",
+						version, VERSION));
+			}
+
+			byte[] hash = new byte[ContentHash.LENGTH];
+			in.readFully(hash);
+
+			int pass = in.readInt();
+			Framebuffer framebuffer = Framebuffer.read(in);
+
+			return new Checkpoint(hash, pass, framebuffer);
+		} catch (EOFException | IllegalArgumentException | NegativeArraySizeException ex) {
+			throw new CheckpointException("Truncated or corrupt checkpoint: " + path, ex);
+		} catch (IOException ex) {
+			throw new CheckpointException("Unable to read checkpoint: " + path, ex);
+		}
+	}
+
+}
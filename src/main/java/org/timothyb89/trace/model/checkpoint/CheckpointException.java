@@ -0,0 +1,30 @@
+package org.timothyb89.trace.model.checkpoint;
+
+/**
+ *
+ * @author timothyb
+ */
+public class CheckpointException extends RuntimeException {
+
+	/**
+	 * Creates a new instance of <code>CheckpointException</code> without detail
+	 * message.
+	 */
+	public CheckpointException() {
+	}
+
+	/**
+	 * Constructs an instance of <code>CheckpointException</code> with the
+	 * specified detail message.
+	 *
+	 * @param msg the detail message.
+	 */
+	public CheckpointException(String msg) {
+		super(msg);
+	}
+
+	public CheckpointException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+}
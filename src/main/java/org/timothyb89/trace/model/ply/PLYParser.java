@@ -130,6 +130,16 @@ public class PLYParser {
 	}
 	
 	public Model toModel() {
+		return toModel(Triangulator.Mode.NONE);
+	}
+
+	/**
+	 * Converts the parsed file into a model.
+	 * @param mode if not {@link Triangulator.Mode#NONE}, polygons are split
+	 *     into triangles and degenerate or duplicate faces are dropped
+	 * @return the new model
+	 */
+	public Model toModel(Triangulator.Mode mode) {
 		PLYElement vertex = element("vertex");
 		if (vertex == null) {
 			throw new PLYParseException("No vertex element found in PLY file!");
@@ -152,10 +162,39 @@ public class PLYParser {
 				.toArray());
 		model.vertexData(vertices);
 
+		List<List<Integer>> polygons = face.listValues("face", Integer.class)
+				.collect(Collectors.toList());
+
 		List<Face> faces = new ArrayList<>();
-		F.forEach(face.listValues("face", Integer.class), (indices, i) -> {
-			faces.add(new Face(model, i, indices));
-		});
+		if (mode == Triangulator.Mode.NONE) {
+			F.forEach(polygons.stream(), (indices, i) -> {
+				faces.add(new Face(model, i, indices));
+			});
+		} else {
+			Triangulator triangulator = new Triangulator(
+					mode, vertices, polygons.size());
+			for (List<Integer> indices : polygons) {
+				triangulator.add(indices.stream().mapToInt(i -> i).toArray());
+			}
+
+			int[] offsets = triangulator.offsets();
+			List<int[]> triangles = triangulator.triangles();
+			for (int source = 0; source < polygons.size(); source++) {
+				for (int t = offsets[source]; t < offsets[source + 1]; t++) {
+					faces.add(new Face(model, source, triangles.get(t)));
+				}
+			}
+
+			model.sourceOffsets(offsets);
+
+			if (triangulator.degenerate() > 0 || triangulator.duplicates() > 0) {
+				System.out.printf(
+						"[Warn] dropped %d degenerate and %d duplicate triangles\n",
+						triangulator.degenerate(),
+						triangulator.duplicates());
+			}
+		}
+
 		model.faces(faces);
 
 		return model;
@@ -0,0 +1,314 @@
+package org.timothyb89.trace.model.ply;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import org.timothyb89.trace.math.Matrix;
+
+/**
+ * Splits polygons into triangles while loading a model, dropping degenerate
+ * and duplicate faces along the way.
+ *
+ * <p>Each emitted triangle remembers the index of the source face it came
+ * from so that per-face data such as material ranges can still refer to
+ * faces by their index in the original file.</p>
+ * @author timothyb
+ */
+@Accessors(fluent = true)
+public class Triangulator {
+
+	public enum Mode {
+
+		/**
+		 * Keep faces exactly as given, including degenerate ones.
+		 */
+		NONE,
+
+		/**
+		 * Split each polygon into a fan around its first vertex. Only correct
+		 * for convex polygons, which is what most exporters write.
+		 */
+		FAN,
+
+		/**
+		 * Ear clipping: slower, but also handles concave polygons.
+		 */
+		EAR;
+
+		public static Mode parse(String name) {
+			try {
+				return valueOf(name.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException(
+						"Unknown triangulation mode: " + name
+								+ ", expected one of "
+								+ Arrays.toString(values()));
+			}
+		}
+
+	}
+
+	/**
+	 * Sine of the smallest angle a triangle may have before it's considered
+	 * degenerate (collinear vertices).
+	 */
+	public static final double MIN_SINE = 1e-9;
+
+	private final Mode mode;
+	private final double[] vertices;
+	private final int stride;
+
+	private final Set<Key> seen;
+
+	@Getter private final List<int[]> triangles;
+
+	/**
+	 * The first triangle produced for each source face, plus a final entry
+	 * for the total.
+	 */
+	@Getter private final int[] offsets;
+	private int sourceFaces;
+
+	@Getter private int degenerate;
+	@Getter private int duplicates;
+
+	/**
+	 * @param mode how polygons are split
+	 * @param vertices homogeneous 4xN vertex data
+	 * @param faceCount the number of source faces that will be added
+	 */
+	public Triangulator(Mode mode, Matrix vertices, int faceCount) {
+		this.mode = mode;
+		this.vertices = vertices.data();
+		this.stride = vertices.cols();
+
+		seen = new HashSet<>();
+		triangles = new ArrayList<>(faceCount);
+		offsets = new int[faceCount + 1];
+		sourceFaces = 0;
+	}
+
+	/**
+	 * An unordered triple of vertex indices.
+	 */
+	private static class Key {
+
+		private final int a, b, c;
+
+		Key(int[] t) {
+			int[] s = t.clone();
+			Arrays.sort(s);
+
+			a = s[0];
+			b = s[1];
+			c = s[2];
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key k = (Key) o;
+			return a == k.a && b == k.b && c == k.c;
+		}
+
+		@Override
+		public int hashCode() {
+			return (a * 31 + b) * 31 + c;
+		}
+
+	}
+
+	private double coord(int vertex, int axis) {
+		return vertices[axis * stride + vertex];
+	}
+
+	private boolean isDegenerate(int a, int b, int c) {
+		if (a == b || b == c || a == c) {
+			return true;
+		}
+
+		double e1x = coord(b, 0) - coord(a, 0);
+		double e1y = coord(b, 1) - coord(a, 1);
+		double e1z = coord(b, 2) - coord(a, 2);
+		double e2x = coord(c, 0) - coord(a, 0);
+		double e2y = coord(c, 1) - coord(a, 1);
+		double e2z = coord(c, 2) - coord(a, 2);
+
+		double nx = e1y * e2z - e1z * e2y;
+		double ny = e1z * e2x - e1x * e2z;
+		double nz = e1x * e2y - e1y * e2x;
+
+		double cross = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		double l1 = Math.sqrt(e1x * e1x + e1y * e1y + e1z * e1z);
+		double l2 = Math.sqrt(e2x * e2x + e2y * e2y + e2z * e2z);
+
+		return !(cross > MIN_SINE * l1 * l2);
+	}
+
+	private void emit(int a, int b, int c) {
+		if (isDegenerate(a, b, c)) {
+			degenerate++;
+			return;
+		}
+
+		int[] t = { a, b, c };
+		if (!seen.add(new Key(t))) {
+			duplicates++;
+			return;
+		}
+
+		triangles.add(t);
+	}
+
+	private void fan(int[] polygon) {
+		for (int k = 1; k < polygon.length - 1; k++) {
+			emit(polygon[0], polygon[k], polygon[k + 1]);
+		}
+	}
+
+	/**
+	 * Picks the two axes to project onto: those other than the dominant axis
+	 * of the polygon's Newell normal. Also returns the sign of the normal
+	 * along the dropped axis so projected winding can be compared.
+	 */
+	private int[] projection(int[] polygon) {
+		double[] n = new double[3];
+		for (int i = 0; i < polygon.length; i++) {
+			int cur = polygon[i];
+			int next = polygon[(i + 1) % polygon.length];
+
+			for (int axis = 0; axis < 3; axis++) {
+				int u = (axis + 1) % 3;
+				int v = (axis + 2) % 3;
+				n[axis] += (coord(cur, u) - coord(next, u))
+						* (coord(cur, v) + coord(next, v));
+			}
+		}
+
+		int drop = 0;
+		for (int axis = 1; axis < 3; axis++) {
+			if (Math.abs(n[axis]) > Math.abs(n[drop])) {
+				drop = axis;
+			}
+		}
+
+		return new int[] {
+			(drop + 1) % 3,
+			(drop + 2) % 3,
+			n[drop] >= 0 ? 1 : -1
+		};
+	}
+
+	private double cross2(int[] p, int a, int b, int c) {
+		double ax = coord(a, p[0]), ay = coord(a, p[1]);
+		return (coord(b, p[0]) - ax) * (coord(c, p[1]) - ay)
+				- (coord(b, p[1]) - ay) * (coord(c, p[0]) - ax);
+	}
+
+	private boolean isEar(int[] p, List<Integer> ring, int i) {
+		int n = ring.size();
+		int a = ring.get((i + n - 1) % n);
+		int b = ring.get(i);
+		int c = ring.get((i + 1) % n);
+
+		// must turn the same way as the polygon itself
+		if (p[2] * cross2(p, a, b, c) <= 0) {
+			return false;
+		}
+
+		// and contain no other remaining vertex
+		for (int j = 0; j < n; j++) {
+			int v = ring.get(j);
+			if (v == a || v == b || v == c) {
+				continue;
+			}
+
+			if (p[2] * cross2(p, a, b, v) >= 0
+					&& p[2] * cross2(p, b, c, v) >= 0
+					&& p[2] * cross2(p, c, a, v) >= 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes one vertex lying on the line between its neighbours, which
+	 * would otherwise never be clipped as an ear. Only used once no proper
+	 * ear is left, since dropping a vertex can leave a T-junction.
+	 * @return true if a vertex was removed
+	 */
+	private boolean dropCollinear(int[] p, List<Integer> ring) {
+		int n = ring.size();
+		for (int i = 0; i < n; i++) {
+			int a = ring.get((i + n - 1) % n);
+			int c = ring.get((i + 1) % n);
+			if (cross2(p, a, ring.get(i), c) == 0) {
+				ring.remove(i);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void earClip(int[] polygon) {
+		int[] p = projection(polygon);
+
+		List<Integer> ring = new ArrayList<>();
+		for (int v : polygon) {
+			ring.add(v);
+		}
+
+		while (ring.size() > 3) {
+			int ear = -1;
+			for (int i = 0; i < ring.size(); i++) {
+				if (isEar(p, ring, i)) {
+					ear = i;
+					break;
+				}
+			}
+
+			if (ear < 0 && dropCollinear(p, ring)) {
+				continue;
+			}
+
+			if (ear < 0) {
+				// self-intersecting or non-planar: give up and fan the rest
+				fan(ring.stream().mapToInt(i -> i).toArray());
+				return;
+			}
+
+			int n = ring.size();
+			emit(ring.get((ear + n - 1) % n), ring.get(ear), ring.get((ear + 1) % n));
+			ring.remove(ear);
+		}
+
+		emit(ring.get(0), ring.get(1), ring.get(2));
+	}
+
+	/**
+	 * Triangulates the next source face.
+	 * @param polygon the face's vertex indices
+	 */
+	public void add(int[] polygon) {
+		if (polygon.length < 3) {
+			degenerate++;
+		} else if (polygon.length == 3 || mode == Mode.FAN) {
+			fan(polygon);
+		} else {
+			earClip(polygon);
+		}
+
+		offsets[++sourceFaces] = triangles.size();
+	}
+
+}
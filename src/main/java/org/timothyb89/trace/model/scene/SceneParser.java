@@ -156,9 +156,10 @@ public class SceneParser {
 
 			Model model = scene.model(modelIndex);
 
-			int end = Math.min(faceEnd, model.countFaces() - 1);
-			for (int i = faceStart; i <= end; i++) {
-				model.face(i).material(mat);
+			// ranges refer to faces as numbered in the model file, which
+			// may have been split into several faces each when loading
+			for (Face face : model.sourceFaces(faceStart, faceEnd)) {
+				face.material(mat);
 			}
 
 			//model.faces().stream()
@@ -170,6 +171,81 @@ public class SceneParser {
 		}
 	}
 
+	private void readInstance(String[] tokens) {
+		// 0: 'I'
+		// 1: model index
+		// 2: instance count
+		// 3,4,5: position of the first instance
+		// 6,7,8: offset between consecutive instances
+		// 9: uniform scale
+		// 10: rotation about the z axis, degrees
+		if (tokens.length != 11) {
+			throw new SceneParseException(
+					"Invalid parameter count for instance");
+		}
+
+		try {
+			int modelIndex = Integer.parseInt(tokens[1]);
+			if (modelIndex < 0) {
+				throw new SceneParseException(
+						"Instance model index must not be negative: " + tokens[1]);
+			}
+
+			int count = Integer.parseInt(tokens[2]);
+			if (count < 1) {
+				throw new SceneParseException(
+						"Instance count must be at least 1: " + tokens[2]);
+			}
+
+			Vector position = parsePoint(Arrays.copyOfRange(tokens, 3, 6));
+			Vector offset = parsePoint(Arrays.copyOfRange(tokens, 6, 9));
+			if (position == null || offset == null) {
+				throw new SceneParseException(
+						"Instances require a concrete position and offset");
+			}
+
+			double scale = positive(tokens[9], "scale");
+			if (scale == 0) {
+				throw new SceneParseException("Instance scale must be non-zero");
+			}
+
+			double radians = Math.toRadians(Double.parseDouble(tokens[10]));
+
+			if (modelIndex >= scene.models().size()) {
+				System.out.println("[Warn] ignoring instance of out-of-bounds "
+						+ "model #" + modelIndex);
+				return;
+			}
+
+			Model model = scene.model(modelIndex);
+			for (int i = 0; i < count; i++) {
+				scene.addInstance(Instance.of(
+						model,
+						position.val(0) + i * offset.val(0),
+						position.val(1) + i * offset.val(1),
+						position.val(2) + i * offset.val(2),
+						scale, radians));
+			}
+		} catch (NumberFormatException ex) {
+			throw new SceneParseException("Invalid number");
+		}
+	}
+
+	private void readPrecision(String[] tokens) {
+		// 0: 'P'
+		// 1: geometry precision, 'double' or 'float'
+		if (tokens.length != 2) {
+			throw new SceneParseException(
+					"Invalid parameter count for precision");
+		}
+
+		try {
+			scene.precision(Precision.parse(tokens[1]));
+		} catch (IllegalArgumentException ex) {
+			throw new SceneParseException(ex.getMessage());
+		}
+	}
+
 	public void read(String  line) throws SceneParseException {
 		lineCount++;
 
@@ -185,6 +261,8 @@ public class SceneParser {
 			switch (first) {
 				case "l": readLight(tokens); break;
 				case "m": readMaterial(tokens); break;
+				case "i": readInstance(tokens); break;
+				case "p": readPrecision(tokens); break;
 				default:
 					throw new SceneParseException(
 							"Unknown parameter type: " + tokens[0]);
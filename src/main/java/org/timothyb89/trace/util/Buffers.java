@@ -0,0 +1,66 @@
+package org.timothyb89.trace.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Bulk reads and writes of primitive arrays for binary file formats. Reads
+ * copy straight out of (possibly memory-mapped) buffers and advance their
+ * position past the data read.
+ *
+ * @author timothyb
+ */
+public class Buffers {
+
+	/**
+	 * Checks a count read from a file before anything is allocated for it.
+	 * @param bytes the smallest number of bytes each element takes
+	 * @return the count
+	 * @throws BufferUnderflowException if the count is negative or more
+	 *     elements than remain in the buffer
+	 */
+	public static int count(ByteBuffer in, int count, int bytes) {
+		if (count < 0 || count > in.remaining() / bytes) {
+			throw new BufferUnderflowException();
+		}
+
+		return count;
+	}
+
+	public static int[] ints(ByteBuffer in, int count) {
+		int[] ret = new int[count(in, count, Integer.BYTES)];
+		in.asIntBuffer().get(ret);
+		in.position(in.position() + count * Integer.BYTES);
+
+		return ret;
+	}
+
+	public static double[] doubles(ByteBuffer in, int count) {
+		double[] ret = new double[count(in, count, Double.BYTES)];
+		doubles(in, ret, 0, count);
+
+		return ret;
+	}
+
+	public static void doubles(ByteBuffer in, double[] dest, int offset, int count) {
+		in.asDoubleBuffer().get(dest, offset, count);
+		in.position(in.position() + count * Double.BYTES);
+	}
+
+	public static void write(DataOutput out, int[] values, int offset, int count)
+			throws IOException {
+		for (int i = offset; i < offset + count; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	public static void write(DataOutput out, double[] values, int offset, int count)
+			throws IOException {
+		for (int i = offset; i < offset + count; i++) {
+			out.writeDouble(values[i]);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.timothyb89.trace.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A SHA-256 digest over a sequence of files and strings, used to tell whether
+ * derived data (e.g. a scene bundle) is still current for a set of inputs.
+ *
+ * <p>Each input is length-prefixed, so moving bytes between adjacent inputs
+ * changes the hash.</p>
+ * @author timothyb
+ */
+public class ContentHash {
+
+	public static final int LENGTH = 32;
+
+	private final MessageDigest digest;
+
+	public ContentHash() {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			// required of every Java platform
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private void length(long length) {
+		digest.update(ByteBuffer.allocate(8).putLong(length).array());
+	}
+
+	public ContentHash update(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		length(bytes.length);
+		digest.update(bytes);
+
+		return this;
+	}
+
+	public ContentHash update(Path path) {
+		try (InputStream in = Files.newInputStream(path)) {
+			length(Files.size(path));
+
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+
+		return this;
+	}
+
+	public byte[] digest() {
+		return digest.digest();
+	}
+
+	public static String hex(byte[] hash) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : hash) {
+			sb.append(String.format("%02x", b));
+		}
+
+		return sb.toString();
+	}
+
+}
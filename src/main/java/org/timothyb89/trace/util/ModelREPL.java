@@ -1,8 +1,8 @@
 package org.timothyb89.trace.util;
 
+import org.timothyb89.trace.math.Mat4;
 import org.timothyb89.trace.math.Matrix;
 import org.timothyb89.trace.math.Model;
-import org.timothyb89.trace.math.Transform;
 import org.timothyb89.trace.math.Vector;
 import org.timothyb89.trace.model.ply.PLYParser;
 import org.timothyb89.trace.model.ply.PLYWriter;
@@ -30,7 +30,7 @@ public class ModelREPL {
 	private Map<String, Consumer<double[]>> commands;
 
 	private Model model;
-	private Matrix transform;
+	private Mat4 transform;
 
 	public ModelREPL(Path input, Path output) {
 		this.input = input;
@@ -56,7 +56,7 @@ public class ModelREPL {
 			System.out.printf("done in %.3f seconds.\n", time);
 		});
 
-		transform = Transform.identity();
+		transform = Mat4.identity();
 	}
 
 	public void printInfo() {
@@ -80,7 +80,7 @@ public class ModelREPL {
 			return;
 		}
 
-		transform = transform.multiply(Transform.scale(
+		transform = transform.multiply(Mat4.scale(
 				args[0], args[1], args[2]));
 
 		sync();
@@ -92,14 +92,14 @@ public class ModelREPL {
 			return;
 		}
 
-		transform = transform.multiply(Transform.translate(
+		transform = transform.multiply(Mat4.translate(
 				args[0], args[1], args[2]));
 
 		sync();
 	}
 
 	public void rotate(double[] args) {
-		transform = transform.multiply(Transform.axisRotate(
+		transform = transform.multiply(Mat4.axisRotate(
 				Vector.of(args[0], args[1], args[2]),
 				Math.toRadians(args[3])));
 
@@ -0,0 +1,88 @@
+package org.timothyb89.trace.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.ToString;
+
+/**
+ * Minimal command line option parsing. Arguments of the form
+ * {@code --key=value} (or a bare {@code --flag}) are collected as options and
+ * everything else is kept, in order, as a positional argument.
+ *
+ * @author timothyb
+ */
+@ToString
+public class Options {
+
+	private final List<String> positional;
+	private final Map<String, String> options;
+
+	private Options() {
+		positional = new ArrayList<>();
+		options = new HashMap<>();
+	}
+
+	public List<String> positional() {
+		return Collections.unmodifiableList(positional);
+	}
+
+	public boolean has(String key) {
+		return options.containsKey(key);
+	}
+
+	public String get(String key, String def) {
+		return options.getOrDefault(key, def);
+	}
+
+	public int getInt(String key, int def) {
+		String value = options.get(key);
+		if (value == null) {
+			return def;
+		}
+
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid integer for option '--%s': %s", key, value));
+		}
+	}
+
+	public double getDouble(String key, double def) {
+		String value = options.get(key);
+		if (value == null) {
+			return def;
+		}
+
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid number for option '--%s': %s", key, value));
+		}
+	}
+
+	public static Options parse(String[] args) {
+		Options ret = new Options();
+
+		for (String arg : args) {
+			if (!arg.startsWith("--") || arg.length() == 2) {
+				ret.positional.add(arg);
+				continue;
+			}
+
+			int eq = arg.indexOf('=');
+			if (eq < 0) {
+				ret.options.put(arg.substring(2), "true");
+			} else {
+				ret.options.put(arg.substring(2, eq), arg.substring(eq + 1));
+			}
+		}
+
+		return ret;
+	}
+
+}
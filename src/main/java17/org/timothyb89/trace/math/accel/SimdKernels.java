@@ -0,0 +1,56 @@
+package org.timothyb89.trace.math.accel;
+
+/**
+ * Creates SIMD {@link TriangleKernel}s on Java 17+, when the
+ * {@code jdk.incubator.vector} module has been enabled.
+ *
+ * <p>{@link VectorTriangleKernel} is only loaded once the module is known to
+ * be present, so its absence never causes a linkage error.</p>
+ * @author timothyb
+ */
+final class SimdKernels {
+
+	private static final String MODULE = "jdk.incubator.vector";
+
+	private static final String UNAVAILABLE = check();
+
+	private SimdKernels() {
+	}
+
+	private static String check() {
+		if (!ModuleLayer.boot().findModule(MODULE).isPresent()) {
+			return "run with --add-modules " + MODULE + " to enable SIMD";
+		}
+
+		try {
+			// fails if this JVM's incubator API no longer matches
+			VectorTriangleKernel.selfTest();
+			return null;
+		} catch (LinkageError | RuntimeException ex) {
+			return "SIMD kernel unavailable: " + ex;
+		}
+	}
+
+	/**
+	 * @return a SIMD kernel for the store, or null if none is available
+	 */
+	static TriangleKernel create(TriangleStore store) {
+		if (UNAVAILABLE != null) {
+			return null;
+		}
+
+		return new VectorTriangleKernel(store);
+	}
+
+	/**
+	 * @return why no SIMD kernel is available, or null if one is
+	 */
+	static String unavailable() {
+		return UNAVAILABLE;
+	}
+
+	static String describe() {
+		return VectorTriangleKernel.label();
+	}
+
+}
@@ -0,0 +1,224 @@
+package org.timothyb89.trace.math.accel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Triangle;
+
+/**
+ * The Moller-Trumbore test from {@link Triangle} across one vector of
+ * triangles at a time. Every lane performs the same operations in the same
+ * order as the scalar kernel, without fused multiply-adds, so the distances
+ * are bit-for-bit identical.
+ *
+ * <p>Lanes are loaded straight from the store's direct buffers. Single
+ * precision stores are read as floats and widened in registers, just as the
+ * scalar kernel widens them. The incubator API dropped
+ * {@code fromByteBuffer} after JDK 18, so newer JVMs load from heap copies
+ * of the store instead, since its replacement needs the foreign memory API
+ * that is still a preview in JDK 21.</p>
+ * @author timothyb
+ */
+final class VectorTriangleKernel extends TriangleKernel {
+
+	/**
+	 * BVH leaves hold at most a handful of triangles, so lanes past 4 would
+	 * mostly test padding.
+	 */
+	private static final VectorSpecies<Double> SPECIES =
+			DoubleVector.SPECIES_PREFERRED.length() > 4
+					? DoubleVector.SPECIES_256
+					: DoubleVector.SPECIES_PREFERRED;
+
+	/**
+	 * Floats with as many lanes as {@link #SPECIES}, in half the bits.
+	 */
+	private static final VectorSpecies<Float> FLOATS = VectorSpecies.of(
+			float.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+	private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+
+	/**
+	 * True if vectors can be loaded from byte buffers on this JVM.
+	 */
+	private static final boolean BUFFERS = buffersSupported();
+
+	private static final int AX = 0, AY = 1, AZ = 2;
+	private static final int E1X = 3, E1Y = 4, E1Z = 5;
+	private static final int E2X = 6, E2Y = 7, E2Z = 8;
+
+	private final ByteBuffer[] g = new ByteBuffer[9];
+
+	/**
+	 * Heap copies of each component when {@link #BUFFERS} is false, in the
+	 * store's precision.
+	 */
+	private final double[][] doubleCopies = new double[9][];
+	private final float[][] floatCopies = new float[9][];
+
+	private final boolean floats;
+
+	VectorTriangleKernel(TriangleStore store) {
+		if (SPECIES.length() > TriangleStore.PADDING) {
+			throw new IllegalStateException(
+					"Vectors are wider than the store's padding: " + SPECIES.length());
+		}
+
+		this.floats = store.precision() == Precision.FLOAT;
+
+		for (int c = 0; c < g.length; c++) {
+			if (BUFFERS) {
+				g[c] = store.buffer(c);
+				continue;
+			}
+
+			ByteBuffer buffer = store.buffer(c).duplicate().order(ORDER);
+			buffer.clear();
+			if (floats) {
+				floatCopies[c] = new float[buffer.capacity() / Float.BYTES];
+				buffer.asFloatBuffer().get(floatCopies[c]);
+			} else {
+				doubleCopies[c] = new double[buffer.capacity() / Double.BYTES];
+				buffer.asDoubleBuffer().get(doubleCopies[c]);
+			}
+		}
+	}
+
+	private static boolean buffersSupported() {
+		try {
+			DoubleVector.fromByteBuffer(SPECIES,
+					ByteBuffer.allocate(SPECIES.vectorByteSize()), 0, ORDER);
+			return true;
+		} catch (NoSuchMethodError ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Loads one component of the triangles starting at {@code t}.
+	 */
+	private DoubleVector load(int c, int t) {
+		if (floats) {
+			FloatVector v = BUFFERS
+					? FloatVector.fromByteBuffer(FLOATS, g[c], t * Float.BYTES, ORDER)
+					: FloatVector.fromArray(FLOATS, floatCopies[c], t);
+			return (DoubleVector) v.convertShape(VectorOperators.F2D, SPECIES, 0);
+		}
+
+		return BUFFERS
+				? DoubleVector.fromByteBuffer(SPECIES, g[c], t * Double.BYTES, ORDER)
+				: DoubleVector.fromArray(SPECIES, doubleCopies[c], t);
+	}
+
+	@Override
+	public int width() {
+		return SPECIES.length();
+	}
+
+	@Override
+	public String name() {
+		return label();
+	}
+
+	static String label() {
+		return String.format("%d-wide SIMD (%d-bit vectors%s)",
+				SPECIES.length(), SPECIES.vectorBitSize(),
+				BUFFERS ? "" : ", heap copies");
+	}
+
+	@Override
+	public void intersect(
+			int first, int count,
+			double ox, double oy, double oz,
+			double dx, double dy, double dz,
+			double tMin, double tMax,
+			double[] t) {
+		VectorSpecies<Double> s = SPECIES;
+
+		for (int i = 0; i < count; i += s.length()) {
+			int o = first + i;
+
+			DoubleVector e1x = load(E1X, o);
+			DoubleVector e1y = load(E1Y, o);
+			DoubleVector e1z = load(E1Z, o);
+			DoubleVector e2x = load(E2X, o);
+			DoubleVector e2y = load(E2Y, o);
+			DoubleVector e2z = load(E2Z, o);
+
+			// p = d x e2
+			DoubleVector px = e2z.mul(dy).sub(e2y.mul(dz));
+			DoubleVector py = e2x.mul(dz).sub(e2z.mul(dx));
+			DoubleVector pz = e2y.mul(dx).sub(e2x.mul(dy));
+
+			DoubleVector inv = DoubleVector.broadcast(s, 1).div(
+					e1x.mul(px).add(e1y.mul(py)).add(e1z.mul(pz)));
+
+			DoubleVector sx = DoubleVector.broadcast(s, ox).sub(load(AX, o));
+			DoubleVector sy = DoubleVector.broadcast(s, oy).sub(load(AY, o));
+			DoubleVector sz = DoubleVector.broadcast(s, oz).sub(load(AZ, o));
+
+			DoubleVector u = sx.mul(px).add(sy.mul(py)).add(sz.mul(pz)).mul(inv);
+
+			// q = s x e1
+			DoubleVector qx = sy.mul(e1z).sub(sz.mul(e1y));
+			DoubleVector qy = sz.mul(e1x).sub(sx.mul(e1z));
+			DoubleVector qz = sx.mul(e1y).sub(sy.mul(e1x));
+
+			DoubleVector v = qx.mul(dx).add(qy.mul(dy)).add(qz.mul(dz)).mul(inv);
+			DoubleVector d = e2x.mul(qx).add(e2y.mul(qy)).add(e2z.mul(qz)).mul(inv);
+
+			// comparisons against NaN fail, rejecting parallel rays
+			VectorMask<Double> hit = u.compare(VectorOperators.GE, 0)
+					.and(u.compare(VectorOperators.LE, 1))
+					.and(v.compare(VectorOperators.GE, 0))
+					.and(u.add(v).compare(VectorOperators.LE, 1))
+					.and(d.compare(VectorOperators.GT, tMin))
+					.and(d.compare(VectorOperators.LT, tMax));
+
+			DoubleVector.broadcast(s, Double.NaN)
+					.blend(d, hit)
+					.intoArray(t, i);
+		}
+	}
+
+	/**
+	 * Runs the vector operations the kernel needs once, so a JVM whose
+	 * incubator API doesn't match fails here rather than mid-trace.
+	 */
+	static void selfTest() {
+		double[] t = new double[SPECIES.length()];
+		double[] w = new double[SPECIES.length()];
+		if (BUFFERS) {
+			ByteBuffer doubles = ByteBuffer.allocateDirect(
+					SPECIES.length() * Double.BYTES).order(ORDER);
+			ByteBuffer floats = ByteBuffer.allocateDirect(
+					SPECIES.length() * Float.BYTES).order(ORDER);
+			doubles.putDouble(0, 1);
+			floats.putFloat(0, 2);
+
+			DoubleVector.fromByteBuffer(SPECIES, doubles, 0, ORDER).intoArray(t, 0);
+			((DoubleVector) FloatVector.fromByteBuffer(FLOATS, floats, 0, ORDER)
+					.convertShape(VectorOperators.F2D, SPECIES, 0)).intoArray(w, 0);
+		} else {
+			double[] doubles = new double[SPECIES.length()];
+			float[] floats = new float[SPECIES.length()];
+			doubles[0] = 1;
+			floats[0] = 2;
+
+			DoubleVector.fromArray(SPECIES, doubles, 0).intoArray(t, 0);
+			((DoubleVector) FloatVector.fromArray(FLOATS, floats, 0)
+					.convertShape(VectorOperators.F2D, SPECIES, 0)).intoArray(w, 0);
+		}
+
+		if (t[0] != 1 || w[0] != 2) {
+			throw new IllegalStateException("Unexpected vector result");
+		}
+	}
+
+}
@@ -56,6 +56,35 @@ public class FaceTest {
 		assertFalse(a.intersects(l, u));
 	}
 
+	@Test
+	public void testIntersectKernel() throws Exception {
+		double[] barycentric = new double[3];
+
+		// the quad is split into fan triangles (0, 1, 2) and (0, 2, 3)
+		double t = a.intersect(3, 0.5, 0.5, -1, 0, 0,
+				0, Double.POSITIVE_INFINITY, barycentric);
+		assertEquals(3, t, Vector.EPSILON);
+		assertEquals(0.25, barycentric[0], Vector.EPSILON);
+		assertEquals(0.5, barycentric[1], Vector.EPSILON);
+		assertEquals(1, barycentric[2], 0);
+
+		t = a.intersect(3, -0.5, -0.5, -1, 0, 0,
+				0, Double.POSITIVE_INFINITY, barycentric);
+		assertEquals(3, t, Vector.EPSILON);
+		assertEquals(0, barycentric[2], 0);
+
+		// outside the quad, out of range, and parallel to it
+		assertTrue(Double.isNaN(a.intersect(3, 1.5, 0, -1, 0, 0,
+				0, Double.POSITIVE_INFINITY, null)));
+		assertTrue(Double.isNaN(a.intersect(3, 0, 0, -1, 0, 0,
+				0, 2, null)));
+		assertTrue(Double.isNaN(a.intersect(3, 0, 0, 0, 1, 0,
+				0, Double.POSITIVE_INFINITY, null)));
+
+		assertTrue(a.occludes(Vector.of(3, 0, 0), Vector.of(-1, 0, 0), 4));
+		assertFalse(a.occludes(Vector.of(3, 0, 0), Vector.of(-1, 0, 0), 2));
+	}
+
 	@Test
 	public void testRounding() throws Exception {
 		Vector l = sphereCamera.lensPoint(0, 0);
@@ -0,0 +1,97 @@
+package org.timothyb89.trace.math;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class FramebufferTest {
+
+	@Test
+	public void testSetAndGet() throws Exception {
+		// 5 pixel tiles divide neither dimension evenly
+		for (Precision precision : Precision.values()) {
+			Framebuffer fb = new Framebuffer(13, 7, 5, precision);
+			for (int y = 0; y < fb.height(); y++) {
+				for (int x = 0; x < fb.width(); x++) {
+					fb.set(x, y, x, y, x * 100 + y);
+				}
+			}
+
+			for (int y = 0; y < fb.height(); y++) {
+				for (int x = 0; x < fb.width(); x++) {
+					assertEquals(x, fb.red(x, y), 0);
+					assertEquals(y, fb.green(x, y), 0);
+					assertEquals(x * 100 + y, fb.blue(x, y), 0);
+				}
+			}
+
+			assertArrayEquals(new double[] { 0, 1206 }, fb.range(), 0);
+		}
+	}
+
+	@Test
+	public void testTilesAreContiguous() throws Exception {
+		Framebuffer fb = new Framebuffer(10, 10, 4, Precision.DOUBLE);
+
+		// fill one clipped edge tile, which must not touch any other pixel
+		for (int y = 8; y < 10; y++) {
+			for (int x = 4; x < 8; x++) {
+				fb.set(x, y, 1, 1, 1);
+			}
+		}
+
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 10; x++) {
+				boolean inside = y >= 8 && x >= 4 && x < 8;
+				assertEquals(inside ? 1 : 0, fb.red(x, y), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		Framebuffer fb = new Framebuffer(2, 2, 16, Precision.FLOAT);
+		fb.set(1, 1, 0.25, 0.5, 1).add(1, 1, 0.75, 0.5, 0);
+
+		assertEquals(2, fb.samples(1, 1));
+		assertEquals(0.5, fb.red(1, 1), 0);
+		assertEquals(0.5, fb.green(1, 1), 0);
+		assertEquals(0.5, fb.blue(1, 1), 0);
+
+		// a pixel with no samples reads as black
+		assertEquals(0, fb.samples(0, 0));
+		assertEquals(0, fb.red(0, 0), 0);
+
+		// set starts over
+		fb.set(1, 1, 1, 1, 1);
+		assertEquals(1, fb.samples(1, 1));
+		assertEquals(1, fb.red(1, 1), 0);
+
+		assertEquals(4 * (3 * Float.BYTES + Integer.BYTES), fb.sizeBytes());
+	}
+
+	@Test
+	public void testImageView() throws Exception {
+		Framebuffer fb = new Framebuffer(2, 1, 16, Precision.DOUBLE);
+		fb.set(0, 0, 1, 2, 3);
+		fb.set(1, 0, 5, 3, 2);
+
+		Image image = new Image(fb);
+		assertEquals(0, image.red(0, 0));
+		assertEquals(63, image.green(0, 0));
+		assertEquals(255, image.red(1, 0));
+
+		// the view reads through to the buffer
+		fb.set(1, 0, 1, 1, 1);
+		assertEquals(0, image.red(1, 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutOfBounds() throws Exception {
+		new Framebuffer(4, 4, 2, Precision.FLOAT).set(4, 0, 0, 0, 0);
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.timothyb89.trace.math;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class Mat4Test {
+
+	public static final double DELTA = 1e-9;
+
+	private static Mat4 sample() {
+		return Mat4.scale(2, 0.5, 3)
+				.multiply(Mat4.axisRotate(Vector.of(1, 1, 1), Math.PI / 4))
+				.multiply(Mat4.translate(10, -4, 2));
+	}
+
+	@Test
+	public void testMatchesMatrix() {
+		Matrix expected = Transform.scale(2, 0.5, 3)
+				.multiply(Transform.axisRotate(Vector.of(1, 1, 1), Math.PI / 4))
+				.multiply(Transform.translate(10, -4, 2));
+
+		assertArrayEquals(expected.data(), sample().toMatrix().data(), DELTA);
+		assertEquals(sample(), Mat4.of(sample().toMatrix()));
+	}
+
+	@Test
+	public void testInverse() {
+		Mat4 m = sample();
+
+		assertArrayEquals(
+				Mat4.identity().toMatrix().data(),
+				m.multiply(m.inverse()).toMatrix().data(),
+				DELTA);
+		assertArrayEquals(
+				Mat4.identity().toMatrix().data(),
+				m.inverse().multiply(m).toMatrix().data(),
+				DELTA);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSingular() {
+		Mat4.scale(1, 0, 1).inverse();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotAffine() {
+		Mat4.of(Matrix.identity(4).val(3, 0, 1));
+	}
+
+	@Test
+	public void testTransformPoints() {
+		// enough columns to be split into several parallel chunks
+		int n = Mat4.CHUNK_SIZE * 3 + 7;
+		Random random = new Random(1);
+
+		double[] data = new double[n * 4];
+		for (int i = 0; i < n * 3; i++) {
+			data[i] = random.nextDouble() * 100 - 50;
+		}
+		for (int i = n * 3; i < n * 4; i++) {
+			data[i] = 1;
+		}
+
+		Matrix points = new Matrix(4, n, data.clone());
+		Matrix expected = points.multiply(sample().toMatrix());
+
+		sample().transformPoints(points.data(), n);
+		assertArrayEquals(expected.data(), points.data(), DELTA);
+	}
+
+	@Test
+	public void testTransformNormals() {
+		Mat4 m = sample();
+
+		// a plane spanned by two directions, and its normal
+		Vector a = Vector.of(1, 2, 0);
+		Vector b = Vector.of(0, 1, 3);
+		Vector n = b.cross(a).normalize();
+
+		double[] normals = n.copy().data();
+		m.transformNormals(normals, 1);
+
+		Vec3 normal = new Vec3(normals[0], normals[1], normals[2]);
+		assertEquals(1, normal.length(), DELTA);
+		assertEquals(0, normal.dot(m.transformDirection(Vec3.of(a))), DELTA);
+		assertEquals(0, normal.dot(m.transformDirection(Vec3.of(b))), DELTA);
+	}
+
+}
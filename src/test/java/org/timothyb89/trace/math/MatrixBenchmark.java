@@ -0,0 +1,116 @@
+package org.timothyb89.trace.math;
+
+import java.util.Random;
+
+/**
+ * Compares the cost of {@link Matrix#det()} through cofactor expansion and
+ * through {@link LU}, along with LU inversion, by matrix size. Not run as part
+ * of the test suite; after {@code mvn test-compile}, run with:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *     org.timothyb89.trace.math.MatrixBenchmark
+ * </pre>
+ * @author timothyb
+ */
+public class MatrixBenchmark {
+
+	/**
+	 * Cofactor expansion beyond this size takes too long to be worth timing.
+	 */
+	private static final int MAX_COFACTOR_SIZE = 9;
+
+	private static final int[] SIZES = { 2, 3, 4, 6, 8, 9, 16, 64, 256 };
+
+	/**
+	 * The determinant by cofactor expansion along the first row, as
+	 * {@link Matrix#det()} was computed before {@link LU}.
+	 */
+	static double cofactorDet(Matrix m) {
+		double[] data = m.data();
+		int size = m.rows();
+		if (size == 1) {
+			return data[0];
+		} else if (size == 2) {
+			return (data[0] * data[3]) - (data[1] * data[2]);
+		}
+
+		double det = 0;
+		for (int i = 0; i < size; i++) {
+			if (i % 2 == 0) {
+				det += data[i] * cofactorDet(m.minor(0, i));
+			} else {
+				det -= data[i] * cofactorDet(m.minor(0, i));
+			}
+		}
+
+		return det;
+	}
+
+	static Matrix random(int size, Random rand) {
+		double[] data = new double[size * size];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = rand.nextGaussian();
+		}
+
+		return new Matrix(size, size, data);
+	}
+
+	private interface Op {
+
+		double apply(Matrix m);
+
+	}
+
+	/**
+	 * Runs an operation until at least a tenth of a second has passed.
+	 * @return the average time per run, in microseconds
+	 */
+	private static double time(Matrix m, Op op) {
+		double sink = 0;
+		int runs = 0;
+
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			sink += op.apply(m);
+			runs++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < 100000000L);
+
+		// keep the results live
+		if (sink == Double.MIN_VALUE) {
+			System.out.print("");
+		}
+
+		return elapsed / 1000.0 / runs;
+	}
+
+	public static void main(String[] args) {
+		Random rand = new Random(1);
+
+		// warm up the JIT on small sizes first
+		for (int i = 0; i < 3; i++) {
+			Matrix m = random(6, rand);
+			time(m, MatrixBenchmark::cofactorDet);
+			time(m, Matrix::det);
+			time(m, a -> a.inverse().data()[0]);
+		}
+
+		System.out.printf("%6s %16s %16s %16s\n",
+				"size", "cofactor det", "LU det", "LU inverse");
+		for (int size : SIZES) {
+			Matrix m = random(size, rand);
+
+			String cofactor = size <= MAX_COFACTOR_SIZE
+					? String.format("%13.2f us", time(m, MatrixBenchmark::cofactorDet))
+					: "-";
+
+			System.out.printf("%6d %16s %13.2f us %13.2f us\n",
+					size, cofactor,
+					time(m, Matrix::det),
+					time(m, a -> a.inverse().data()[0]));
+		}
+	}
+
+}
@@ -2,6 +2,8 @@ package org.timothyb89.trace.math;
 
 import org.junit.Test;
 
+import java.util.Random;
+
 import static org.junit.Assert.*;
 import static org.hamcrest.Matchers.*;
 
@@ -172,6 +174,84 @@ public class MatrixTest {
 		assertEquals(-30, b.multiply(a).det(), DELTA);
 	}
 	
+	@Test
+	public void testDetMatchesCofactors() throws Exception {
+		Random rand = new Random(16);
+		for (int size = 3; size <= 6; size++) {
+			Matrix m = MatrixBenchmark.random(size, rand);
+
+			double expected = MatrixBenchmark.cofactorDet(m);
+			assertEquals(expected, m.det(), Math.abs(expected) * 1e-12);
+		}
+
+		// rows that are multiples of each other
+		Matrix singular = Matrix.build(3)
+				.row(1, 2, 3)
+				.row(2, 4, 6)
+				.row(0, 1, 5).get();
+		assertEquals(0, singular.det(), 0);
+		assertTrue(singular.lu().isSingular());
+	}
+
+	@Test
+	public void testInverse() throws Exception {
+		Random rand = new Random(7);
+		for (int size = 1; size <= 8; size++) {
+			Matrix m = MatrixBenchmark.random(size, rand);
+			Matrix inverse = m.inverse();
+
+			assertTrue(m.multiply(inverse).epsilonEquals(Matrix.identity(size), 1e-9));
+			assertTrue(inverse.multiply(m).epsilonEquals(Matrix.identity(size), 1e-9));
+		}
+
+		// matches the closed form for affine transforms
+		Mat4 t = Mat4.axisRotate(Vector.of(1, 2, 3), 0.7)
+				.multiply(Mat4.scale(2, 3, 4))
+				.multiply(Mat4.translate(5, -6, 7));
+		assertTrue(t.toMatrix().inverse().epsilonEquals(t.inverse().toMatrix(), 1e-12));
+	}
+
+	@Test
+	public void testScaledDiagonal() throws Exception {
+		// badly scaled, but perfectly conditioned row by row
+		Matrix m = Matrix.build(3)
+				.row(1e10, 0, 0)
+				.row(0, 1, 0)
+				.row(0, 0, 1e-7).get();
+
+		assertEquals(1000, m.det(), 1e-9);
+		assertFalse(m.lu().isSingular());
+
+		Matrix inverse = m.inverse();
+		assertEquals(1e-10, inverse.val(0, 0), 1e-22);
+		assertEquals(1, inverse.val(1, 1), 0);
+		assertEquals(1e7, inverse.val(2, 2), 1e-5);
+		assertTrue(m.multiply(inverse).epsilonEquals(Matrix.identity(3), 1e-12));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInverseSingular() throws Exception {
+		Matrix.zeroes(4).inverse();
+	}
+
+	@Test
+	public void testSolve() throws Exception {
+		Matrix a = Matrix.build(3)
+				.row(2, 1, -1)
+				.row(-3, -1, 2)
+				.row(-2, 1, 2).get();
+
+		assertArrayEquals(
+				new double[] { 2, 3, -1 },
+				a.solve(Vector.of(8, -11, -3)).data(),
+				DELTA);
+
+		// several right hand sides at once: [a] * [x] = [b]
+		Matrix b = MatrixBenchmark.random(3, new Random(3));
+		Matrix x = a.solve(b);
+		assertTrue(x.multiply(a).epsilonEquals(b, 1e-12));
+	}
+
 	@Test
 	public void testEpsilonEquals() throws Exception {
 		Matrix a = Matrix.identity(3);
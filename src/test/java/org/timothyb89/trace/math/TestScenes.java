@@ -0,0 +1,52 @@
+package org.timothyb89.trace.math;
+
+import org.timothyb89.trace.math.accel.BVH;
+import org.timothyb89.trace.model.ply.PLYParser;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+
+/**
+ * Scenes shared by tests that need real geometry to trace.
+ * @author timothyb
+ */
+public final class TestScenes {
+
+	/**
+	 * A small frame around the cow, so tests trace quickly.
+	 */
+	public static final int[] BOUNDS = { -20, -15, 20, 15 };
+
+	private TestScenes() {
+	}
+
+	/**
+	 * @return a camera looking down at the cow, framing {@link #BOUNDS}
+	 */
+	public static Camera cowCamera() {
+		return Camera.builder()
+				.focalPoint(Vector.of(800, -800, 300))
+				.lookAtPoint(Vector.of(0, 0, 5))
+				.viewUp(Vector.of(0, 0, -1))
+				.focalLength(150)
+				.bounds(BOUNDS.clone())
+				.build();
+	}
+
+	/**
+	 * Loads the cow from the moo scene with an ambient and a point light and
+	 * a built BVH. Each call loads a new copy, so tests may modify it.
+	 * @return the scene
+	 */
+	public static Scene cow() {
+		Model model = PLYParser.readPath(Paths.get("scenes/moo/4-cow.ply")).toModel();
+
+		Scene scene = new Scene(cowCamera(), Collections.singletonList(model));
+		scene.ambientLight(new PointLight(Vector.of(0.5, 0.5, 0.5), null));
+		scene.addLight(new PointLight(Vector.of(0.8, 0.8, 0.8), Vector.of(385, 37, 418)));
+		scene.accelerator(BVH.build(scene));
+
+		return scene;
+	}
+
+}
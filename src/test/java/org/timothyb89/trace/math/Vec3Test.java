@@ -0,0 +1,50 @@
+package org.timothyb89.trace.math;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class Vec3Test {
+
+	public static final double DELTA = 0.0001d;
+
+	private static void assertVec(Vector expected, Vec3 actual) {
+		assertArrayEquals(expected.data(),
+				new double[] { actual.x, actual.y, actual.z },
+				DELTA);
+	}
+
+	@Test
+	public void testMatchesVector() {
+		Vector a = Vector.of(3, -3, 1);
+		Vector b = Vector.of(4, 9, 2);
+
+		assertEquals(a.dot(b), Vec3.of(a).dot(Vec3.of(b)), DELTA);
+		assertVec(b.cross(a), new Vec3().cross(Vec3.of(a), Vec3.of(b)));
+		assertVec(a.copy().normalize(), Vec3.of(a).normalize());
+		assertVec(a.copy().add(b.copy().scale(2)),
+				Vec3.of(a).addScaled(Vec3.of(b), 2));
+
+		Matrix m = Matrix.build(3)
+				.row(1, 2, 3)
+				.row(4, 5, 6)
+				.row(7, 8, 9).get();
+		assertVec(a.multiply(m), Vec3.of(a).multiply(m));
+	}
+
+	@Test
+	public void testInPlace() {
+		Vec3 a = new Vec3(1, 2, 3);
+
+		// operations mutate and return the receiver
+		assertSame(a, a.cross(a, new Vec3(0, 0, 1)));
+		assertVec(Vector.of(2, -1, 0), a);
+
+		Vec3 zero = new Vec3();
+		assertSame(zero, zero.normalize());
+		assertEquals(0, zero.length(), 0);
+	}
+
+}
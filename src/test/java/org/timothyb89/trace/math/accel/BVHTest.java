@@ -0,0 +1,153 @@
+package org.timothyb89.trace.math.accel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Vector;
+import org.timothyb89.trace.model.ply.PLYParser;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class BVHTest {
+
+	private Model model;
+	private Face[] faces;
+	private BVH bvh;
+
+	@Before
+	public void setUp() {
+		model = PLYParser.readPath(Paths.get("scenes/moo/4-cow.ply")).toModel();
+		faces = model.faces().toArray(new Face[0]);
+		bvh = BVH.build(faces);
+	}
+
+	private Face bruteForce(Vector origin, Vector direction) {
+		double best = Double.POSITIVE_INFINITY;
+		Face bestFace = null;
+
+		for (Face f : faces) {
+			double t = f.ixDistance(origin, direction);
+			if (t <= 0 || t >= best) {
+				continue;
+			}
+
+			if (f.intersects(f.ixPoint(origin, direction, t))) {
+				best = t;
+				bestFace = f;
+			}
+		}
+
+		return bestFace;
+	}
+
+	private Vector randomDirection(Random rand) {
+		return Vector.of(
+				rand.nextGaussian(),
+				rand.nextGaussian(),
+				rand.nextGaussian()).normalize();
+	}
+
+	@Test
+	public void testClosestMatchesBruteForce() throws Exception {
+		for (BVHBuilder.Strategy strategy : BVHBuilder.Strategy.values()) {
+			checkBruteForce(new BVHBuilder(strategy).build(faces));
+		}
+	}
+
+	private void checkBruteForce(BVH bvh) {
+		Random rand = new Random(1234);
+		Vector center = model.centerMass();
+
+		int hits = 0;
+		for (int i = 0; i < 500; i++) {
+			Vector origin = center.copy().add(randomDirection(rand).scale(1500));
+			Vector direction = center.copy()
+					.add(randomDirection(rand).scale(150))
+					.sub(origin)
+					.normalize();
+
+			Face expected = bruteForce(origin, direction);
+			Intersection actual = bvh.closest(
+					origin, direction,
+					0, Double.POSITIVE_INFINITY);
+
+			if (expected == null) {
+				assertNull(actual);
+			} else {
+				assertNotNull(actual);
+				assertSame(expected, actual.face());
+				hits++;
+			}
+		}
+
+		assertTrue(hits > 0);
+	}
+
+	@Test
+	public void testIgnoreAndRange() throws Exception {
+		Vector center = model.centerMass();
+		Vector origin = center.copy().add(Vector.of(0, 0, 1500));
+		Vector direction = Vector.of(0, 0, -1);
+
+		Intersection first = bvh.closest(origin, direction,
+				0, Double.POSITIVE_INFINITY);
+		assertNotNull(first);
+
+		Intersection second = bvh.closest(origin, direction,
+				0, Double.POSITIVE_INFINITY,
+				first.face());
+		assertNotNull(second);
+		assertNotSame(first.face(), second.face());
+		assertTrue(second.distance() >= first.distance());
+
+		assertNull(bvh.closest(origin, direction, 0, first.distance() / 2));
+		assertNotNull(bvh.any(origin, direction));
+	}
+
+	@Test
+	public void testOccludedMatchesClosest() throws Exception {
+		Random rand = new Random(4321);
+		Vector center = model.centerMass();
+
+		int blocked = 0;
+		for (int i = 0; i < 500; i++) {
+			Vector origin = center.copy().add(randomDirection(rand).scale(1500));
+			Vector direction = center.copy()
+					.add(randomDirection(rand).scale(150))
+					.sub(origin)
+					.normalize();
+			double maxDistance = 1000 + rand.nextDouble() * 1000;
+
+			boolean expected = bvh.closest(origin, direction,
+					Vector.EPSILON, maxDistance) != null;
+			assertEquals(expected, bvh.occluded(origin, direction, maxDistance));
+
+			if (expected) {
+				blocked++;
+			}
+		}
+
+		assertTrue(blocked > 0);
+	}
+
+	@Test
+	public void testStats() throws Exception {
+		for (BVHBuilder.Strategy strategy : BVHBuilder.Strategy.values()) {
+			BVHStats stats = new BVHBuilder(strategy).build(faces).stats();
+
+			assertEquals(strategy, stats.strategy());
+			assertEquals(stats.nodes(), 2 * stats.leaves() - 1);
+			assertTrue(stats.maxDepth() > 1);
+			assertTrue(stats.averageLeafSize() * stats.leaves() >= faces.length - 1e-6);
+			assertTrue(stats.sahCost() > 0);
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.timothyb89.trace.math.accel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Vector;
+import org.timothyb89.trace.model.ply.PLYParser;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class GridTest {
+
+	private Model model;
+	private BVH bvh;
+	private Grid grid;
+
+	@Before
+	public void setUp() {
+		model = PLYParser.readPath(Paths.get("scenes/moo/4-cow.ply")).toModel();
+
+		Face[] faces = model.faces().toArray(new Face[0]);
+		bvh = BVH.build(faces);
+		grid = Grid.build(faces);
+	}
+
+	private Vector randomDirection(Random rand) {
+		return Vector.of(
+				rand.nextGaussian(),
+				rand.nextGaussian(),
+				rand.nextGaussian()).normalize();
+	}
+
+	@Test
+	public void testMatchesBVH() throws Exception {
+		Random rand = new Random(1234);
+		Vector center = model.centerMass();
+
+		int hits = 0;
+		for (int i = 0; i < 500; i++) {
+			// start some rays inside the grid and some outside
+			double radius = i % 2 == 0 ? 1500 : 50;
+
+			Vector origin = center.copy().add(randomDirection(rand).scale(radius));
+			Vector direction = center.copy()
+					.add(randomDirection(rand).scale(150))
+					.sub(origin)
+					.normalize();
+
+			Intersection expected = bvh.closest(origin, direction,
+					0, Double.POSITIVE_INFINITY);
+			Intersection actual = grid.closest(origin, direction,
+					0, Double.POSITIVE_INFINITY);
+
+			if (expected == null) {
+				assertNull(actual);
+			} else {
+				assertNotNull(actual);
+				assertSame(expected.face(), actual.face());
+				hits++;
+			}
+
+			double maxDistance = rand.nextDouble() * 2000;
+			assertEquals(
+					bvh.occluded(origin, direction, maxDistance),
+					grid.occluded(origin, direction, maxDistance));
+		}
+
+		assertTrue(hits > 0);
+	}
+
+	@Test
+	public void testAxisAlignedRay() throws Exception {
+		Vector center = model.centerMass();
+		Vector origin = center.copy().add(Vector.of(0, 0, 1500));
+		Vector direction = Vector.of(0, 0, -1);
+
+		Intersection expected = bvh.closest(origin, direction,
+				0, Double.POSITIVE_INFINITY);
+		Intersection actual = grid.closest(origin, direction,
+				0, Double.POSITIVE_INFINITY);
+
+		assertNotNull(actual);
+		assertSame(expected.face(), actual.face());
+		assertTrue(grid.countReferences() >= model.countFaces());
+	}
+
+}
@@ -0,0 +1,210 @@
+package org.timothyb89.trace.math.accel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Instance;
+import org.timothyb89.trace.math.Matrix;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Transform;
+import org.timothyb89.trace.math.Vec3;
+import org.timothyb89.trace.math.Vector;
+import org.timothyb89.trace.model.ply.PLYParser;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class InstancedAcceleratorTest {
+
+	private Model model;
+	private BVH bvh;
+
+	@Before
+	public void setUp() {
+		model = PLYParser.readPath(Paths.get("scenes/moo/4-cow.ply")).toModel();
+		bvh = BVH.build(model.faces().toArray(new Face[0]));
+	}
+
+	private Vector randomDirection(Random rand) {
+		return Vector.of(
+				rand.nextGaussian(),
+				rand.nextGaussian(),
+				rand.nextGaussian()).normalize();
+	}
+
+	@Test
+	public void testIdentityMatchesBVH() throws Exception {
+		InstancedAccelerator accel = InstancedAccelerator.build(
+				Collections.singletonList(new Instance(
+						model, Transform.identity(), Transform.identity())),
+				BVH::build,
+				new BVHBuilder());
+
+		Random rand = new Random(1234);
+		Vector center = model.centerMass();
+
+		int hits = 0;
+		for (int i = 0; i < 300; i++) {
+			Vector origin = center.copy().add(randomDirection(rand).scale(1500));
+			Vector direction = center.copy()
+					.add(randomDirection(rand).scale(150))
+					.sub(origin)
+					.normalize();
+
+			Intersection expected = bvh.closest(origin, direction,
+					0, Double.POSITIVE_INFINITY);
+			Intersection actual = accel.closest(origin, direction,
+					0, Double.POSITIVE_INFINITY);
+
+			if (expected == null) {
+				assertNull(actual);
+			} else {
+				assertNotNull(actual);
+				assertSame(expected.face(), actual.face());
+				assertEquals(expected.distance(), actual.distance(), 1e-6);
+				hits++;
+			}
+
+			double maxDistance = rand.nextDouble() * 3000;
+			assertEquals(
+					bvh.occluded(origin, direction, maxDistance),
+					accel.occluded(origin, direction, maxDistance));
+		}
+
+		assertTrue(hits > 0);
+	}
+
+	@Test
+	public void testTransformedInstances() throws Exception {
+		Vector center = model.centerMass();
+
+		// two copies, one shifted 1000 units along x and doubled in size
+		InstancedAccelerator accel = InstancedAccelerator.build(
+				Arrays.asList(
+						Instance.of(model, 0, 0, 0, 1, 0),
+						Instance.of(model, 1000, 0, 0, 2, 0)),
+				BVH::build,
+				new BVHBuilder());
+		assertEquals(2, accel.countInstances());
+		assertEquals(1, accel.countModels());
+
+		// scaling happens before translation, so the copy's center moves too
+		Vector shifted = center.copy().scale(2).add(Vector.of(1000, 0, 0));
+
+		Vector direction = Vector.of(0, 0, -1);
+		Vector origin = center.copy().add(Vector.of(0, 0, 2000));
+		Intersection expected = bvh.closest(origin, direction,
+				0, Double.POSITIVE_INFINITY);
+		assertNotNull(expected);
+
+		Intersection hit = accel.closest(
+				shifted.copy().add(Vector.of(0, 0, 2000)), direction,
+				0, Double.POSITIVE_INFINITY);
+		assertNotNull(hit);
+		assertSame(expected.face(), hit.face());
+
+		// the hit lies on the scaled surface in world space
+		double expectedZ = expected.point().val(2) * 2;
+		assertEquals(expectedZ, hit.point().val(2), 1e-6);
+		assertEquals(1, hit.normal().magnitude(), 1e-9);
+
+		// between the copies, nothing is hit
+		assertNull(accel.closest(
+				Vector.of(500, center.val(1), 2000), direction,
+				0, Double.POSITIVE_INFINITY));
+	}
+
+	@Test
+	public void testOccluderReused() throws Exception {
+		InstancedAccelerator accel = InstancedAccelerator.build(
+				Collections.singletonList(Instance.of(model, 1000, 0, 0, 2, 0)),
+				BVH::build,
+				new BVHBuilder());
+
+		Vector center = model.centerMass().scale(2).add(Vector.of(1000, 0, 0));
+		Vector direction = Vector.of(0, 0, -1);
+		Vector origin = center.copy().add(Vector.of(0, 0, 2000));
+
+		Occluder first = accel.occluder(origin, direction, 5000);
+		assertNotNull(first);
+		assertSame(model, first.face().parent());
+		assertTrue(first.occludes(origin, direction, 5000));
+
+		// the wrapper is reused rather than allocated per blocked ray
+		Occluder second = accel.occluder(
+				origin.copy().add(Vector.of(1, 1, 0)), direction, 5000);
+		assertSame(first, second);
+	}
+
+	@Test
+	public void testIgnoreInInstance() throws Exception {
+		// two copies of a single face, 10 units apart along x
+		Model plane = PLYParser.readPath(Paths.get("data/unitplane.ply")).toModel();
+		InstancedAccelerator accel = InstancedAccelerator.build(
+				Arrays.asList(
+						Instance.of(plane, 0, 0, 0, 1, 0),
+						Instance.of(plane, 10, 0, 0, 1, 0)),
+				BVH::build,
+				new BVHBuilder());
+
+		Vec3 direction = new Vec3().set(1, 0, 0);
+		Hit first = new Hit();
+		assertTrue(accel.closest(
+				new Vec3().set(-5, 0.2, 0.3), direction,
+				0, Double.POSITIVE_INFINITY, first));
+		assertEquals(5, first.distance, 1e-9);
+
+		// the same face in the other copy still blocks a ray leaving the first
+		Face[] ignore = { first.face };
+		Hit second = new Hit();
+		assertTrue(accel.closest(
+				first.point, direction,
+				0, Double.POSITIVE_INFINITY,
+				second, ignore, new int[] { first.instance }));
+		assertSame(first.face, second.face);
+		assertNotEquals(first.instance, second.instance);
+		assertEquals(10, second.distance, 1e-9);
+
+		Occluder occluder = accel.occluder(
+				first.point, direction, 20,
+				ignore, new int[] { first.instance });
+		assertNotNull(occluder);
+		assertEquals(second.instance, occluder.instance());
+
+		// without instances, the face is ignored in both copies
+		assertFalse(accel.closest(
+				first.point, direction,
+				0, Double.POSITIVE_INFINITY,
+				new Hit(), ignore));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testProjectiveTransform() throws Exception {
+		Instance.of(model, Matrix.build(4)
+				.row(1, 0, 0, 0)
+				.row(0, 1, 0, 0)
+				.row(0, 0, 1, 0)
+				.row(0, 0, 0.5, 1).get());
+	}
+
+	@Test
+	public void testAffineTransform() throws Exception {
+		Instance instance = Instance.of(model, Matrix.build(4)
+				.row(2, 0, 0, 10)
+				.row(0, 2, 0, 0)
+				.row(0, 0, 2, 0)
+				.row(0, 0, 0, 1).get());
+
+		Vector p = instance.toWorldPoint(Vector.of(1, 1, 1));
+		assertEquals(12, p.val(0), 1e-9);
+		assertEquals(2, p.val(2), 1e-9);
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.timothyb89.trace.math.accel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Matrix;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Vec3;
+import org.timothyb89.trace.model.ply.PLYParser;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class RayPacketTest {
+
+	private static final int SIZE = 8;
+
+	private Face[] faces;
+	private Vec3 center;
+	private double extent;
+
+	@Before
+	public void setUp() {
+		Model model = PLYParser.readPath(Paths.get("scenes/moo/4-cow.ply")).toModel();
+		faces = model.faces().toArray(new Face[0]);
+
+		Matrix box = model.boundingBox();
+		center = new Vec3(
+				(box.val(0, 0) + box.val(0, 1)) / 2,
+				(box.val(1, 0) + box.val(1, 1)) / 2,
+				(box.val(2, 0) + box.val(2, 1)) / 2);
+		extent = Math.max(box.val(0, 1) - box.val(0, 0),
+				Math.max(box.val(1, 1) - box.val(1, 0), box.val(2, 1) - box.val(2, 0)));
+	}
+
+	/**
+	 * Fills a packet with rays from a random apex through a square grid of
+	 * points around the model's center, like a camera's primary rays.
+	 */
+	private void fill(RayPacket packet, Random rand, double spread) {
+		Vec3 apex = new Vec3(
+				rand.nextGaussian(),
+				rand.nextGaussian(),
+				rand.nextGaussian()).normalize().scale(extent * 2).add(center);
+
+		Vec3 forward = new Vec3().diff(center, apex).normalize();
+		Vec3 right = new Vec3().cross(forward, new Vec3(0, 1, 0)).normalize();
+		Vec3 up = new Vec3().cross(right, forward);
+
+		Vec3 offset = new Vec3(
+				rand.nextGaussian(),
+				rand.nextGaussian(),
+				rand.nextGaussian()).scale(extent * 0.2);
+
+		packet.clear();
+		for (int r = 0; r < SIZE; r++) {
+			for (int c = 0; c < SIZE; c++) {
+				int i = packet.add();
+				packet.origin(i).set(apex);
+				packet.direction(i).set(center).add(offset)
+						.addScaled(right, (c - SIZE / 2.0) * spread)
+						.addScaled(up, (r - SIZE / 2.0) * spread)
+						.sub(apex)
+						.normalize();
+			}
+		}
+
+		packet.frustum(apex,
+				0, SIZE - 1,
+				SIZE * SIZE - 1, (SIZE - 1) * SIZE);
+	}
+
+	private void checkMatchesSingle(BVH bvh, double spread) {
+		Random rand = new Random(11);
+		RayPacket packet = new RayPacket(SIZE * SIZE);
+		Hit single = new Hit();
+
+		int hits = 0;
+		for (int n = 0; n < 50; n++) {
+			fill(packet, rand, spread);
+			bvh.closest(packet);
+
+			for (int i = 0; i < packet.size(); i++) {
+				boolean found = bvh.closest(
+						packet.origin(i), packet.direction(i),
+						0, Double.POSITIVE_INFINITY,
+						single);
+
+				assertEquals(found, packet.found(i));
+				if (found) {
+					hits++;
+					assertSame(single.face, packet.hit(i).face);
+					assertEquals(single.distance, packet.hit(i).distance, 0);
+				}
+			}
+		}
+
+		assertTrue("no rays hit the model", hits > 0);
+	}
+
+	@Test
+	public void testCoherentMatchesSingle() {
+		for (BVHBuilder.Strategy strategy : BVHBuilder.Strategy.values()) {
+			checkMatchesSingle(new BVHBuilder(strategy).build(faces), extent * 0.02);
+		}
+	}
+
+	@Test
+	public void testIncoherentMatchesSingle() {
+		checkMatchesSingle(BVH.build(faces), extent * 2);
+	}
+
+	@Test
+	public void testFrustum() {
+		RayPacket packet = new RayPacket(SIZE * SIZE);
+
+		fill(packet, new Random(3), extent * 0.02);
+		assertTrue(packet.coherent());
+
+		// corners more than 60 degrees from the center are left incoherent
+		fill(packet, new Random(3), extent * 2);
+		assertFalse(packet.coherent());
+
+		packet.clear();
+		packet.add();
+		assertFalse(packet.frustum(center, 0, 0, 0, 0));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFull() {
+		RayPacket packet = new RayPacket(1);
+		packet.add();
+		packet.add();
+	}
+
+}
@@ -0,0 +1,75 @@
+package org.timothyb89.trace.math.accel;
+
+import org.junit.Test;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.model.ply.PLYParser;
+import org.timothyb89.trace.model.ply.Triangulator;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class TriangleKernelTest {
+
+	@Test
+	public void testMatchesStore() throws Exception {
+		assertMatchesStore(Precision.DOUBLE);
+	}
+
+	@Test
+	public void testMatchesFloatStore() throws Exception {
+		assertMatchesStore(Precision.FLOAT);
+	}
+
+	private static void assertMatchesStore(Precision precision) {
+		Model model = PLYParser.readPath(Paths.get("data/cow.ply"))
+				.toModel(Triangulator.Mode.FAN);
+		TriangleStore store = TriangleStore.of(
+				model.faces().toArray(new Face[0]), precision);
+		assertTrue(store.trianglesOnly());
+
+		TriangleKernel kernel = TriangleKernel.of(store);
+		int count = store.countTriangles();
+		double[] t = new double[count + kernel.width()];
+
+		Random random = new Random(5);
+		for (int i = 0; i < 200; i++) {
+			double ox = random.nextGaussian() * 2;
+			double oy = random.nextGaussian() * 2;
+			double oz = random.nextGaussian() * 2;
+			double dx = random.nextGaussian();
+			double dy = random.nextGaussian();
+			double dz = random.nextGaussian();
+
+			// batches may start anywhere, including mid-vector at the end
+			int first = random.nextInt(count);
+			int n = Math.min(count - first, 1 + random.nextInt(17));
+
+			kernel.intersect(first, n,
+					ox, oy, oz, dx, dy, dz,
+					0, Double.POSITIVE_INFINITY, t);
+
+			for (int k = 0; k < n; k++) {
+				double expected = store.intersect(first + k,
+						ox, oy, oz, dx, dy, dz,
+						0, Double.POSITIVE_INFINITY);
+
+				// bit-for-bit, NaN included
+				assertEquals(Double.doubleToLongBits(expected),
+						Double.doubleToLongBits(t[k]));
+			}
+		}
+	}
+
+	@Test
+	public void testDescribe() {
+		assertNotNull(TriangleKernel.describe());
+	}
+
+}
@@ -0,0 +1,126 @@
+package org.timothyb89.trace.math.accel;
+
+import org.junit.Test;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Material;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Vector;
+import org.timothyb89.trace.model.ply.PLYParser;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class TriangleStoreTest {
+
+	@Test
+	public void testPolygonFan() throws Exception {
+		Model plane = PLYParser.readPath(Paths.get("data/unitplane.ply")).toModel();
+		Face quad = plane.face(0);
+		Material red = Material.of(Vector.of(1, 0, 0), 0, 1, 0);
+		quad.material(red);
+
+		TriangleStore store = TriangleStore.of(new Face[] { quad });
+		assertEquals(1, store.countFaces());
+		assertEquals(2, store.countTriangles());
+		assertSame(quad, store.face(0));
+		assertSame(red, store.face(0).material());
+		assertArrayEquals(quad.surfaceNormal().data(), store.normal(0).data(), 0);
+
+		// one point in each half of the quad
+		assertEquals(3, store.intersect(0, 3, 0.5, 0.5, -1, 0, 0,
+				0, Double.POSITIVE_INFINITY), Vector.EPSILON);
+		assertEquals(3, store.intersect(0, 3, -0.5, -0.5, -1, 0, 0,
+				0, Double.POSITIVE_INFINITY), Vector.EPSILON);
+		assertTrue(Double.isNaN(store.intersect(0, 3, 1.5, 0, -1, 0, 0,
+				0, Double.POSITIVE_INFINITY)));
+	}
+
+	@Test
+	public void testMatchesFaces() throws Exception {
+		Model model = PLYParser.readPath(Paths.get("scenes/moo/4-cow.ply")).toModel();
+		Face[] faces = model.faces().toArray(new Face[0]);
+		TriangleStore store = TriangleStore.of(faces);
+
+		Random rand = new Random(1234);
+		Vector center = model.centerMass();
+
+		int hits = 0;
+		for (int i = 0; i < 200; i++) {
+			Vector origin = center.copy().add(Vector.of(
+					rand.nextGaussian(),
+					rand.nextGaussian(),
+					rand.nextGaussian()).normalize().scale(1500));
+			Vector direction = center.copy().sub(origin).normalize();
+			double[] o = origin.data();
+			double[] d = direction.data();
+
+			for (int f = 0; f < faces.length; f++) {
+				double expected = faces[f].intersect(origin, direction,
+						0, Double.POSITIVE_INFINITY);
+				double actual = store.intersect(f,
+						o[0], o[1], o[2], d[0], d[1], d[2],
+						0, Double.POSITIVE_INFINITY);
+
+				assertEquals(expected, actual, 0);
+				if (!Double.isNaN(actual)) {
+					hits++;
+				}
+			}
+		}
+
+		assertTrue(hits > 0);
+	}
+
+	@Test
+	public void testFloatPrecision() throws Exception {
+		Model model = PLYParser.readPath(Paths.get("scenes/moo/4-cow.ply")).toModel();
+		Face[] faces = model.faces().toArray(new Face[0]);
+		TriangleStore doubles = TriangleStore.of(faces);
+		TriangleStore floats = TriangleStore.of(faces, Precision.FLOAT);
+
+		assertEquals(Precision.FLOAT, floats.precision());
+		assertEquals(doubles.countTriangles(), floats.countTriangles());
+		assertTrue(floats.sizeBytes() * 1.8 < doubles.sizeBytes());
+
+		Random rand = new Random(99);
+		Vector center = model.centerMass();
+
+		int hits = 0;
+		for (int i = 0; i < 100; i++) {
+			Vector origin = center.copy().add(Vector.of(
+					rand.nextGaussian(),
+					rand.nextGaussian(),
+					rand.nextGaussian()).normalize().scale(1500));
+			Vector direction = center.copy().sub(origin).normalize();
+			double[] o = origin.data();
+			double[] d = direction.data();
+
+			for (int f = 0; f < faces.length; f++) {
+				double expected = doubles.intersect(f,
+						o[0], o[1], o[2], d[0], d[1], d[2],
+						0, Double.POSITIVE_INFINITY);
+				double actual = floats.intersect(f,
+						o[0], o[1], o[2], d[0], d[1], d[2],
+						0, Double.POSITIVE_INFINITY);
+
+				// rays through the center rarely pass within rounding of an
+				// edge, so hits should agree to about float precision
+				if (!Double.isNaN(expected) && !Double.isNaN(actual)) {
+					hits++;
+					assertEquals(expected, actual, expected * 1e-5);
+				}
+			}
+
+			assertArrayEquals(doubles.normal(0).data(), floats.normal(0).data(), 1e-6);
+		}
+
+		assertTrue(hits > 0);
+	}
+
+}
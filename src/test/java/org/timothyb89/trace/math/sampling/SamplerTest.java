@@ -0,0 +1,99 @@
+package org.timothyb89.trace.math.sampling;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class SamplerTest {
+
+	@Test
+	public void testDeterministicAndInRange() throws Exception {
+		double[] a = new double[2];
+		double[] b = new double[2];
+
+		for (Sampler.Type type : Sampler.Type.values()) {
+			Sampler sampler = type.create(3);
+			for (int seed : new int[] { 0, 1, Sampler.seed(-20, 15, 2) }) {
+				for (int i = 0; i < 100; i++) {
+					sampler.sample(seed, i, a);
+					type.create(3).sample(seed, i, b);
+
+					assertArrayEquals(a, b, 0);
+					assertTrue(a[0] >= 0 && a[0] < 1);
+					assertTrue(a[1] >= 0 && a[1] < 1);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSeedsDiffer() throws Exception {
+		assertNotEquals(Sampler.seed(0, 1, 0), Sampler.seed(1, 0, 0));
+		assertNotEquals(Sampler.seed(0, 0, 0), Sampler.seed(0, 0, 1));
+	}
+
+	/**
+	 * @return the number of distinct cells of an n x n grid the first
+	 *     {@code n * n} samples fall into
+	 */
+	private static int countCells(Sampler sampler, int seed, int n) {
+		boolean[] seen = new boolean[n * n];
+		double[] out = new double[2];
+
+		int count = 0;
+		for (int i = 0; i < n * n; i++) {
+			sampler.sample(seed, i, out);
+			int cell = (int) (out[0] * n) * n + (int) (out[1] * n);
+			if (!seen[cell]) {
+				seen[cell] = true;
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	@Test
+	public void testStratification() throws Exception {
+		for (int seed = 0; seed < 50; seed++) {
+			int s = Sampler.seed(seed, 7, 0);
+
+			assertEquals(16, countCells(new StratifiedSampler(4), s, 4));
+			assertEquals(4, countCells(new SobolSampler(), s, 2));
+			assertEquals(16, countCells(new SobolSampler(), s, 4));
+		}
+	}
+
+	@Test
+	public void testPermute() throws Exception {
+		for (int length : new int[] { 1, 5, 16, 100 }) {
+			boolean[] seen = new boolean[length];
+			for (int i = 0; i < length; i++) {
+				int p = StratifiedSampler.permute(i, length, 0xdeadbeef);
+				assertFalse(seen[p]);
+				seen[p] = true;
+			}
+		}
+	}
+
+	@Test
+	public void testSequences() throws Exception {
+		assertEquals(0.5, HaltonSampler.radicalInverse2(1), 0);
+		assertEquals(0.25, HaltonSampler.radicalInverse2(2), 0);
+		assertEquals(1.0 / 3, HaltonSampler.radicalInverse3(1), 1e-12);
+		assertEquals(1.0 / 9, HaltonSampler.radicalInverse3(3), 1e-12);
+
+		assertEquals(0, SobolSampler.sobol1(0));
+		assertEquals(1 << 31, SobolSampler.sobol1(1));
+		assertEquals(0xc0000000, SobolSampler.sobol1(2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidStrata() throws Exception {
+		new StratifiedSampler(0);
+	}
+
+}
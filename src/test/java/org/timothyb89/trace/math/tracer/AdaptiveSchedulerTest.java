@@ -0,0 +1,95 @@
+package org.timothyb89.trace.math.tracer;
+
+import org.junit.Test;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.TestScenes;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class AdaptiveSchedulerTest {
+
+	private static final int[] BOUNDS = TestScenes.BOUNDS;
+
+	private static PixelSink sink(double[] frame, int[] writes) {
+		int width = BOUNDS[2] - BOUNDS[0] + 1;
+
+		return (row, col, color) -> {
+			int p = (row - BOUNDS[1]) * width + (col - BOUNDS[0]);
+			frame[p * 3] = color.x;
+			frame[p * 3 + 1] = color.y;
+			frame[p * 3 + 2] = color.z;
+			writes[p]++;
+		};
+	}
+
+	@Test
+	public void testMatchesTiles() throws Exception {
+		Scene scene = TestScenes.cow();
+		int pixels = (BOUNDS[2] - BOUNDS[0] + 1) * (BOUNDS[3] - BOUNDS[1] + 1);
+
+		double[] expected = new double[pixels * 3];
+		for (Tile tile : new TileScheduler().split(BOUNDS)) {
+			TileTask.trace(scene, tile, 0, Antialiasing.NONE, sink(expected, new int[pixels]));
+		}
+
+		// split as finely as possible, then not at all beyond the forced splits
+		for (long cost : new long[] { 0, Long.MAX_VALUE }) {
+			AdaptiveScheduler scheduler = new AdaptiveScheduler(4, cost);
+			double[] actual = new double[pixels * 3];
+			int[] writes = new int[pixels];
+			Progress progress = new Progress();
+
+			ForkJoinPool pool = new ForkJoinPool(3);
+			pool.invoke(scheduler.root(scene, BOUNDS, 3,
+					0, Antialiasing.NONE, sink(actual, writes), progress));
+			pool.shutdown();
+
+			assertEquals(pixels, progress.completed());
+			assertTrue(Arrays.stream(writes).allMatch(w -> w > 0));
+			assertArrayEquals(expected, actual, 0);
+
+			if (cost == 0) {
+				// every leaf is at most 4x4
+				assertTrue(scheduler.countLeaves() >= pixels / 20);
+			} else {
+				assertTrue(scheduler.countLeaves() >= 3 * 4);
+				assertTrue(scheduler.countLeaves() < pixels / 20);
+			}
+		}
+	}
+
+	@Test
+	public void testReproducibleAcrossThreads() throws Exception {
+		Scene scene = TestScenes.cow();
+		int pixels = (BOUNDS[2] - BOUNDS[0] + 1) * (BOUNDS[3] - BOUNDS[1] + 1);
+		Antialiasing aa = new Antialiasing(Antialiasing.Mode.ADAPTIVE, 16, 4, 0.01);
+
+		double[] expected = new double[pixels * 3];
+		for (Tile tile : new TileScheduler().split(BOUNDS)) {
+			TileTask.trace(scene, tile, 0, aa, sink(expected, new int[pixels]));
+		}
+
+		for (int threads : new int[] { 1, 3 }) {
+			double[] actual = new double[pixels * 3];
+
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			pool.invoke(new AdaptiveScheduler(4, 0).root(scene, BOUNDS, threads,
+					0, aa, sink(actual, new int[pixels]), new Progress()));
+			pool.shutdown();
+
+			assertArrayEquals(expected, actual, 0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSize() throws Exception {
+		new AdaptiveScheduler(0, 1);
+	}
+
+}
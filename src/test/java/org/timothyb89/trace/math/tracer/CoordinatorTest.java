@@ -0,0 +1,291 @@
+package org.timothyb89.trace.math.tracer;
+
+import org.junit.After;
+import org.junit.Test;
+import org.timothyb89.trace.math.Framebuffer;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.TestScenes;
+import org.timothyb89.trace.util.ContentHash;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class CoordinatorTest {
+
+	private static final int[] BOUNDS = TestScenes.BOUNDS;
+	private static final int WIDTH = BOUNDS[2] - BOUNDS[0] + 1;
+	private static final int HEIGHT = BOUNDS[3] - BOUNDS[1] + 1;
+
+	private static final byte[] HASH = new ContentHash().update("cow").digest();
+
+	private final List<Worker> workers = new ArrayList<>();
+	private final List<ServerSocket> fakes = new ArrayList<>();
+
+	@After
+	public void tearDown() throws Exception {
+		workers.forEach(Worker::close);
+		for (ServerSocket fake : fakes) {
+			fake.close();
+		}
+	}
+
+	private InetSocketAddress startWorker(Scene scene, byte[] hash, int threads)
+			throws IOException {
+		Worker worker = new Worker(threads);
+		worker.addScene(hash, scene);
+		workers.add(worker);
+
+		// workers only listen on the loopback interface by default
+		return InetSocketAddress.createUnresolved(
+				InetAddress.getLoopbackAddress().getHostAddress(), worker.listen(0));
+	}
+
+	/**
+	 * Starts a worker that accepts the scene, then hangs up after receiving
+	 * some tiles, or never replies at all.
+	 * @param tiles the tiles to receive before hanging up, or -1 to hang
+	 */
+	private InetSocketAddress startFakeWorker(int tiles) throws IOException {
+		ServerSocket server = new ServerSocket(0);
+		fakes.add(server);
+
+		Thread thread = new Thread(() -> {
+			try (Socket socket = server.accept();
+					DataInputStream in = new DataInputStream(socket.getInputStream());
+					DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+				in.readInt();
+				in.readInt();
+				in.readFully(new byte[ContentHash.LENGTH]);
+				in.readUTF();
+				in.readInt();
+				WorkerProtocol.readAntialiasing(in);
+
+				out.writeByte(WorkerProtocol.OK);
+				out.writeInt(4);
+				out.flush();
+
+				for (int i = 0; tiles < 0 || i < tiles; i++) {
+					if (in.read() != WorkerProtocol.TILE) {
+						break;
+					}
+
+					in.readFully(new byte[6 * 4]);
+				}
+			} catch (IOException ex) {
+				// the test is over
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+
+		return InetSocketAddress.createUnresolved("localhost", server.getLocalPort());
+	}
+
+	/**
+	 * Starts a worker that accepts the scene, then reports every tile it's
+	 * sent as failed.
+	 */
+	private InetSocketAddress startFailingWorker() throws IOException {
+		ServerSocket server = new ServerSocket(0);
+		fakes.add(server);
+
+		Thread thread = new Thread(() -> {
+			try (Socket socket = server.accept();
+					DataInputStream in = new DataInputStream(socket.getInputStream());
+					DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+				in.readInt();
+				in.readInt();
+				in.readFully(new byte[ContentHash.LENGTH]);
+				in.readUTF();
+				in.readInt();
+				WorkerProtocol.readAntialiasing(in);
+
+				out.writeByte(WorkerProtocol.OK);
+				out.writeInt(1);
+				out.flush();
+
+				while (in.read() == WorkerProtocol.TILE) {
+					int id = in.readInt();
+					in.readFully(new byte[5 * 4]);
+
+					out.writeByte(WorkerProtocol.FAILED);
+					out.writeInt(id);
+					out.writeUTF("out of cheese");
+					out.flush();
+				}
+			} catch (IOException ex) {
+				// the test is over
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+
+		return InetSocketAddress.createUnresolved("localhost", server.getLocalPort());
+	}
+
+	/**
+	 * Traces some passes over the frame with the coordinator, or locally if
+	 * it's null.
+	 */
+	private Framebuffer render(
+			Scene scene, Coordinator coordinator, Antialiasing antialiasing,
+			int passes) {
+		Framebuffer fb = new Framebuffer(WIDTH, HEIGHT, 8, Precision.DOUBLE);
+		List<Tile> tiles = new TileScheduler(8, TileScheduler.Order.HILBERT).split(BOUNDS);
+
+		for (int pass = 0; pass < passes; pass++) {
+			PixelSink sink = pass == 0
+					? (row, col, color) -> fb.set(col - BOUNDS[0], row - BOUNDS[1], color)
+					: (row, col, color) -> fb.add(col - BOUNDS[0], row - BOUNDS[1], color);
+			Progress progress = new Progress();
+
+			if (coordinator == null) {
+				for (Tile tile : tiles) {
+					new TileTask(scene, tile, 0, antialiasing, pass, sink, progress).run();
+				}
+			} else {
+				List<Tile> left = coordinator.trace(scene, tiles, 0,
+						antialiasing, pass, sink, progress);
+				assertTrue(left.isEmpty());
+			}
+
+			assertEquals(tiles.size(), progress.completed());
+		}
+
+		return fb;
+	}
+
+	private static void assertSameImage(Framebuffer expected, Framebuffer actual) {
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				assertEquals(expected.samples(x, y), actual.samples(x, y));
+				for (int c = 0; c < 3; c++) {
+					assertEquals(expected.get(x, y, c), actual.get(x, y, c), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMatchesLocal() throws Exception {
+		Scene scene = TestScenes.cow();
+		Antialiasing antialiasing = Antialiasing.uniform(4);
+
+		// the last worker has a different scene and is skipped
+		Coordinator coordinator = new Coordinator(Arrays.asList(
+				startWorker(TestScenes.cow(), HASH, 2),
+				startWorker(TestScenes.cow(), HASH, 1),
+				startWorker(TestScenes.cow(), new ContentHash().update("moo").digest(), 1)),
+				HASH, 60);
+
+		Framebuffer remote = render(scene, coordinator, antialiasing, 2);
+		assertEquals(2, coordinator.countWorkers());
+		coordinator.close();
+
+		assertSameImage(render(scene, null, antialiasing, 2), remote);
+	}
+
+	@Test(timeout = 30000)
+	public void testFailedAndSlowWorkers() throws Exception {
+		Scene scene = TestScenes.cow();
+
+		Coordinator coordinator = new Coordinator(Arrays.asList(
+				startFakeWorker(3),
+				startFakeWorker(-1),
+				startWorker(TestScenes.cow(), HASH, 2)),
+				HASH, 60);
+
+		// the hung worker's tiles are traced again long before the timeout
+		Framebuffer remote = render(scene, coordinator, Antialiasing.NONE, 2);
+		assertEquals(2, coordinator.countWorkers());
+		coordinator.close();
+
+		assertSameImage(render(scene, null, Antialiasing.NONE, 2), remote);
+	}
+
+	@Test(timeout = 30000)
+	public void testFailingWorker() throws Exception {
+		Scene scene = TestScenes.cow();
+
+		Coordinator coordinator = new Coordinator(Arrays.asList(
+				startFailingWorker(),
+				startWorker(TestScenes.cow(), HASH, 1)),
+				HASH, 60);
+
+		// failed tiles go to the other worker instead of being left black
+		Framebuffer remote = render(scene, coordinator, Antialiasing.NONE, 2);
+		assertEquals(2, coordinator.countWorkers());
+		coordinator.close();
+
+		assertSameImage(render(scene, null, Antialiasing.NONE, 2), remote);
+	}
+
+	@Test(timeout = 30000)
+	public void testOnlyFailingWorker() throws Exception {
+		Scene scene = TestScenes.cow();
+		Coordinator coordinator = new Coordinator(
+				Collections.singletonList(startFailingWorker()), HASH, 60);
+
+		// every tile is retried, then left for the caller
+		List<Tile> tiles = new TileScheduler(8, TileScheduler.Order.SCANLINE).split(BOUNDS);
+		Progress progress = new Progress();
+		List<Tile> left = coordinator.trace(scene, tiles, 0, Antialiasing.NONE, 0,
+				(row, col, color) -> fail(), progress);
+
+		assertEquals(tiles.size(), left.size());
+		assertTrue(left.containsAll(tiles));
+		assertEquals(0, progress.completed());
+		assertEquals(1, coordinator.countWorkers());
+		coordinator.close();
+	}
+
+	@Test
+	public void testNoWorkers() throws Exception {
+		Scene scene = TestScenes.cow();
+		Coordinator coordinator = new Coordinator(Collections.singletonList(
+				startWorker(TestScenes.cow(), new ContentHash().update("moo").digest(), 1)),
+				HASH, 60);
+
+		List<Tile> tiles = new TileScheduler(8, TileScheduler.Order.SCANLINE).split(BOUNDS);
+		List<Tile> left = coordinator.trace(scene, tiles, 0, Antialiasing.NONE, 0,
+				(row, col, color) -> fail(), new Progress());
+
+		assertEquals(tiles, left);
+		assertEquals(0, coordinator.countWorkers());
+		coordinator.close();
+	}
+
+	@Test
+	public void testParseAddresses() throws Exception {
+		List<InetSocketAddress> addresses = Coordinator.parseAddresses(
+				"render1:9000, render2,10.0.0.3:7000");
+
+		assertEquals(3, addresses.size());
+		assertEquals("render1", addresses.get(0).getHostString());
+		assertEquals(9000, addresses.get(0).getPort());
+		assertEquals("render2", addresses.get(1).getHostString());
+		assertEquals(Coordinator.DEFAULT_PORT, addresses.get(1).getPort());
+		assertEquals("10.0.0.3", addresses.get(2).getHostString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidAddress() throws Exception {
+		Coordinator.parseAddresses("render1:http");
+	}
+
+}
@@ -0,0 +1,84 @@
+package org.timothyb89.trace.math.tracer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class TileSchedulerTest {
+
+	private static final int[] BOUNDS = { -100, -50, 100, 60 };
+
+	@Test
+	public void testCoversEveryPixelOnce() throws Exception {
+		int width = BOUNDS[2] - BOUNDS[0] + 1;
+		int height = BOUNDS[3] - BOUNDS[1] + 1;
+
+		for (TileScheduler.Order order : TileScheduler.Order.values()) {
+			for (int size : new int[] { 1, 7, 16, 500 }) {
+				int[] counts = new int[width * height];
+				for (Tile tile : new TileScheduler(size, order).split(BOUNDS)) {
+					assertTrue(tile.rows() > 0 && tile.rows() <= size);
+					assertTrue(tile.cols() > 0 && tile.cols() <= size);
+
+					for (int r = tile.row(); r < tile.row() + tile.rows(); r++) {
+						for (int c = tile.col(); c < tile.col() + tile.cols(); c++) {
+							counts[(r - BOUNDS[1]) * width + (c - BOUNDS[0])]++;
+						}
+					}
+				}
+
+				for (int count : counts) {
+					assertEquals(1, count);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testHilbertTilesAreAdjacent() throws Exception {
+		// a square power of two grid of tiles is walked without any jumps
+		int[] bounds = { 0, 0, 127, 127 };
+		List<Tile> tiles = new TileScheduler(16, TileScheduler.Order.HILBERT)
+				.split(bounds);
+
+		assertEquals(64, tiles.size());
+		for (int i = 1; i < tiles.size(); i++) {
+			Tile a = tiles.get(i - 1);
+			Tile b = tiles.get(i);
+
+			int distance = Math.abs(a.row() - b.row()) + Math.abs(a.col() - b.col());
+			assertEquals(16, distance);
+		}
+	}
+
+	@Test
+	public void testMorton() throws Exception {
+		assertEquals(0, TileScheduler.morton(0, 0));
+		assertEquals(1, TileScheduler.morton(1, 0));
+		assertEquals(2, TileScheduler.morton(0, 1));
+		assertEquals(15, TileScheduler.morton(3, 3));
+	}
+
+	@Test
+	public void testScanline() throws Exception {
+		List<Tile> tiles = new TileScheduler(100, TileScheduler.Order.SCANLINE)
+				.split(BOUNDS);
+
+		assertEquals(6, tiles.size());
+		assertEquals(new Tile(-50, -100, 100, 100), tiles.get(0));
+		assertEquals(new Tile(-50, 0, 100, 100), tiles.get(1));
+		assertEquals(new Tile(-50, 100, 100, 1), tiles.get(2));
+		assertEquals(new Tile(50, -100, 11, 100), tiles.get(3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSize() throws Exception {
+		new TileScheduler(0, TileScheduler.Order.MORTON);
+	}
+
+}
@@ -0,0 +1,248 @@
+package org.timothyb89.trace.math.tracer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.timothyb89.trace.math.Framebuffer;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.TestScenes;
+import org.timothyb89.trace.model.checkpoint.Checkpoint;
+import org.timothyb89.trace.util.ContentHash;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class TileTaskTest {
+
+	private static final int[] BOUNDS = TestScenes.BOUNDS;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testProgressivePasses() throws Exception {
+		Scene scene = TestScenes.cow();
+		int width = BOUNDS[2] - BOUNDS[0] + 1;
+		int height = BOUNDS[3] - BOUNDS[1] + 1;
+
+		Framebuffer first = new Framebuffer(width, height, 8, Precision.DOUBLE);
+		Framebuffer fb = new Framebuffer(width, height, 8, Precision.DOUBLE);
+		PixelSink set = (row, col, color) -> {
+			first.set(col - BOUNDS[0], row - BOUNDS[1], color);
+			fb.set(col - BOUNDS[0], row - BOUNDS[1], color);
+		};
+		PixelSink add = (row, col, color) -> fb.add(
+				col - BOUNDS[0], row - BOUNDS[1], color);
+
+		Progress progress = new Progress();
+		int passes = 4;
+		for (int pass = 0; pass < passes; pass++) {
+			for (Tile tile : new TileScheduler(8, TileScheduler.Order.MORTON).split(BOUNDS)) {
+				new TileTask(scene, tile, 0, Antialiasing.NONE, pass, pass == 0 ? set : add, progress).run();
+			}
+		}
+
+		int changed = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				assertEquals(passes, fb.samples(x, y));
+				if (Math.abs(fb.red(x, y) - first.red(x, y)) > 0.05) {
+					changed++;
+				}
+			}
+		}
+
+		// jittered samples smooth edges, but shading within a surface barely
+		// changes
+		assertTrue(changed > 0);
+		assertTrue(changed < width * height / 2);
+	}
+
+	@Test
+	public void testCoarseGrid() throws Exception {
+		Scene scene = TestScenes.cow();
+		int width = BOUNDS[2] - BOUNDS[0] + 1;
+		int height = BOUNDS[3] - BOUNDS[1] + 1;
+
+		Framebuffer full = new Framebuffer(width, height, 6, Precision.DOUBLE);
+		Framebuffer coarse = new Framebuffer(width, height, 6, Precision.DOUBLE);
+		Progress progress = new Progress();
+
+		// tiles that aren't a multiple of the spacing still share one grid
+		for (Tile tile : new TileScheduler(6, TileScheduler.Order.MORTON).split(BOUNDS)) {
+			new TileTask(scene, tile, 0, Antialiasing.NONE, 0,
+					(row, col, color) -> full.set(col - BOUNDS[0], row - BOUNDS[1], color),
+					progress).run();
+			TileTask.coarse(scene, tile, Antialiasing.NONE, BOUNDS, 4,
+					(row, col, color) -> coarse.set(col - BOUNDS[0], row - BOUNDS[1], color),
+					progress).run();
+		}
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				boolean onGrid = x % 4 == 0 && y % 4 == 0;
+				assertEquals(onGrid ? 1 : 0, coarse.samples(x, y));
+				if (onGrid) {
+					assertEquals(full.red(x, y), coarse.red(x, y), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("render.ckpt");
+		byte[] hash = new ContentHash().update("cow").digest();
+		int width = BOUNDS[2] - BOUNDS[0] + 1;
+		int height = BOUNDS[3] - BOUNDS[1] + 1;
+
+		Tracer reference = new Tracer(TestScenes.cow());
+		reference.scheduler(new TileScheduler(8, TileScheduler.Order.MORTON));
+		reference.passes(3);
+		reference.trace();
+		Framebuffer expected = reference.framebuffer();
+
+		// the first pass and half the tiles of the second
+		Scene scene = TestScenes.cow();
+		Framebuffer partial = new Framebuffer(width, height, 8, Precision.FLOAT);
+		Progress progress = new Progress();
+		List<Tile> tiles = new TileScheduler(8, TileScheduler.Order.MORTON).split(BOUNDS);
+		for (int pass = 0; pass < 2; pass++) {
+			PixelSink sink = pass == 0
+					? (row, col, color) -> partial.set(col - BOUNDS[0], row - BOUNDS[1], color)
+					: (row, col, color) -> partial.add(col - BOUNDS[0], row - BOUNDS[1], color);
+			for (int i = 0; i < (pass == 0 ? tiles.size() : tiles.size() / 2); i++) {
+				new TileTask(scene, tiles.get(i), 0, Antialiasing.NONE, pass, sink, progress).run();
+			}
+		}
+		Checkpoint.write(new Checkpoint(hash, 1, partial), path);
+
+		Tracer resumed = new Tracer(TestScenes.cow());
+		resumed.scheduler(new TileScheduler(8, TileScheduler.Order.HILBERT));
+		resumed.passes(3);
+		resumed.checkpoints(path, hash, 60);
+		resumed.trace();
+
+		assertTrue(resumed.complete());
+		Framebuffer actual = resumed.framebuffer();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				assertEquals(3, actual.samples(x, y));
+				for (int c = 0; c < 3; c++) {
+					assertEquals(expected.get(x, y, c), actual.get(x, y, c), 0);
+				}
+			}
+		}
+
+		// a checkpoint from a different scene is ignored
+		Checkpoint.write(new Checkpoint(new ContentHash().update("moo").digest(), 1, partial), path);
+		Tracer fresh = new Tracer(TestScenes.cow());
+		fresh.scheduler(new TileScheduler(8, TileScheduler.Order.MORTON));
+		fresh.checkpoints(path, hash, 60);
+		fresh.trace();
+		assertEquals(1, fresh.framebuffer().samples(0, 0));
+		assertTrue(Files.exists(path));
+	}
+
+	@Test
+	public void testStoppedTilesAreSkipped() throws Exception {
+		Scene scene = TestScenes.cow();
+		Progress progress = new Progress();
+		progress.stop();
+
+		Tile tile = new Tile(0, 0, 4, 4);
+		new TileTask(scene, tile, 0, Antialiasing.NONE, 0,
+				(row, col, color) -> fail(), progress).run();
+
+		assertTrue(progress.stopped());
+		assertEquals(0, progress.completed());
+	}
+
+	@Test
+	public void testTimeBudget() throws Exception {
+		int width = BOUNDS[2] - BOUNDS[0] + 1;
+		int height = BOUNDS[3] - BOUNDS[1] + 1;
+
+		// passes that fit are traced in full
+		Tracer tracer = new Tracer(TestScenes.cow());
+		tracer.passes(2);
+		tracer.timeBudget(60);
+		tracer.trace();
+		assertTrue(tracer.complete());
+		assertEquals(2, tracer.framebuffer().minSamples(0, 0, width, height));
+
+		// an expired budget still leaves a whole image
+		tracer = new Tracer(TestScenes.cow());
+		tracer.passes(100);
+		tracer.antialiasing(Antialiasing.uniform(64));
+		tracer.timeBudget(0.001);
+		tracer.trace();
+		assertFalse(tracer.complete());
+		assertTrue(tracer.framebuffer().minSamples(0, 0, width, height) >= 1);
+	}
+
+	@Test
+	public void testAntialiasing() throws Exception {
+		Scene scene = TestScenes.cow();
+		int pixels = (BOUNDS[2] - BOUNDS[0] + 1) * (BOUNDS[3] - BOUNDS[1] + 1);
+		Tile frame = new Tile(BOUNDS[1], BOUNDS[0],
+				BOUNDS[3] - BOUNDS[1] + 1, BOUNDS[2] - BOUNDS[0] + 1);
+		PixelSink sink = (row, col, color) -> { };
+
+		TraceTask.resetCounters();
+		TileTask.trace(scene, frame, 8, Antialiasing.uniform(5), sink);
+		assertEquals(5L * pixels, TraceTask.samples());
+
+		// flat and empty pixels stop after the first batch, edges take more
+		Antialiasing adaptive = new Antialiasing(
+				Antialiasing.Mode.ADAPTIVE, 64, 4, Antialiasing.DEFAULT_THRESHOLD);
+		TraceTask.resetCounters();
+		TileTask.trace(scene, frame, 0, adaptive, sink);
+		assertTrue(TraceTask.samples() > 4L * pixels);
+		assertTrue(TraceTask.samples() < 16L * pixels);
+	}
+
+	@Test
+	public void testProgressiveMatchesUniform() throws Exception {
+		Scene scene = TestScenes.cow();
+		int width = BOUNDS[2] - BOUNDS[0] + 1;
+		int height = BOUNDS[3] - BOUNDS[1] + 1;
+		Tile frame = new Tile(BOUNDS[1], BOUNDS[0], height, width);
+
+		Framebuffer uniform = new Framebuffer(width, height, 8, Precision.DOUBLE);
+		TileTask.trace(scene, frame, 0, Antialiasing.uniform(4),
+				(row, col, color) -> uniform.set(col - BOUNDS[0], row - BOUNDS[1], color));
+
+		// one sample per pass, starting with the first rather than the center
+		Antialiasing progressive = new Antialiasing(
+				Antialiasing.Mode.PROGRESSIVE, 4, 4, 0);
+		Framebuffer fb = new Framebuffer(width, height, 8, Precision.DOUBLE);
+		for (int pass = 0; pass < 4; pass++) {
+			TileTask.trace(scene, frame, 8, progressive, pass, pass == 0
+					? (row, col, color) -> fb.set(col - BOUNDS[0], row - BOUNDS[1], color)
+					: (row, col, color) -> fb.add(col - BOUNDS[0], row - BOUNDS[1], color));
+		}
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				assertEquals(4, fb.samples(x, y));
+				for (int c = 0; c < 3; c++) {
+					assertEquals(uniform.get(x, y, c), fb.get(x, y, c), 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSamples() throws Exception {
+		Antialiasing.uniform(0);
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.timothyb89.trace.math.tracer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.timothyb89.trace.math.Camera;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.TestScenes;
+import org.timothyb89.trace.util.ContentHash;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class WorkerTest {
+
+		private static final byte[] HASH = new ContentHash().update("cow").digest();
+
+	private Camera camera;
+	private Worker worker;
+	private int port;
+
+	@Before
+	public void setUp() throws Exception {
+		Scene scene = TestScenes.cow();
+		camera = scene.camera();
+
+		worker = new Worker(1);
+		worker.addScene(HASH, scene);
+		port = worker.listen(0);
+	}
+
+	@After
+	public void tearDown() {
+		worker.close();
+	}
+
+	@Test
+	public void testFits() throws Exception {
+		assertTrue(Worker.fits(camera, new Tile(-15, -20, 8, 8)));
+		assertTrue(Worker.fits(camera, new Tile(8, 16, 8, 5)));
+
+		assertFalse(Worker.fits(camera, new Tile(-16, -20, 8, 8)));
+		assertFalse(Worker.fits(camera, new Tile(8, 16, 9, 5)));
+		assertFalse(Worker.fits(camera, new Tile(0, 0, 0, 8)));
+		assertFalse(Worker.fits(camera, new Tile(0, 0, -8, 8)));
+		assertFalse(Worker.fits(camera, new Tile(0, 0, Integer.MAX_VALUE, 1)));
+	}
+
+	@Test(timeout = 10000)
+	public void testRejectsInvalidTile() throws Exception {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+			out.writeInt(WorkerProtocol.MAGIC);
+			out.writeInt(WorkerProtocol.VERSION);
+			out.write(HASH);
+			WorkerProtocol.writeSettings(out, Precision.DOUBLE, 0, Antialiasing.NONE);
+			out.flush();
+
+			assertEquals(WorkerProtocol.OK, in.read());
+			assertEquals(1, in.readInt());
+
+			// a huge tile would need gigabytes of pixels
+			out.writeByte(WorkerProtocol.TILE);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(1 << 20);
+			out.writeInt(1 << 20);
+			out.flush();
+
+			// the worker hangs up without replying
+			assertEquals(-1, in.read());
+		}
+	}
+
+}
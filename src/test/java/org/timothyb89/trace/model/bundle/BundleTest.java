@@ -0,0 +1,203 @@
+package org.timothyb89.trace.model.bundle;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Material;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.math.TestScenes;
+import org.timothyb89.trace.math.Vector;
+import org.timothyb89.trace.math.accel.BVH;
+import org.timothyb89.trace.math.accel.BVHBuilder;
+import org.timothyb89.trace.math.accel.Intersection;
+import org.timothyb89.trace.util.ContentHash;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class BundleTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Scene createScene() {
+		Scene scene = TestScenes.cow();
+		Model model = scene.models().get(0);
+
+		Material red = Material.of(Vector.of(1, 0, 0), 0.5, 10, 0);
+		for (int i = 0; i < 100; i++) {
+			model.face(i).material(red);
+		}
+
+		return scene;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Scene scene = createScene();
+		byte[] hash = new ContentHash().update("test").digest();
+
+		Path path = folder.newFile("test.bundle").toPath();
+		BundleWriter.write(scene, hash, path);
+
+		assertArrayEquals(hash, BundleReader.readHash(path));
+
+		Scene loaded = BundleReader.readPath(path);
+		assertArrayEquals(
+				scene.camera().focalPoint().data(),
+				loaded.camera().focalPoint().data(), 0);
+		assertArrayEquals(scene.camera().bounds(), loaded.camera().bounds());
+		assertEquals(1, loaded.lights().size());
+		assertEquals(0.5, loaded.ambientLight().red(), 0);
+
+		Model expected = scene.model(0);
+		Model actual = loaded.model(0);
+		assertArrayEquals(expected.vertexData().data(), actual.vertexData().data(), 0);
+		assertEquals(expected.countFaces(), actual.countFaces());
+
+		for (int i = 0; i < expected.countFaces(); i++) {
+			assertArrayEquals(expected.face(i).vertices(), actual.face(i).vertices());
+		}
+
+		// materials are shared between faces again after loading
+		assertEquals(1, actual.face(0).material().diffuse().val(0, 0), 0);
+		assertSame(actual.face(0).material(), actual.face(99).material());
+		assertSame(Material.DEFAULT, actual.face(100).material());
+
+		// the stored BVH is used directly and answers queries identically
+		assertTrue(loaded.accelerator() instanceof BVH);
+
+		List<Face> expectedFaces = scene.faces().collect(Collectors.toList());
+		List<Face> actualFaces = loaded.faces().collect(Collectors.toList());
+
+		Random rand = new Random(1234);
+		Vector center = expected.centerMass();
+		for (int i = 0; i < 200; i++) {
+			Vector origin = center.copy().add(Vector.of(
+					rand.nextGaussian(),
+					rand.nextGaussian(),
+					rand.nextGaussian()).normalize().scale(1500));
+			Vector direction = center.copy().sub(origin).normalize();
+
+			Intersection a = scene.accelerator().closest(origin, direction,
+					0, Double.POSITIVE_INFINITY);
+			Intersection b = loaded.accelerator().closest(origin, direction,
+					0, Double.POSITIVE_INFINITY);
+
+			if (a == null) {
+				assertNull(b);
+			} else {
+				assertNotNull(b);
+				assertEquals(expectedFaces.indexOf(a.face()), actualFaces.indexOf(b.face()));
+				assertEquals(a.distance(), b.distance(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testPrecision() throws Exception {
+		Scene scene = createScene();
+		scene.precision(Precision.FLOAT);
+		scene.accelerator(new BVHBuilder(BVHBuilder.Strategy.SAH, Precision.FLOAT)
+				.build(scene.faces().toArray(Face[]::new)));
+
+		Path path = folder.newFile("float.bundle").toPath();
+		BundleWriter.write(scene, new ContentHash().update("test").digest(), path);
+
+		Scene loaded = BundleReader.readPath(path);
+		assertEquals(Precision.FLOAT, loaded.precision());
+		assertEquals(Precision.FLOAT,
+				((BVH) loaded.accelerator()).triangles().precision());
+	}
+
+	@Test
+	public void testCorruptCount() throws Exception {
+		Path path = folder.newFile("corrupt.bundle").toPath();
+		BundleWriter.write(createScene(), new ContentHash().update("cow").digest(), path);
+
+		// the material count follows the header and camera
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+		int offset = 4 + 4 + ContentHash.LENGTH + 9 * 8 + 8 + 4 * 4;
+		assertEquals(1, bytes.getInt(offset));
+
+		for (int count : new int[] { -5, Integer.MAX_VALUE }) {
+			bytes.putInt(offset, count);
+			Files.write(path, bytes.array());
+
+			try {
+				BundleReader.readPath(path);
+				fail("Expected a BundleException");
+			} catch (BundleException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void testCorruptTree() throws Exception {
+		Path path = folder.newFile("tree.bundle").toPath();
+		Scene scene = createScene();
+		BundleWriter.write(scene, new ContentHash().update("cow").digest(), path);
+
+		// the tree ends the bundle: offsets, then counts, one int per node
+		byte[] original = Files.readAllBytes(path);
+		int nodeCount = ((BVH) scene.accelerator()).countNodes();
+		int offsets = original.length - 8 * nodeCount;
+		int counts = original.length - 4 * nodeCount;
+
+		ByteBuffer root = ByteBuffer.wrap(original.clone());
+		assertEquals(0, root.getInt(counts));
+
+		// a right child pointing back at the root, a leaf past the last face
+		// and a negative face count
+		int leaf = 0;
+		while (root.getInt(counts + 4 * leaf) == 0) {
+			leaf++;
+		}
+
+		int[][] corruptions = {
+			{ offsets, 0 },
+			{ offsets + 4 * leaf, Integer.MAX_VALUE },
+			{ counts + 4 * leaf, -1 }
+		};
+
+		for (int[] corruption : corruptions) {
+			ByteBuffer bytes = ByteBuffer.wrap(original.clone());
+			bytes.putInt(corruption[0], corruption[1]);
+			Files.write(path, bytes.array());
+
+			try {
+				BundleReader.readPath(path);
+				fail("Expected a BundleException");
+			} catch (BundleException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidBundle() throws Exception {
+		Path path = folder.newFile("bad.bundle").toPath();
+		Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+		assertNull(BundleReader.readHash(path));
+		assertNull(BundleReader.readHash(folder.getRoot().toPath().resolve("missing")));
+
+		try {
+			BundleReader.readPath(path);
+			fail("Expected a BundleException");
+		} catch (BundleException expected) {
+		}
+	}
+
+}
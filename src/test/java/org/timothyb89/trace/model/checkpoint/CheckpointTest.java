@@ -0,0 +1,87 @@
+package org.timothyb89.trace.model.checkpoint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.timothyb89.trace.math.Framebuffer;
+import org.timothyb89.trace.math.Precision;
+import org.timothyb89.trace.util.ContentHash;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class CheckpointTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Checkpoint createCheckpoint(Precision precision) {
+		Framebuffer fb = new Framebuffer(13, 7, 4, precision);
+		for (int y = 0; y < 7; y++) {
+			for (int x = 0; x < 13; x++) {
+				fb.set(x, y, x * 0.1, y * 0.2, 0.3);
+				if (x < 5) {
+					fb.add(x, y, 1, 1, 1);
+				}
+			}
+		}
+
+		byte[] hash = new ContentHash().update("scene").digest();
+		return new Checkpoint(hash, 1, fb);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (Precision precision : Precision.values()) {
+			Checkpoint checkpoint = createCheckpoint(precision);
+			Path path = folder.newFolder().toPath().resolve("render.ckpt");
+
+			Checkpoint.write(checkpoint, path);
+			assertFalse(Files.exists(path.resolveSibling("render.ckpt.tmp")));
+
+			Checkpoint read = Checkpoint.read(path);
+			assertArrayEquals(checkpoint.hash(), read.hash());
+			assertEquals(1, read.pass());
+
+			Framebuffer expected = checkpoint.framebuffer();
+			Framebuffer actual = read.framebuffer();
+			assertEquals(precision, actual.precision());
+			assertEquals(4, actual.tileSize());
+			for (int y = 0; y < 7; y++) {
+				for (int x = 0; x < 13; x++) {
+					assertEquals(expected.samples(x, y), actual.samples(x, y));
+					for (int c = 0; c < 3; c++) {
+						assertEquals(expected.get(x, y, c), actual.get(x, y, c), 0);
+					}
+				}
+			}
+
+			assertEquals(2, actual.minSamples(0, 0, 5, 7));
+			assertEquals(1, actual.minSamples(0, 0, 13, 7));
+		}
+	}
+
+	@Test(expected = CheckpointException.class)
+	public void testTruncated() throws Exception {
+		Path path = folder.newFile("render.ckpt").toPath();
+		Checkpoint.write(createCheckpoint(Precision.FLOAT), path);
+
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length / 2));
+		Checkpoint.read(path);
+	}
+
+	@Test(expected = CheckpointException.class)
+	public void testNotACheckpoint() throws Exception {
+		Path path = folder.newFile("render.ckpt").toPath();
+		Files.write(path, new byte[64]);
+		Checkpoint.read(path);
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.timothyb89.trace.model.ply;
+
+import org.junit.Test;
+import org.timothyb89.trace.math.Face;
+import org.timothyb89.trace.math.Matrix;
+import org.timothyb89.trace.math.Model;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class TriangulatorTest {
+
+	private Matrix vertices(double[]... points) {
+		Matrix m = new Matrix(4, points.length);
+		for (int i = 0; i < points.length; i++) {
+			for (int axis = 0; axis < 3; axis++) {
+				m.data()[axis * points.length + i] = points[i][axis];
+			}
+
+			m.data()[3 * points.length + i] = 1;
+		}
+
+		return m;
+	}
+
+	private double area(Matrix v, List<int[]> triangles) {
+		double sum = 0;
+		for (int[] t : triangles) {
+			double ax = v.val(0, t[0]), ay = v.val(1, t[0]);
+			double bx = v.val(0, t[1]), by = v.val(1, t[1]);
+			double cx = v.val(0, t[2]), cy = v.val(1, t[2]);
+
+			sum += Math.abs((bx - ax) * (cy - ay) - (by - ay) * (cx - ax)) / 2;
+		}
+
+		return sum;
+	}
+
+	@Test
+	public void testEarClipConcave() throws Exception {
+		// an L shape in the z = 0 plane, concave at vertex 3
+		Matrix v = vertices(
+				new double[] { 0, 0, 0 },
+				new double[] { 2, 0, 0 },
+				new double[] { 2, 1, 0 },
+				new double[] { 1, 1, 0 },
+				new double[] { 1, 2, 0 },
+				new double[] { 0, 2, 0 });
+
+		Triangulator ear = new Triangulator(Triangulator.Mode.EAR, v, 1);
+		ear.add(new int[] { 2, 3, 4, 5, 0, 1 });
+		assertEquals(4, ear.triangles().size());
+		assertEquals(3, area(v, ear.triangles()), 1e-9);
+
+		// a fan from vertex 2 covers area outside the L
+		Triangulator fan = new Triangulator(Triangulator.Mode.FAN, v, 1);
+		fan.add(new int[] { 2, 3, 4, 5, 0, 1 });
+		assertEquals(4, fan.triangles().size());
+		assertNotEquals(3, area(v, fan.triangles()), 1e-9);
+	}
+
+	@Test
+	public void testDropsDegenerateAndDuplicates() throws Exception {
+		Matrix v = vertices(
+				new double[] { 0, 0, 0 },
+				new double[] { 1, 0, 0 },
+				new double[] { 2, 0, 0 },
+				new double[] { 0, 1, 0 });
+
+		Triangulator t = new Triangulator(Triangulator.Mode.FAN, v, 4);
+		t.add(new int[] { 0, 1, 3 });
+		t.add(new int[] { 0, 1, 2 }); // collinear
+		t.add(new int[] { 3, 1, 0 }); // same as the first
+		t.add(new int[] { 0, 0, 3 }); // repeated vertex
+
+		assertEquals(1, t.triangles().size());
+		assertEquals(2, t.degenerate());
+		assertEquals(1, t.duplicates());
+		assertArrayEquals(new int[] { 0, 1, 1, 1, 1 }, t.offsets());
+	}
+
+	@Test
+	public void testSourceFaces() throws Exception {
+		PLYParser parser = PLYParser.readPath(Paths.get("data/unitplane.ply"));
+
+		Model polygons = parser.toModel();
+		assertEquals(1, polygons.countFaces());
+
+		Model triangles = parser.toModel(Triangulator.Mode.FAN);
+		assertEquals(2, triangles.countFaces());
+		assertEquals(1, triangles.countSourceFaces());
+
+		// both triangles answer to the quad's index in the file
+		List<Face> faces = triangles.sourceFaces(0, 99999);
+		assertEquals(2, faces.size());
+		for (Face f : faces) {
+			assertEquals(0, f.index());
+			assertEquals(3, f.size());
+		}
+
+		assertTrue(triangles.sourceFaces(1, 5).isEmpty());
+	}
+
+}
@@ -0,0 +1,45 @@
+package org.timothyb89.trace.model.scene;
+
+import org.junit.Test;
+import org.timothyb89.trace.math.Model;
+import org.timothyb89.trace.math.Scene;
+import org.timothyb89.trace.model.ply.PLYParser;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author timothyb
+ */
+public class SceneParserTest {
+
+	private Scene createScene() {
+		Model model = PLYParser.readPath(Paths.get("data/tetrahedron.ply")).toModel();
+
+		return new Scene(null, Collections.singletonList(model));
+	}
+
+	@Test
+	public void testInstance() throws Exception {
+		Scene scene = createScene();
+		new SceneParser(scene).read("I 0 3 0 0 0 10 0 0 1 90");
+
+		assertEquals(3, scene.instances().size());
+	}
+
+	@Test
+	public void testNegativeInstanceModel() throws Exception {
+		SceneParser parser = new SceneParser(createScene());
+		parser.read("");
+
+		try {
+			parser.read("I -1 3 0 0 0 10 0 0 1 90");
+			fail("Expected a SceneParseException");
+		} catch (SceneParseException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("line #2"));
+		}
+	}
+
+}